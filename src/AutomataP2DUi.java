@@ -1,21 +1,34 @@
 import core.*;
 import core.definition.NdArrayFloatI;
+import core.definition.StateStats;
 import core.definition.automata.AutomataI;
+import core.definition.automata.ComputePool;
+import core.io.PngExporter;
 import core.simulator.AutomataSimulator;
+import core.simulator.CellEdit;
+import core.simulator.CellRegion;
+import core.simulator.RunStats;
+import core.simulator.StatePublisher;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import processing.core.PApplet;
 import processing.core.PGraphics;
+import processing.core.PImage;
+import processing.core.PShape;
 import processing.event.KeyEvent;
 import processing.event.MouseEvent;
+import processing.opengl.PGraphicsOpenGL;
 import util.U;
 import util.misc.Log;
 import util.models.Pair;
 
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * MOUSE CONTROLS <br>
@@ -42,6 +55,12 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
      */
     private static final int ACTION_EXECUTE_RUNNABLE = 121230123;
 
+    /**
+     * Generations advanced by the fast-forward key ({@code F}, or {@code SHIFT + F} for the large variant)
+     * */
+    private static final int FAST_FORWARD_GENERATIONS = 1000;
+    private static final int FAST_FORWARD_GENERATIONS_LARGE = 100_000;
+
     /**
      * Maximum number of frame draw requests at once
      *
@@ -49,6 +68,27 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
      * */
     private static final int MAX_FRAME_DRAW_REQUEST = 5;
 
+    /**
+     * Maximum rate at which high frequency simulator events (state, generation and region changes) are delivered to the UI,
+     * so that the UI event queue never falls behind the simulation
+     * */
+    private static final float SIMULATOR_EVENT_RATE_HZ = 60;
+
+    /**
+     * Smallest cell size (in pixels) at which the grid overlay is drawn. Below it, grid lines would hide the cells
+     * */
+    private static final float GRID_MIN_CELL_SIZE_PIX = 3;
+
+    /**
+     * Nearest-neighbour texture sampling, {@code processing.opengl.Texture.POINT} (not public)
+     * */
+    private static final int TEXTURE_SAMPLING_POINT = 2;
+
+    /**
+     * Fewest cells to colorize in a frame for the work to be split across the render workers
+     * */
+    private static final int RENDER_MIN_PARALLEL_CELLS = 64 * 1024;
+
     public enum Theme {
 
         LIGHT(false,
@@ -120,7 +160,12 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
     }
 
     public enum CellDrawer {
-        SQUARE(new CellDrawTask() {
+
+        /**
+         * Rendered through the {@link #framebuffer}: cells are written into a pixel buffer at one pixel per cell, and the
+         * grid lines are a cached overlay. The {@link #cellDrawTask} is the immediate mode equivalent
+         * */
+        SQUARE(true, new CellDrawTask() {
             @Override
             public void initCellDrawStyle(@NotNull PGraphics g, float strokeWeight, int strokeColor) {
                 if (strokeWeight == 0) {
@@ -139,7 +184,7 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
         }),
 
 
-        CIRCLE(new CellDrawTask() {
+        CIRCLE(false, new CellDrawTask() {
             @Override
             public void initCellDrawStyle(@NotNull PGraphics g, float strokeWeight, int strokeColor) {
                 // Don't draw stroke
@@ -154,10 +199,16 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
         }),
         ;
 
+        /**
+         * Whether cells are drawn as pixels of a framebuffer image scaled to the viewport, instead of a draw call per cell
+         * */
+        public final boolean framebuffer;
+
         @NotNull
         public final CellDrawTask cellDrawTask;
 
-        CellDrawer(@NotNull CellDrawTask cellDrawTask) {
+        CellDrawer(boolean framebuffer, @NotNull CellDrawTask cellDrawTask) {
+            this.framebuffer = framebuffer;
             this.cellDrawTask = cellDrawTask;
         }
     }
@@ -184,6 +235,22 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
     float mCellSizePix = 20;
     float mZoom = 1;
 
+    /* Framebuffer: visible cells at one pixel per cell, and the grid overlay */
+    @Nullable
+    private PImage mCellImage;
+    private long mCellImageSequence = -1;       // publication drawn in the image, -1 if invalid
+    private int mCellImageStartRow, mCellImageStartCol;
+    private int @Nullable [] mCellImagePalette;
+    @NotNull
+    private final TileRasterizer mTileRasterizer = new TileRasterizer();
+    @Nullable
+    private ComputePool mRenderPool;
+    @Nullable
+    private PShape mGridOverlay;
+    private float mGridCellSizePix;
+    private int mGridRows, mGridCols, mGridColor;
+    private float mGridWeight;
+
     public AutomataP2DUi(@Nullable AutomataSimulator simulator) {
         setSimulator(simulator);
     }
@@ -202,6 +269,11 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
     public void setup() {
         frameRate(60);
 
+        // Framebuffer cells are scaled up as sharp squares
+        if (g instanceof PGraphicsOpenGL ogl) {
+            ogl.textureSampling(TEXTURE_SAMPLING_POINT);
+        }
+
         // Surface
         surface.setTitle("Cellular Automata");
         surface.setResizable(true);
@@ -209,6 +281,16 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
         invalidateFrame(2);
     }
 
+    @Override
+    public void dispose() {
+        final ComputePool pool = mRenderPool;
+        if (pool != null) {
+            pool.shutdown();
+        }
+
+        super.dispose();
+    }
+
     @Override
     public void draw() {
         preDraw();
@@ -269,9 +351,14 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
         background(theme.backgroundDark);
 
         final AutomataSimulator sim = mSimulator;
+        StatePublisher.Snapshot snapshot = null;
         NdArrayFloatI state = null;
         if (sim != null) {
-            state = sim.getState();
+            // Consistent snapshot, never blocks the simulation
+            snapshot = sim.acquirePublishedState();
+            if (snapshot != null) {
+                state = snapshot.state();
+            }
         }
 
         if (state == null) {
@@ -309,14 +396,25 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
                 strokeWeight = 0;   // No Stroke
             }
 
-            mCellDrawer.cellDrawTask.initCellDrawStyle(graphics, strokeWeight, strokeColor);
+            if (cell_drawer.framebuffer) {
+                drawCellsFramebuffer(snapshot, automata, theme, draw_start_row, draw_start_col, draw_rows, draw_cols);
+                if (strokeWeight > 0 && mCellSizePix >= GRID_MIN_CELL_SIZE_PIX) {
+                    drawGridOverlay(draw_start_row, draw_start_col, draw_rows, draw_cols, strokeColor, strokeWeight);
+                }
+
+                return;
+            }
 
+            cell_drawer.cellDrawTask.initCellDrawStyle(graphics, strokeWeight, strokeColor);
+
+            final int[] palette = automata.colorPalette(theme.isDark);
             float cell_state;
-            int cell_color;
+            int cell_color, s;
             for (int i = draw_start_row; i < draw_start_row + draw_rows; i++) {
                 for (int j = draw_start_col; j < draw_start_col + draw_cols; j++) {
                     cell_state = state.get(i, j);
-                    cell_color = automata.colorRGBForCell(cell_state, theme.isDark);
+                    s = (int) cell_state;
+                    cell_color = s >= 0 && s < palette.length ? palette[s] : automata.colorRGBForCell(cell_state, theme.isDark);
 
                     cell_drawer.cellDrawTask.drawCell(graphics,
                             (j * mCellSizePix) - mPanX,
@@ -330,6 +428,226 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
     }
 
 
+    /**
+     * Writes the colors of the visible cells into the framebuffer image (one pixel per cell), and draws it scaled to the cell size.
+     * <br>
+     * The image is kept across frames: if it shows the same region with the same colors, only the tiles that changed
+     * since the publication it was drawn from are repainted. Pans, resizes, theme and automata changes repaint it whole
+     * */
+    private void drawCellsFramebuffer(@NotNull StatePublisher.Snapshot snapshot, @NotNull AutomataI automata, @NotNull Theme theme,
+                                      int startRow, int startCol, int rows, int cols) {
+        final boolean dark = theme.isDark;
+        final int[] palette = automata.colorPalette(dark);
+
+        PImage image = mCellImage;
+        if (image == null || image.width != cols || image.height != rows) {
+            image = createImage(cols, rows, RGB);
+            mCellImage = image;
+            mCellImageSequence = -1;
+        }
+
+        final long sequence = snapshot.sequence();
+        if (sequence != mCellImageSequence) {
+            image.loadPixels();
+            final boolean incremental = mCellImageSequence >= 0 && snapshot.dirtyBaseSequence() == mCellImageSequence
+                    && mCellImageStartRow == startRow && mCellImageStartCol == startCol && mCellImagePalette == palette;
+
+            // Tiles to repaint: the visible part of the dirty ones, or all visible tiles
+            final TileRasterizer raster = mTileRasterizer;
+            raster.begin(image, snapshot.state(), automata, palette, dark, startRow, startCol);
+            final int tile = StatePublisher.TILE_SIZE;
+            final int tileRowEnd = (startRow + rows + tile - 1) / tile;
+            final int tileColEnd = (startCol + cols + tile - 1) / tile;
+            for (int tr = startRow / tile; tr < tileRowEnd; tr++) {
+                for (int tc = startCol / tile; tc < tileColEnd; tc++) {
+                    if (!incremental || snapshot.isTileDirty(tr, tc)) {
+                        raster.addTile(tr, tc);
+                    }
+                }
+            }
+
+            if (raster.tileCount() > 0) {
+                final ComputePool pool = raster.cellCount() >= RENDER_MIN_PARALLEL_CELLS ? ensureRenderPool() : null;
+                raster.run(pool);
+
+                if (incremental) {
+                    image.updatePixels(raster.minX, raster.minY, raster.maxX - raster.minX, raster.maxY - raster.minY);
+                } else {
+                    image.updatePixels();
+                }
+            }
+
+            mCellImageSequence = sequence;
+            mCellImageStartRow = startRow;
+            mCellImageStartCol = startCol;
+            mCellImagePalette = palette;
+        }
+
+        image(image, (startCol * mCellSizePix) - mPanX, (startRow * mCellSizePix) - mPanY, cols * mCellSizePix, rows * mCellSizePix);
+    }
+
+    /**
+     * @return pool of render workers, created on first use. The animation thread computes a part of every invocation itself
+     * */
+    @NotNull
+    private ComputePool ensureRenderPool() {
+        ComputePool pool = mRenderPool;
+        if (pool == null) {
+            pool = new ComputePool(max(0, Runtime.getRuntime().availableProcessors() - 1), "Render");
+            mRenderPool = pool;
+        }
+
+        return pool;
+    }
+
+    /**
+     * Colorizes tiles of the framebuffer image, in parallel across the render workers. Each part takes the next tile until
+     * none is left. Reused every frame, so that rendering does not allocate
+     * */
+    private static final class TileRasterizer implements ComputePool.PartTask {
+
+        /* Frame, set by the animation thread before running */
+        private PImage mImage;
+        private NdArrayFloatI mState;
+        private AutomataI mAutomata;
+        private int[] mPalette;
+        private boolean mDark;
+        private int mStartRow, mStartCol;
+
+        /* Tiles as (row << 16 | col) of the tile grid, and the bounds of their visible part in image pixels */
+        private int @NotNull [] mTiles = new int[64];
+        private int mTileCount;
+        private long mCellCount;
+        int minX, minY, maxX, maxY;
+
+        @NotNull
+        private final AtomicInteger mNextTile = new AtomicInteger();
+
+        void begin(@NotNull PImage image, @NotNull NdArrayFloatI state, @NotNull AutomataI automata, int @NotNull [] palette, boolean dark,
+                   int startRow, int startCol) {
+            mImage = image;
+            mState = state;
+            mAutomata = automata;
+            mPalette = palette;
+            mDark = dark;
+            mStartRow = startRow;
+            mStartCol = startCol;
+
+            mTileCount = 0;
+            mCellCount = 0;
+            minX = minY = Integer.MAX_VALUE;
+            maxX = maxY = Integer.MIN_VALUE;
+        }
+
+        void addTile(int tileRow, int tileCol) {
+            if (mTileCount == mTiles.length) {
+                mTiles = Arrays.copyOf(mTiles, mTiles.length * 2);
+            }
+
+            mTiles[mTileCount++] = (tileRow << 16) | tileCol;
+
+            final int tile = StatePublisher.TILE_SIZE;
+            final int y0 = max(tileRow * tile - mStartRow, 0), y1 = min((tileRow + 1) * tile - mStartRow, mImage.height);
+            final int x0 = max(tileCol * tile - mStartCol, 0), x1 = min((tileCol + 1) * tile - mStartCol, mImage.width);
+            mCellCount += (long) (y1 - y0) * (x1 - x0);
+            minX = min(minX, x0);
+            minY = min(minY, y0);
+            maxX = max(maxX, x1);
+            maxY = max(maxY, y1);
+        }
+
+        int tileCount() {
+            return mTileCount;
+        }
+
+        long cellCount() {
+            return mCellCount;
+        }
+
+        /**
+         * Colorizes all added tiles, blocking until done
+         *
+         * @param pool render workers, or {@code null} to run on the calling thread
+         * */
+        void run(@Nullable ComputePool pool) {
+            mNextTile.set(0);
+            final int parts = pool != null ? min(pool.getParallelism(), mTileCount) : 1;
+            if (parts <= 1) {
+                compute(0);
+            } else {
+                pool.invoke(parts, this);
+            }
+
+            mState = null;      // do not retain the snapshot
+        }
+
+        @Override
+        public void compute(int part) {
+            final int[] pixels = mImage.pixels;
+            final int width = mImage.width, height = mImage.height;
+            final int stateCols = mState.shapeAt(1);
+            final int[] palette = mPalette;
+            final int tile = StatePublisher.TILE_SIZE;
+
+            int t;
+            while ((t = mNextTile.getAndIncrement()) < mTileCount) {
+                final int tileRow = mTiles[t] >>> 16, tileCol = mTiles[t] & 0xFFFF;
+
+                // Tile clipped to the visible region, in image pixels
+                final int y0 = max(tileRow * tile - mStartRow, 0), y1 = min((tileRow + 1) * tile - mStartRow, height);
+                final int x0 = max(tileCol * tile - mStartCol, 0), x1 = min((tileCol + 1) * tile - mStartCol, width);
+
+                for (int y = y0; y < y1; y++) {
+                    final int src = (mStartRow + y) * stateCols + mStartCol;
+                    final int dst = y * width;
+                    for (int x = x0; x < x1; x++) {
+                        final float cellState = mState.getFlat(src + x);
+                        final int s = (int) cellState;
+                        pixels[dst + x] = 0xFF000000 | (s >= 0 && s < palette.length ? palette[s] : mAutomata.colorRGBForCell(cellState, mDark));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the cell borders over the framebuffer. The lines are cached in a shape, rebuilt only when the cell size,
+     * the visible grid size or the stroke changes (panning only moves it)
+     * */
+    private void drawGridOverlay(int startRow, int startCol, int rows, int cols, int color, float weight) {
+        PShape grid = mGridOverlay;
+        if (grid == null || mGridCellSizePix != mCellSizePix || mGridRows != rows || mGridCols != cols || mGridColor != color || mGridWeight != weight) {
+            final float w = cols * mCellSizePix, h = rows * mCellSizePix;
+
+            grid = createShape();
+            grid.beginShape(LINES);
+            grid.noFill();
+            grid.stroke(color);
+            grid.strokeWeight(weight);
+            for (int j = 0; j <= cols; j++) {
+                grid.vertex(j * mCellSizePix, 0);
+                grid.vertex(j * mCellSizePix, h);
+            }
+
+            for (int i = 0; i <= rows; i++) {
+                grid.vertex(0, i * mCellSizePix);
+                grid.vertex(w, i * mCellSizePix);
+            }
+
+            grid.endShape();
+
+            mGridOverlay = grid;
+            mGridCellSizePix = mCellSizePix;
+            mGridRows = rows;
+            mGridCols = cols;
+            mGridColor = color;
+            mGridWeight = weight;
+        }
+
+        shape(grid, (startCol * mCellSizePix) - mPanX, (startRow * mCellSizePix) - mPanY);
+    }
+
+
     private static float calCellSizePix(float width, float height, float rows, float cols, float zoom, float defMinCellSizeFactor) {
         final float asp_disp = width / height;
         final float asp_grid = cols / rows;
@@ -393,6 +711,33 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
         return false;
     }
 
+    /**
+     * Steps all cells on the line from {@code prevCellIndices} (exclusive) to {@code cellIndices} (inclusive) as a single bulk edit
+     *
+     * @return the cells expected to change, which are the only ones stepped (and to undo)
+     * */
+    @NotNull
+    private List<int[]> stepCellStatesAlongLine(int @NotNull[] cellIndices, boolean stepUp, int @Nullable [] prevCellIndices) {
+        final AutomataSimulator sim = mSimulator;
+        if (sim == null || Arrays.equals(cellIndices, prevCellIndices)) {
+            return List.of();
+        }
+
+        final List<int[]> cells = new LinkedList<>();
+        if (prevCellIndices == null) {
+            cells.add(cellIndices);
+        } else {
+            new CellEdit.Line(CellEdit.Op.step(stepUp), prevCellIndices[0], prevCellIndices[1], cellIndices[0], cellIndices[1], 0)
+                    .forEachCell((r, c) -> {
+                        if (r != prevCellIndices[0] || c != prevCellIndices[1]) {
+                            cells.add(new int[]{r, c});
+                        }
+                    });
+        }
+
+        return sim.stepChangingCellStates(cells, stepUp);
+    }
+
 
 //    private int @Nullable [] stepCellState(float x, float y, boolean stepUp, int @Nullable [] prevCellIndices) {
 //        return stepCellState(getCellIndices(x, y), stepUp, prevCellIndices);
@@ -400,7 +745,7 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
     
     /* UNDO ------------------------------- */
 
-    private record CellStepRecord(int @NotNull[] cellIndices, boolean stepUp) { }
+    private record CellStepRecord(@NotNull List<int[]> cells, boolean stepUp) { }
 
     // History of cell state changes
     @NotNull
@@ -414,11 +759,13 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
         if (last == null || last.isEmpty())
             return 0;
 
+        final AutomataSimulator sim = mSimulator;
+        if (sim == null)
+            return 0;
+
         int count = 0;
         for (CellStepRecord rec : last) {
-            if (stepCellState(rec.cellIndices(), !rec.stepUp, null)) {
-                count++;
-            }
+            count += sim.stepCellStates(rec.cells(), !rec.stepUp);
         }
 
         return count;
@@ -525,6 +872,42 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
                     undoLastCellSteps();
                 }
             }
+
+            // Fast-forward
+            case java.awt.event.KeyEvent.VK_F -> {
+                AutomataSimulator sim = mSimulator;
+                if (sim != null) {
+                    final int gens = event.isShiftDown() ? FAST_FORWARD_GENERATIONS_LARGE : FAST_FORWARD_GENERATIONS;
+                    sim.advanceByAsync(gens, (simulator, advanced, total) -> {
+                        if (advanced == total) {
+                            Log.d(TAG, "FAST_FORWARD: %d generations -> generation %d".formatted(advanced, simulator.getGeneration()));
+                        }
+                    });
+                }
+            }
+
+            // Step forward one generation (instant if precomputed while paused)
+            case java.awt.event.KeyEvent.VK_N -> {
+                AutomataSimulator sim = mSimulator;
+                if (sim != null) {
+                    sim.nextGenerationAsync();
+                }
+            }
+
+            // Step back in time (requires history)
+            case java.awt.event.KeyEvent.VK_B -> {
+                AutomataSimulator sim = mSimulator;
+                if (sim != null) {
+                    if (sim.isHistoryEnabled()) {
+                        sim.stepBackAsync();
+                    } else {
+                        Log.w(TAG, "STEP_BACK: generation history is disabled");
+                    }
+                }
+            }
+
+            // Export the current state as a full resolution image (one pixel per cell)
+            case java.awt.event.KeyEvent.VK_E -> exportImage();
         }
     }
 
@@ -583,7 +966,7 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
             }
 
             if (changed) {
-                mMouseEventCellStepList.add(new CellStepRecord(cellIndices, stepUp));
+                mMouseEventCellStepList.add(new CellStepRecord(List.of(cellIndices), stepUp));
             }
         }
     }
@@ -649,12 +1032,13 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
                 mStickDragMode = 0;
             }
 
+            // Step all cells between the last and current position, so that fast drags leave no gaps
             final boolean stepUp = !event.isShiftDown();
-            final boolean changed = stepCellState(cellIndices, stepUp, mLastMouseCellIndices);
+            final List<int[]> stepped = stepCellStatesAlongLine(cellIndices, stepUp, mLastMouseCellIndices);
             mLastMouseCellIndices = cellIndices;
 
-            if (changed) {
-                mMouseEventCellStepList.add(new CellStepRecord(cellIndices, stepUp));
+            if (!stepped.isEmpty()) {
+                mMouseEventCellStepList.add(new CellStepRecord(stepped, stepUp));
             }
         }
     }
@@ -821,6 +1205,32 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
     }
     
     
+    /**
+     * Exports the current state of the simulator as a PNG (one pixel per cell) in the working directory, in the background
+     * */
+    public void exportImage() {
+        final AutomataSimulator sim = mSimulator;
+        if (sim == null) {
+            return;
+        }
+
+        final boolean dark = mTheme.isDark;
+        final Path file = Path.of("automata_gen" + sim.getGeneration() + PngExporter.FILE_EXTENSION).toAbsolutePath();
+        final Thread exporter = new Thread(() -> {
+            final long start = System.nanoTime();
+            try {
+                sim.exportImage(file, dark, ForkJoinPool.commonPool());
+                Log.d(TAG, "EXPORT_IMAGE: %s (%d ms)".formatted(file, (System.nanoTime() - start) / 1_000_000));
+            } catch (Throwable t) {
+                Log.e(TAG, "EXPORT_IMAGE: failed to export " + file, t);
+            }
+        }, "AutomataP2DUi-ImageExport");
+
+        exporter.setDaemon(true);
+        exporter.start();
+    }
+
+
     /* SIMULATOR  ------------------------------------------------- */
     
     public @Nullable AutomataSimulator getSimulator() {
@@ -840,7 +1250,7 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
         mSimulator = simulator;
         // Attach
         if (simulator != null) {
-            simulator.ensureListener(this);
+            simulator.ensureListener(this, SIMULATOR_EVENT_RATE_HZ);
         }
 
         onSimulatorChanged(old, simulator);
@@ -849,6 +1259,7 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
     protected void onSimulatorChanged(@Nullable AutomataSimulator old, @Nullable AutomataSimulator _new) {
         enqueueTask(() -> {
             mCellStepQueue.clear();
+            mCellImageSequence = -1;        // sequences of another publisher
             resetZoomAndPan();
 //            invalidateFrame();
         });
@@ -905,14 +1316,14 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
     }
 
     @Override
-    public void onAutomataGenerationChanged(AutomataSimulator simulator, @Nullable NdArrayFloatI oldGen, @NotNull NdArrayFloatI newGen, int generation, int steps) {
-        Log.d(TAG, "GEN_CHANGED: " + generation);
+    public void onAutomataGenerationChanged(AutomataSimulator simulator, @Nullable NdArrayFloatI oldGen, @NotNull NdArrayFloatI newGen, int generation, int steps, @NotNull StateStats stats) {
+        Log.d(TAG, "GEN_CHANGED: " + generation + ", population=" + stats.population() + ", changed=" + stats.changedCount());
         postInvalidateFrame();
     }
 
     @Override
-    public void onAutomataCellStateChanged(AutomataSimulator simulator, @NotNull NdArrayFloatI state, int[] cellIndices) {
-        Log.d(TAG, "CELL_STATE_CHANGED: " + Arrays.toString(cellIndices));
+    public void onAutomataRegionChanged(AutomataSimulator simulator, @NotNull NdArrayFloatI state, @NotNull CellRegion region) {
+        Log.d(TAG, "REGION_CHANGED: " + region);
         postInvalidateFrame();
     }
 
@@ -926,6 +1337,11 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
         Log.d(TAG, "PARALLEL_COMPUTE_READY: %b [Threads: %d (core), %d (max), %d (workers)]".formatted(simulator.isParallelComputeReady(), simulator.getCoreThreadCount(), simulator.getMaxThreadCount(), simulator.getWorkerThreadCount()));
     }
 
+    @Override
+    public void onSimulationRateShortfall(@NotNull AutomataSimulator simulator, @NotNull RunStats stats) {
+        Log.w(TAG, "SIM_RATE_SHORTFALL: %.1f of %.1f gens/s (%d dropped)".formatted(stats.getAchievedRate(), stats.getTargetRate(), stats.getWindowDroppedGenerations()));
+    }
+
 
 
 
@@ -943,7 +1359,9 @@ public class AutomataP2DUi extends PApplet implements AutomataSimulator.Listener
 
         final AutomataSimulator simulator = new AutomataSimulator(automata, state_shape, true);
         simulator.setSimulationFrameRate(10);
-        simulator.setSimulationRunMode(AutomataSimulator.RunMode.SCHEDULE_FIXED_RATE);
+        simulator.setSimulationRunMode(AutomataSimulator.RunMode.TARGET_RATE);
+        simulator.setHistoryEnabled(true);
+        simulator.setSpeculationEnabled(true);
 //        simulator.setGenerationSteps(2);
 
         final AutomataP2DUi app = new AutomataP2DUi(simulator);
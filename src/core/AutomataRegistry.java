@@ -0,0 +1,29 @@
+package core;
+
+import core.definition.automata.AutomataI;
+import core.definition.automata.AutomataSpec;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Recreates automata from their {@link AutomataSpec}
+ * */
+public final class AutomataRegistry {
+
+    /**
+     * @throws IllegalArgumentException if the spec type is unknown, or its parameters are invalid
+     * */
+    @NotNull
+    public static AutomataI fromSpec(@NotNull AutomataSpec spec) {
+        return switch (spec.type) {
+            case LifeAutomata.SPEC_TYPE -> LifeAutomata.fromSpec(spec);
+            case NLifeAutomata.SPEC_TYPE -> NLifeAutomata.fromSpec(spec);
+            case BrianBrainAutomata.SPEC_TYPE -> BrianBrainAutomata.fromSpec(spec);
+            case ZhabotinskyAutomata.SPEC_TYPE -> ZhabotinskyAutomata.fromSpec(spec);
+            default -> throw new IllegalArgumentException("Unknown automata type: " + spec.type);
+        };
+    }
+
+
+    private AutomataRegistry() {
+    }
+}
@@ -2,9 +2,12 @@ package core;
 
 import com.jogamp.common.util.IntIntHashMap;
 import core.definition.NdArrayF;
+import core.definition.StateStats;
+import core.definition.automata.AutomataSpec;
 import core.definition.automata.ColorProviderI;
 import core.definition.automata.NStateAutomataI;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 
 public class BrianBrainAutomata extends NStateAutomataI {
@@ -14,6 +17,8 @@ public class BrianBrainAutomata extends NStateAutomataI {
     public static final boolean DEF_PARALLEL_COMPUTE_ALLOWED = true;
     public static final boolean DEF_MONOCHROME = true;
 
+    public static final String SPEC_TYPE = "brian_brain";
+
     public BrianBrainAutomata(boolean monoChrome) {
         super(2, monoChrome);
     }
@@ -22,6 +27,16 @@ public class BrianBrainAutomata extends NStateAutomataI {
         this(DEF_MONOCHROME);
     }
 
+    @NotNull
+    public static BrianBrainAutomata fromSpec(@NotNull AutomataSpec spec) {
+        return new BrianBrainAutomata(spec.getBoolean(SPEC_KEY_MONOCHROME, DEF_MONOCHROME));
+    }
+
+    @Override
+    public @NotNull AutomataSpec toSpec() {
+        return AutomataSpec.of(SPEC_TYPE).with(SPEC_KEY_MONOCHROME, isMonochromeEnabled());
+    }
+
     @Override
     public @NotNull String displayName() {
         return DISPLAY_NAME;
@@ -47,22 +62,28 @@ public class BrianBrainAutomata extends NStateAutomataI {
     }
 
     @Override
-    public void subComputeNextState(@NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled, int row_start, int row_end) {
-        final int[][] out_arr = new int[8][2];
+    public void subComputeNextState(@NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled, int row_start, int row_end, @Nullable StateStats stats) {
         int cell_state, new_state;
-        int neigh_count;
+        int neigh_idx, idx;
+
+        final int rows = curState.shapeAt(0), cols = curState.shapeAt(1);
 
         for (int i = row_start; i < row_end; i++) {
-            for (int j = 0; j < curState.shapeAt(1); j++) {
-                cell_state = (int) curState.get(i, j);
+            for (int j = 0; j < cols; j++) {
+                idx = (i * cols) + j;
+                cell_state = (int) curState.getFlat(idx);
 
                 if (cell_state == 0) {
-                    neigh_count = NdArrayF.getNeighbourIndices2D(curState.shapeAt(0), curState.shapeAt(1), i, j, wrapEnabled, out_arr);
-
                     float alive_count = 0;
-                    for (int k = 0; k < neigh_count; k++) {
-                        if (curState.get(out_arr[k]) == 2) {
-                            alive_count++;
+                    for (int di = -1; di < 2; di++) {
+                        for (int dj = -1; dj < 2; dj++) {
+                            if (di == 0 && dj == 0)
+                                continue;
+
+                            neigh_idx = NdArrayF.getNeighbourFlatIndex2D(rows, cols, i, j, di, dj, wrapEnabled);
+                            if (neigh_idx >= 0 && curState.getFlat(neigh_idx) == 2) {
+                                alive_count++;
+                            }
                         }
                     }
 
@@ -71,7 +92,10 @@ public class BrianBrainAutomata extends NStateAutomataI {
                     new_state = cell_state - 1;
                 }
 
-                outState.set(new_state, i, j);
+                outState.setFlat(idx, new_state);
+                if (stats != null) {
+                    stats.accept(idx, cell_state, new_state);
+                }
             }
         }
     }
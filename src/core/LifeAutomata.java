@@ -1,7 +1,11 @@
 package core;
 
 import core.definition.NdArrayF;
+import core.definition.Soup;
+import core.definition.StateStats;
 import core.definition.automata.AbstractAutomataI;
+import core.definition.automata.AutomataSpec;
+import core.definition.automata.ComputePool;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -25,6 +29,9 @@ public class LifeAutomata extends AbstractAutomataI {
     public static final boolean DEF_PARALLEL_COMPUTE_ALLOWED = true;
     public static final boolean DEF_MONOCHROME = true;
 
+    public static final String SPEC_TYPE = "life";
+    public static final String SPEC_KEY_RULE = "rule";
+
     @FunctionalInterface
     public interface NewCellStateProvider {
         boolean getNewState(boolean state, int neighbourCount, int aliveNeighbourCount);
@@ -32,22 +39,19 @@ public class LifeAutomata extends AbstractAutomataI {
 
     public enum Rule {
 
-        // B3/S23
-        CONWAY_LIFE("Conway Life",
+        CONWAY_LIFE("Conway Life", "B3/S23",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     return aliveNeighbourCount == 3 || (state && aliveNeighbourCount == 2);
                 }
         ),
 
-        // B34/s34
-        LIFE_34("Life-34",
+        LIFE_34("Life-34", "B34/S34",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     return aliveNeighbourCount == 3 || aliveNeighbourCount == 4;
                 }
         ),
 
-        // B36/S23
-        HIGH_LIFE("Life-High",
+        HIGH_LIFE("Life-High", "B36/S23",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     if (state)
                         return aliveNeighbourCount == 2 || aliveNeighbourCount == 3;
@@ -55,22 +59,19 @@ public class LifeAutomata extends AbstractAutomataI {
                 }
         ),
 
-        // B2/S
-        SEEDS("Life-Seeds",
+        SEEDS("Life-Seeds", "B2/S",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     return !state && aliveNeighbourCount == 2;      // born: 2, survive: NEVER
                 }
         ),
 
-        // B1357/S1357
-        REPLICATOR("Life-Replicator",
+        REPLICATOR("Life-Replicator", "B1357/S1357",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     return aliveNeighbourCount % 2 == 1;
                 }
         ),
 
-        // B3/S012345678
-        FLAKES("Life-Flakes",
+        FLAKES("Life-Flakes", "B3/S012345678",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     return state || aliveNeighbourCount == 3;
                 },
@@ -78,15 +79,13 @@ public class LifeAutomata extends AbstractAutomataI {
                 0xFF000000, 0xFF22DFFF
         ),
 
-        // B35678/S5678
-        DIAMOEBA("Life-Diamoeba",
+        DIAMOEBA("Life-Diamoeba", "B35678/S5678",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     return aliveNeighbourCount >= 5 || (!state && aliveNeighbourCount == 3);
                 }
         ),
 
-        // B36/S125
-        LIFE_2x2("Life-2x2",
+        LIFE_2x2("Life-2x2", "B36/S125",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     if (state)
                         return aliveNeighbourCount == 1 || aliveNeighbourCount == 2 || aliveNeighbourCount == 5;
@@ -95,8 +94,7 @@ public class LifeAutomata extends AbstractAutomataI {
         ),
 
 
-        // B368/S245
-        MORLEY("Life-Morley",
+        MORLEY("Life-Morley", "B368/S245",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     if (state)
                         return aliveNeighbourCount == 2 || aliveNeighbourCount == 4 || aliveNeighbourCount == 5;
@@ -104,8 +102,7 @@ public class LifeAutomata extends AbstractAutomataI {
                 }
         ),
 
-        // B4678/S35678
-        ANNEAL("Life-Anneal",
+        ANNEAL("Life-Anneal", "B4678/S35678",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     if (state)
                         return aliveNeighbourCount == 3 || aliveNeighbourCount >= 5;
@@ -113,16 +110,97 @@ public class LifeAutomata extends AbstractAutomataI {
                 }
         ),
 
-        // B3678/S34678
-        DAY_NIGHT("Life-DayNight",
+        DAY_NIGHT("Life-DayNight", "B3678/S34678",
                 (state, neighbourCount, aliveNeighbourCount) -> {
                     return aliveNeighbourCount == 3 || aliveNeighbourCount >= 6 || (state && aliveNeighbourCount == 4);
                 }
         );
 
 
+        /**
+         * Parses a rule in B/S notation (ex. {@code B3/S23}, case insensitive), or in the legacy S/B notation (ex. {@code 23/3}).
+         * Anything after a {@code ':'} (ex. a bounded grid suffix) is ignored
+         *
+         * @return the rule with the same born and survive conditions, or {@code null} if not supported or malformed
+         * */
+        @Nullable
+        public static Rule fromNotation(@NotNull String notation) {
+            final int masks = parseNotation(notation);
+            if (masks < 0) {
+                return null;
+            }
+
+            for (Rule rule: values()) {
+                if (rule.mMasks == masks) {
+                    return rule;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * @return born mask in the low 9 bits and survive mask in the next 9 bits (bit i set for i alive neighbours), or -1 if malformed
+         * */
+        private static int parseNotation(@NotNull String notation) {
+            String text = notation.trim().toUpperCase();
+            final int colon = text.indexOf(':');
+            if (colon >= 0) {
+                text = text.substring(0, colon);
+            }
+
+            final int slash = text.indexOf('/');
+            if (slash < 0) {
+                return -1;
+            }
+
+            String born = text.substring(0, slash).trim();
+            String survive = text.substring(slash + 1).trim();
+            if (born.startsWith("B") || survive.startsWith("S")) {
+                if (!born.startsWith("B") || !survive.startsWith("S")) {
+                    return -1;
+                }
+
+                born = born.substring(1);
+                survive = survive.substring(1);
+            } else if (born.startsWith("S") && survive.startsWith("B")) {
+                final String t = born;
+                born = survive.substring(1);
+                survive = t.substring(1);
+            } else {
+                // Legacy S/B
+                final String t = born;
+                born = survive;
+                survive = t;
+            }
+
+            final int bornMask = parseCounts(born);
+            final int surviveMask = parseCounts(survive);
+            return bornMask < 0 || surviveMask < 0 ? -1 : bornMask | (surviveMask << 9);
+        }
+
+        private static int parseCounts(@NotNull String counts) {
+            int mask = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                final int count = counts.charAt(i) - '0';
+                if (count < 0 || count > 8) {
+                    return -1;
+                }
+
+                mask |= 1 << count;
+            }
+
+            return mask;
+        }
+
+
         @NotNull
         public final String displayName;
+        /**
+         * Canonical B/S notation, ex. {@code B3/S23}
+         * */
+        @NotNull
+        public final String notation;
         @NotNull
         public final NewCellStateProvider cellStateProvider;
         public final int lightColorOff;
@@ -130,8 +208,12 @@ public class LifeAutomata extends AbstractAutomataI {
         public final int darkColorOff;
         public final int darkColorOn;
 
-        Rule(@NotNull String displayName, @NotNull NewCellStateProvider cellStateProvider, int lightColorOff, int lightColorOn, int darkColorOff, int darkColorOn) {
+        private final int mMasks;
+
+        Rule(@NotNull String displayName, @NotNull String notation, @NotNull NewCellStateProvider cellStateProvider, int lightColorOff, int lightColorOn, int darkColorOff, int darkColorOn) {
             this.displayName = displayName;
+            this.notation = notation;
+            this.mMasks = parseNotation(notation);
             this.cellStateProvider = cellStateProvider;
             this.lightColorOff = lightColorOff;
             this.lightColorOn = lightColorOn;
@@ -139,8 +221,8 @@ public class LifeAutomata extends AbstractAutomataI {
             this.darkColorOn = darkColorOn;
         }
 
-        Rule(@NotNull String displayName, @NotNull NewCellStateProvider cellStateProvider) {
-            this(displayName, cellStateProvider, 0xFFFFFFFF, 0xFF000000, 0xFF000000, 0xFFFFFFFF);
+        Rule(@NotNull String displayName, @NotNull String notation, @NotNull NewCellStateProvider cellStateProvider) {
+            this(displayName, notation, cellStateProvider, 0xFFFFFFFF, 0xFF000000, 0xFF000000, 0xFFFFFFFF);
         }
 
         public int colorFor(boolean on, boolean darkMode) {
@@ -167,6 +249,25 @@ public class LifeAutomata extends AbstractAutomataI {
         this.rule = rule;
     }
 
+    @NotNull
+    public static LifeAutomata fromSpec(@NotNull AutomataSpec spec) {
+        final LifeAutomata automata = new LifeAutomata(Rule.valueOf(spec.getString(SPEC_KEY_RULE, Rule.CONWAY_LIFE.name())));
+        automata.setMonochromeEnabled(spec.getBoolean(SPEC_KEY_MONOCHROME, DEF_MONOCHROME));
+        return automata;
+    }
+
+    @NotNull
+    public Rule getRule() {
+        return rule;
+    }
+
+    @Override
+    public @NotNull AutomataSpec toSpec() {
+        return AutomataSpec.of(SPEC_TYPE)
+                .with(SPEC_KEY_RULE, rule.name())
+                .with(SPEC_KEY_MONOCHROME, isMonochromeEnabled());
+    }
+
     @Override
     public @NotNull String displayName() {
         return rule.displayName;
@@ -203,31 +304,45 @@ public class LifeAutomata extends AbstractAutomataI {
     }
 
     @Override
-    public void subComputeNextState(@NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled, int row_start, int row_end) {
-        final int[][] out_arr = new int[8][2];
+    public void subComputeNextState(@NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled, int row_start, int row_end, @Nullable StateStats stats) {
         boolean cell_state, new_state;
-        int neigh_count;
+        int neigh_count, neigh_idx, idx;
+
+        final int rows = curState.shapeAt(0), cols = curState.shapeAt(1);
 
         for (int i = row_start; i < row_end; i++) {
-            for (int j = 0; j < curState.shapeAt(1); j++) {
-                cell_state = isCellOn(curState.get(i, j));
-                neigh_count = NdArrayF.getNeighbourIndices2D(curState.shapeAt(0), curState.shapeAt(1), i, j, wrapEnabled, out_arr);
+            for (int j = 0; j < cols; j++) {
+                idx = (i * cols) + j;
+                cell_state = isCellOn(curState.getFlat(idx));
 
+                neigh_count = 0;
                 float neigh_state_sum = 0;
-                for (int k = 0; k < neigh_count; k++) {
-                    neigh_state_sum += curState.get(out_arr[k]);
+                for (int di = -1; di < 2; di++) {
+                    for (int dj = -1; dj < 2; dj++) {
+                        if (di == 0 && dj == 0)
+                            continue;
+
+                        neigh_idx = NdArrayF.getNeighbourFlatIndex2D(rows, cols, i, j, di, dj, wrapEnabled);
+                        if (neigh_idx < 0)
+                            continue;
+
+                        neigh_state_sum += curState.getFlat(neigh_idx);
+                        neigh_count++;
+                    }
                 }
 
                 new_state = rule.cellStateProvider.getNewState(cell_state, neigh_count, (int) neigh_state_sum);
-                outState.set(toCellState(new_state), i, j);
+                outState.setFlat(idx, toCellState(new_state));
+                if (stats != null) {
+                    stats.accept(idx, toCellState(cell_state), toCellState(new_state));
+                }
             }
         }
     }
 
     @Override
-    public void resetState(@Nullable ThreadPoolExecutor executor, @NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled) {
-//        outState.clear();
-        outState.fillRandInt(0, 2);
+    public void resetState(@Nullable ComputePool pool, @NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled, @NotNull Soup soup) {
+        soup.fill(pool, outState, 2);
     }
 
     @Override
@@ -236,16 +351,13 @@ public class LifeAutomata extends AbstractAutomataI {
     }
 
     @Override
-    public boolean cycleCellState(@NotNull NdArrayF state, int[] cellIndices) {
-        state.set(toCellState(!isCellOn(state.get(cellIndices))), cellIndices);
-        return true;
+    public float cycledCellState(float cellState) {
+        return toCellState(!isCellOn(cellState));
     }
 
     @Override
-    public boolean stepCellState(@NotNull NdArrayF state, int[] cellIndices, boolean stepUp) {
-        final boolean on = isCellOn(state.get(cellIndices));
-        state.set(toCellState(stepUp), cellIndices);
-        return on != stepUp;
+    public float steppedCellState(float cellState, boolean stepUp) {
+        return toCellState(stepUp);
     }
 
     @Override
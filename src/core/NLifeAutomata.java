@@ -2,9 +2,12 @@ package core;
 
 import com.jogamp.common.util.IntIntHashMap;
 import core.definition.NdArrayF;
+import core.definition.StateStats;
+import core.definition.automata.AutomataSpec;
 import core.definition.automata.ColorProviderI;
 import core.definition.automata.NStateAutomataI;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import util.U;
 
 import java.util.Objects;
@@ -29,6 +32,8 @@ public class NLifeAutomata extends NStateAutomataI {
     public static final boolean DEF_MONOCHROME = false;
     public static final boolean DEF_PARALLEL_COMPUTE_ALLOWED = true;
 
+    public static final String SPEC_TYPE = "n_life";
+
 
 
     /**
@@ -61,6 +66,22 @@ public class NLifeAutomata extends NStateAutomataI {
         this(DEF_N);
     }
 
+    @NotNull
+    public static NLifeAutomata fromSpec(@NotNull AutomataSpec spec) {
+        return new NLifeAutomata(spec.getInt(SPEC_KEY_N, DEF_N),
+                spec.getInt(SPEC_KEY_K1, DEF_K1), spec.getInt(SPEC_KEY_K2, DEF_K2),
+                spec.getInt(SPEC_KEY_K3, DEF_K3), spec.getInt(SPEC_KEY_K4, DEF_K4),
+                spec.getBoolean(SPEC_KEY_MONOCHROME, DEF_MONOCHROME));
+    }
+
+    @Override
+    public @NotNull AutomataSpec toSpec() {
+        return AutomataSpec.of(SPEC_TYPE)
+                .with(SPEC_KEY_N, n)
+                .with(SPEC_KEY_K1, k1).with(SPEC_KEY_K2, k2).with(SPEC_KEY_K3, k3).with(SPEC_KEY_K4, k4)
+                .with(SPEC_KEY_MONOCHROME, isMonochromeEnabled());
+    }
+
     @Override
     public @NotNull String displayName() {
         return DISPLAY_NAME;
@@ -87,19 +108,29 @@ public class NLifeAutomata extends NStateAutomataI {
     }
 
     @Override
-    public void subComputeNextState(@NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled, int row_start, int row_end) {
-        final int[][] neigh_arr = new int[8][2];
-        int neigh_count;
+    public void subComputeNextState(@NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled, int row_start, int row_end, @Nullable StateStats stats) {
+        int neigh_idx, idx;
         int cell_state, new_state;
 
+        final int rows = curState.shapeAt(0), cols = curState.shapeAt(1);
+
         for (int i = row_start; i < row_end; i++) {
-            for (int j = 0; j < curState.shapeAt(1); j++) {
-                cell_state = toInt(curState.get(i, j));
+            for (int j = 0; j < cols; j++) {
+                idx = (i * cols) + j;
+                cell_state = toInt(curState.getFlat(idx));
 
-                neigh_count = NdArrayF.getNeighbourIndices2D(curState.shapeAt(0), curState.shapeAt(1), i, j, wrapEnabled, neigh_arr);
                 float neigh_states_sum = 0;
-                for (int k = 0; k < neigh_count; k++) {
-                    neigh_states_sum += toInt(curState.get(neigh_arr[k]));
+                for (int di = -1; di < 2; di++) {
+                    for (int dj = -1; dj < 2; dj++) {
+                        if (di == 0 && dj == 0)
+                            continue;
+
+                        neigh_idx = NdArrayF.getNeighbourFlatIndex2D(rows, cols, i, j, di, dj, wrapEnabled);
+                        if (neigh_idx < 0)
+                            continue;
+
+                        neigh_states_sum += toInt(curState.getFlat(neigh_idx));
+                    }
                 }
 
                 if (cell_state > mHalfN) {
@@ -117,7 +148,10 @@ public class NLifeAutomata extends NStateAutomataI {
                 }
 
                 new_state = U.constrain(new_state, 0, n);
-                outState.set(new_state, i, j);
+                outState.setFlat(idx, new_state);
+                if (stats != null) {
+                    stats.accept(idx, cell_state, new_state);
+                }
             }
         }
     }
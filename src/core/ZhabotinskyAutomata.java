@@ -2,9 +2,12 @@ package core;
 
 import com.jogamp.common.util.IntIntHashMap;
 import core.definition.NdArrayF;
+import core.definition.StateStats;
+import core.definition.automata.AutomataSpec;
 import core.definition.automata.ColorProviderI;
 import core.definition.automata.NStateAutomataI;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import util.U;
 
 import java.util.Objects;
@@ -24,6 +27,9 @@ public class ZhabotinskyAutomata extends NStateAutomataI {
     private static final boolean DEF_MONOCHROME = true;
     public static final boolean DEF_PARALLEL_COMPUTE_ALLOWED = true;
 
+    public static final String SPEC_TYPE = "zhabotinsky";
+    public static final String SPEC_KEY_G = "g";
+
 
     /**
      * Constant K1, in range [1, 8]
@@ -62,6 +68,22 @@ public class ZhabotinskyAutomata extends NStateAutomataI {
         this(DEF_N);
     }
 
+    @NotNull
+    public static ZhabotinskyAutomata fromSpec(@NotNull AutomataSpec spec) {
+        return new ZhabotinskyAutomata(spec.getInt(SPEC_KEY_N, DEF_N),
+                spec.getFloat(SPEC_KEY_K1, DEF_K1), spec.getFloat(SPEC_KEY_K2, DEF_K2),
+                spec.getInt(SPEC_KEY_G, DEF_G),
+                spec.getBoolean(SPEC_KEY_MONOCHROME, DEF_MONOCHROME));
+    }
+
+    @Override
+    public @NotNull AutomataSpec toSpec() {
+        return AutomataSpec.of(SPEC_TYPE)
+                .with(SPEC_KEY_N, n)
+                .with(SPEC_KEY_K1, k1).with(SPEC_KEY_K2, k2).with(SPEC_KEY_G, g)
+                .with(SPEC_KEY_MONOCHROME, isMonochromeEnabled());
+    }
+
     @Override
     public @NotNull String displayName() {
         return DISPLAY_NAME;
@@ -92,32 +114,41 @@ public class ZhabotinskyAutomata extends NStateAutomataI {
     public void subComputeNextState(@NotNull NdArrayF curState,
                                        @NotNull NdArrayF outState,
                                        boolean wrapEnabled,
-                                       int row_start, int row_end) {
-        final int[][] neigh_arr = new int[8][2];
-        int neigh_count;
+                                       int row_start, int row_end, @Nullable StateStats stats) {
+        int neigh_idx, idx;
         int cell_state, new_state;
 
+        final int rows = curState.shapeAt(0), cols = curState.shapeAt(1);
+
         for (int i = row_start; i < row_end; i++) {
-            for (int j = 0; j < curState.shapeAt(1); j++) {
-                cell_state = toInt(curState.get(i, j));
+            for (int j = 0; j < cols; j++) {
+                idx = (i * cols) + j;
+                cell_state = toInt(curState.getFlat(idx));
 
                 if (cell_state == n) {
                     new_state = 0;      // ILL CELL -> HEALTHY CELL
                 } else {
-                    neigh_count = NdArrayF.getNeighbourIndices2D(curState.shapeAt(0), curState.shapeAt(1), i, j, wrapEnabled, neigh_arr);
-
                     float states_sum = cell_state;
                     int neigh_state;
                     int infected_neigh_count = 0, ill_neigh_count = 0;
 
-                    for (int k = 0; k < neigh_count; k++) {
-                        neigh_state = toInt(curState.get(neigh_arr[k]));
-                        states_sum += neigh_state;
+                    for (int di = -1; di < 2; di++) {
+                        for (int dj = -1; dj < 2; dj++) {
+                            if (di == 0 && dj == 0)
+                                continue;
+
+                            neigh_idx = NdArrayF.getNeighbourFlatIndex2D(rows, cols, i, j, di, dj, wrapEnabled);
+                            if (neigh_idx < 0)
+                                continue;
 
-                        if (neigh_state == n) {
-                            ill_neigh_count++;
-                        } else if (neigh_state > 0) {
-                            infected_neigh_count++;
+                            neigh_state = toInt(curState.getFlat(neigh_idx));
+                            states_sum += neigh_state;
+
+                            if (neigh_state == n) {
+                                ill_neigh_count++;
+                            } else if (neigh_state > 0) {
+                                infected_neigh_count++;
+                            }
                         }
                     }
 
@@ -133,7 +164,10 @@ public class ZhabotinskyAutomata extends NStateAutomataI {
                 }
 
 
-                outState.set(new_state, i, j);
+                outState.setFlat(idx, new_state);
+                if (stats != null) {
+                    stats.accept(idx, cell_state, new_state);
+                }
             }
         }
     }
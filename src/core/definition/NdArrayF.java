@@ -77,6 +77,31 @@ public class NdArrayF implements NdArrayFloatI {
 //        return outputArray;
     }
 
+    /**
+     * Allocation free alternative to {@link #getNeighbourIndices2D}, for the compute kernels
+     *
+     * @param d_row row offset of the neighbour, in range [-1, 1]
+     * @param d_col column offset of the neighbour, in range [-1, 1]
+     * @return flat index of the neighbour at (pos_row + d_row, pos_col + d_col), or -1 if it is out of bounds and indices do not wrap
+     * */
+    public static int getNeighbourFlatIndex2D(final int rows, final int cols,
+                                              final int pos_row, final int pos_col,
+                                              final int d_row, final int d_col,
+                                              final boolean wrapIndices) {
+        int r = pos_row + d_row;
+        int c = pos_col + d_col;
+
+        if (r < 0 || c < 0 || r >= rows || c >= cols) {
+            if (!wrapIndices)
+                return -1;
+
+            r = (r + rows) % rows;
+            c = (c + cols) % cols;
+        }
+
+        return (r * cols) + c;
+    }
+
 
 
     private final float[] flatArray;
@@ -193,6 +218,18 @@ public class NdArrayF implements NdArrayFloatI {
         flatArray[flattenIndex(indices)] = value;
     }
 
+    /**
+     * @param flatIndex index in the row-major flat array, in range [0, size)
+     * */
+    @Override
+    public float getFlat(int flatIndex) {
+        return flatArray[flatIndex];
+    }
+
+    public void setFlat(int flatIndex, float value) {
+        flatArray[flatIndex] = value;
+    }
+
     public void fill(float value) {
         Arrays.fill(flatArray, 0, size(), value);
     }
@@ -201,6 +238,17 @@ public class NdArrayF implements NdArrayFloatI {
         fill(0f);
     }
 
+    /**
+     * Copies all values from the given array, which must have the same shape
+     * */
+    public void copyFrom(@NotNull NdArrayF src) {
+        if (!isSameShape(src)) {
+            throw new IllegalArgumentException("Shapes don't match! Current shape: " + Arrays.toString(shape) + " , Source shape: " + Arrays.toString(src.shape));
+        }
+
+        System.arraycopy(src.flatArray, 0, flatArray, 0, size());
+    }
+
     public void fill(@NotNull FloatGenerator generator) {
         for (int i = 0; i < size(); i++) {
             flatArray[i] = generator.nextFloat();
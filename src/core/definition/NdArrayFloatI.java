@@ -30,6 +30,11 @@ public interface NdArrayFloatI {
 
     float get(int... indices);
 
+    /**
+     * @param flatIndex index in the row-major flat array, in range [0, size)
+     * */
+    float getFlat(int flatIndex);
+
     float getAverage();
 
 }
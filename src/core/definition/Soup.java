@@ -0,0 +1,269 @@
+package core.definition;
+
+import core.definition.automata.ComputePool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import util.misc.MathUtil;
+
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable description of a random initial state (a "soup"), and a parallel generator for it
+ * <br><br>
+ * Every row draws from its own {@link SplittableRandom} stream, derived from {@link #seed} and the row index.
+ * Hence, the generated state only depends on the seed and the parameters, and is identical for any number of threads
+ * */
+public final class Soup {
+
+    /**
+     * Density value meaning "all states equally likely"
+     * */
+    public static final float DENSITY_UNIFORM = -1;
+
+    public static final float DEF_DENSITY = DENSITY_UNIFORM;
+    public static final float DEF_REGION_FRACTION = 1;
+
+    /**
+     * Minimum number of cells per thread, below which the soup is generated on the calling thread
+     * */
+    public static final int MIN_CELLS_PER_THREAD = 50000;
+
+    public enum Symmetry {
+        NONE,
+
+        /**
+         * Left half mirrored onto the right half
+         * */
+        MIRROR_X,
+
+        /**
+         * Top half mirrored onto the bottom half
+         * */
+        MIRROR_Y,
+
+        /**
+         * Top-left quadrant mirrored onto all other quadrants
+         * */
+        MIRROR_XY,
+
+        /**
+         * Top half rotated by 180 degrees onto the bottom half
+         * */
+        ROTATE_180,
+    }
+
+    @NotNull
+    public static Soup random() {
+        return new Soup(ThreadLocalRandom.current().nextLong(), true, DEF_DENSITY, Symmetry.NONE, DEF_REGION_FRACTION);
+    }
+
+    @NotNull
+    public static Soup seeded(long seed) {
+        return new Soup(seed, false, DEF_DENSITY, Symmetry.NONE, DEF_REGION_FRACTION);
+    }
+
+
+    public final long seed;
+
+    /**
+     * Whether a new seed should be drawn on every reset
+     *
+     * @see #resolve()
+     * */
+    public final boolean randomSeed;
+
+    /**
+     * Probability of a cell being in a non-lowest state, in range [0, 1]. Non-lowest states are equally likely.<br>
+     * {@link #DENSITY_UNIFORM} to make all states equally likely
+     * */
+    public final float density;
+
+    @NotNull
+    public final Symmetry symmetry;
+
+    /**
+     * Fraction of rows and columns, in range (0, 1], of the centered region to fill. Cells outside the region are in the lowest state
+     * */
+    public final float regionFraction;
+
+    public Soup(long seed, boolean randomSeed, float density, @NotNull Symmetry symmetry, float regionFraction) {
+        if (density != DENSITY_UNIFORM && (density < 0 || density > 1)) {
+            throw new IllegalArgumentException("Density must be in range [0, 1] or DENSITY_UNIFORM, given: " + density);
+        }
+
+        if (regionFraction <= 0 || regionFraction > 1) {
+            throw new IllegalArgumentException("Region fraction must be in range (0, 1], given: " + regionFraction);
+        }
+
+        this.seed = seed;
+        this.randomSeed = randomSeed;
+        this.density = density;
+        this.symmetry = symmetry;
+        this.regionFraction = regionFraction;
+    }
+
+    @NotNull
+    public Soup withSeed(long seed) {
+        return new Soup(seed, false, density, symmetry, regionFraction);
+    }
+
+    @NotNull
+    public Soup withRandomSeed() {
+        return new Soup(seed, true, density, symmetry, regionFraction);
+    }
+
+    @NotNull
+    public Soup withDensity(float density) {
+        return new Soup(seed, randomSeed, density, symmetry, regionFraction);
+    }
+
+    @NotNull
+    public Soup withSymmetry(@NotNull Symmetry symmetry) {
+        return new Soup(seed, randomSeed, density, symmetry, regionFraction);
+    }
+
+    @NotNull
+    public Soup withRegionFraction(float regionFraction) {
+        return new Soup(seed, randomSeed, density, symmetry, regionFraction);
+    }
+
+    /**
+     * @return a soup with a fixed seed: a freshly drawn one if {@link #randomSeed} is set, otherwise {@code this}
+     * */
+    @NotNull
+    public Soup resolve() {
+        return randomSeed ? withSeed(ThreadLocalRandom.current().nextLong()) : this;
+    }
+
+
+    /* GENERATION ------------------------------------------------------------------ */
+
+    private int randomState(@NotNull SplittableRandom rand, int stateCount) {
+        if (density == DENSITY_UNIFORM) {
+            return rand.nextInt(stateCount);
+        }
+
+        if (rand.nextFloat() >= density) {
+            return 0;
+        }
+
+        return stateCount <= 2 ? 1 : 1 + rand.nextInt(stateCount - 1);
+    }
+
+    private void fillRow(@NotNull NdArrayF out, int stateCount, int rows, int cols, int row,
+                         int regionRowStart, int regionRowEnd, int regionColStart, int regionColEnd) {
+        final int offset = row * cols;
+        final boolean mirrorRows = symmetry == Symmetry.MIRROR_Y || symmetry == Symmetry.MIRROR_XY || symmetry == Symmetry.ROTATE_180;
+        final int mirrorRow = rows - 1 - row;
+        final int mirrorOffset = mirrorRow * cols;
+
+        if (row < regionRowStart || row >= regionRowEnd) {
+            for (int j = 0; j < cols; j++) {
+                out.setFlat(offset + j, 0);
+            }
+
+            // The mirrored row is not visited by fill(), and holds the previous state of the reused buffer
+            if (mirrorRows && mirrorRow != row) {
+                for (int j = 0; j < cols; j++) {
+                    out.setFlat(mirrorOffset + j, 0);
+                }
+            }
+
+            return;
+        }
+
+        final SplittableRandom rand = new SplittableRandom(MathUtil.mix64(seed + (0x9E3779B97F4A7C15L * (row + 1))));
+
+        // Columns to draw randomly. Rest are mirrored
+        final boolean mirrorCols = symmetry == Symmetry.MIRROR_X || symmetry == Symmetry.MIRROR_XY || (symmetry == Symmetry.ROTATE_180 && row == mirrorRow);
+        final int randCols = mirrorCols ? (cols + 1) / 2 : cols;
+
+        for (int j = 0; j < randCols; j++) {
+            final int state = (j >= regionColStart && j < regionColEnd) ? randomState(rand, stateCount) : 0;
+            out.setFlat(offset + j, state);
+
+            if (mirrorCols) {
+                out.setFlat(offset + cols - 1 - j, state);
+            }
+        }
+
+        if (mirrorRows && mirrorRow != row) {
+            if (symmetry == Symmetry.ROTATE_180) {
+                for (int j = 0; j < cols; j++) {
+                    out.setFlat(mirrorOffset + cols - 1 - j, out.getFlat(offset + j));
+                }
+            } else {
+                for (int j = 0; j < cols; j++) {
+                    out.setFlat(mirrorOffset + j, out.getFlat(offset + j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the given state with this soup, in parallel if a compute pool is given
+     *
+     * @param pool pool to fill row bands in parallel (like the compute kernels), or {@code null} to fill on the calling thread
+     * @param out state to fill. The first dimension is treated as rows, and the remaining as columns
+     * @param stateCount number of integer cell states, filled states are in range [0, stateCount)
+     * */
+    public void fill(@Nullable ComputePool pool, @NotNull NdArrayF out, int stateCount) {
+        final int rows = out.shapeAt(0);
+        final int cols = out.size() / rows;
+
+        final int regionRows = Math.max(1, Math.round(rows * regionFraction));
+        final int regionCols = Math.max(1, Math.round(cols * regionFraction));
+        final int regionRowStart = (rows - regionRows) / 2;
+        final int regionColStart = (cols - regionCols) / 2;
+        final int regionRowEnd = regionRowStart + regionRows;
+        final int regionColEnd = regionColStart + regionCols;
+
+        // Rows to draw randomly. Rest are mirrored
+        final int randRows = (symmetry == Symmetry.MIRROR_Y || symmetry == Symmetry.MIRROR_XY || symmetry == Symmetry.ROTATE_180) ? (rows + 1) / 2 : rows;
+
+        final int bands = pool == null || pool.isShutdown() ? 1 :
+                Math.min(randRows, Math.min(pool.getParallelism(), (int) (((long) randRows * cols) / MIN_CELLS_PER_THREAD)));
+
+        if (bands <= 1) {
+            for (int i = 0; i < randRows; i++) {
+                fillRow(out, stateCount, rows, cols, i, regionRowStart, regionRowEnd, regionColStart, regionColEnd);
+            }
+
+            return;
+        }
+
+        final int rowsPerBand = randRows / bands;
+        pool.invoke(bands, band -> {
+            final int start = band * rowsPerBand;
+            final int end = band == bands - 1 ? randRows : start + rowsPerBand;
+            for (int i = start; i < end; i++) {
+                fillRow(out, stateCount, rows, cols, i, regionRowStart, regionRowEnd, regionColStart, regionColEnd);
+            }
+        });
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        Soup soup = (Soup) o;
+        return seed == soup.seed && randomSeed == soup.randomSeed && Float.compare(density, soup.density) == 0 && Float.compare(regionFraction, soup.regionFraction) == 0 && symmetry == soup.symmetry;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(seed, randomSeed, density, symmetry, regionFraction);
+    }
+
+    @Override
+    public String toString() {
+        return "Soup{" +
+                "seed=" + seed +
+                ", randomSeed=" + randomSeed +
+                ", density=" + density +
+                ", symmetry=" + symmetry +
+                ", regionFraction=" + regionFraction +
+                '}';
+    }
+}
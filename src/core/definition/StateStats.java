@@ -0,0 +1,228 @@
+package core.definition;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of a generation: histogram of integer cell states, population, number of changed cells, and the
+ * {@link #TILE_SIZE} x {@link #TILE_SIZE} cell tiles containing changed cells (if the tile grid is set, see {@link #reset(int, int, int)})
+ * <br><br>
+ * Filled by the compute kernels while they write the next state (see {@link core.definition.automata.AutomataI#subComputeNextState}),
+ * one instance per worker, and merged once all workers are done. Hence, no extra pass over the grid is needed
+ * <br><br>
+ * NOTE: instances are reused across generations. Copy with {@link #copyFrom(StateStats)} to retain values
+ * */
+public class StateStats {
+
+    /**
+     * Side of the square cell tiles of the dirty tile mask. The first dimension is rows, the remaining ones are columns
+     * */
+    public static final int TILE_SIZE = 32;
+    private static final int TILE_SHIFT = 5;
+
+    /**
+     * Count of cells in each state, indexed by integer cell state
+     * */
+    private int @NotNull [] histogram;
+    private long changedCount;
+
+    /* Dirty tiles, row major bit set. Empty if no tile grid is set */
+    private int mCols;
+    private int mTileRows, mTileCols;
+    private long @NotNull [] mDirtyTiles = new long[0];
+
+    /* Row of the last changed cell, so that the tile of a changed cell costs no division within a row */
+    private int mRowStartIndex, mRowEndIndex;
+    private int mTileRowBit;
+
+    public StateStats(int stateCount) {
+        histogram = new int[Math.max(stateCount, 1)];
+    }
+
+    public StateStats() {
+        this(2);
+    }
+
+    /**
+     * Clears all counts, and ensures the histogram can hold {@code stateCount} states. Keeps the tile grid
+     * */
+    public void reset(int stateCount) {
+        if (histogram.length != stateCount && stateCount > 0) {
+            histogram = new int[stateCount];
+        } else {
+            Arrays.fill(histogram, 0);
+        }
+
+        changedCount = 0;
+        Arrays.fill(mDirtyTiles, 0);
+        mRowStartIndex = mRowEndIndex = 0;
+    }
+
+    /**
+     * Clears all counts, ensures the histogram can hold {@code stateCount} states, and sets the tile grid of a state
+     * with the given rows and columns, to collect dirty tiles
+     * */
+    public void reset(int stateCount, int rows, int cols) {
+        final int tileRows = (rows + TILE_SIZE - 1) >> TILE_SHIFT;
+        final int tileCols = (cols + TILE_SIZE - 1) >> TILE_SHIFT;
+        mCols = cols;
+        mTileRows = tileRows;
+        mTileCols = tileCols;
+
+        final int words = (tileRows * tileCols + 63) >>> 6;
+        if (mDirtyTiles.length != words) {
+            mDirtyTiles = new long[words];
+        }
+
+        reset(stateCount);
+    }
+
+    /**
+     * Records a single cell of the next state. Called by compute kernels for every cell they write
+     *
+     * @param cellIndex flat index of the cell
+     * @param oldState integer state in the current generation
+     * @param newState integer state in the next generation
+     * */
+    public void accept(int cellIndex, int oldState, int newState) {
+        histogram[newState]++;
+        if (oldState != newState) {
+            changedCount++;
+            markDirty(cellIndex);
+        }
+    }
+
+    private void markDirty(int cellIndex) {
+        if (mCols == 0) {
+            return;     // no tile grid
+        }
+
+        if (cellIndex < mRowStartIndex || cellIndex >= mRowEndIndex) {
+            final int row = cellIndex / mCols;
+            mRowStartIndex = row * mCols;
+            mRowEndIndex = mRowStartIndex + mCols;
+            mTileRowBit = (row >> TILE_SHIFT) * mTileCols;
+        }
+
+        final int bit = mTileRowBit + ((cellIndex - mRowStartIndex) >> TILE_SHIFT);
+        mDirtyTiles[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Records all cells of {@code outState}, compared against {@code curState}. Used when the next state
+     * is not produced by a compute kernel (ex. reset or clear)
+     * */
+    public void accept(@NotNull NdArrayF curState, @NotNull NdArrayF outState) {
+        final int size = outState.size();
+        final boolean compare = curState.isSameShape(outState);
+
+        for (int i = 0; i < size; i++) {
+            final int _new = (int) outState.getFlat(i);
+            accept(i, compare ? (int) curState.getFlat(i) : -1, _new);
+        }
+    }
+
+    public void merge(@NotNull StateStats other) {
+        final int[] o = other.histogram;
+        for (int i = 0; i < Math.min(histogram.length, o.length); i++) {
+            histogram[i] += o[i];
+        }
+
+        changedCount += other.changedCount;
+
+        final long[] od = other.mDirtyTiles;
+        if (od.length == mDirtyTiles.length) {
+            for (int i = 0; i < od.length; i++) {
+                mDirtyTiles[i] |= od[i];
+            }
+        }
+    }
+
+    public void copyFrom(@NotNull StateStats other) {
+        if (histogram.length != other.histogram.length) {
+            histogram = new int[other.histogram.length];
+        }
+
+        System.arraycopy(other.histogram, 0, histogram, 0, histogram.length);
+        changedCount = other.changedCount;
+
+        mCols = other.mCols;
+        mTileRows = other.mTileRows;
+        mTileCols = other.mTileCols;
+        if (mDirtyTiles.length != other.mDirtyTiles.length) {
+            mDirtyTiles = new long[other.mDirtyTiles.length];
+        }
+
+        System.arraycopy(other.mDirtyTiles, 0, mDirtyTiles, 0, mDirtyTiles.length);
+        mRowStartIndex = mRowEndIndex = 0;
+    }
+
+    public int stateCount() {
+        return histogram.length;
+    }
+
+    public int countOf(int state) {
+        return histogram[state];
+    }
+
+    public long totalCount() {
+        long total = 0;
+        for (int c: histogram) {
+            total += c;
+        }
+
+        return total;
+    }
+
+    /**
+     * @return number of cells not in the lowest state (state 0)
+     * */
+    public long population() {
+        return totalCount() - histogram[0];
+    }
+
+    public long changedCount() {
+        return changedCount;
+    }
+
+    /* Dirty tiles ---- */
+
+    public int tileRows() {
+        return mTileRows;
+    }
+
+    public int tileCols() {
+        return mTileCols;
+    }
+
+    /**
+     * @return whether the tile has a changed cell. {@code false} if no tile grid is set
+     * */
+    public boolean isTileDirty(int tileRow, int tileCol) {
+        final int bit = tileRow * mTileCols + tileCol;
+        return mCols != 0 && (mDirtyTiles[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * ORs the dirty tile mask into {@code out}, a row major bit set of the same tile grid
+     * */
+    public void orDirtyTilesInto(long @NotNull [] out) {
+        for (int i = 0; i < Math.min(out.length, mDirtyTiles.length); i++) {
+            out[i] |= mDirtyTiles[i];
+        }
+    }
+
+    public int @NotNull [] histogramCopy() {
+        return Arrays.copyOf(histogram, histogram.length);
+    }
+
+    @Override
+    public String toString() {
+        return "StateStats{" +
+                "population=" + population() +
+                ", changed=" + changedCount +
+                ", histogram=" + Arrays.toString(histogram) +
+                '}';
+    }
+}
@@ -1,12 +1,24 @@
 package core.definition.automata;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
 public abstract class AbstractAutomataI implements AutomataI {
 
+    /* Common spec parameters, see toSpec() */
+    public static final String SPEC_KEY_MONOCHROME = "monochrome";
+
     /**
      * Whether the colors should have same HUE, or can have different HUE's
      * */
     private boolean monoChrome;
 
+    /**
+     * Cached palettes per theme, see {@link #colorPalette(boolean)}
+     * */
+    private volatile int @Nullable [] mLightPalette;
+    private volatile int @Nullable [] mDarkPalette;
+
     protected AbstractAutomataI(boolean monoChrome) {
         this.monoChrome = monoChrome;
     }
@@ -29,7 +41,43 @@ public abstract class AbstractAutomataI implements AutomataI {
         if (this.monoChrome != monoChrome) {
             this.monoChrome = monoChrome;
             onMonoChromeChanged(monoChrome);
+            invalidateColorPalettes();
+        }
+    }
+
+    @Override
+    public final int @NotNull [] colorPalette(boolean darkMode) {
+        int[] palette = darkMode ? mDarkPalette : mLightPalette;
+        if (palette == null) {
+            palette = createColorPalette(darkMode);
+            if (darkMode) {
+                mDarkPalette = palette;
+            } else {
+                mLightPalette = palette;
+            }
+        }
+
+        return palette;
+    }
+
+    /**
+     * Creates the palette of the integral states [0, {@link #cellStateCount()})
+     * */
+    protected int @NotNull [] createColorPalette(boolean darkMode) {
+        final int[] palette = new int[Math.max(cellStateCount(), 0)];
+        for (int s = 0; s < palette.length; s++) {
+            palette[s] = colorRGBForCell(s, darkMode);
         }
+
+        return palette;
+    }
+
+    /**
+     * Drops the cached palettes, to be recreated on next use. Must be called whenever the colors change
+     * */
+    protected final void invalidateColorPalettes() {
+        mLightPalette = null;
+        mDarkPalette = null;
     }
 
     /* OBJECT METHODS --------------------------- */
@@ -1,6 +1,8 @@
 package core.definition.automata;
 
 import core.definition.NdArrayF;
+import core.definition.Soup;
+import core.definition.StateStats;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -11,6 +13,12 @@ public interface AutomataI extends ColorProviderI {
     @NotNull
     String displayName();
 
+    /**
+     * @return type and parameters needed to recreate this automata
+     * */
+    @NotNull
+    AutomataSpec toSpec();
+
     int dimensions();
 
     int cellStateCount();
@@ -25,17 +33,35 @@ public interface AutomataI extends ColorProviderI {
         return cellStateAt(cellStateCount() - 1);
     }
 
-    // TODO: can init random state as seed
-    void resetState(@Nullable ThreadPoolExecutor executor, @NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled);
+    /**
+     * Fills {@code outState} with a random state
+     *
+     * @param pool pool to fill the state in parallel, or {@code null}. The caller may hold locks: do not use an executor
+     *             whose threads may wait for them
+     * @param soup seed and parameters of the random state. Must produce identical states for identical soups
+     * */
+    void resetState(@Nullable ComputePool pool, @NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled, @NotNull Soup soup);
 
     void clearState(@Nullable ThreadPoolExecutor executor, @NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled);
 
+    /**
+     * @return the state following {@code cellState} when cycling through all states on UI Events
+     * */
+    float cycledCellState(float cellState);
+
+    /**
+     * @return the state one step up or down from {@code cellState}
+     * */
+    float steppedCellState(float cellState, boolean stepUp);
+
     /**
      * Changes a cell state on UI Events
      *
      * @return {@code true} if the state is changed, otherwise {@code false}
      * */
-    boolean cycleCellState(@NotNull NdArrayF state, int[] cellIndices);
+    default boolean cycleCellState(@NotNull NdArrayF state, int[] cellIndices) {
+        return setCellState(state, cellIndices, cycledCellState(state.get(cellIndices)));
+    }
 
     /**
      * Sets a particular cell state
@@ -48,7 +74,9 @@ public interface AutomataI extends ColorProviderI {
         return prev != cellState;
     }
 
-    boolean stepCellState(@NotNull NdArrayF state, int[] cellIndices, boolean stepUp);
+    default boolean stepCellState(@NotNull NdArrayF state, int[] cellIndices, boolean stepUp) {
+        return setCellState(state, cellIndices, steppedCellState(state.get(cellIndices), stepUp));
+    }
 
 
 
@@ -57,8 +85,14 @@ public interface AutomataI extends ColorProviderI {
      * */
     boolean isParallelComputeAllowed();
 
+    /**
+     * Computes rows [row_start, row_end) of the next state
+     *
+     * @param stats if non-null, every written cell must be recorded using {@link StateStats#accept(int, int, int)}
+     * */
     void subComputeNextState(@NotNull NdArrayF curState,
                              @NotNull NdArrayF outState,
                              boolean wrapEnabled,
-                             int row_start, int row_end);
+                             int row_start, int row_end,
+                             @Nullable StateStats stats);
 }
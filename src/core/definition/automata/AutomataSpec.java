@@ -0,0 +1,134 @@
+package core.definition.automata;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable, serializable description of an automata: its type and the parameters needed to recreate it
+ * (ex. in checkpoints). Created by {@link AutomataI#toSpec()}
+ * <br><br>
+ * Text form: {@code type{key=value,key=value}}. Types, keys and values must not contain {@code '{', '}', ',', '='}
+ * */
+public final class AutomataSpec {
+
+    @NotNull
+    public static AutomataSpec of(@NotNull String type) {
+        return new AutomataSpec(type, Collections.emptyMap());
+    }
+
+    /**
+     * Parses the text form, see {@link #toString()}
+     *
+     * @throws IllegalArgumentException if the text is malformed
+     * */
+    @NotNull
+    public static AutomataSpec parse(@NotNull String text) {
+        final int open = text.indexOf('{');
+        if (open < 1 || !text.endsWith("}")) {
+            throw new IllegalArgumentException("Malformed automata spec: " + text);
+        }
+
+        final Map<String, String> params = new LinkedHashMap<>();
+        final String body = text.substring(open + 1, text.length() - 1);
+        if (!body.isEmpty()) {
+            for (String pair: body.split(",")) {
+                final int eq = pair.indexOf('=');
+                if (eq < 1) {
+                    throw new IllegalArgumentException("Malformed automata spec parameter \"" + pair + "\" in: " + text);
+                }
+
+                params.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+
+        return new AutomataSpec(text.substring(0, open), params);
+    }
+
+
+    @NotNull
+    public final String type;
+    @NotNull
+    private final Map<String, String> mParams;
+
+    private AutomataSpec(@NotNull String type, @NotNull Map<String, String> params) {
+        this.type = type;
+        mParams = params;
+    }
+
+    /**
+     * @return a spec with the given parameter added or replaced
+     * */
+    @NotNull
+    public AutomataSpec with(@NotNull String key, @NotNull Object value) {
+        final Map<String, String> params = new LinkedHashMap<>(mParams);
+        params.put(key, String.valueOf(value));
+        return new AutomataSpec(type, Collections.unmodifiableMap(params));
+    }
+
+    @NotNull
+    public Map<String, String> params() {
+        return mParams;
+    }
+
+    @Nullable
+    public String get(@NotNull String key) {
+        return mParams.get(key);
+    }
+
+    @NotNull
+    public String getString(@NotNull String key, @NotNull String defValue) {
+        final String value = mParams.get(key);
+        return value != null ? value : defValue;
+    }
+
+    public int getInt(@NotNull String key, int defValue) {
+        final String value = mParams.get(key);
+        return value != null ? Integer.parseInt(value) : defValue;
+    }
+
+    public float getFloat(@NotNull String key, float defValue) {
+        final String value = mParams.get(key);
+        return value != null ? Float.parseFloat(value) : defValue;
+    }
+
+    public boolean getBoolean(@NotNull String key, boolean defValue) {
+        final String value = mParams.get(key);
+        return value != null ? Boolean.parseBoolean(value) : defValue;
+    }
+
+    /**
+     * @return the text form, parsable by {@link #parse(String)}
+     * */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(type).append('{');
+        boolean first = true;
+        for (Map.Entry<String, String> e: mParams.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+
+            sb.append(e.getKey()).append('=').append(e.getValue());
+            first = false;
+        }
+
+        return sb.append('}').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        AutomataSpec that = (AutomataSpec) o;
+        return type.equals(that.type) && mParams.equals(that.mParams);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, mParams);
+    }
+}
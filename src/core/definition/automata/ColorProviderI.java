@@ -57,6 +57,15 @@ public interface ColorProviderI {
 
     int colorRGBForCell(float cellState, boolean darkMode);
 
+    /**
+     * Colors of the integral cell states, indexed by {@code (int) cellState}: element {@code i} is
+     * {@link #colorRGBForCell colorRGBForCell(i, darkMode)}. States out of the palette range must be colored with
+     * {@link #colorRGBForCell} <br>
+     * The palette is cached and must not be modified. It is replaced by a new array when the colors change, so renderers
+     * can index it for a whole frame without any lookup
+     * */
+    int @NotNull [] colorPalette(boolean darkMode);
+
     boolean isMonochromeEnabled();
 
     void setMonochromeEnabled(boolean monochrome);
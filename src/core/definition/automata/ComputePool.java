@@ -0,0 +1,219 @@
+package core.definition.automata;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import util.misc.AllocationMeter;
+import util.misc.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed set of parked daemon threads to run the parts of a computation in parallel, for the per-generation fork/join
+ * of {@link WorkSplitter}
+ * <br><br>
+ * Unlike an executor, {@link #invoke(int, PartTask)} creates no futures, queue nodes or lock nodes: parts are handed
+ * to the workers through fields, and threads are woken with {@link LockSupport}. Hence a steady state invocation
+ * does not allocate. The calling thread computes the last part itself
+ * */
+public final class ComputePool {
+
+    public static final String TAG = "ComputePool";
+
+    public interface PartTask {
+
+        /**
+         * @param part index of the part, in range [0, part_count)
+         * */
+        void compute(int part);
+    }
+
+    private final class Worker extends Thread {
+
+        private final int mIndex;
+
+        /* Assigned by the invoking thread before unpark, published by the volatile write of mHasWork */
+        private PartTask mTask;
+        private int mPart;
+        private volatile boolean mHasWork;
+
+        /* Written by this worker only */
+        private volatile long mAllocatedBytes;
+
+        Worker(@NotNull String namePrefix, int index) {
+            super(namePrefix + "-" + index);
+            mIndex = index;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (!mHasWork) {
+                    if (mShutdown)
+                        break;      // only when idle, so that an assigned part is never dropped
+
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                final PartTask task = mTask;
+                final long start = mTrackAllocations ? AllocationMeter.currentThreadAllocatedBytes() : 0;
+
+                try {
+                    task.compute(mPart);
+                } catch (Throwable t) {
+                    Log.e(TAG, "Part " + mPart + " failed on worker " + mIndex, t);
+                }
+
+                if (mTrackAllocations) {
+                    mAllocatedBytes += AllocationMeter.currentThreadAllocatedBytes() - start;
+                }
+
+                mTask = null;
+                mHasWork = false;
+                if (mPending.decrementAndGet() == 0) {
+                    LockSupport.unpark(mWaiter);
+                }
+            }
+        }
+    }
+
+    private final Worker @NotNull [] mWorkers;
+    @NotNull
+    private final AtomicInteger mPending = new AtomicInteger();
+    @NotNull
+    private final Object mInvokeLock = new Object();
+
+    @Nullable
+    private volatile Thread mWaiter;
+    private volatile boolean mShutdown;
+    private volatile boolean mTrackAllocations;
+
+    /**
+     * @param threadCount number of worker threads, excluding the invoking thread. Can be 0, in which case all parts run on the invoking thread
+     * */
+    public ComputePool(int threadCount, @NotNull String namePrefix) {
+        if (threadCount < 0) {
+            throw new IllegalArgumentException("Thread count must be >= 0, given: " + threadCount);
+        }
+
+        mWorkers = new Worker[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mWorkers[i] = new Worker(namePrefix, i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * @return number of worker threads, excluding the invoking thread
+     * */
+    public int getThreadCount() {
+        return mWorkers.length;
+    }
+
+    /**
+     * @return max number of parts that run in parallel, including the one on the invoking thread
+     * */
+    public int getParallelism() {
+        return mWorkers.length + 1;
+    }
+
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    /**
+     * Stops all worker threads. Waits for a running invocation, so that no part is handed to a worker that is exiting.
+     * Later invocations run all parts on the calling thread
+     * */
+    public void shutdown() {
+        synchronized (mInvokeLock) {
+            mShutdown = true;
+        }
+
+        for (Worker w: mWorkers) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    /**
+     * Runs the parts [0, part_count) in parallel, blocking until all are done. Part {@code part_count - 1} runs on the calling thread.
+     * Invocations from different threads are serialized
+     *
+     * @param partCount number of parts, at most {@link #getParallelism()}
+     * */
+    public void invoke(int partCount, @NotNull PartTask task) {
+        if (partCount > getParallelism()) {
+            throw new IllegalArgumentException("Part count must be <= parallelism (" + getParallelism() + "), given: " + partCount);
+        }
+
+        if (partCount <= 1 || mShutdown) {
+            for (int i = 0; i < partCount; i++) {
+                task.compute(i);
+            }
+
+            return;
+        }
+
+        synchronized (mInvokeLock) {
+            if (mShutdown) {
+                // Shut down while waiting for the lock: workers may have exited
+                for (int i = 0; i < partCount; i++) {
+                    task.compute(i);
+                }
+
+                return;
+            }
+
+            final int forked = partCount - 1;
+            mWaiter = Thread.currentThread();
+            mPending.set(forked);
+
+            for (int i = 0; i < forked; i++) {
+                final Worker w = mWorkers[i];
+                w.mTask = task;
+                w.mPart = i;
+                w.mHasWork = true;
+                LockSupport.unpark(w);
+            }
+
+            try {
+                task.compute(forked);
+            } finally {
+                // Wait for forked parts even if ours failed, since they share the task state
+                while (mPending.get() != 0) {
+                    LockSupport.park(this);
+                }
+
+                mWaiter = null;
+            }
+        }
+    }
+
+
+    /* Allocation tracking ---------------------------------------------------------- */
+
+    public boolean isTrackingAllocations() {
+        return mTrackAllocations;
+    }
+
+    /**
+     * Enables accumulating the heap bytes allocated by worker threads while computing parts (see {@link #getWorkerAllocatedBytes()})
+     * */
+    public void setTrackAllocations(boolean trackAllocations) {
+        mTrackAllocations = trackAllocations && AllocationMeter.isSupported();
+    }
+
+    /**
+     * @return total heap bytes allocated by worker threads while computing parts, since allocation tracking was enabled
+     * */
+    public long getWorkerAllocatedBytes() {
+        long bytes = 0;
+        for (Worker w: mWorkers) {
+            bytes += w.mAllocatedBytes;
+        }
+
+        return bytes;
+    }
+}
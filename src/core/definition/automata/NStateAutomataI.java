@@ -2,6 +2,7 @@ package core.definition.automata;
 
 import com.jogamp.common.util.IntIntHashMap;
 import core.definition.NdArrayF;
+import core.definition.Soup;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import util.U;
@@ -14,6 +15,13 @@ import java.util.concurrent.ThreadPoolExecutor;
  * */
 public abstract class NStateAutomataI extends AbstractAutomataI {
 
+    /* Common spec parameters, see toSpec() */
+    public static final String SPEC_KEY_N = "n";
+    public static final String SPEC_KEY_K1 = "k1";
+    public static final String SPEC_KEY_K2 = "k2";
+    public static final String SPEC_KEY_K3 = "k3";
+    public static final String SPEC_KEY_K4 = "k4";
+
     protected static int toInt(float value) {
         return (int) value;
     }
@@ -67,9 +75,8 @@ public abstract class NStateAutomataI extends AbstractAutomataI {
 
 
     @Override
-    public void resetState(@Nullable ThreadPoolExecutor executor, @NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled) {
-//        outState.clear();
-        outState.fillRandInt(0, n + 1);
+    public void resetState(@Nullable ComputePool pool, @NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled, @NotNull Soup soup) {
+        soup.fill(pool, outState, n + 1);
     }
 
     @Override
@@ -78,31 +85,18 @@ public abstract class NStateAutomataI extends AbstractAutomataI {
     }
 
     @Override
-    public final boolean cycleCellState(@NotNull NdArrayF state, int[] cellIndices) {
-        float prev = state.get(cellIndices);
-        int _new = toInt(prev) + 1;
+    public final float cycledCellState(float cellState) {
+        int _new = toInt(cellState) + 1;
         if (_new > n) {
             _new = 0;
         }
 
-        if (prev != _new) {
-            state.set(_new, cellIndices);
-            return true;
-        }
-
-        return false;
+        return _new;
     }
 
     @Override
-    public final boolean stepCellState(@NotNull NdArrayF state, int[] cellIndices, boolean stepUp) {
-        float prev = state.get(cellIndices);
-        int _new = U.constrain(toInt(prev) + (stepUp? 1: -1), 0, n);
-        if (prev != _new) {
-            state.set(_new, cellIndices);
-            return true;
-        }
-
-        return false;
+    public final float steppedCellState(float cellState, boolean stepUp) {
+        return U.constrain(toInt(cellState) + (stepUp? 1: -1), 0, n);
     }
 
 
@@ -2,15 +2,16 @@ package core.definition.automata;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-
-import java.util.LinkedList;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ThreadPoolExecutor;
+import util.async.CancellationProvider;
 
 public class WorkSplitter {
 
     public interface ComputeTask {
-        void compute(int row_start, int row_end);
+
+        /**
+         * @param worker index of the worker computing this chunk, in range [0, worker_count)
+         * */
+        void compute(int worker, int row_start, int row_end);
     }
 
     public interface Listener {
@@ -20,12 +21,64 @@ public class WorkSplitter {
         void onMinCellsPerThreadChanged(int oldMinCellsPerThread, int newMinCellsPerThread);
     }
 
+    /**
+     * Approximate number of cells computed between cancellation checks
+     * */
+    public static final int DEF_CANCELLATION_BLOCK_CELLS = 1 << 16;
+
     private boolean parallelComputeEnabled;
     private int minCellsPerThread;
+    private int cancellationBlockCells = DEF_CANCELLATION_BLOCK_CELLS;
 
     @Nullable
     private Listener mListener;
 
+    /**
+     * Reusable row slicing of the current {@link #compute} call. Each slice is computed in blocks of rows,
+     * checking for cancellation before each block
+     * */
+    private static final class Slicer implements ComputePool.PartTask {
+
+        private ComputeTask task;
+        @Nullable
+        private CancellationProvider cancellation;
+        private int totalRows, rowsPerWorker, workerCount, blockRows;
+        private volatile boolean cancelled;
+
+        private void set(@NotNull ComputeTask task, @Nullable CancellationProvider cancellation, int totalRows, int workerCount, int blockRows) {
+            this.task = task;
+            this.cancellation = cancellation;
+            this.totalRows = totalRows;
+            this.workerCount = workerCount;
+            this.blockRows = blockRows;
+            rowsPerWorker = totalRows / workerCount;
+            cancelled = false;
+        }
+
+        private void clear() {
+            task = null;
+            cancellation = null;
+        }
+
+        @Override
+        public void compute(int part) {
+            final int row_start = part * rowsPerWorker;
+            final int row_end = part == workerCount - 1 ? totalRows : row_start + rowsPerWorker;     // last worker takes the remainder
+
+            for (int block_start = row_start; block_start < row_end; block_start += blockRows) {
+                if (cancelled || (cancellation != null && cancellation.isCancelled())) {
+                    cancelled = true;
+                    return;
+                }
+
+                task.compute(part, block_start, Math.min(block_start + blockRows, row_end));
+            }
+        }
+    }
+
+    @NotNull
+    private final Slicer mSlicer = new Slicer();
+
     public WorkSplitter(boolean parallelComputeEnabled, int minCellsPerThread) {
         this.parallelComputeEnabled = parallelComputeEnabled;
         this.minCellsPerThread = minCellsPerThread;
@@ -73,52 +126,66 @@ public class WorkSplitter {
 
     }
 
-    public boolean isExecutorParallelReady(@Nullable ThreadPoolExecutor executor) {
-        return executor != null && !executor.isShutdown() && executor.getCorePoolSize() >= 2 && executor.getMaximumPoolSize() >= 3;
+    public boolean isPoolParallelReady(@Nullable ComputePool pool) {
+        return pool != null && !pool.isShutdown() && pool.getThreadCount() >= 1;
     }
 
-    public int getWorkerThreadCount(@Nullable ThreadPoolExecutor executor, int totalCells, int totalRows) {
+    public int getWorkerThreadCount(@Nullable ComputePool pool, int totalCells, int totalRows) {
         final int minCells = minCellsPerThread;
 
         if (!parallelComputeEnabled ||
-                executor == null ||
+                pool == null ||
                 totalCells <= minCells ||
-                !isExecutorParallelReady(executor)) {
+                !isPoolParallelReady(pool)) {
             return 1;
         }
 
-        final int worker_count = Math.min(totalCells / minCells, executor.getMaximumPoolSize() - 1);
+        final int worker_count = Math.min(totalCells / minCells, pool.getParallelism());
         return Math.min(worker_count, totalRows);
     }
 
-    public void compute(@Nullable ThreadPoolExecutor executor, int totalCells, int totalRows, @NotNull WorkSplitter.ComputeTask computeTask) {
-        final int worker_count = getWorkerThreadCount(executor, totalCells, totalRows);
-        if (executor == null || worker_count <= 1) {
-            computeTask.compute(0, totalRows);
-        } else {
-            LinkedList<Callable<Void>> tasks = new LinkedList<>();
-            int rows_per_worker = totalRows / worker_count;
-
-            for (int i = 0; i < worker_count - 1; i++) {
-                final int row_start = i * rows_per_worker;
-                final int row_end = row_start + rows_per_worker;
-                tasks.add(() -> {
-                    computeTask.compute(row_start, row_end);
-                    return null;
-                });
-            }
+    public int getCancellationBlockCells() {
+        return cancellationBlockCells;
+    }
 
-            // last worker
-            tasks.add(() -> {
-                computeTask.compute((worker_count - 1) * rows_per_worker, totalRows);
-                return null;
-            });
+    public void setCancellationBlockCells(int cancellationBlockCells) {
+        if (cancellationBlockCells < 1) {
+            throw new IllegalArgumentException("Cancellation block cells must be >= 1, given: " + cancellationBlockCells);
+        }
 
+        this.cancellationBlockCells = cancellationBlockCells;
+    }
+
+    /**
+     * Splits rows among workers and computes them, blocking until all are done. Does not allocate
+     * <br><br>
+     * Each worker computes its rows in blocks of about {@link #getCancellationBlockCells()} cells, and stops as soon as
+     * cancellation is signalled. The output is then partially computed, and should be discarded
+     *
+     * @param cancellation checked by every worker before each row block
+     * @return number of workers used, or -1 if cancelled before all rows were computed.
+     *          Worker indices passed to the {@code computeTask} are in range [0, worker_count)
+     * */
+    public int compute(@Nullable ComputePool pool, int totalCells, int totalRows, @NotNull WorkSplitter.ComputeTask computeTask, @Nullable CancellationProvider cancellation) {
+        final int worker_count = getWorkerThreadCount(pool, totalCells, totalRows);
+        final int cols = totalRows > 0 ? Math.max(totalCells / totalRows, 1) : 1;
+        final int block_rows = Math.max(cancellationBlockCells / cols, 1);
+
+        final boolean cancelled;
+        synchronized (mSlicer) {
+            mSlicer.set(computeTask, cancellation, totalRows, worker_count, block_rows);
             try {
-                executor.invokeAll(tasks);
-            } catch (InterruptedException e) {
-                System.err.println("Interrupted while waiting for tasks: " + e);
+                if (pool == null || worker_count <= 1) {
+                    mSlicer.compute(0);
+                } else {
+                    pool.invoke(worker_count, mSlicer);
+                }
+            } finally {
+                cancelled = mSlicer.cancelled;
+                mSlicer.clear();
             }
         }
+
+        return cancelled ? -1 : worker_count;
     }
 }
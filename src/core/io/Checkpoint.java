@@ -0,0 +1,123 @@
+package core.io;
+
+import core.definition.NdArrayF;
+import core.definition.automata.AutomataSpec;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Everything needed to resume a simulation: the state, its generation, the automata spec and the simulation parameters
+ * <br><br>
+ * Stored as a {@link GridSnapshot}, whose header carries everything but the state
+ * */
+public final class Checkpoint {
+
+    public static final String FILE_EXTENSION = ".ackpt";
+
+    public final long timestampMs;
+    public final int generation;
+    public final int generationSteps;
+    public final boolean wrapEnabled;
+    @NotNull
+    public final AutomataSpec automataSpec;
+
+    /**
+     * State of the checkpoint. Not copied, must not be modified while the checkpoint is in use
+     * */
+    @NotNull
+    public final NdArrayF state;
+
+    public Checkpoint(long timestampMs, int generation, int generationSteps, boolean wrapEnabled, @NotNull AutomataSpec automataSpec, @NotNull NdArrayF state) {
+        this.timestampMs = timestampMs;
+        this.generation = generation;
+        this.generationSteps = generationSteps;
+        this.wrapEnabled = wrapEnabled;
+        this.automataSpec = automataSpec;
+        this.state = state;
+    }
+
+    @NotNull
+    public GridSnapshot.Header header() {
+        return new GridSnapshot.Header(timestampMs, generation, generationSteps, wrapEnabled, automataSpec, state.shape());
+    }
+
+    public void write(@NotNull WritableByteChannel channel) throws IOException {
+        GridSnapshot.write(channel, header(), state);
+    }
+
+    public void write(@NotNull OutputStream out) throws IOException {
+        write(Channels.newChannel(out));
+        out.flush();
+    }
+
+    /**
+     * Writes to a temporary file next to {@code file}, then moves it in place, so that an existing checkpoint
+     * is never left half written (ex. on a crash)
+     * */
+    public void writeTo(@NotNull Path file) throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel);
+            channel.force(true);        // on disk before the move, so that a crash cannot leave a truncated checkpoint in place
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @throws IOException if the data is not a valid checkpoint, or is corrupted
+     * */
+    @NotNull
+    public static Checkpoint read(@NotNull ReadableByteChannel channel) throws IOException {
+        final GridSnapshot.Header[] header = new GridSnapshot.Header[1];
+        final NdArrayF state = GridSnapshot.read(channel, header);
+        final GridSnapshot.Header h = header[0];
+        return new Checkpoint(h.timestampMs, h.generation, h.generationSteps, h.wrapEnabled, h.automataSpec, state);
+    }
+
+    @NotNull
+    public static Checkpoint read(@NotNull InputStream in) throws IOException {
+        return read(Channels.newChannel(in));
+    }
+
+    @NotNull
+    public static Checkpoint readFrom(@NotNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint{" +
+                "timestampMs=" + timestampMs +
+                ", generation=" + generation +
+                ", generationSteps=" + generationSteps +
+                ", wrapEnabled=" + wrapEnabled +
+                ", automataSpec=" + automataSpec +
+                ", shape=" + Arrays.toString(state.shape()) +
+                '}';
+    }
+}
@@ -0,0 +1,608 @@
+package core.io;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import core.definition.automata.AutomataSpec;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary format of a grid state, streamed through NIO channels chunk by chunk
+ * <br><br>
+ * Layout (big endian):
+ * <pre>
+ *     header: [magic: int][version: short][timestamp_ms: long][generation: int][generation_steps: int][wrap: byte]
+ *             [spec_length: short][automata_spec: utf8][dimensions: byte][shape: int*][chunk_cells: int][header_crc: int]
+ *     chunk*: [encoding: byte][deflated: byte][cells: int][stored_length: int][encoded_length: int][crc: int][payload]
+ * </pre>
+ * The state is split into chunks of {@code chunk_cells} cells (in flat order). Each chunk is encoded on its own, with the
+ * smallest of:
+ * <ul>
+ *     <li>{@link #ENCODING_BITS}: integral states in [0, 65535], bit-packed with the minimum bits per cell (dense chunks)</li>
+ *     <li>{@link #ENCODING_RLE}: integral states as {@code [run_length: varint][state: zigzag varint]} pairs (sparse chunks)</li>
+ *     <li>{@link #ENCODING_FLOAT}: raw float bits, for non-integral states</li>
+ * </ul>
+ * and then deflated, unless that does not make it smaller. The CRC covers the stored payload.
+ * <br><br>
+ * Only chunk sized buffers are used: the whole grid is never copied
+ * */
+public final class GridSnapshot {
+
+    public static final int MAGIC = 0x41475244;        // "AGRD"
+    public static final short VERSION = 1;
+    public static final String FILE_EXTENSION = ".agrid";
+
+    public static final int DEF_CHUNK_CELLS = 1 << 20;
+    public static final int MAX_DIMENSIONS = 8;
+
+    public static final byte ENCODING_FLOAT = 0;
+    public static final byte ENCODING_BITS = 1;
+    public static final byte ENCODING_RLE = 2;
+
+    private static final int BITS_MAX_STATE = 0xFFFF;
+    private static final int CHUNK_HEADER_BYTES = 1 + 1 + 4 + 4 + 4 + 4;
+
+    /**
+     * Everything stored besides the cells
+     * */
+    public static final class Header {
+
+        public final long timestampMs;
+        public final int generation;
+        public final int generationSteps;
+        public final boolean wrapEnabled;
+        @NotNull
+        public final AutomataSpec automataSpec;
+        public final int @NotNull [] shape;
+
+        public Header(long timestampMs, int generation, int generationSteps, boolean wrapEnabled, @NotNull AutomataSpec automataSpec, int @NotNull [] shape) {
+            this.timestampMs = timestampMs;
+            this.generation = generation;
+            this.generationSteps = generationSteps;
+            this.wrapEnabled = wrapEnabled;
+            this.automataSpec = automataSpec;
+            this.shape = shape.clone();
+        }
+
+        public int cellCount() {
+            return NdArrayF.product(shape);
+        }
+
+        @Override
+        public String toString() {
+            return "Header{" +
+                    "timestampMs=" + timestampMs +
+                    ", generation=" + generation +
+                    ", generationSteps=" + generationSteps +
+                    ", wrapEnabled=" + wrapEnabled +
+                    ", automataSpec=" + automataSpec +
+                    ", shape=" + Arrays.toString(shape) +
+                    '}';
+        }
+    }
+
+
+    /* ==============================  WRITE  ============================== */
+
+    public static void write(@NotNull WritableByteChannel channel, @NotNull Header header, @NotNull NdArrayFloatI state, int chunkCells) throws IOException {
+        if (!Arrays.equals(header.shape, state.shape())) {
+            throw new IllegalArgumentException("Header shape " + Arrays.toString(header.shape) + " does not match the state shape " + Arrays.toString(state.shape()));
+        }
+
+        if (chunkCells < 1) {
+            throw new IllegalArgumentException("Chunk cells must be >= 1, given: " + chunkCells);
+        }
+
+        writeFully(channel, encodeHeader(header, chunkCells));
+
+        final int size = state.size();
+        final ByteBuffer encoded = ByteBuffer.allocate(maxEncodedLength(chunkCells));
+        final ByteBuffer deflated = ByteBuffer.allocate(encoded.capacity() + 64);
+        final ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        final CRC32 crc = new CRC32();
+
+        try {
+            for (int start = 0; start < size; start += chunkCells) {
+                final int cells = Math.min(chunkCells, size - start);
+
+                encoded.clear();
+                final byte encoding = encodeChunk(state, start, cells, encoded);
+                encoded.flip();
+                final int encodedLength = encoded.remaining();
+
+                // Deflate, keep only if smaller
+                deflater.reset();
+                deflater.setInput(encoded);
+                deflater.finish();
+                deflated.clear();
+                while (!deflater.finished() && deflated.hasRemaining()) {
+                    deflater.deflate(deflated);
+                }
+
+                final boolean useDeflated = deflater.finished() && deflated.position() < encodedLength;
+                final ByteBuffer payload;
+                if (useDeflated) {
+                    payload = deflated.flip();
+                } else {
+                    payload = encoded.rewind();
+                }
+
+                crc.reset();
+                crc.update(payload.duplicate());
+
+                chunkHeader.clear();
+                chunkHeader.put(encoding)
+                        .put((byte) (useDeflated ? 1 : 0))
+                        .putInt(cells)
+                        .putInt(payload.remaining())
+                        .putInt(encodedLength)
+                        .putInt((int) crc.getValue())
+                        .flip();
+
+                writeFully(channel, chunkHeader);
+                writeFully(channel, payload);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static void write(@NotNull WritableByteChannel channel, @NotNull Header header, @NotNull NdArrayFloatI state) throws IOException {
+        write(channel, header, state, DEF_CHUNK_CELLS);
+    }
+
+    public static void save(@NotNull Path file, @NotNull Header header, @NotNull NdArrayFloatI state) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, header, state);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer encodeHeader(@NotNull Header header, int chunkCells) {
+        final byte[] spec = header.automataSpec.toString().getBytes(StandardCharsets.UTF_8);
+        if (spec.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Automata spec too long: " + spec.length + " bytes");
+        }
+
+        if (header.shape.length < 1 || header.shape.length > MAX_DIMENSIONS) {
+            throw new IllegalArgumentException("Dimensions must be in range [1, " + MAX_DIMENSIONS + "], given: " + header.shape.length);
+        }
+
+        final ByteBuffer buf = ByteBuffer.allocate(4 + 2 + 8 + 4 + 4 + 1 + 2 + spec.length + 1 + 4 * header.shape.length + 4 + 4);
+        buf.putInt(MAGIC)
+                .putShort(VERSION)
+                .putLong(header.timestampMs)
+                .putInt(header.generation)
+                .putInt(header.generationSteps)
+                .put((byte) (header.wrapEnabled ? 1 : 0))
+                .putShort((short) spec.length)
+                .put(spec)
+                .put((byte) header.shape.length);
+
+        for (int dim: header.shape) {
+            buf.putInt(dim);
+        }
+
+        buf.putInt(chunkCells);
+
+        final CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        return buf.flip();
+    }
+
+    /**
+     * Upper bound of the encoded length of a chunk (float encoding, or RLE of alternating states)
+     * */
+    private static int maxEncodedLength(int chunkCells) {
+        return (int) Math.min(Integer.MAX_VALUE - 64, Math.max(4L * chunkCells, 6L * chunkCells) + 8);
+    }
+
+    /**
+     * Encodes cells [start, start + cells) with the smallest encoding
+     *
+     * @return the encoding used
+     * */
+    private static byte encodeChunk(@NotNull NdArrayFloatI state, int start, int cells, @NotNull ByteBuffer out) {
+        final int end = start + cells;
+
+        // Scan: integral range and RLE size
+        boolean integral = true;
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        long rleBytes = 0;
+
+        int runValue = 0, runLength = 0;
+        for (int i = start; i < end; i++) {
+            final float v = state.getFlat(i);
+            final int iv = (int) v;
+            if (v != (float) iv) {
+                integral = false;
+                break;
+            }
+
+            if (iv < min) min = iv;
+            if (iv > max) max = iv;
+
+            if (runLength > 0 && iv == runValue) {
+                runLength++;
+            } else {
+                if (runLength > 0) {
+                    rleBytes += varIntSize(runLength) + varIntSize(zigzag(runValue));
+                }
+
+                runValue = iv;
+                runLength = 1;
+            }
+        }
+
+        if (!integral) {
+            for (int i = start; i < end; i++) {
+                out.putInt(Float.floatToRawIntBits(state.getFlat(i)));
+            }
+
+            return ENCODING_FLOAT;
+        }
+
+        rleBytes += varIntSize(runLength) + varIntSize(zigzag(runValue));
+
+        final int bits = (min >= 0 && max <= BITS_MAX_STATE) ? Math.max(1, 32 - Integer.numberOfLeadingZeros(max)) : -1;
+        final long bitsBytes = bits > 0 ? 1 + ((long) cells * bits + 7) / 8 : Long.MAX_VALUE;
+
+        if (bitsBytes <= rleBytes) {
+            out.put((byte) bits);
+
+            long acc = 0;
+            int accBits = 0;
+            for (int i = start; i < end; i++) {
+                acc |= ((long) (int) state.getFlat(i)) << accBits;
+                accBits += bits;
+                while (accBits >= 8) {
+                    out.put((byte) acc);
+                    acc >>>= 8;
+                    accBits -= 8;
+                }
+            }
+
+            if (accBits > 0) {
+                out.put((byte) acc);
+            }
+
+            return ENCODING_BITS;
+        }
+
+        runLength = 0;
+        for (int i = start; i < end; i++) {
+            final int iv = (int) state.getFlat(i);
+            if (runLength > 0 && iv == runValue) {
+                runLength++;
+            } else {
+                if (runLength > 0) {
+                    putVarInt(out, runLength);
+                    putVarInt(out, zigzag(runValue));
+                }
+
+                runValue = iv;
+                runLength = 1;
+            }
+        }
+
+        putVarInt(out, runLength);
+        putVarInt(out, zigzag(runValue));
+        return ENCODING_RLE;
+    }
+
+
+    /* ==============================  READ  ============================== */
+
+    /**
+     * Reads the header, leaving the channel at the first chunk
+     *
+     * @throws IOException if the data is not a grid snapshot, or the header is corrupted
+     * */
+    @NotNull
+    public static Header readHeader(@NotNull ReadableByteChannel channel) throws IOException {
+        final ByteBuffer fixed = readFully(channel, ByteBuffer.allocate(4 + 2 + 8 + 4 + 4 + 1 + 2));
+        if (fixed.getInt() != MAGIC) {
+            throw new IOException("Not a grid snapshot");
+        }
+
+        final short version = fixed.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported grid snapshot version: " + version);
+        }
+
+        final long timestampMs = fixed.getLong();
+        final int generation = fixed.getInt();
+        final int generationSteps = fixed.getInt();
+        final boolean wrapEnabled = fixed.get() != 0;
+        final int specLength = fixed.getShort();
+        if (specLength < 0) {
+            throw new IOException("Invalid automata spec length: " + specLength);
+        }
+
+        final ByteBuffer spec = readFully(channel, ByteBuffer.allocate(specLength + 1));
+        final int dims = spec.get(specLength);
+        if (dims < 1 || dims > MAX_DIMENSIONS) {
+            throw new IOException("Invalid grid snapshot dimensions: " + dims);
+        }
+
+        final ByteBuffer rest = readFully(channel, ByteBuffer.allocate(4 * dims + 4 + 4));
+        final int[] shape = new int[dims];
+        for (int i = 0; i < dims; i++) {
+            shape[i] = rest.getInt();
+            if (shape[i] < 1) {
+                throw new IOException("Invalid grid snapshot shape: " + Arrays.toString(shape));
+            }
+        }
+
+        rest.getInt();      // chunk cells, informative: every chunk stores its cell count
+        final int headerCrc = rest.getInt();
+
+        final CRC32 crc = new CRC32();
+        crc.update(fixed.array());
+        crc.update(spec.array());
+        crc.update(rest.array(), 0, rest.capacity() - 4);
+        if ((int) crc.getValue() != headerCrc) {
+            throw new IOException("Grid snapshot header checksum mismatch");
+        }
+
+        final AutomataSpec automataSpec;
+        try {
+            automataSpec = AutomataSpec.parse(new String(spec.array(), 0, specLength, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        return new Header(timestampMs, generation, generationSteps, wrapEnabled, automataSpec, shape);
+    }
+
+    /**
+     * Reads all chunks following the header straight into the target
+     *
+     * @param target array of the header shape
+     * @throws IOException if the data is truncated or corrupted
+     * */
+    public static void readBody(@NotNull ReadableByteChannel channel, @NotNull Header header, @NotNull NdArrayF target) throws IOException {
+        if (!Arrays.equals(header.shape, target.shape())) {
+            throw new IllegalArgumentException("Header shape " + Arrays.toString(header.shape) + " does not match the target shape " + Arrays.toString(target.shape()));
+        }
+
+        final int size = target.size();
+        final ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+        final Inflater inflater = new Inflater();
+        final CRC32 crc = new CRC32();
+        ByteBuffer stored = ByteBuffer.allocate(0);
+        ByteBuffer encoded = ByteBuffer.allocate(0);
+
+        try {
+            int offset = 0;
+            while (offset < size) {
+                readFully(channel, chunkHeader.clear());
+                final byte encoding = chunkHeader.get();
+                final boolean deflated = chunkHeader.get() != 0;
+                final int cells = chunkHeader.getInt();
+                final int storedLength = chunkHeader.getInt();
+                final int encodedLength = chunkHeader.getInt();
+                final int chunkCrc = chunkHeader.getInt();
+
+                // Lengths are untrusted: bounded before allocating. A payload is deflated only if that makes it smaller
+                if (cells < 1 || cells > size - offset || storedLength < 0 || encodedLength < 0
+                        || encodedLength > maxEncodedLength(cells) || storedLength > encodedLength
+                        || (!deflated && storedLength != encodedLength)) {
+                    throw new IOException("Corrupted grid snapshot chunk at cell " + offset);
+                }
+
+                if (channel instanceof SeekableByteChannel seekable && storedLength > seekable.size() - seekable.position()) {
+                    throw new IOException("Truncated grid snapshot chunk at cell " + offset);
+                }
+
+                if (stored.capacity() < storedLength) {
+                    stored = ByteBuffer.allocate(storedLength);
+                }
+
+                readFully(channel, stored.clear().limit(storedLength));
+                crc.reset();
+                crc.update(stored.duplicate());
+                if ((int) crc.getValue() != chunkCrc) {
+                    throw new IOException("Grid snapshot chunk checksum mismatch at cell " + offset);
+                }
+
+                final ByteBuffer data;
+                if (deflated) {
+                    if (encoded.capacity() < encodedLength) {
+                        encoded = ByteBuffer.allocate(encodedLength);
+                    }
+
+                    encoded.clear().limit(encodedLength);
+                    inflater.reset();
+                    inflater.setInput(stored);
+                    try {
+                        while (encoded.hasRemaining() && !inflater.finished()) {
+                            if (inflater.inflate(encoded) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                                break;
+                            }
+                        }
+                    } catch (DataFormatException e) {
+                        throw new IOException("Corrupted grid snapshot chunk at cell " + offset, e);
+                    }
+
+                    if (encoded.hasRemaining()) {
+                        throw new IOException("Truncated grid snapshot chunk at cell " + offset);
+                    }
+
+                    data = encoded.flip();
+                } else {
+                    data = stored;
+                }
+
+                try {
+                    decodeChunk(encoding, data, target, offset, cells);
+                } catch (RuntimeException e) {
+                    throw new IOException("Corrupted grid snapshot chunk at cell " + offset, e);
+                }
+
+                offset += cells;
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads a whole snapshot into a new array
+     * */
+    @NotNull
+    public static NdArrayF read(@NotNull ReadableByteChannel channel, @NotNull Header @NotNull [] outHeader) throws IOException {
+        final Header header = readHeader(channel);
+        final NdArrayF state = new NdArrayF(header.shape);
+        readBody(channel, header, state);
+        if (outHeader.length > 0) {
+            outHeader[0] = header;
+        }
+
+        return state;
+    }
+
+    /**
+     * Loads a snapshot file into the target if it has the same shape, otherwise into a new array
+     *
+     * @return the array holding the loaded state
+     * */
+    @NotNull
+    public static NdArrayF load(@NotNull Path file, @NotNull NdArrayF target, @NotNull Header @NotNull [] outHeader) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final Header header = readHeader(channel);
+            final NdArrayF state = Arrays.equals(header.shape, target.shape()) ? target : new NdArrayF(header.shape);
+            readBody(channel, header, state);
+            if (outHeader.length > 0) {
+                outHeader[0] = header;
+            }
+
+            return state;
+        }
+    }
+
+    private static void decodeChunk(byte encoding, @NotNull ByteBuffer data, @NotNull NdArrayF target, int offset, int cells) throws IOException {
+        final int end = offset + cells;
+
+        switch (encoding) {
+            case ENCODING_FLOAT -> {
+                for (int i = offset; i < end; i++) {
+                    target.setFlat(i, Float.intBitsToFloat(data.getInt()));
+                }
+            }
+
+            case ENCODING_BITS -> {
+                final int bits = data.get();
+                if (bits < 1 || bits > 16) {
+                    throw new IOException("Invalid bits per cell: " + bits);
+                }
+
+                final int mask = (1 << bits) - 1;
+                long acc = 0;
+                int accBits = 0;
+                for (int i = offset; i < end; i++) {
+                    while (accBits < bits) {
+                        acc |= ((long) (data.get() & 0xFF)) << accBits;
+                        accBits += 8;
+                    }
+
+                    target.setFlat(i, (float) (acc & mask));
+                    acc >>>= bits;
+                    accBits -= bits;
+                }
+            }
+
+            case ENCODING_RLE -> {
+                int i = offset;
+                while (i < end) {
+                    final int run = getVarInt(data);
+                    final float value = unzigzag(getVarInt(data));
+                    if (run < 1 || run > end - i) {
+                        throw new IOException("Invalid run length: " + run);
+                    }
+
+                    for (int k = 0; k < run; k++) {
+                        target.setFlat(i++, value);
+                    }
+                }
+            }
+
+            default -> throw new IOException("Unknown chunk encoding: " + encoding);
+        }
+    }
+
+
+    /* ==============================  HELPERS  ============================== */
+
+    private static void writeFully(@NotNull WritableByteChannel channel, @NotNull ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer readFully(@NotNull ReadableByteChannel channel, @NotNull ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException("Unexpected end of grid snapshot");
+            }
+        }
+
+        return buf.flip();
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varIntSize(int value) {
+        return value == 0 ? 1 : (38 - Integer.numberOfLeadingZeros(value)) / 7;
+    }
+
+    private static void putVarInt(@NotNull ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.put((byte) value);
+    }
+
+    private static int getVarInt(@NotNull ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+
+    private GridSnapshot() {
+    }
+}
@@ -0,0 +1,650 @@
+package core.io;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Streaming reader and writer of the 2-state Macrocell ({@code .mc}) pattern format, into and from a {@link MacrocellTree}
+ * <br><br>
+ * <pre>
+ *     [M2] (automata)
+ *     #R B3/S23
+ *     #G 0
+ *     .*$..*$***$         leaf: 8x8 block, '.' dead, '*' alive, '$' row end
+ *     4 0 1 0 1           node: level nw ne sw se (1-based indices of previous nodes, 0 for empty)
+ * </pre>
+ * Node lines are independent of each other, so large files are parsed in parallel: the body is split at line
+ * boundaries, each segment is parsed on its own, and the parsed nodes are then linked in file order
+ * */
+public final class MacrocellFormat {
+
+    public static final String FILE_EXTENSION = ".mc";
+    public static final String HEADER = "[M2]";
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int MAX_LINE_BYTES = 1 << 12;
+    private static final long MIN_SEGMENT_BYTES = 1 << 18;
+
+    /**
+     * A parsed pattern: its info and its quadtree
+     * */
+    public record Pattern(@NotNull PatternInfo info, @NotNull MacrocellTree tree) {
+    }
+
+
+    /* ==============================  READ  ============================== */
+
+    /**
+     * Nodes parsed from a segment of the body, not linked yet
+     * */
+    private static final class NodeList {
+
+        int count;
+        byte @NotNull [] levels = new byte[256];
+        long @NotNull [] leaves = new long[256];
+        int @NotNull [] children = new int[256 * 4];
+
+        void addLeaf(long bits) {
+            ensureCapacity();
+            levels[count] = MacrocellTree.LEAF_LEVEL;
+            leaves[count++] = bits;
+        }
+
+        void addNode(int level, int nw, int ne, int sw, int se) {
+            ensureCapacity();
+            levels[count] = (byte) level;
+            final int c = count++ * 4;
+            children[c] = nw;
+            children[c + 1] = ne;
+            children[c + 2] = sw;
+            children[c + 3] = se;
+        }
+
+        private void ensureCapacity() {
+            if (count == levels.length) {
+                final int capacity = count * 2;
+                levels = Arrays.copyOf(levels, capacity);
+                leaves = Arrays.copyOf(leaves, capacity);
+                children = Arrays.copyOf(children, capacity * 4);
+            }
+        }
+    }
+
+    /**
+     * Splits bytes into lines (kept across buffers) and parses node lines
+     * */
+    private static final class LineParser {
+
+        @NotNull
+        final NodeList nodes = new NodeList();
+        private final byte @NotNull [] mLine = new byte[MAX_LINE_BYTES];
+        private int mLength;
+        private final int @NotNull [] mInts = new int[5];
+
+        void feed(@NotNull ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                final byte b = buf.get();
+                if (b == '\n') {
+                    end();
+                } else if (mLength < MAX_LINE_BYTES) {
+                    mLine[mLength++] = b;
+                } else {
+                    throw new IOException("Macrocell line too long");
+                }
+            }
+        }
+
+        void end() throws IOException {
+            if (mLength > 0) {
+                parseLine(mLine, mLength);
+                mLength = 0;
+            }
+        }
+
+        private void parseLine(byte @NotNull [] line, int length) throws IOException {
+            final byte first = line[0];
+            if (first == '.' || first == '*' || first == '$') {
+                long bits = 0;
+                int r = 0, c = 0;
+                for (int i = 0; i < length; i++) {
+                    switch (line[i]) {
+                        case '.' -> c++;
+                        case '*' -> {
+                            if (r >= MacrocellTree.LEAF_SIZE || c >= MacrocellTree.LEAF_SIZE) {
+                                throw new IOException("Macrocell leaf larger than 8x8: " + lineText(line, length));
+                            }
+
+                            bits |= 1L << (r * MacrocellTree.LEAF_SIZE + c);
+                            c++;
+                        }
+                        case '$' -> {
+                            r++;
+                            c = 0;
+                        }
+                        case '\r', ' ' -> {
+                        }
+                        default -> throw new IOException("Invalid Macrocell leaf: " + lineText(line, length));
+                    }
+                }
+
+                nodes.addLeaf(bits);
+            } else if (first >= '0' && first <= '9') {
+                int n = 0;
+                int i = 0;
+                while (i < length && n < 5) {
+                    while (i < length && (line[i] == ' ' || line[i] == '\t')) i++;
+                    if (i >= length || line[i] < '0' || line[i] > '9') break;
+
+                    long value = 0;
+                    while (i < length && line[i] >= '0' && line[i] <= '9') {
+                        value = value * 10 + (line[i++] - '0');
+                        if (value > Integer.MAX_VALUE) {
+                            throw new IOException("Invalid Macrocell node: " + lineText(line, length));
+                        }
+                    }
+
+                    mInts[n++] = (int) value;
+                }
+
+                if (n != 5) {
+                    throw new IOException("Invalid Macrocell node: " + lineText(line, length));
+                }
+
+                if (mInts[0] <= MacrocellTree.LEAF_LEVEL) {
+                    throw new IOException("Multi-state Macrocell files are not supported (node level " + mInts[0] + ")");
+                }
+
+                nodes.addNode(mInts[0], mInts[1], mInts[2], mInts[3], mInts[4]);
+            } else if (first != '#' && first != '\r') {
+                throw new IOException("Invalid Macrocell line: " + lineText(line, length));
+            }
+        }
+    }
+
+    @NotNull
+    private static String lineText(byte @NotNull [] line, int length) {
+        return new String(line, 0, Math.min(length, 80), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Reads the header and comment lines from the start of the channel
+     *
+     * @param outBodyStart receives the position of the first node line
+     * */
+    @NotNull
+    private static PatternInfo readHeader(@NotNull ReadableByteChannel channel, @NotNull ByteBuffer buf, long @NotNull [] outBodyStart) throws IOException {
+        String name = null;
+        String rule = null;
+        long generation = 0;
+        final List<String> comments = new ArrayList<>();
+
+        final byte[] line = new byte[MAX_LINE_BYTES];
+        long read = 0;
+        boolean first = true;
+
+        buf.clear().flip();
+        while (true) {
+            // Next line start
+            if (!buf.hasRemaining()) {
+                buf.clear();
+                final int n = channel.read(buf);
+                buf.flip();
+                if (n < 0) {
+                    break;
+                }
+
+                read += n;
+                continue;
+            }
+
+            final byte peek = buf.get(buf.position());
+            if (!first && peek != '#') {
+                break;      // body
+            }
+
+            int length = 0;
+            while (true) {
+                if (!buf.hasRemaining()) {
+                    buf.clear();
+                    final int n = channel.read(buf);
+                    buf.flip();
+                    if (n < 0) {
+                        break;
+                    }
+
+                    read += n;
+                }
+
+                final byte b = buf.get();
+                if (b == '\n') {
+                    break;
+                }
+
+                if (length < MAX_LINE_BYTES) {
+                    line[length++] = b;
+                }
+            }
+
+            final String text = new String(line, 0, length, StandardCharsets.UTF_8).trim();
+            if (first) {
+                if (!text.startsWith(HEADER)) {
+                    throw new IOException("Not a Macrocell file");
+                }
+
+                first = false;
+                continue;
+            }
+
+            final char kind = text.length() > 1 ? text.charAt(1) : ' ';
+            final String value = text.length() > 2 ? text.substring(2).trim() : "";
+            switch (kind) {
+                case 'R' -> rule = value;
+                case 'N' -> name = value;
+                case 'C' -> comments.add(value);
+                case 'G' -> {
+                    try {
+                        generation = Long.parseLong(value);
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        if (first) {
+            throw new IOException("Not a Macrocell file");
+        }
+
+        outBodyStart[0] = read - buf.remaining();
+        return new PatternInfo(name, comments, -1, -1, rule, generation);
+    }
+
+    @NotNull
+    private static Pattern link(@NotNull PatternInfo info, @NotNull List<NodeList> parts) throws IOException {
+        final MacrocellTree tree = new MacrocellTree();
+        int total = 1;
+        for (NodeList part: parts) {
+            total += part.count;
+        }
+
+        tree.ensureCapacity(total);
+        try {
+            for (NodeList part: parts) {
+                for (int i = 0; i < part.count; i++) {
+                    if (part.levels[i] == MacrocellTree.LEAF_LEVEL) {
+                        tree.addLeaf(part.leaves[i]);
+                    } else {
+                        final int c = i * 4;
+                        tree.addNode(part.levels[i], part.children[c], part.children[c + 1], part.children[c + 2], part.children[c + 3]);
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid Macrocell node " + tree.size() + ": " + e.getMessage(), e);
+        }
+
+        if (tree.size() > 1) {
+            tree.setRoot(tree.size() - 1);
+        }
+
+        final long[] bounds = tree.aliveBounds();
+        final PatternInfo sized = bounds != null ? info.withSize(bounds[3] - bounds[1] + 1, bounds[2] - bounds[0] + 1) : info.withSize(0, 0);
+        return new Pattern(sized, tree);
+    }
+
+    /**
+     * Parses a Macrocell stream on the calling thread
+     * */
+    @NotNull
+    public static Pattern read(@NotNull ReadableByteChannel channel) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES);
+        final PatternInfo info = readHeader(channel, buf, new long[1]);
+
+        final LineParser parser = new LineParser();
+        while (true) {
+            parser.feed(buf);
+            buf.clear();
+            if (channel.read(buf) < 0) {
+                break;
+            }
+
+            buf.flip();
+        }
+
+        parser.end();
+        return link(info, List.of(parser.nodes));
+    }
+
+    /**
+     * Parses a Macrocell file, splitting large files in segments parsed in parallel
+     *
+     * @param executor executor to parse segments in parallel, or {@code null} to parse on the calling thread
+     * */
+    @NotNull
+    public static Pattern read(@NotNull Path file, @Nullable ExecutorService executor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (executor == null) {
+                return read(channel);
+            }
+
+            final long[] bodyStart = new long[1];
+            final PatternInfo info = readHeader(channel, ByteBuffer.allocate(BUFFER_BYTES), bodyStart);
+            final long bodyEnd = channel.size();
+
+            // Segments starting at line starts
+            final long segmentBytes = Math.max(MIN_SEGMENT_BYTES, (bodyEnd - bodyStart[0]) / (4L * Runtime.getRuntime().availableProcessors()));
+            final List<Long> starts = new ArrayList<>();
+            starts.add(bodyStart[0]);
+            for (long nominal = bodyStart[0] + segmentBytes; nominal < bodyEnd; nominal += segmentBytes) {
+                if (nominal <= starts.get(starts.size() - 1)) {
+                    continue;
+                }
+
+                final long sync = findLineStart(channel, nominal, bodyEnd);
+                if (sync >= bodyEnd) {
+                    break;
+                }
+
+                starts.add(sync);
+            }
+
+            final int count = starts.size();
+            final List<NodeList> parts = new ArrayList<>(count);
+            final List<Future<?>> futures = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final LineParser parser = new LineParser();
+                parts.add(parser.nodes);
+
+                final long start = starts.get(i);
+                final long end = i + 1 < count ? starts.get(i + 1) : bodyEnd;
+                futures.add(executor.submit(() -> {
+                    final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(BUFFER_BYTES, end - start));
+                    long pos = start;
+                    while (pos < end) {
+                        buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+                        final int n = channel.read(buf, pos);
+                        if (n < 0) {
+                            break;
+                        }
+
+                        pos += n;
+                        parser.feed(buf.flip());
+                    }
+
+                    parser.end();
+                    return null;
+                }));
+            }
+
+            RleFormat.awaitAll(futures);
+            return link(info, parts);
+        }
+    }
+
+    private static long findLineStart(@NotNull FileChannel channel, long from, long bodyEnd) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(MAX_LINE_BYTES);
+        long pos = from;
+        while (pos < bodyEnd) {
+            buf.clear();
+            final int n = channel.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+
+            buf.flip();
+            while (buf.hasRemaining()) {
+                if (buf.get() == '\n') {
+                    return pos + buf.position();
+                }
+            }
+
+            pos += n;
+        }
+
+        return bodyEnd;
+    }
+
+    /**
+     * Reads a Macrocell file and writes its alive cells into a 2D target, with the top-left alive cell at
+     * ({@code row0}, {@code col0}). Cells outside the target are dropped, dead cells are not written
+     * */
+    @NotNull
+    public static PatternInfo read(@NotNull Path file, @NotNull NdArrayF target, int row0, int col0, @Nullable ExecutorService executor) throws IOException {
+        RleFormat.checkTarget(target);
+
+        final Pattern pattern = read(file, executor);
+        final long[] bounds = pattern.tree().aliveBounds();
+        if (bounds != null) {
+            try {
+                pattern.tree().rasterize(target, row0 - bounds[0], col0 - bounds[1], executor);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+        }
+
+        return pattern.info();
+    }
+
+
+    /**
+     * Computes the {@link PatternSummary} of a Macrocell file. The thumbnail covers the bounding box of the alive cells
+     *
+     * @param thumbnailSize maximum thumbnail width and height
+     * @param executor executor to parse large files in parallel, or {@code null} to parse on the calling thread
+     * */
+    @NotNull
+    public static PatternSummary summarize(@NotNull Path file, int thumbnailSize, @Nullable ExecutorService executor) throws IOException {
+        final Pattern pattern = read(file, executor);
+        final MacrocellTree tree = pattern.tree();
+        final long[] bounds = tree.aliveBounds();
+
+        final PatternSummary.Accumulator acc = bounds != null
+                ? new PatternSummary.Accumulator(bounds[0], bounds[1], bounds[2] - bounds[0] + 1, bounds[3] - bounds[1] + 1, thumbnailSize)
+                : new PatternSummary.Accumulator(0, 0, 0, 0, thumbnailSize);
+        tree.summarize(acc);
+        return acc.finish(pattern.info());
+    }
+
+
+    /* ==============================  WRITE  ============================== */
+
+    private record NodeKey(int level, int nw, int ne, int sw, int se) {
+    }
+
+    /**
+     * Writes a region of a 2-state 2D state. The quadtree is built bottom up with identical subtrees shared, and each
+     * node line is written as soon as the node is created
+     *
+     * @param rule rule in B/S notation, or {@code null} to omit it
+     * @throws IllegalArgumentException if the region is out of bounds, or a state is not 0 or 1
+     * */
+    public static void write(@NotNull WritableByteChannel channel, @NotNull NdArrayFloatI state, int row0, int col0, int rows, int cols, @Nullable String rule) throws IOException {
+        final int[] shape = state.shape();
+        if (shape.length != 2) {
+            throw new IllegalArgumentException("Patterns are 2D, state has " + shape.length + " dimensions");
+        }
+
+        if (row0 < 0 || col0 < 0 || rows < 0 || cols < 0 || row0 + rows > shape[0] || col0 + cols > shape[1]) {
+            throw new IllegalArgumentException("Region [" + row0 + ", " + col0 + ", " + rows + "x" + cols + "] out of bounds of state " + shape[0] + "x" + shape[1]);
+        }
+
+        final Writer out = new Writer(channel);
+        out.text(HEADER + " (automata)\n");
+        if (rule != null) {
+            out.text("#R " + rule + "\n");
+        }
+
+        // Leaves
+        final int stride = shape[1];
+        int gridRows = Math.max(1, (rows + MacrocellTree.LEAF_SIZE - 1) / MacrocellTree.LEAF_SIZE);
+        int gridCols = Math.max(1, (cols + MacrocellTree.LEAF_SIZE - 1) / MacrocellTree.LEAF_SIZE);
+        int[] grid = new int[gridRows * gridCols];
+
+        final Map<Long, Integer> leafIds = new HashMap<>();
+        for (int gr = 0; gr < gridRows; gr++) {
+            for (int gc = 0; gc < gridCols; gc++) {
+                long bits = 0;
+                final int r0 = gr * MacrocellTree.LEAF_SIZE, c0 = gc * MacrocellTree.LEAF_SIZE;
+                final int r1 = Math.min(rows, r0 + MacrocellTree.LEAF_SIZE), c1 = Math.min(cols, c0 + MacrocellTree.LEAF_SIZE);
+                for (int r = r0; r < r1; r++) {
+                    final int base = (row0 + r) * stride + col0;
+                    for (int c = c0; c < c1; c++) {
+                        final int s = RleFormat.cellState(state, base + c);
+                        if (s > 1) {
+                            throw new IllegalArgumentException("Macrocell supports 2 states only, given: " + s);
+                        }
+
+                        if (s != 0) {
+                            bits |= 1L << ((r - r0) * MacrocellTree.LEAF_SIZE + (c - c0));
+                        }
+                    }
+                }
+
+                if (bits != 0) {
+                    final long key = bits;
+                    Integer id = leafIds.get(key);
+                    if (id == null) {
+                        id = out.leaf(bits);
+                        leafIds.put(key, id);
+                    }
+
+                    grid[gr * gridCols + gc] = id;
+                }
+            }
+        }
+
+        // Inner nodes, level by level
+        final Map<NodeKey, Integer> nodeIds = new HashMap<>();
+        int level = MacrocellTree.LEAF_LEVEL;
+        while (gridRows > 1 || gridCols > 1) {
+            level++;
+            final int nextRows = (gridRows + 1) / 2, nextCols = (gridCols + 1) / 2;
+            final int[] next = new int[nextRows * nextCols];
+            for (int gr = 0; gr < nextRows; gr++) {
+                for (int gc = 0; gc < nextCols; gc++) {
+                    final int nw = cellAt(grid, gridRows, gridCols, gr * 2, gc * 2);
+                    final int ne = cellAt(grid, gridRows, gridCols, gr * 2, gc * 2 + 1);
+                    final int sw = cellAt(grid, gridRows, gridCols, gr * 2 + 1, gc * 2);
+                    final int se = cellAt(grid, gridRows, gridCols, gr * 2 + 1, gc * 2 + 1);
+                    if ((nw | ne | sw | se) == 0) {
+                        continue;
+                    }
+
+                    final NodeKey key = new NodeKey(level, nw, ne, sw, se);
+                    Integer id = nodeIds.get(key);
+                    if (id == null) {
+                        id = out.node(level, nw, ne, sw, se);
+                        nodeIds.put(key, id);
+                    }
+
+                    next[gr * nextCols + gc] = id;
+                }
+            }
+
+            grid = next;
+            gridRows = nextRows;
+            gridCols = nextCols;
+        }
+
+        if (grid[0] == 0) {
+            out.text("$\n");        // Empty pattern: a single empty leaf as root
+        }
+
+        out.flush();
+    }
+
+    public static void write(@NotNull Path file, @NotNull NdArrayFloatI state, int row0, int col0, int rows, int cols, @Nullable String rule) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, state, row0, col0, rows, cols, rule);
+        }
+    }
+
+    private static int cellAt(int @NotNull [] grid, int rows, int cols, int r, int c) {
+        return r < rows && c < cols ? grid[r * cols + c] : 0;
+    }
+
+    /**
+     * Buffered node line output, numbering the nodes
+     * */
+    private static final class Writer {
+
+        @NotNull
+        private final WritableByteChannel mChannel;
+        @NotNull
+        private final ByteBuffer mBuf = ByteBuffer.allocate(BUFFER_BYTES);
+        @NotNull
+        private final StringBuilder mLine = new StringBuilder(128);
+        private int mNodeCount;
+
+        Writer(@NotNull WritableByteChannel channel) {
+            mChannel = channel;
+        }
+
+        int leaf(long bits) throws IOException {
+            mLine.setLength(0);
+            final int lastRow = (63 - Long.numberOfLeadingZeros(bits)) / MacrocellTree.LEAF_SIZE;
+            for (int r = 0; r <= lastRow; r++) {
+                final int rowBits = (int) (bits >>> (r * MacrocellTree.LEAF_SIZE)) & 0xFF;
+                final int lastCol = rowBits == 0 ? -1 : 31 - Integer.numberOfLeadingZeros(rowBits);
+                for (int c = 0; c <= lastCol; c++) {
+                    mLine.append((rowBits & (1 << c)) != 0 ? '*' : '.');
+                }
+
+                mLine.append('$');
+            }
+
+            text(mLine.append('\n'));
+            return ++mNodeCount;
+        }
+
+        int node(int level, int nw, int ne, int sw, int se) throws IOException {
+            mLine.setLength(0);
+            mLine.append(level).append(' ').append(nw).append(' ').append(ne).append(' ').append(sw).append(' ').append(se).append('\n');
+            text(mLine);
+            return ++mNodeCount;
+        }
+
+        void text(@NotNull CharSequence text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                if (!mBuf.hasRemaining()) {
+                    flush();
+                }
+
+                mBuf.put((byte) text.charAt(i));
+            }
+        }
+
+        void flush() throws IOException {
+            mBuf.flip();
+            while (mBuf.hasRemaining()) {
+                mChannel.write(mBuf);
+            }
+
+            mBuf.clear();
+        }
+    }
+
+
+    private MacrocellFormat() {
+    }
+}
@@ -0,0 +1,419 @@
+package core.io;
+
+import core.definition.NdArrayF;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Quadtree of a 2-state pattern, as stored in Macrocell files: identical subtrees are shared, so huge (or highly
+ * repetitive) patterns take little memory
+ * <br><br>
+ * Nodes are indexed in creation order, children always before their parents. Index 0 is the empty node (of any level).
+ * Leaves are 8x8 blocks of level {@link #LEAF_LEVEL}, stored as a 64-bit mask (bit {@code row * 8 + col}).
+ * Inner nodes of level {@code L} (size {@code 2^L}) have four children of level {@code L - 1}: nw, ne, sw, se
+ * */
+public final class MacrocellTree {
+
+    public static final int LEAF_LEVEL = 3;
+    public static final int LEAF_SIZE = 1 << LEAF_LEVEL;
+    public static final int MAX_LEVEL = 62;
+
+    public static final int EMPTY = 0;
+
+    /**
+     * Subtrees rasterized as separate parallel tasks, at most
+     * */
+    private static final int MAX_RASTER_TASKS = 64;
+
+    private int mCount = 1;     // Node 0 is the empty node
+    private byte @NotNull [] mLevels = new byte[64];
+    private long @NotNull [] mLeaves = new long[64];
+    private int @NotNull [] mChildren = new int[64 * 4];
+    private int mRoot = EMPTY;
+
+    /**
+     * Bounding box of alive cells per node (min_row, min_col, max_row, max_col, inclusive, relative to the node),
+     * computed lazily. Empty nodes have min > max
+     * */
+    private long @Nullable [] mBounds;
+
+    /**
+     * Alive cells per node, computed lazily
+     * */
+    private long @Nullable [] mPopulations;
+
+    public int size() {
+        return mCount;
+    }
+
+    public int root() {
+        return mRoot;
+    }
+
+    public void setRoot(int node) {
+        checkNode(node);
+        mRoot = node;
+    }
+
+    public int rootLevel() {
+        return mRoot == EMPTY ? LEAF_LEVEL : mLevels[mRoot];
+    }
+
+    public int level(int node) {
+        checkNode(node);
+        return mLevels[node];
+    }
+
+    public boolean isLeaf(int node) {
+        checkNode(node);
+        return node != EMPTY && mLevels[node] == LEAF_LEVEL;
+    }
+
+    public long leafBits(int node) {
+        checkNode(node);
+        return mLeaves[node];
+    }
+
+    /**
+     * @param quadrant 0: nw, 1: ne, 2: sw, 3: se
+     * */
+    public int child(int node, int quadrant) {
+        checkNode(node);
+        return mChildren[node * 4 + quadrant];
+    }
+
+    /**
+     * @return index of the new leaf
+     * */
+    public int addLeaf(long bits) {
+        final int node = allocate();
+        mLevels[node] = LEAF_LEVEL;
+        mLeaves[node] = bits;
+        return node;
+    }
+
+    /**
+     * @return index of the new node
+     * @throws IllegalArgumentException if the level is out of range, or a child is not an existing node of level {@code level - 1}
+     * */
+    public int addNode(int level, int nw, int ne, int sw, int se) {
+        if (level <= LEAF_LEVEL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("Node level must be in range [" + (LEAF_LEVEL + 1) + ", " + MAX_LEVEL + "], given: " + level);
+        }
+
+        checkChild(level, nw);
+        checkChild(level, ne);
+        checkChild(level, sw);
+        checkChild(level, se);
+
+        final int node = allocate();
+        mLevels[node] = (byte) level;
+        final int c = node * 4;
+        mChildren[c] = nw;
+        mChildren[c + 1] = ne;
+        mChildren[c + 2] = sw;
+        mChildren[c + 3] = se;
+        return node;
+    }
+
+    private void checkChild(int level, int child) {
+        if (child < 0 || child >= mCount) {
+            throw new IllegalArgumentException("Child node " + child + " does not exist, nodes: " + mCount);
+        }
+
+        if (child != EMPTY && mLevels[child] != level - 1) {
+            throw new IllegalArgumentException("Child node " + child + " has level " + mLevels[child] + ", expected " + (level - 1));
+        }
+    }
+
+    private void checkNode(int node) {
+        if (node < 0 || node >= mCount) {
+            throw new IndexOutOfBoundsException("Node " + node + " does not exist, nodes: " + mCount);
+        }
+    }
+
+    private int allocate() {
+        if (mCount == mLevels.length) {
+            final int capacity = mCount + (mCount >> 1);
+            mLevels = Arrays.copyOf(mLevels, capacity);
+            mLeaves = Arrays.copyOf(mLeaves, capacity);
+            mChildren = Arrays.copyOf(mChildren, capacity * 4);
+        }
+
+        mBounds = null;
+        mPopulations = null;
+        return mCount++;
+    }
+
+    void ensureCapacity(int nodes) {
+        if (nodes > mLevels.length) {
+            mLevels = Arrays.copyOf(mLevels, nodes);
+            mLeaves = Arrays.copyOf(mLeaves, nodes);
+            mChildren = Arrays.copyOf(mChildren, nodes * 4);
+        }
+    }
+
+
+    /* Bounds ------------------------------------------------------------ */
+
+    private long @NotNull [] bounds() {
+        long[] bounds = mBounds;
+        if (bounds != null && bounds.length >= mCount * 4) {
+            return bounds;
+        }
+
+        bounds = new long[mCount * 4];
+        bounds[0] = bounds[1] = Long.MAX_VALUE;
+        bounds[2] = bounds[3] = Long.MIN_VALUE;
+
+        for (int node = 1; node < mCount; node++) {
+            long minR = Long.MAX_VALUE, minC = Long.MAX_VALUE, maxR = Long.MIN_VALUE, maxC = Long.MIN_VALUE;
+            if (mLevels[node] == LEAF_LEVEL) {
+                final long bits = mLeaves[node];
+                for (int i = 0; i < 64; i++) {
+                    if ((bits & (1L << i)) != 0) {
+                        final int r = i >>> 3, c = i & 7;
+                        minR = Math.min(minR, r);
+                        maxR = Math.max(maxR, r);
+                        minC = Math.min(minC, c);
+                        maxC = Math.max(maxC, c);
+                    }
+                }
+            } else {
+                final long half = 1L << (mLevels[node] - 1);
+                for (int q = 0; q < 4; q++) {
+                    final int b = mChildren[node * 4 + q] * 4;
+                    if (bounds[b] > bounds[b + 2]) {
+                        continue;       // empty
+                    }
+
+                    final long dr = (q >> 1) * half, dc = (q & 1) * half;
+                    minR = Math.min(minR, bounds[b] + dr);
+                    minC = Math.min(minC, bounds[b + 1] + dc);
+                    maxR = Math.max(maxR, bounds[b + 2] + dr);
+                    maxC = Math.max(maxC, bounds[b + 3] + dc);
+                }
+            }
+
+            final int b = node * 4;
+            bounds[b] = minR;
+            bounds[b + 1] = minC;
+            bounds[b + 2] = maxR;
+            bounds[b + 3] = maxC;
+        }
+
+        mBounds = bounds;
+        return bounds;
+    }
+
+    /**
+     * @return bounding box of the alive cells relative to the root: {@code [min_row, min_col, max_row, max_col]} (inclusive),
+     * or {@code null} if the pattern is empty
+     * */
+    public long @Nullable [] aliveBounds() {
+        final long[] bounds = bounds();
+        final int b = mRoot * 4;
+        return bounds[b] > bounds[b + 2] ? null : Arrays.copyOfRange(bounds, b, b + 4);
+    }
+
+
+    /* Population ------------------------------------------------------------ */
+
+    private long @NotNull [] populations() {
+        long[] populations = mPopulations;
+        if (populations != null && populations.length >= mCount) {
+            return populations;
+        }
+
+        populations = new long[mCount];
+        for (int node = 1; node < mCount; node++) {
+            if (mLevels[node] == LEAF_LEVEL) {
+                populations[node] = Long.bitCount(mLeaves[node]);
+            } else {
+                final int c = node * 4;
+                long sum = 0;
+                for (int q = 0; q < 4; q++) {
+                    sum += populations[mChildren[c + q]];
+                    if (sum < 0) {
+                        sum = Long.MAX_VALUE;       // saturate
+                        break;
+                    }
+                }
+
+                populations[node] = sum;
+            }
+        }
+
+        mPopulations = populations;
+        return populations;
+    }
+
+    /**
+     * @return number of alive cells, saturated at {@link Long#MAX_VALUE} (shared subtrees can describe huge populations)
+     * */
+    public long population() {
+        return populations()[mRoot];
+    }
+
+    /**
+     * Feeds the alive cells of the tree to a summary accumulator, relative to the root's top-left corner: whole subtrees
+     * as blocks once they fit in a thumbnail pixel, so the cost depends on the thumbnail size rather than the pattern size
+     * */
+    void summarize(@NotNull PatternSummary.Accumulator acc) {
+        final long[] bounds = aliveBounds();
+        if (bounds != null) {
+            acc.setBounds(bounds[0], bounds[1], bounds[2], bounds[3]);
+            summarize(acc, mRoot, 0, 0, populations());
+        }
+    }
+
+    private void summarize(@NotNull PatternSummary.Accumulator acc, int node, long row, long col, long @NotNull [] populations) {
+        if (node == EMPTY) {
+            return;
+        }
+
+        final int level = mLevels[node];
+        if (level <= acc.scaleLevel()) {
+            acc.addBlock(row, col, populations[node]);
+            return;
+        }
+
+        if (level == LEAF_LEVEL) {
+            long bits = mLeaves[node];
+            while (bits != 0) {
+                final int i = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                acc.addBlock(row + (i >>> 3), col + (i & 7), 1);
+            }
+
+            return;
+        }
+
+        final long half = 1L << (level - 1);
+        final int c = node * 4;
+        summarize(acc, mChildren[c], row, col, populations);
+        summarize(acc, mChildren[c + 1], row, col + half, populations);
+        summarize(acc, mChildren[c + 2], row + half, col, populations);
+        summarize(acc, mChildren[c + 3], row + half, col + half, populations);
+    }
+
+
+    /* Rasterize ------------------------------------------------------------ */
+
+    /**
+     * Writes the alive cells of the tree to a 2D target, with the root's top-left corner at ({@code rowOrigin}, {@code colOrigin}).
+     * Cells outside the target are dropped, and subtrees entirely outside are skipped. Dead cells are not written
+     *
+     * @param executor executor to rasterize subtrees in parallel, or {@code null} to rasterize on the calling thread
+     * */
+    public void rasterize(@NotNull NdArrayF target, long rowOrigin, long colOrigin, @Nullable ExecutorService executor) throws InterruptedException {
+        RleFormat.checkTarget(target);
+        if (mRoot == EMPTY) {
+            return;
+        }
+
+        if (executor == null) {
+            rasterize(target, mRoot, rowOrigin, colOrigin);
+            return;
+        }
+
+        // Split into disjoint subtrees, breadth first
+        List<long[]> tasks = new ArrayList<>();
+        tasks.add(new long[]{mRoot, rowOrigin, colOrigin});
+        while (tasks.size() < MAX_RASTER_TASKS / 4) {
+            final List<long[]> next = new ArrayList<>();
+            boolean split = false;
+            for (long[] t: tasks) {
+                final int node = (int) t[0];
+                if (mLevels[node] == LEAF_LEVEL || !intersects(target, node, t[1], t[2])) {
+                    next.add(t);
+                    continue;
+                }
+
+                split = true;
+                final long half = 1L << (mLevels[node] - 1);
+                for (int q = 0; q < 4; q++) {
+                    final int child = mChildren[node * 4 + q];
+                    if (child != EMPTY) {
+                        next.add(new long[]{child, t[1] + (q >> 1) * half, t[2] + (q & 1) * half});
+                    }
+                }
+            }
+
+            tasks = next;
+            if (!split) {
+                break;
+            }
+        }
+
+        bounds();       // computed once, before concurrent reads
+        final List<Future<?>> futures = new ArrayList<>(tasks.size());
+        for (long[] t: tasks) {
+            futures.add(executor.submit(() -> rasterize(target, (int) t[0], t[1], t[2])));
+        }
+
+        for (Future<?> f: futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to rasterize macrocell subtree", e.getCause());
+            }
+        }
+    }
+
+    private boolean intersects(@NotNull NdArrayF target, int node, long row, long col) {
+        final long[] bounds = bounds();
+        final int b = node * 4;
+        if (bounds[b] > bounds[b + 2]) {
+            return false;
+        }
+
+        return row + bounds[b + 2] >= 0 && row + bounds[b] < target.shapeAt(0)
+                && col + bounds[b + 3] >= 0 && col + bounds[b + 1] < target.shapeAt(1);
+    }
+
+    private void rasterize(@NotNull NdArrayF target, int node, long row, long col) {
+        if (node == EMPTY || !intersects(target, node, row, col)) {
+            return;
+        }
+
+        if (mLevels[node] == LEAF_LEVEL) {
+            final int rows = target.shapeAt(0), cols = target.shapeAt(1);
+            long bits = mLeaves[node];
+            while (bits != 0) {
+                final int i = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                final long r = row + (i >>> 3), c = col + (i & 7);
+                if (r >= 0 && r < rows && c >= 0 && c < cols) {
+                    target.setFlat((int) r * cols + (int) c, 1);
+                }
+            }
+
+            return;
+        }
+
+        final long half = 1L << (mLevels[node] - 1);
+        final int c = node * 4;
+        rasterize(target, mChildren[c], row, col);
+        rasterize(target, mChildren[c + 1], row, col + half);
+        rasterize(target, mChildren[c + 2], row + half, col);
+        rasterize(target, mChildren[c + 3], row + half, col + half);
+    }
+
+    @Override
+    public String toString() {
+        return "MacrocellTree{" +
+                "nodes=" + mCount +
+                ", root=" + mRoot +
+                ", rootLevel=" + rootLevel() +
+                '}';
+    }
+}
@@ -0,0 +1,66 @@
+package core.io;
+
+import core.LifeAutomata;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Metadata of a pattern file (RLE or Macrocell): everything besides the cells
+ * */
+public final class PatternInfo {
+
+    @Nullable
+    public final String name;
+    @NotNull
+    public final List<String> comments;
+
+    /**
+     * Size of the pattern in cells, or -1 if not known from the header
+     * */
+    public final long width;
+    public final long height;
+
+    /**
+     * Rule as written in the file (ex. {@code B3/S23}), or {@code null} if not specified
+     * */
+    @Nullable
+    public final String rule;
+    public final long generation;
+
+    public PatternInfo(@Nullable String name, @NotNull List<String> comments, long width, long height, @Nullable String rule, long generation) {
+        this.name = name;
+        this.comments = List.copyOf(comments);
+        this.width = width;
+        this.height = height;
+        this.rule = rule;
+        this.generation = generation;
+    }
+
+    /**
+     * @return the Life rule of the pattern, {@link LifeAutomata.Rule#CONWAY_LIFE} if the file does not specify one,
+     * or {@code null} if the rule is not supported
+     * */
+    @Nullable
+    public LifeAutomata.Rule inferRule() {
+        return rule == null || rule.isBlank() ? LifeAutomata.Rule.CONWAY_LIFE : LifeAutomata.Rule.fromNotation(rule);
+    }
+
+    @NotNull
+    PatternInfo withSize(long width, long height) {
+        return new PatternInfo(name, comments, width, height, rule, generation);
+    }
+
+    @Override
+    public String toString() {
+        return "PatternInfo{" +
+                "name=" + name +
+                ", width=" + width +
+                ", height=" + height +
+                ", rule=" + rule +
+                ", generation=" + generation +
+                ", comments=" + comments.size() +
+                '}';
+    }
+}
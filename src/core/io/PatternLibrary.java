@@ -0,0 +1,489 @@
+package core.io;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import util.async.CancellationProvider;
+import util.misc.FileUtil;
+import util.misc.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Library of the pattern files (RLE and Macrocell) in a directory tree, with their {@link PatternSummary summaries}
+ * (bounding box, population, rule and thumbnail) cached in an on-disk index
+ * <br><br>
+ * {@link #refresh} scans the tree with {@link FileUtil#scanRegularFiles}, reuses the indexed summary of every file whose
+ * size and modification time are unchanged, parses the new and modified files in parallel, and rewrites the index if
+ * anything changed. Files that fail to parse are indexed with their error, so they are not parsed again until modified
+ * */
+public final class PatternLibrary {
+
+    public static final String TAG = "PatternLibrary";
+
+    public static final String INDEX_FILE_NAME = ".pattern-index";
+
+    private static final int INDEX_MAGIC = 0x41504958;      // "APIX"
+    private static final int INDEX_VERSION = 1;
+    private static final int MAX_STRING_BYTES = 1 << 20;
+
+    /**
+     * A pattern file of the library
+     * */
+    public static final class Entry {
+
+        /**
+         * Path relative to the library root
+         * */
+        @NotNull
+        public final Path file;
+        public final long sizeBytes;
+        public final long modifiedMs;
+
+        /**
+         * Summary of the pattern, or {@code null} if it failed to parse (see {@link #error})
+         * */
+        @Nullable
+        public final PatternSummary summary;
+        @Nullable
+        public final String error;
+
+        public Entry(@NotNull Path file, long sizeBytes, long modifiedMs, @Nullable PatternSummary summary, @Nullable String error) {
+            this.file = file;
+            this.sizeBytes = sizeBytes;
+            this.modifiedMs = modifiedMs;
+            this.summary = summary;
+            this.error = error;
+        }
+
+        public boolean isValid() {
+            return summary != null;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "file=" + file +
+                    ", size=" + sizeBytes +
+                    ", summary=" + summary +
+                    (error != null ? ", error=" + error : "") +
+                    '}';
+        }
+    }
+
+    /**
+     * Result of a {@link #refresh}
+     *
+     * @param files pattern files found
+     * @param reused files whose indexed summary was still valid
+     * @param parsed files parsed, including the failed ones
+     * @param failed files that could not be parsed
+     * */
+    public record RefreshStats(int files, int reused, int parsed, int failed, long elapsedMs) {
+    }
+
+    @NotNull
+    private final Path mRoot;
+    @NotNull
+    private final Path mIndexFile;
+    private final int mThumbnailSize;
+
+    @NotNull
+    private final Object mLock = new Object();
+    private boolean mIndexLoaded;
+
+    /**
+     * Entries by path relative to the root (with '/' separators)
+     * */
+    @NotNull
+    private Map<String, Entry> mEntries = new HashMap<>();
+    @NotNull
+    private volatile List<Entry> mSortedEntries = Collections.emptyList();
+
+    /**
+     * @param indexFile file of the on-disk index
+     * @param thumbnailSize maximum thumbnail width and height
+     * */
+    public PatternLibrary(@NotNull Path root, @NotNull Path indexFile, int thumbnailSize) {
+        if (thumbnailSize < 1) {
+            throw new IllegalArgumentException("Thumbnail size must be >= 1, given: " + thumbnailSize);
+        }
+
+        mRoot = root;
+        mIndexFile = indexFile;
+        mThumbnailSize = thumbnailSize;
+    }
+
+    public PatternLibrary(@NotNull Path root) {
+        this(root, root.resolve(INDEX_FILE_NAME), PatternSummary.DEF_THUMBNAIL_SIZE);
+    }
+
+    @NotNull
+    public Path getRoot() {
+        return mRoot;
+    }
+
+    @NotNull
+    public Path getIndexFile() {
+        return mIndexFile;
+    }
+
+    public int getThumbnailSize() {
+        return mThumbnailSize;
+    }
+
+    /**
+     * @return entries as of the last refresh (or the index, if never refreshed), sorted by path
+     * */
+    @NotNull
+    public List<Entry> entries() {
+        return mSortedEntries;
+    }
+
+    /**
+     * @param file path relative to the root, or absolute within the root
+     * */
+    @Nullable
+    public Entry get(@NotNull Path file) {
+        synchronized (mLock) {
+            return mEntries.get(key(file.isAbsolute() ? mRoot.toAbsolutePath().relativize(file) : file));
+        }
+    }
+
+    @NotNull
+    private static String key(@NotNull Path relative) {
+        return relative.toString().replace('\\', '/');
+    }
+
+
+    /* Refresh ------------------------------------------------------------ */
+
+    /**
+     * Loads the index without scanning, if not loaded yet. Entries may be stale until the next {@link #refresh}
+     * */
+    public void loadIndex() {
+        synchronized (mLock) {
+            if (mIndexLoaded) {
+                return;
+            }
+
+            mIndexLoaded = true;
+            try {
+                mEntries = readIndex(mIndexFile, mThumbnailSize);
+            } catch (NoSuchFileException ignored) {
+            } catch (IOException e) {
+                Log.w(TAG, "Discarding unreadable index " + mIndexFile, e);
+            }
+
+            publishEntries();
+        }
+    }
+
+    /**
+     * Scans the library and brings the index up to date, parsing new and modified files
+     *
+     * @param executor executor to parse files in parallel, or {@code null} to parse on the calling thread. Files are
+     *                 parsed one per task: large files are not split further
+     * @param c cancellation: files parsed so far are indexed, and the entries not reached are kept
+     * */
+    @NotNull
+    public RefreshStats refresh(@Nullable ExecutorService executor, @Nullable CancellationProvider c) throws IOException {
+        final long start = System.nanoTime();
+        synchronized (mLock) {
+            loadIndex();
+
+            final List<FileUtil.PathInfo> files = FileUtil.scanRegularFiles(mRoot, info -> Patterns.isPatternFile(info.path()), c);
+            final Map<String, Entry> entries = new HashMap<>(files.size() * 2);
+            final List<FileUtil.PathInfo> toParse = new ArrayList<>();
+
+            for (FileUtil.PathInfo info: files) {
+                final String key = key(mRoot.relativize(info.path()));
+                final Entry cached = mEntries.get(key);
+                if (cached != null && cached.sizeBytes == info.attrs().size() && cached.modifiedMs == info.attrs().lastModifiedTime().toMillis()) {
+                    entries.put(key, cached);
+                } else {
+                    toParse.add(info);
+                }
+            }
+
+            final int reused = entries.size();
+            int parsed = 0, failed = 0;
+
+            if (executor == null) {
+                for (FileUtil.PathInfo info: toParse) {
+                    if (c != null && c.isCancelled()) {
+                        break;
+                    }
+
+                    final Entry entry = parse(info);
+                    entries.put(key(entry.file), entry);
+                    parsed++;
+                    if (!entry.isValid()) {
+                        failed++;
+                    }
+                }
+            } else {
+                final List<Future<Entry>> futures = new ArrayList<>(toParse.size());
+                for (FileUtil.PathInfo info: toParse) {
+                    futures.add(executor.submit(() -> c != null && c.isCancelled() ? null : parse(info)));
+                }
+
+                for (Future<Entry> f: futures) {
+                    final Entry entry;
+                    try {
+                        entry = f.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        for (Future<Entry> other: futures) {
+                            other.cancel(true);
+                        }
+
+                        throw new IOException("Pattern library refresh interrupted", e);
+                    } catch (ExecutionException e) {
+                        throw new IOException("Failed to parse pattern file", e.getCause());
+                    }
+
+                    if (entry != null) {
+                        entries.put(key(entry.file), entry);
+                        parsed++;
+                        if (!entry.isValid()) {
+                            failed++;
+                        }
+                    }
+                }
+            }
+
+            if (c != null && c.isCancelled()) {
+                // Partial scan: keep the entries not reached
+                for (Map.Entry<String, Entry> old: mEntries.entrySet()) {
+                    entries.putIfAbsent(old.getKey(), old.getValue());
+                }
+            }
+
+            final boolean changed = parsed > 0 || entries.size() != mEntries.size() || !entries.keySet().equals(mEntries.keySet());
+            mEntries = entries;
+            publishEntries();
+
+            if (changed) {
+                try {
+                    writeIndex(mIndexFile, mThumbnailSize, entries.values());
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to write index " + mIndexFile, e);
+                }
+            }
+
+            return new RefreshStats(files.size(), reused, parsed, failed, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    @NotNull
+    private Entry parse(@NotNull FileUtil.PathInfo info) {
+        final Path relative = mRoot.relativize(info.path());
+        final long size = info.attrs().size();
+        final long modified = info.attrs().lastModifiedTime().toMillis();
+        try {
+            return new Entry(relative, size, modified, Patterns.summarize(info.path(), mThumbnailSize, null), null);
+        } catch (Exception e) {
+            return new Entry(relative, size, modified, null, String.valueOf(e.getMessage() != null ? e.getMessage() : e));
+        }
+    }
+
+    private void publishEntries() {
+        final List<Entry> sorted = new ArrayList<>(mEntries.values());
+        sorted.sort(Comparator.comparing(e -> key(e.file)));
+        mSortedEntries = Collections.unmodifiableList(sorted);
+    }
+
+
+    /* Index ------------------------------------------------------------ */
+
+    /**
+     * Layout (gzip): magic, version, thumbnail size, entry count, then per entry: path, size, modified time, error flag
+     * and either the error or the summary (info, population, bounds, thumbnail)
+     * */
+    private static void writeIndex(@NotNull Path file, int thumbnailSize, @NotNull Iterable<Entry> entries) throws IOException {
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = 0;
+        for (Entry ignored: entries) {
+            count++;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp), 1 << 16)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(thumbnailSize);
+            out.writeInt(count);
+
+            for (Entry e: entries) {
+                writeString(out, key(e.file));
+                out.writeLong(e.sizeBytes);
+                out.writeLong(e.modifiedMs);
+
+                final PatternSummary s = e.summary;
+                out.writeBoolean(s != null);
+                if (s == null) {
+                    writeString(out, e.error);
+                    continue;
+                }
+
+                final PatternInfo info = s.info;
+                writeString(out, info.name);
+                writeString(out, info.rule);
+                out.writeLong(info.width);
+                out.writeLong(info.height);
+                out.writeLong(info.generation);
+                out.writeInt(info.comments.size());
+                for (String comment: info.comments) {
+                    writeString(out, comment);
+                }
+
+                out.writeLong(s.population);
+                out.writeLong(s.minRow);
+                out.writeLong(s.minCol);
+                out.writeLong(s.maxRow);
+                out.writeLong(s.maxCol);
+                out.writeInt(s.thumbnailWidth);
+                out.writeInt(s.thumbnailHeight);
+                out.writeInt(s.thumbnailScaleLevel);
+                out.write(s.thumbnail());
+            }
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param thumbnailSize expected thumbnail size. An index built with another size is discarded
+     * */
+    @NotNull
+    private static Map<String, Entry> readIndex(@NotNull Path file, int thumbnailSize) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 1 << 16)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Not a pattern index");
+            }
+
+            final int version = in.readInt();
+            if (version != INDEX_VERSION) {
+                throw new IOException("Unsupported pattern index version " + version);
+            }
+
+            final int indexThumbnailSize = in.readInt();
+            if (indexThumbnailSize != thumbnailSize) {
+                throw new IOException("Pattern index has thumbnail size " + indexThumbnailSize + ", expected " + thumbnailSize);
+            }
+
+            final int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid pattern index entry count: " + count);
+            }
+
+            final Map<String, Entry> entries = new HashMap<>(Math.min(count, 1 << 16) * 2);
+            for (int i = 0; i < count; i++) {
+                final String key = readString(in);
+                if (key == null) {
+                    throw new IOException("Pattern index entry " + i + " has no path");
+                }
+
+                final long size = in.readLong();
+                final long modified = in.readLong();
+                if (!in.readBoolean()) {
+                    entries.put(key, new Entry(Path.of(key), size, modified, null, readString(in)));
+                    continue;
+                }
+
+                final String name = readString(in);
+                final String rule = readString(in);
+                final long width = in.readLong(), height = in.readLong(), generation = in.readLong();
+                final int commentCount = in.readInt();
+                if (commentCount < 0) {
+                    throw new IOException("Invalid comment count in pattern index: " + commentCount);
+                }
+
+                final List<String> comments = new ArrayList<>(Math.min(commentCount, 1024));
+                for (int c = 0; c < commentCount; c++) {
+                    comments.add(String.valueOf(readString(in)));
+                }
+
+                final long population = in.readLong();
+                final long minRow = in.readLong(), minCol = in.readLong(), maxRow = in.readLong(), maxCol = in.readLong();
+                final int tw = in.readInt(), th = in.readInt(), scaleLevel = in.readInt();
+                if (tw < 0 || th < 0 || (long) tw * th > MAX_STRING_BYTES) {
+                    throw new IOException("Invalid thumbnail size in pattern index: " + tw + "x" + th);
+                }
+
+                final byte[] thumbnail = new byte[tw * th];
+                in.readFully(thumbnail);
+
+                final PatternInfo info = new PatternInfo(name, comments, width, height, rule, generation);
+                entries.put(key, new Entry(Path.of(key), size, modified,
+                        new PatternSummary(info, population, minRow, minCol, maxRow, maxCol, tw, th, scaleLevel, thumbnail), null));
+            }
+
+            return entries;
+        }
+    }
+
+    private static void writeString(@NotNull DataOutputStream out, @Nullable String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            bytes = Arrays.copyOf(bytes, MAX_STRING_BYTES);
+        }
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(@NotNull DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("String too long in pattern index: " + length);
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "PatternLibrary{" +
+                "root=" + mRoot +
+                ", entries=" + mSortedEntries.size() +
+                '}';
+    }
+}
@@ -0,0 +1,215 @@
+package core.io;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Metadata of a pattern computed from its cells: population, bounding box of the alive cells and a small thumbnail.
+ * Computed in a single streaming pass over the cells, without rasterizing the pattern
+ * <br><br>
+ * The thumbnail covers the pattern extent, each pixel being a square block of {@code 2^}{@link #thumbnailScaleLevel}
+ * cells per side. Pixels hold the fraction of alive cells in their block, as unsigned bytes: 0 if the block is empty,
+ * at least 1 otherwise, so that sparse patterns stay visible
+ * */
+public final class PatternSummary {
+
+    public static final int DEF_THUMBNAIL_SIZE = 64;
+
+    @NotNull
+    public final PatternInfo info;
+
+    /**
+     * Number of alive (non-zero) cells
+     * */
+    public final long population;
+
+    /**
+     * Bounding box of the alive cells (inclusive), relative to the pattern origin: the top-left of the header box for RLE,
+     * the root corner for Macrocell. Meaningless if the pattern is empty
+     * */
+    public final long minRow;
+    public final long minCol;
+    public final long maxRow;
+    public final long maxCol;
+
+    public final int thumbnailWidth;
+    public final int thumbnailHeight;
+    public final int thumbnailScaleLevel;
+    private final byte @NotNull [] mThumbnail;
+
+    public PatternSummary(@NotNull PatternInfo info, long population, long minRow, long minCol, long maxRow, long maxCol,
+                          int thumbnailWidth, int thumbnailHeight, int thumbnailScaleLevel, byte @NotNull [] thumbnail) {
+        if (thumbnail.length != thumbnailWidth * thumbnailHeight) {
+            throw new IllegalArgumentException("Thumbnail has " + thumbnail.length + " pixels, expected " + thumbnailWidth + "x" + thumbnailHeight);
+        }
+
+        this.info = info;
+        this.population = population;
+        this.minRow = minRow;
+        this.minCol = minCol;
+        this.maxRow = maxRow;
+        this.maxCol = maxCol;
+        this.thumbnailWidth = thumbnailWidth;
+        this.thumbnailHeight = thumbnailHeight;
+        this.thumbnailScaleLevel = thumbnailScaleLevel;
+        mThumbnail = thumbnail;
+    }
+
+    public boolean isEmpty() {
+        return population == 0;
+    }
+
+    public long boundsWidth() {
+        return isEmpty() ? 0 : maxCol - minCol + 1;
+    }
+
+    public long boundsHeight() {
+        return isEmpty() ? 0 : maxRow - minRow + 1;
+    }
+
+    /**
+     * @return fraction of alive cells in the block of the thumbnail pixel, in range [0, 255]
+     * */
+    public int thumbnailAt(int row, int col) {
+        return mThumbnail[row * thumbnailWidth + col] & 0xFF;
+    }
+
+    /**
+     * @return copy of the thumbnail pixels, row major
+     * */
+    public byte @NotNull [] thumbnail() {
+        return mThumbnail.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "PatternSummary{" +
+                "info=" + info +
+                ", population=" + population +
+                ", bounds=" + boundsWidth() + "x" + boundsHeight() +
+                ", thumbnail=" + thumbnailWidth + "x" + thumbnailHeight + " (1:2^" + thumbnailScaleLevel + ")" +
+                '}';
+    }
+
+
+    /**
+     * Accumulates alive cells into a summary. The extent to thumbnail must be known upfront
+     * */
+    static final class Accumulator {
+
+        private final long mRowOrigin;
+        private final long mColOrigin;
+        private final int mShift;
+        private final int mWidth;
+        private final int mHeight;
+        private final long @NotNull [] mCounts;
+
+        private long mPopulation;
+        private long mMinRow = Long.MAX_VALUE, mMinCol = Long.MAX_VALUE, mMaxRow = Long.MIN_VALUE, mMaxCol = Long.MIN_VALUE;
+
+        /**
+         * @param rowOrigin top-left cell of the extent to thumbnail. Aligned down to the thumbnail scale
+         * @param rows rows of the extent from the given origin
+         * @param maxSize maximum thumbnail width and height
+         * */
+        Accumulator(long rowOrigin, long colOrigin, long rows, long cols, int maxSize) {
+            if (maxSize < 1) {
+                throw new IllegalArgumentException("Thumbnail size must be >= 1, given: " + maxSize);
+            }
+
+            final long rowEnd = rowOrigin + Math.max(rows, 1), colEnd = colOrigin + Math.max(cols, 1);
+            int shift = 0;
+            while (shift < 62 && (blocks(rowOrigin, rowEnd, shift) > maxSize || blocks(colOrigin, colEnd, shift) > maxSize)) {
+                shift++;
+            }
+
+            mShift = shift;
+            mRowOrigin = Math.floorDiv(rowOrigin, 1L << shift) << shift;
+            mColOrigin = Math.floorDiv(colOrigin, 1L << shift) << shift;
+            mHeight = (int) blocks(rowOrigin, rowEnd, shift);
+            mWidth = (int) blocks(colOrigin, colEnd, shift);
+            mCounts = new long[mWidth * mHeight];
+        }
+
+        private static long blocks(long start, long end, int shift) {
+            return Math.floorDiv(end - 1, 1L << shift) - Math.floorDiv(start, 1L << shift) + 1;
+        }
+
+        int scaleLevel() {
+            return mShift;
+        }
+
+        /**
+         * Adds a run of {@code length} alive cells in a row
+         * */
+        void addRun(long row, long col, long length) {
+            if (length <= 0) {
+                return;
+            }
+
+            mPopulation += length;
+            mMinRow = Math.min(mMinRow, row);
+            mMaxRow = Math.max(mMaxRow, row);
+            mMinCol = Math.min(mMinCol, col);
+            mMaxCol = Math.max(mMaxCol, col + length - 1);
+
+            final long pr = (row - mRowOrigin) >> mShift;
+            if (pr < 0 || pr >= mHeight) {
+                return;
+            }
+
+            final int base = (int) pr * mWidth;
+            long c = col;
+            final long end = col + length;
+            while (c < end) {
+                final long pc = (c - mColOrigin) >> mShift;
+                final long blockEnd = Math.min(end, mColOrigin + ((pc + 1) << mShift));
+                if (pc >= 0 && pc < mWidth) {
+                    mCounts[base + (int) pc] += blockEnd - c;
+                } else if (pc >= mWidth) {
+                    break;
+                }
+
+                c = blockEnd;
+            }
+        }
+
+        /**
+         * Adds alive cells lying within a single thumbnail block. The bounding box is not updated, see {@link #setBounds}
+         * */
+        void addBlock(long row, long col, long count) {
+            if (count <= 0) {
+                return;
+            }
+
+            mPopulation += count;
+            final long pr = (row - mRowOrigin) >> mShift, pc = (col - mColOrigin) >> mShift;
+            if (pr >= 0 && pr < mHeight && pc >= 0 && pc < mWidth) {
+                mCounts[(int) pr * mWidth + (int) pc] += count;
+            }
+        }
+
+        void setBounds(long minRow, long minCol, long maxRow, long maxCol) {
+            mMinRow = minRow;
+            mMinCol = minCol;
+            mMaxRow = maxRow;
+            mMaxCol = maxCol;
+        }
+
+        @NotNull
+        PatternSummary finish(@NotNull PatternInfo info) {
+            final double area = (double) (1L << mShift) * (1L << mShift);
+            final byte[] thumbnail = new byte[mCounts.length];
+            for (int i = 0; i < thumbnail.length; i++) {
+                final long count = mCounts[i];
+                if (count > 0) {
+                    thumbnail[i] = (byte) Math.max(1, Math.min(255, (int) Math.round(count * 255 / area)));
+                }
+            }
+
+            final boolean empty = mPopulation == 0;
+            return new PatternSummary(info, mPopulation,
+                    empty ? 0 : mMinRow, empty ? 0 : mMinCol, empty ? -1 : mMaxRow, empty ? -1 : mMaxCol,
+                    mWidth, mHeight, mShift, thumbnail);
+        }
+    }
+}
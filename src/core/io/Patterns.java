@@ -0,0 +1,96 @@
+package core.io;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Reads and writes pattern files, choosing the format ({@link RleFormat} or {@link MacrocellFormat}) from the file extension
+ * */
+public final class Patterns {
+
+    public static boolean isRle(@NotNull Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(RleFormat.FILE_EXTENSION);
+    }
+
+    public static boolean isMacrocell(@NotNull Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(MacrocellFormat.FILE_EXTENSION);
+    }
+
+    public static boolean isPatternFile(@NotNull Path file) {
+        return isRle(file) || isMacrocell(file);
+    }
+
+    /**
+     * Reads the pattern info. For Macrocell files, the whole file is parsed to get the pattern size
+     * */
+    @NotNull
+    public static PatternInfo readInfo(@NotNull Path file, @Nullable ExecutorService executor) throws IOException {
+        if (isMacrocell(file)) {
+            return MacrocellFormat.read(file, executor).info();
+        }
+
+        return RleFormat.readInfo(file);
+    }
+
+    /**
+     * Computes the population, bounding box and thumbnail of a pattern, streaming its cells (no rasterization)
+     *
+     * @param thumbnailSize maximum thumbnail width and height
+     * @param executor executor to parse large Macrocell files in parallel, or {@code null} to parse on the calling thread
+     * */
+    @NotNull
+    public static PatternSummary summarize(@NotNull Path file, int thumbnailSize, @Nullable ExecutorService executor) throws IOException {
+        if (isMacrocell(file)) {
+            return MacrocellFormat.summarize(file, thumbnailSize, executor);
+        }
+
+        return RleFormat.summarize(file, thumbnailSize);
+    }
+
+    /**
+     * Decodes a pattern into a 2D target, with its top-left cell at ({@code row0}, {@code col0}).
+     * Cells outside the target are dropped, dead cells are not written
+     *
+     * @param executor executor to parse large files in parallel, or {@code null} to parse on the calling thread
+     * */
+    @NotNull
+    public static PatternInfo read(@NotNull Path file, @NotNull NdArrayF target, int row0, int col0, @Nullable ExecutorService executor) throws IOException {
+        if (isMacrocell(file)) {
+            return MacrocellFormat.read(file, target, row0, col0, executor);
+        }
+
+        return RleFormat.read(file, target, row0, col0, executor);
+    }
+
+    /**
+     * Writes the whole 2D state
+     *
+     * @param rule rule in B/S notation, or {@code null} to omit it
+     * */
+    public static void write(@NotNull Path file, @NotNull NdArrayFloatI state, @Nullable String name, @Nullable String rule) throws IOException {
+        final int[] shape = state.shape();
+        if (shape.length != 2) {
+            throw new IllegalArgumentException("Patterns are 2D, state has " + shape.length + " dimensions");
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (isMacrocell(file)) {
+                MacrocellFormat.write(channel, state, 0, 0, shape[0], shape[1], rule);
+            } else {
+                RleFormat.write(channel, state, 0, 0, shape[0], shape[1], name, rule);
+            }
+        }
+    }
+
+
+    private Patterns() {
+    }
+}
@@ -0,0 +1,305 @@
+package core.io;
+
+import core.definition.NdArrayFloatI;
+import core.definition.automata.AutomataI;
+import core.definition.automata.ColorProviderI;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Exports a 2D state to PNG at one pixel per cell, streaming scanlines: the image is never held in memory
+ * <br><br>
+ * Rows are processed in bands of about {@link #BAND_BYTES} bytes of scanlines. Each band is colourised and compressed
+ * on its own (in parallel when an executor is given) as a raw deflate segment ended with a sync flush, so the segments
+ * concatenate into a single zlib stream, whose Adler-32 is combined from the per-band checksums. Bands are written in
+ * order as {@code IDAT} chunks, with a bounded number of bands in flight
+ * */
+public final class PngExporter {
+
+    public static final String FILE_EXTENSION = ".png";
+
+    /**
+     * Target uncompressed size of a band of scanlines
+     * */
+    public static final int BAND_BYTES = 4 << 20;
+    public static final int DEF_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IDAT_BYTES = 1 << 20;
+    private static final int ADLER_BASE = 65521;
+
+    /**
+     * Compressed band
+     * */
+    private record Band(byte @NotNull [] data, int length, int adler, long rawLength) {
+    }
+
+    /**
+     * @param colors colors of the cells
+     * @param stateCount number of integral cell states [0, state_count), whose colors are looked up once. Other values are colored per cell
+     * @param executor executor to colourise and compress bands in parallel, or {@code null} to encode on the calling thread
+     * */
+    public static void write(@NotNull WritableByteChannel channel, @NotNull NdArrayFloatI state, @NotNull ColorProviderI colors, int stateCount, boolean darkMode, @Nullable ExecutorService executor) throws IOException {
+        final int[] shape = state.shape();
+        if (shape.length != 2) {
+            throw new IllegalArgumentException("PNG export requires a 2D state, given " + shape.length + " dimensions");
+        }
+
+        final int rows = shape[0], cols = shape[1];
+        if ((long) cols * 3 + 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many columns for PNG export: " + cols);
+        }
+
+        // Palette of integral states, looked up once (also initializes lazy color maps before parallel use)
+        final int[] palette = new int[Math.max(stateCount, 0)];
+        for (int s = 0; s < palette.length; s++) {
+            palette[s] = colors.colorRGBForCell(s, darkMode);
+        }
+
+        final int stride = cols * 3 + 1;
+        final int bandRows = Math.max(1, BAND_BYTES / stride);
+        final int bandCount = (rows + bandRows - 1) / bandRows;
+
+        final ChunkWriter out = new ChunkWriter(channel);
+        out.writeSignature();
+
+        final ByteBuffer ihdr = ByteBuffer.allocate(13);
+        ihdr.putInt(cols).putInt(rows)
+                .put((byte) 8)          // bit depth
+                .put((byte) 2)          // color type: RGB
+                .put((byte) 0)          // compression: deflate
+                .put((byte) 0)          // filter method
+                .put((byte) 0);         // no interlace
+        out.writeChunk("IHDR", ihdr.array(), 0, 13);
+
+        // zlib header: deflate, 32K window, fastest
+        out.appendIdat(new byte[]{0x78, 0x01}, 0, 2);
+
+        int adler = 1;
+        if (executor == null) {
+            for (int b = 0; b < bandCount; b++) {
+                final Band band = encodeBand(state, palette, colors, darkMode, b * bandRows, Math.min(rows, (b + 1) * bandRows), cols, b == bandCount - 1);
+                out.appendIdat(band.data, 0, band.length);
+                adler = combineAdler(adler, band.adler, band.rawLength);
+            }
+        } else {
+            final int maxInFlight = Math.max(2, 2 * Runtime.getRuntime().availableProcessors());
+            final ArrayDeque<Future<Band>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            try {
+                while (next < bandCount || !inFlight.isEmpty()) {
+                    while (next < bandCount && inFlight.size() < maxInFlight) {
+                        final int start = next * bandRows, end = Math.min(rows, (next + 1) * bandRows);
+                        final boolean last = next == bandCount - 1;
+                        inFlight.add(executor.submit(() -> encodeBand(state, palette, colors, darkMode, start, end, cols, last)));
+                        next++;
+                    }
+
+                    final Band band = inFlight.poll().get();
+                    out.appendIdat(band.data, 0, band.length);
+                    adler = combineAdler(adler, band.adler, band.rawLength);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("PNG export interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("PNG export failed", e.getCause());
+            } finally {
+                for (Future<Band> f: inFlight) {
+                    f.cancel(true);
+                }
+            }
+        }
+
+        out.appendIdat(new byte[]{(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler}, 0, 4);
+        out.flushIdat();
+        out.writeChunk("IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    public static void write(@NotNull WritableByteChannel channel, @NotNull NdArrayFloatI state, @NotNull AutomataI automata, boolean darkMode, @Nullable ExecutorService executor) throws IOException {
+        write(channel, state, automata, automata.cellStateCount(), darkMode, executor);
+    }
+
+    public static void write(@NotNull Path file, @NotNull NdArrayFloatI state, @NotNull AutomataI automata, boolean darkMode, @Nullable ExecutorService executor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, state, automata, darkMode, executor);
+        }
+    }
+
+    /**
+     * Colourises rows [start, end) into scanlines (filter type 0) and compresses them as a raw deflate segment
+     *
+     * @param last whether this is the last band, ending the deflate stream. Otherwise the segment ends with a sync flush
+     * */
+    @NotNull
+    private static Band encodeBand(@NotNull NdArrayFloatI state, int @NotNull [] palette, @NotNull ColorProviderI colors, boolean darkMode,
+                                   int start, int end, int cols, boolean last) {
+        final int stride = cols * 3 + 1;
+        final byte[] raw = new byte[(end - start) * stride];
+
+        int p = 0;
+        for (int r = start; r < end; r++) {
+            raw[p++] = 0;       // filter: none
+            final int base = r * cols;
+            for (int c = 0; c < cols; c++) {
+                final float v = state.getFlat(base + c);
+                final int s = (int) v;
+                final int argb = (s == v && s >= 0 && s < palette.length) ? palette[s] : colors.colorRGBForCell(v, darkMode);
+                raw[p++] = (byte) (argb >>> 16);
+                raw[p++] = (byte) (argb >>> 8);
+                raw[p++] = (byte) argb;
+            }
+        }
+
+        final Adler32 adler = new Adler32();
+        adler.update(raw);
+
+        final Deflater deflater = new Deflater(DEF_COMPRESSION_LEVEL, true);
+        try {
+            deflater.setInput(raw);
+            if (last) {
+                deflater.finish();
+            }
+
+            byte[] out = new byte[Math.max(1024, raw.length / 8)];
+            int length = 0;
+            while (true) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+
+                final int n = deflater.deflate(out, length, out.length - length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                length += n;
+                if (last ? deflater.finished() : (length < out.length && deflater.needsInput())) {
+                    break;
+                }
+            }
+
+            return new Band(out, length, (int) adler.getValue(), raw.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Adler-32 of the concatenation of two sequences, given their checksums and the length of the second (as zlib's adler32_combine)
+     * */
+    static int combineAdler(int adler1, int adler2, long length2) {
+        final long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFFL;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFFL) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFFL) + ((adler2 >>> 16) & 0xFFFFL) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= (ADLER_BASE << 1)) sum2 -= (ADLER_BASE << 1);
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return (int) (sum1 | (sum2 << 16));
+    }
+
+    /**
+     * Buffered PNG chunk output, packing the zlib stream into {@code IDAT} chunks of {@link #IDAT_BYTES}
+     * */
+    private static final class ChunkWriter {
+
+        @NotNull
+        private final WritableByteChannel mChannel;
+        @NotNull
+        private final ByteBuffer mBuf = ByteBuffer.allocate(IDAT_BYTES + 64);
+        private final byte @NotNull [] mIdat = new byte[IDAT_BYTES];
+        private int mIdatLength;
+        @NotNull
+        private final CRC32 mCrc = new CRC32();
+
+        ChunkWriter(@NotNull WritableByteChannel channel) {
+            mChannel = channel;
+        }
+
+        void writeSignature() throws IOException {
+            put(SIGNATURE, 0, SIGNATURE.length);
+        }
+
+        void writeChunk(@NotNull String type, byte @NotNull [] data, int offset, int length) throws IOException {
+            final byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+            mCrc.reset();
+            mCrc.update(typeBytes);
+            mCrc.update(data, offset, length);
+
+            putInt(length);
+            put(typeBytes, 0, 4);
+            put(data, offset, length);
+            putInt((int) mCrc.getValue());
+        }
+
+        void appendIdat(byte @NotNull [] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                final int n = Math.min(length, IDAT_BYTES - mIdatLength);
+                System.arraycopy(data, offset, mIdat, mIdatLength, n);
+                mIdatLength += n;
+                offset += n;
+                length -= n;
+                if (mIdatLength == IDAT_BYTES) {
+                    flushIdat();
+                }
+            }
+        }
+
+        void flushIdat() throws IOException {
+            if (mIdatLength > 0) {
+                writeChunk("IDAT", mIdat, 0, mIdatLength);
+                mIdatLength = 0;
+            }
+        }
+
+        private void putInt(int value) throws IOException {
+            if (mBuf.remaining() < 4) {
+                flush();
+            }
+
+            mBuf.putInt(value);
+        }
+
+        private void put(byte @NotNull [] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!mBuf.hasRemaining()) {
+                    flush();
+                }
+
+                final int n = Math.min(length, mBuf.remaining());
+                mBuf.put(data, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        void flush() throws IOException {
+            mBuf.flip();
+            while (mBuf.hasRemaining()) {
+                mChannel.write(mBuf);
+            }
+
+            mBuf.clear();
+        }
+    }
+
+
+    private PngExporter() {
+    }
+}
@@ -0,0 +1,718 @@
+package core.io;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Streaming reader and writer of the RLE pattern format
+ * <br><br>
+ * <pre>
+ *     #N Glider
+ *     #C comment
+ *     x = 3, y = 3, rule = B3/S23
+ *     bob$2bo$3o!
+ * </pre>
+ * Cells are decoded straight into a 2D {@link NdArrayF} region, clipped to its bounds, reading the file in fixed size
+ * buffers. Multi-state bodies ({@code .}, {@code A}-{@code X}, {@code pA}-{@code yX}) are supported as well.
+ * <br><br>
+ * Large files can be decoded in parallel: the body is split into segments starting right after a {@code $} (row end),
+ * the rows spanned by each segment are counted in parallel, and the segments are then decoded in parallel at their
+ * row offsets. Rows never overlap, so the segments write to disjoint cells
+ * */
+public final class RleFormat {
+
+    public static final String FILE_EXTENSION = ".rle";
+    public static final int DEF_LINE_WIDTH = 70;
+
+    /**
+     * Bodies smaller than this are decoded on the calling thread
+     * */
+    public static final long PARALLEL_MIN_BODY_BYTES = 1 << 20;
+    private static final long MIN_SEGMENT_BYTES = 1 << 18;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int MAX_HEADER_LINE_BYTES = 1 << 16;
+    private static final int MAX_RUN_COUNT = Integer.MAX_VALUE / 10 - 1;
+    private static final int MAX_STATE = 255;
+
+
+    /* ==============================  READ  ============================== */
+
+    /**
+     * Buffered input tracking its position in the channel
+     * */
+    private static final class Input {
+
+        @NotNull
+        final ReadableByteChannel channel;
+        @NotNull
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES).flip();
+        private long mRead;
+
+        Input(@NotNull ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @return whether data is available in the buffer, {@code false} at the end of the channel
+         * */
+        boolean fill() throws IOException {
+            while (!buf.hasRemaining()) {
+                buf.clear();
+                final int n = channel.read(buf);
+                buf.flip();
+                if (n < 0) {
+                    return false;
+                }
+
+                mRead += n;
+            }
+
+            return true;
+        }
+
+        long position() {
+            return mRead - buf.remaining();
+        }
+    }
+
+    /**
+     * Receives runs of alive cells, relative to the pattern origin
+     * */
+    @FunctionalInterface
+    private interface RunSink {
+
+        void onRun(long row, long col, long length, int state);
+    }
+
+    /**
+     * Decodes body tokens, keeping its state across buffers. Without a target, only advances the position (to count rows)
+     * */
+    private static final class BodyDecoder {
+
+        @Nullable
+        private final NdArrayF mTarget;
+        @Nullable
+        private RunSink mSink;
+        private final int mRows;
+        private final int mCols;
+        private final long mRowOrigin;
+        private final long mColOrigin;
+
+        /* Position relative to the origin */
+        long row;
+        long col;
+        private int mCount;
+        private byte mPrefix;
+
+        boolean finished;
+        long width;
+        long height;
+
+        BodyDecoder(@Nullable NdArrayF target, long rowOrigin, long colOrigin) {
+            mTarget = target;
+            mRows = target != null ? target.shapeAt(0) : 0;
+            mCols = target != null ? target.shapeAt(1) : 0;
+            mRowOrigin = rowOrigin;
+            mColOrigin = colOrigin;
+        }
+
+        void feed(@NotNull ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                final byte b = buf.get();
+
+                if (mPrefix != 0) {
+                    final byte prefix = mPrefix;
+                    mPrefix = 0;
+                    if (b >= 'A' && b <= 'X') {
+                        emit(24 * (prefix - 'p' + 1) + (b - 'A' + 1));
+                        continue;
+                    }
+
+                    emit(1);        // Not a multi-state prefix: a 2-state alive cell
+                }
+
+                if (b >= '0' && b <= '9') {
+                    if (mCount > MAX_RUN_COUNT) {
+                        throw new IOException("RLE run count too large");
+                    }
+
+                    mCount = mCount * 10 + (b - '0');
+                    continue;
+                }
+
+                switch (b) {
+                    case 'b', '.' -> emit(0);
+                    case 'o' -> emit(1);
+                    case '$' -> {
+                        row += Math.max(1, mCount);
+                        col = 0;
+                        mCount = 0;
+                    }
+                    case '!' -> {
+                        finished = true;
+                        return;
+                    }
+                    case ' ', '\t', '\r', '\n' -> {
+                    }
+                    default -> {
+                        if (b >= 'A' && b <= 'X') {
+                            emit(b - 'A' + 1);
+                        } else if (b >= 'p' && b <= 'y') {
+                            mPrefix = b;
+                        } else if (b >= 'a' && b <= 'z') {
+                            emit(1);
+                        } else {
+                            throw new IOException("Unexpected character '" + (char) b + "' in RLE body");
+                        }
+                    }
+                }
+            }
+        }
+
+        void end() {
+            if (mPrefix != 0) {
+                mPrefix = 0;
+                emit(1);
+            }
+        }
+
+        private void emit(int state) {
+            final long n = Math.max(1, mCount);
+            mCount = 0;
+
+            if (state != 0) {
+                width = Math.max(width, col + n);
+                height = Math.max(height, row + 1);
+                if (mSink != null) {
+                    mSink.onRun(row, col, n, state);
+                }
+
+                if (mTarget != null) {
+                    final long r = mRowOrigin + row;
+                    if (r >= 0 && r < mRows) {
+                        final int c0 = (int) Math.max(0, mColOrigin + col);
+                        final int c1 = (int) Math.min(mCols, mColOrigin + col + n);
+                        final int base = (int) r * mCols;
+                        for (int c = c0; c < c1; c++) {
+                            mTarget.setFlat(base + c, state);
+                        }
+                    }
+                }
+            }
+
+            col += n;
+        }
+    }
+
+    /**
+     * Reads the comment and header lines, leaving the input at the first body byte
+     * */
+    @NotNull
+    private static PatternInfo readHeader(@NotNull Input in) throws IOException {
+        String name = null;
+        String rule = null;
+        long width = -1, height = -1;
+        final List<String> comments = new ArrayList<>();
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        while (in.fill()) {
+            final byte first = in.buf.get(in.buf.position());
+            if (isWhitespace(first)) {
+                in.buf.get();
+                continue;
+            }
+
+            if (first != '#' && first != 'x' && first != 'X') {
+                break;      // No header line: body starts here
+            }
+
+            line.reset();
+            while (in.fill()) {
+                final byte b = in.buf.get();
+                if (b == '\n') {
+                    break;
+                }
+
+                if (line.size() < MAX_HEADER_LINE_BYTES) {
+                    line.write(b);
+                }
+            }
+
+            final String text = line.toString(StandardCharsets.UTF_8).trim();
+            if (first == '#') {
+                final char kind = text.length() > 1 ? text.charAt(1) : ' ';
+                final String value = text.length() > 2 ? text.substring(2).trim() : "";
+                switch (kind) {
+                    case 'N' -> name = value;
+                    case 'C', 'c', 'O' -> comments.add(value);
+                    case 'r' -> rule = value;
+                    default -> {
+                    }
+                }
+
+                continue;
+            }
+
+            // Header line: x = 3, y = 3, rule = B3/S23
+            for (String part: text.split(",")) {
+                final int eq = part.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+
+                final String key = part.substring(0, eq).trim().toLowerCase();
+                final String value = part.substring(eq + 1).trim();
+                try {
+                    switch (key) {
+                        case "x" -> width = Long.parseLong(value);
+                        case "y" -> height = Long.parseLong(value);
+                        case "rule" -> rule = value;
+                        default -> {
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid RLE header: " + text, e);
+                }
+            }
+
+            break;
+        }
+
+        return new PatternInfo(name, comments, width, height, rule, 0);
+    }
+
+    /**
+     * Reads only the header of a pattern file
+     * */
+    @NotNull
+    public static PatternInfo readInfo(@NotNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readHeader(new Input(channel));
+        }
+    }
+
+    /**
+     * Decodes a pattern on the calling thread, placing its top-left cell at ({@code row0}, {@code col0}) of the target.
+     * Cells outside the target are dropped. Dead cells are not written: clear the region first to replace it
+     *
+     * @param target 2D array
+     * @return the pattern info. If the file has no header line, the size is the extent of the alive cells
+     * */
+    @NotNull
+    public static PatternInfo read(@NotNull ReadableByteChannel channel, @NotNull NdArrayF target, int row0, int col0) throws IOException {
+        checkTarget(target);
+
+        final Input in = new Input(channel);
+        final PatternInfo info = readHeader(in);
+        final BodyDecoder decoder = new BodyDecoder(target, row0, col0);
+        while (!decoder.finished && in.fill()) {
+            decoder.feed(in.buf);
+        }
+
+        decoder.end();
+        return info.width < 0 || info.height < 0 ? info.withSize(decoder.width, decoder.height) : info;
+    }
+
+    /**
+     * Same as {@link #read(ReadableByteChannel, NdArrayF, int, int)}, but decodes large bodies in parallel on the
+     * given executor
+     *
+     * @param executor executor to decode segments of the body in parallel, or {@code null} to decode on the calling thread
+     * */
+    @NotNull
+    public static PatternInfo read(@NotNull Path file, @NotNull NdArrayF target, int row0, int col0, @Nullable ExecutorService executor) throws IOException {
+        checkTarget(target);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final Input in = new Input(channel);
+            final PatternInfo info = readHeader(in);
+            final long bodyStart = in.position();
+            final long bodyEnd = channel.size();
+
+            if (executor == null || bodyEnd - bodyStart < PARALLEL_MIN_BODY_BYTES) {
+                final BodyDecoder decoder = new BodyDecoder(target, row0, col0);
+                while (!decoder.finished && in.fill()) {
+                    decoder.feed(in.buf);
+                }
+
+                decoder.end();
+                return info.width < 0 || info.height < 0 ? info.withSize(decoder.width, decoder.height) : info;
+            }
+
+            // Segments, each starting at a row
+            final long segmentBytes = Math.max(MIN_SEGMENT_BYTES, (bodyEnd - bodyStart) / (4L * Runtime.getRuntime().availableProcessors()));
+            final List<Long> starts = new ArrayList<>();
+            starts.add(bodyStart);
+            for (long nominal = bodyStart + segmentBytes; nominal < bodyEnd; nominal += segmentBytes) {
+                final long last = starts.get(starts.size() - 1);
+                if (nominal <= last) {
+                    continue;
+                }
+
+                final long sync = findRowStart(channel, nominal, bodyEnd);
+                if (sync < 0) {
+                    break;      // No more rows
+                }
+
+                if (sync < bodyEnd) {
+                    starts.add(sync);
+                }
+            }
+
+            final int count = starts.size();
+            final long[] ends = new long[count];
+            for (int i = 0; i < count; i++) {
+                ends[i] = i + 1 < count ? starts.get(i + 1) : bodyEnd;
+            }
+
+            // Pass 1: rows spanned by each segment
+            final BodyDecoder[] counters = new BodyDecoder[count];
+            final List<Future<?>> futures = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final BodyDecoder counter = counters[i] = new BodyDecoder(null, 0, 0);
+                final long start = starts.get(i), end = ends[i];
+                futures.add(executor.submit(() -> {
+                    decodeSegment(channel, start, end, counter);
+                    return null;
+                }));
+            }
+
+            awaitAll(futures);
+
+            // Pass 2: decode at the row offsets, up to the segment with the end marker
+            final long[] rowOffsets = new long[count];
+            long rows = 0, width = 0, height = 0;
+            int used = 0;
+            for (int i = 0; i < count; i++) {
+                rowOffsets[i] = rows;
+                width = Math.max(width, counters[i].width);
+                if (counters[i].height > 0) {
+                    height = rows + counters[i].height;
+                }
+
+                rows += counters[i].row;
+                used++;
+                if (counters[i].finished) {
+                    break;
+                }
+            }
+
+            futures.clear();
+            for (int i = 0; i < used; i++) {
+                final BodyDecoder decoder = new BodyDecoder(target, row0 + rowOffsets[i], col0);
+                final long start = starts.get(i), end = ends[i];
+                futures.add(executor.submit(() -> {
+                    decodeSegment(channel, start, end, decoder);
+                    return null;
+                }));
+            }
+
+            awaitAll(futures);
+            return info.width < 0 || info.height < 0 ? info.withSize(width, height) : info;
+        }
+    }
+
+    /**
+     * Computes the {@link PatternSummary} of a pattern file on the calling thread, streaming the cells without a target.
+     * The thumbnail covers the size given by the header, or the extent of the alive cells (in an extra pass) if there is none
+     *
+     * @param thumbnailSize maximum thumbnail width and height
+     * */
+    @NotNull
+    public static PatternSummary summarize(@NotNull Path file, int thumbnailSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            PatternInfo info = readHeader(in);
+            final long bodyStart = in.position();
+
+            if (info.width < 0 || info.height < 0) {
+                final BodyDecoder sizer = new BodyDecoder(null, 0, 0);
+                while (!sizer.finished && in.fill()) {
+                    sizer.feed(in.buf);
+                }
+
+                sizer.end();
+                info = info.withSize(sizer.width, sizer.height);
+
+                channel.position(bodyStart);
+                in = new Input(channel);
+            }
+
+            final PatternSummary.Accumulator acc = new PatternSummary.Accumulator(0, 0, info.height, info.width, thumbnailSize);
+            final BodyDecoder decoder = new BodyDecoder(null, 0, 0);
+            decoder.mSink = (row, col, length, state) -> acc.addRun(row, col, length);
+            while (!decoder.finished && in.fill()) {
+                decoder.feed(in.buf);
+            }
+
+            decoder.end();
+            return acc.finish(info);
+        }
+    }
+
+    /**
+     * @return the position right after the first row end at or after {@code from}, {@code bodyEnd} if none,
+     * or -1 if the end marker comes first
+     * */
+    private static long findRowStart(@NotNull FileChannel channel, long from, long bodyEnd) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(4096);
+        long pos = from;
+        while (pos < bodyEnd) {
+            buf.clear();
+            final int n = channel.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+
+            buf.flip();
+            while (buf.hasRemaining()) {
+                final byte b = buf.get();
+                if (b == '$') {
+                    return pos + buf.position();
+                }
+
+                if (b == '!') {
+                    return -1;
+                }
+            }
+
+            pos += n;
+        }
+
+        return bodyEnd;
+    }
+
+    private static void decodeSegment(@NotNull FileChannel channel, long start, long end, @NotNull BodyDecoder decoder) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(BUFFER_BYTES, end - start));
+        long pos = start;
+        while (pos < end && !decoder.finished) {
+            buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+            final int n = channel.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of RLE file");
+            }
+
+            pos += n;
+            decoder.feed(buf.flip());
+        }
+
+        decoder.end();
+    }
+
+    static void awaitAll(@NotNull List<Future<?>> futures) throws IOException {
+        IOException error = null;
+        for (Future<?> f: futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = new IOException("Interrupted", e);
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    static void checkTarget(@NotNull NdArrayF target) {
+        if (target.dimensions() != 2) {
+            throw new IllegalArgumentException("Patterns are 2D, target has " + target.dimensions() + " dimensions");
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+
+    /* ==============================  WRITE  ============================== */
+
+    /**
+     * Buffered output wrapping lines at a fixed width
+     * */
+    private static final class Output {
+
+        @NotNull
+        private final WritableByteChannel mChannel;
+        @NotNull
+        private final ByteBuffer mBuf = ByteBuffer.allocate(BUFFER_BYTES);
+        private final byte @NotNull [] mToken = new byte[24];
+        private final int mLineWidth;
+        private int mLineLength;
+
+        Output(@NotNull WritableByteChannel channel, int lineWidth) {
+            mChannel = channel;
+            mLineWidth = lineWidth;
+        }
+
+        void text(@NotNull String text) throws IOException {
+            final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            for (byte b: bytes) {
+                put(b);
+            }
+        }
+
+        /**
+         * Writes {@code [count]symbol}, omitting a count of 1
+         * */
+        void token(long count, int state, boolean multiState) throws IOException {
+            int len = 0;
+            if (count > 1) {
+                final String digits = Long.toString(count);
+                for (int i = 0; i < digits.length(); i++) {
+                    mToken[len++] = (byte) digits.charAt(i);
+                }
+            }
+
+            if (state < 0) {
+                mToken[len++] = (byte) (state == -1 ? '$' : '!');
+            } else if (!multiState) {
+                mToken[len++] = (byte) (state == 0 ? 'b' : 'o');
+            } else if (state == 0) {
+                mToken[len++] = '.';
+            } else if (state <= 24) {
+                mToken[len++] = (byte) ('A' + state - 1);
+            } else {
+                mToken[len++] = (byte) ('p' + (state - 25) / 24);
+                mToken[len++] = (byte) ('A' + (state - 25) % 24);
+            }
+
+            if (mLineLength > 0 && mLineLength + len > mLineWidth) {
+                put((byte) '\n');
+            }
+
+            for (int i = 0; i < len; i++) {
+                put(mToken[i]);
+            }
+        }
+
+        private void put(byte b) throws IOException {
+            if (!mBuf.hasRemaining()) {
+                flush();
+            }
+
+            mBuf.put(b);
+            mLineLength = b == '\n' ? 0 : mLineLength + 1;
+        }
+
+        void flush() throws IOException {
+            mBuf.flip();
+            while (mBuf.hasRemaining()) {
+                mChannel.write(mBuf);
+            }
+
+            mBuf.clear();
+        }
+    }
+
+    /**
+     * Writes a region of a 2D state, row by row. Trailing dead cells of rows and trailing empty rows are omitted
+     *
+     * @param name pattern name, or {@code null}
+     * @param rule rule in B/S notation, or {@code null} to omit it
+     * @throws IllegalArgumentException if the region is out of bounds, or a state is not an integer in range [0, 255]
+     * */
+    public static void write(@NotNull WritableByteChannel channel, @NotNull NdArrayFloatI state, int row0, int col0, int rows, int cols, @Nullable String name, @Nullable String rule) throws IOException {
+        final int[] shape = state.shape();
+        if (shape.length != 2) {
+            throw new IllegalArgumentException("Patterns are 2D, state has " + shape.length + " dimensions");
+        }
+
+        if (row0 < 0 || col0 < 0 || rows < 0 || cols < 0 || row0 + rows > shape[0] || col0 + cols > shape[1]) {
+            throw new IllegalArgumentException("Region [" + row0 + ", " + col0 + ", " + rows + "x" + cols + "] out of bounds of state " + shape[0] + "x" + shape[1]);
+        }
+
+        final int stride = shape[1];
+        int maxState = 0;
+        for (int r = 0; r < rows; r++) {
+            final int base = (row0 + r) * stride + col0;
+            for (int c = 0; c < cols; c++) {
+                final int s = cellState(state, base + c);
+                if (s > maxState) maxState = s;
+            }
+        }
+
+        final boolean multiState = maxState > 1;
+        final Output out = new Output(channel, DEF_LINE_WIDTH);
+        if (name != null) {
+            out.text("#N " + name + "\n");
+        }
+
+        out.text("x = " + cols + ", y = " + rows + (rule != null ? ", rule = " + rule : "") + "\n");
+
+        long pendingRows = 0;
+        for (int r = 0; r < rows; r++) {
+            final int base = (row0 + r) * stride + col0;
+            int c = 0;
+            while (c < cols) {
+                final int s = cellState(state, base + c);
+                int run = 1;
+                while (c + run < cols && cellState(state, base + c + run) == s) {
+                    run++;
+                }
+
+                if (s == 0 && c + run == cols) {
+                    break;      // trailing dead cells
+                }
+
+                if (pendingRows > 0) {
+                    out.token(pendingRows, -1, multiState);
+                    pendingRows = 0;
+                }
+
+                out.token(run, s, multiState);
+                c += run;
+            }
+
+            pendingRows++;
+        }
+
+        out.token(1, -2, multiState);
+        out.text("\n");
+        out.flush();
+    }
+
+    public static void write(@NotNull Path file, @NotNull NdArrayFloatI state, int row0, int col0, int rows, int cols, @Nullable String name, @Nullable String rule) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, state, row0, col0, rows, cols, name, rule);
+        }
+    }
+
+    static int cellState(@NotNull NdArrayFloatI state, int flatIndex) {
+        final float v = state.getFlat(flatIndex);
+        final int s = (int) v;
+        if (s != v || s < 0 || s > MAX_STATE) {
+            throw new IllegalArgumentException("Cell state must be an integer in range [0, " + MAX_STATE + "], given: " + v);
+        }
+
+        return s;
+    }
+
+
+    private RleFormat() {
+    }
+}
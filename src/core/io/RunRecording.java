@@ -0,0 +1,699 @@
+package core.io;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import core.definition.automata.AutomataSpec;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * File format of a recorded run: a sequence of frames, each either a keyframe (full state) or a delta (the cells
+ * changed since the previous frame), followed by an index of the keyframes for random access
+ * <br><br>
+ * Layout (big endian):
+ * <pre>
+ *     header:  [magic: int][version: short][timestamp_ms: long][keyframe_interval: int]
+ *     frame*:  [type: byte][generation: int][stored_length: int][raw_length: int][crc: int][payload]
+ *     index:   [count: int][entry: [type: byte][frame: int][generation: int][offset: long]]*
+ *     trailer: [frame_count: int][index_offset: long][index_magic: int]
+ * </pre>
+ * Payloads are deflated when {@link #FLAG_DEFLATED} is set in the type, and the CRC covers the stored payload.
+ * <ul>
+ *     <li>Keyframe: {@code [automata_spec: short length + utf8][dimensions: byte][shape: int*][state: StateDeltaCodec keyframe]}</li>
+ *     <li>Delta: {@code [mode: byte][count: varint][[index_gap: varint][value: varint]*]}, with values as zigzag ints
+ *     ({@link StateDeltaCodec#MODE_INT}) or raw float bits ({@link StateDeltaCodec#MODE_BITS})</li>
+ * </ul>
+ * A {@link #TYPE_RESTART} keyframe starts a new timeline (ex. after a reset or an automata change), while
+ * {@link #TYPE_KEYFRAME} keyframes are periodic, to bound the deltas to apply when seeking. Consecutive frames
+ * of a timeline have the same generation (edits) or the next one.
+ * <br><br>
+ * If the file was not closed properly (no trailer), the index is rebuilt by scanning the frames, dropping a truncated last frame
+ * */
+public final class RunRecording {
+
+    public static final int MAGIC = 0x4152554E;            // "ARUN"
+    public static final int INDEX_MAGIC = 0x41494458;      // "AIDX"
+    public static final short VERSION = 1;
+    public static final String FILE_EXTENSION = ".arun";
+
+    public static final byte TYPE_RESTART = 0;
+    public static final byte TYPE_KEYFRAME = 1;
+    public static final byte TYPE_DELTA = 2;
+    public static final byte FLAG_DEFLATED = (byte) 0x80;
+
+    private static final int HEADER_BYTES = 4 + 2 + 8 + 4;
+    private static final int FRAME_HEADER_BYTES = 1 + 4 + 4 + 4 + 4;
+    private static final int INDEX_ENTRY_BYTES = 1 + 4 + 4 + 8;
+    private static final int TRAILER_BYTES = 4 + 8 + 4;
+
+    /**
+     * Index entry of a keyframe
+     * */
+    public record IndexEntry(byte type, int frame, int generation, long offset) {
+    }
+
+
+    /* ==============================  WRITER  ============================== */
+
+    /**
+     * Appends frames to a recording file. Not thread safe
+     * */
+    public static final class Writer implements Closeable {
+
+        @NotNull
+        private final FileChannel mChannel;
+        @NotNull
+        private final List<IndexEntry> mIndex = new ArrayList<>();
+        @NotNull
+        private final StateDeltaCodec mCodec = new StateDeltaCodec();
+        @NotNull
+        private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+        @NotNull
+        private final CRC32 mCrc = new CRC32();
+        @NotNull
+        private final ByteBuffer mFrameHeader = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+
+        private ByteBuffer mRaw = ByteBuffer.allocate(1 << 16);
+        private ByteBuffer mDeflated = ByteBuffer.allocate(1 << 16);
+
+        private long mPosition;
+        private int mFrameCount;
+        private boolean mClosed;
+
+        public Writer(@NotNull Path file, int keyframeInterval) throws IOException {
+            mChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC)
+                    .putShort(VERSION)
+                    .putLong(System.currentTimeMillis())
+                    .putInt(keyframeInterval)
+                    .flip();
+            write(header);
+        }
+
+        public int getFrameCount() {
+            return mFrameCount;
+        }
+
+        public long getBytesWritten() {
+            return mPosition;
+        }
+
+        /**
+         * @param restart whether the keyframe starts a new timeline ({@link #TYPE_RESTART}) or is periodic ({@link #TYPE_KEYFRAME})
+         * */
+        public void writeKeyframe(int generation, @NotNull AutomataSpec spec, @NotNull NdArrayFloatI state, boolean restart) throws IOException {
+            final byte[] specBytes = spec.toString().getBytes(StandardCharsets.UTF_8);
+            final int[] shape = state.shape();
+            final byte[] grid = mCodec.encode(null, state);
+
+            final ByteBuffer raw = ensureRaw(2 + specBytes.length + 1 + 4 * shape.length + grid.length);
+            raw.putShort((short) specBytes.length).put(specBytes).put((byte) shape.length);
+            for (int dim: shape) {
+                raw.putInt(dim);
+            }
+
+            raw.put(grid);
+
+            final byte type = restart ? TYPE_RESTART : TYPE_KEYFRAME;
+            mIndex.add(new IndexEntry(type, mFrameCount, generation, mPosition));
+            writeFrame(type, generation, raw.flip());
+        }
+
+        /**
+         * @param indices flat indices of the changed cells, ascending
+         * @param values new states of the changed cells
+         * */
+        public void writeDelta(int generation, int @NotNull [] indices, float @NotNull [] values, int count) throws IOException {
+            boolean intMode = true;
+            for (int i = 0; i < count; i++) {
+                if (values[i] != (int) values[i]) {
+                    intMode = false;
+                    break;
+                }
+            }
+
+            final long capacity = 1 + 5 + count * 10L;
+            if (capacity > Integer.MAX_VALUE - 64) {
+                throw new IllegalArgumentException("Delta too large: " + count + " cells, write a keyframe instead");
+            }
+
+            final ByteBuffer raw = ensureRaw((int) capacity);
+            raw.put(intMode ? StateDeltaCodec.MODE_INT : StateDeltaCodec.MODE_BITS);
+            putVarInt(raw, count);
+
+            int prev = -1;
+            for (int i = 0; i < count; i++) {
+                putVarInt(raw, indices[i] - prev - 1);
+                prev = indices[i];
+                putVarInt(raw, intMode ? zigzag((int) values[i]) : Float.floatToRawIntBits(values[i]));
+            }
+
+            writeFrame(TYPE_DELTA, generation, raw.flip());
+        }
+
+        private void writeFrame(byte type, int generation, @NotNull ByteBuffer raw) throws IOException {
+            final int rawLength = raw.remaining();
+
+            mDeflater.reset();
+            mDeflater.setInput(raw);
+            mDeflater.finish();
+            if (mDeflated.capacity() < rawLength + 64) {
+                mDeflated = ByteBuffer.allocate(rawLength + 64);
+            }
+
+            mDeflated.clear();
+            while (!mDeflater.finished() && mDeflated.hasRemaining()) {
+                mDeflater.deflate(mDeflated);
+            }
+
+            final boolean deflated = mDeflater.finished() && mDeflated.position() < rawLength;
+            final ByteBuffer payload = deflated ? mDeflated.flip() : raw.rewind();
+
+            mCrc.reset();
+            mCrc.update(payload.duplicate());
+
+            mFrameHeader.clear();
+            mFrameHeader.put(deflated ? (byte) (type | FLAG_DEFLATED) : type)
+                    .putInt(generation)
+                    .putInt(payload.remaining())
+                    .putInt(rawLength)
+                    .putInt((int) mCrc.getValue())
+                    .flip();
+
+            write(mFrameHeader);
+            write(payload);
+            mFrameCount++;
+        }
+
+        @NotNull
+        private ByteBuffer ensureRaw(int capacity) {
+            if (mRaw.capacity() < capacity) {
+                mRaw = ByteBuffer.allocate(Math.max(capacity, mRaw.capacity() * 2));
+            }
+
+            return mRaw.clear();
+        }
+
+        private void write(@NotNull ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                mPosition += mChannel.write(buf);
+            }
+        }
+
+        /**
+         * Writes the index and the trailer, and closes the file
+         * */
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+
+            mClosed = true;
+            try {
+                final long indexOffset = mPosition;
+                final ByteBuffer index = ByteBuffer.allocate(4 + mIndex.size() * INDEX_ENTRY_BYTES + TRAILER_BYTES);
+                index.putInt(mIndex.size());
+                for (IndexEntry e: mIndex) {
+                    index.put(e.type).putInt(e.frame).putInt(e.generation).putLong(e.offset);
+                }
+
+                index.putInt(mFrameCount).putLong(indexOffset).putInt(INDEX_MAGIC).flip();
+                write(index);
+            } finally {
+                mDeflater.end();
+                mChannel.close();
+            }
+        }
+    }
+
+
+    /* ==============================  READER  ============================== */
+
+    /**
+     * Replays a recording: steps through frames, or seeks to a frame or a generation from the nearest keyframe.
+     * Not thread safe
+     * */
+    public static final class Reader implements Closeable {
+
+        @NotNull
+        public static Reader open(@NotNull Path file) throws IOException {
+            return new Reader(FileChannel.open(file, StandardOpenOption.READ));
+        }
+
+        @NotNull
+        private final FileChannel mChannel;
+        private final int mKeyframeInterval;
+        @NotNull
+        private final List<IndexEntry> mIndex;
+        private final int mFrameCount;
+        private final long mFramesEnd;
+        private final boolean mIndexed;
+
+        @NotNull
+        private final ByteBuffer mFrameHeader = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        @NotNull
+        private final Inflater mInflater = new Inflater();
+        @NotNull
+        private final CRC32 mCrc = new CRC32();
+        private ByteBuffer mStored = ByteBuffer.allocate(1 << 16);
+        private ByteBuffer mRaw = ByteBuffer.allocate(1 << 16);
+
+        /* Current frame */
+        @Nullable
+        private NdArrayF mState;
+        @Nullable
+        private AutomataSpec mSpec;
+        private int mFrame = -1;
+        private int mGeneration = -1;
+        private long mNextOffset;
+
+        /* Read from the trailer, if any */
+        private int mTrailerFrameCount;
+        private long mTrailerIndexOffset;
+
+        private Reader(@NotNull FileChannel channel) throws IOException {
+            mChannel = channel;
+            try {
+                final ByteBuffer header = readFully(ByteBuffer.allocate(HEADER_BYTES), 0);
+                if (header.getInt() != MAGIC) {
+                    throw new IOException("Not a run recording");
+                }
+
+                final short version = header.getShort();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported run recording version: " + version);
+                }
+
+                header.getLong();       // timestamp
+                mKeyframeInterval = header.getInt();
+
+                final List<IndexEntry> index = readIndex();
+                if (index != null) {
+                    mIndex = index;
+                    mIndexed = true;
+                } else {
+                    mIndex = new ArrayList<>();
+                    mIndexed = false;
+                }
+
+                if (!mIndexed) {
+                    // Rebuild by scanning
+                    long offset = HEADER_BYTES;
+                    int frames = 0;
+                    final long size = channel.size();
+                    while (offset + FRAME_HEADER_BYTES <= size) {
+                        readFully(mFrameHeader.clear(), offset);
+                        final byte type = (byte) (mFrameHeader.get() & ~FLAG_DEFLATED);
+                        final int generation = mFrameHeader.getInt();
+                        final int stored = mFrameHeader.getInt();
+                        if (stored < 0 || offset + FRAME_HEADER_BYTES + stored > size) {
+                            break;      // truncated
+                        }
+
+                        if (type == TYPE_RESTART || type == TYPE_KEYFRAME) {
+                            mIndex.add(new IndexEntry(type, frames, generation, offset));
+                        }
+
+                        offset += FRAME_HEADER_BYTES + stored;
+                        frames++;
+                    }
+
+                    mFrameCount = frames;
+                    mFramesEnd = offset;
+                } else {
+                    mFrameCount = mTrailerFrameCount;
+                    mFramesEnd = mTrailerIndexOffset;
+                }
+
+                if (mFrameCount > 0 && (mIndex.isEmpty() || mIndex.get(0).frame != 0)) {
+                    throw new IOException("Run recording does not start with a keyframe");
+                }
+
+                mNextOffset = HEADER_BYTES;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        @Nullable
+        private List<IndexEntry> readIndex() throws IOException {
+            final long size = mChannel.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES + 4) {
+                return null;
+            }
+
+            final ByteBuffer trailer = readFully(ByteBuffer.allocate(TRAILER_BYTES), size - TRAILER_BYTES);
+            final int frameCount = trailer.getInt();
+            final long indexOffset = trailer.getLong();
+            if (trailer.getInt() != INDEX_MAGIC || indexOffset < HEADER_BYTES || indexOffset > size - TRAILER_BYTES - 4 || frameCount < 0) {
+                return null;
+            }
+
+            final int count = readFully(ByteBuffer.allocate(4), indexOffset).getInt();
+            if (count < 0 || indexOffset + 4 + (long) count * INDEX_ENTRY_BYTES != size - TRAILER_BYTES) {
+                return null;
+            }
+
+            final ByteBuffer entries = readFully(ByteBuffer.allocate(count * INDEX_ENTRY_BYTES), indexOffset + 4);
+            final List<IndexEntry> index = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                index.add(new IndexEntry(entries.get(), entries.getInt(), entries.getInt(), entries.getLong()));
+            }
+
+            mTrailerFrameCount = frameCount;
+            mTrailerIndexOffset = indexOffset;
+            return index;
+        }
+
+        public int getKeyframeInterval() {
+            return mKeyframeInterval;
+        }
+
+        public int getFrameCount() {
+            return mFrameCount;
+        }
+
+        /**
+         * @return whether the index was read from the file, {@code false} if rebuilt because the recording was not closed properly
+         * */
+        public boolean isIndexed() {
+            return mIndexed;
+        }
+
+        @NotNull
+        public List<IndexEntry> getIndex() {
+            return List.copyOf(mIndex);
+        }
+
+        /**
+         * @return index of the current frame, or -1 before the first frame
+         * */
+        public int getFrame() {
+            return mFrame;
+        }
+
+        public int getGeneration() {
+            return mGeneration;
+        }
+
+        /**
+         * @return state of the current frame, updated in place by the following frames. {@code null} before the first frame
+         * */
+        @Nullable
+        public NdArrayF getState() {
+            return mState;
+        }
+
+        @Nullable
+        public AutomataSpec getSpec() {
+            return mSpec;
+        }
+
+        public boolean hasNext() {
+            return mFrame + 1 < mFrameCount;
+        }
+
+        /**
+         * Applies the next frame
+         *
+         * @return whether there was a next frame
+         * */
+        public boolean next() throws IOException {
+            if (!hasNext()) {
+                return false;
+            }
+
+            readFrame(mNextOffset);
+            mFrame++;
+            return true;
+        }
+
+        /**
+         * Moves to the given frame, from the nearest keyframe at or before it (or from the current frame if closer)
+         * */
+        public void seekFrame(int frame) throws IOException {
+            if (frame < 0 || frame >= mFrameCount) {
+                throw new IndexOutOfBoundsException("Frame " + frame + " out of range [0, " + mFrameCount + ")");
+            }
+
+            final IndexEntry key = mIndex.get(floorKeyframe(frame));
+            if (mFrame < key.frame || mFrame > frame) {
+                mNextOffset = key.offset;
+                mFrame = key.frame - 1;
+            }
+
+            while (mFrame < frame) {
+                next();
+            }
+        }
+
+        /**
+         * Moves to the last frame of the given generation, in the latest timeline that reaches it
+         *
+         * @return whether the generation was found. If not, the current frame is unspecified
+         * */
+        public boolean seekGeneration(int generation) throws IOException {
+            // Timelines, latest first
+            for (int t = mIndex.size() - 1; t >= 0; t--) {
+                final IndexEntry start = mIndex.get(t);
+                if (start.type != TYPE_RESTART || start.generation > generation) {
+                    continue;
+                }
+
+                // Latest keyframe of this timeline at or before the generation
+                int k = t;
+                while (k + 1 < mIndex.size() && mIndex.get(k + 1).type != TYPE_RESTART && mIndex.get(k + 1).generation <= generation) {
+                    k++;
+                }
+
+                final int timelineEnd = nextRestartFrame(t);       // exclusive
+                seekFrame(mIndex.get(k).frame);
+                while (mFrame + 1 < timelineEnd && peekGeneration() <= generation) {
+                    next();
+                }
+
+                if (mGeneration == generation) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private int nextRestartFrame(int indexPos) {
+            for (int i = indexPos + 1; i < mIndex.size(); i++) {
+                if (mIndex.get(i).type == TYPE_RESTART) {
+                    return mIndex.get(i).frame;
+                }
+            }
+
+            return mFrameCount;
+        }
+
+        private int floorKeyframe(int frame) {
+            int lo = 0, hi = mIndex.size() - 1;
+            while (lo < hi) {
+                final int mid = (lo + hi + 1) >>> 1;
+                if (mIndex.get(mid).frame <= frame) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+
+            return lo;
+        }
+
+        private int peekGeneration() throws IOException {
+            readFully(mFrameHeader.clear(), mNextOffset);
+            mFrameHeader.get();
+            return mFrameHeader.getInt();
+        }
+
+        private void readFrame(long offset) throws IOException {
+            if (offset + FRAME_HEADER_BYTES > mFramesEnd) {
+                throw new EOFException("Unexpected end of run recording");
+            }
+
+            readFully(mFrameHeader.clear(), offset);
+            final byte typeFlags = mFrameHeader.get();
+            final int generation = mFrameHeader.getInt();
+            final int storedLength = mFrameHeader.getInt();
+            final int rawLength = mFrameHeader.getInt();
+            final int crc = mFrameHeader.getInt();
+            if (storedLength < 0 || rawLength < 0 || offset + FRAME_HEADER_BYTES + storedLength > mFramesEnd) {
+                throw new IOException("Corrupted run recording frame at " + offset);
+            }
+
+            if (mStored.capacity() < storedLength) {
+                mStored = ByteBuffer.allocate(storedLength);
+            }
+
+            readFully(mStored.clear().limit(storedLength), offset + FRAME_HEADER_BYTES);
+            mCrc.reset();
+            mCrc.update(mStored.duplicate());
+            if ((int) mCrc.getValue() != crc) {
+                throw new IOException("Run recording frame checksum mismatch at " + offset);
+            }
+
+            final ByteBuffer raw;
+            if ((typeFlags & FLAG_DEFLATED) != 0) {
+                if (mRaw.capacity() < rawLength) {
+                    mRaw = ByteBuffer.allocate(rawLength);
+                }
+
+                raw = mRaw.clear().limit(rawLength);
+                mInflater.reset();
+                mInflater.setInput(mStored);
+                try {
+                    while (raw.hasRemaining() && !mInflater.finished()) {
+                        if (mInflater.inflate(raw) == 0 && mInflater.needsInput()) {
+                            break;
+                        }
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupted run recording frame at " + offset, e);
+                }
+
+                if (raw.hasRemaining()) {
+                    throw new IOException("Truncated run recording frame at " + offset);
+                }
+
+                raw.flip();
+            } else {
+                raw = mStored;
+            }
+
+            try {
+                final byte type = (byte) (typeFlags & ~FLAG_DEFLATED);
+                if (type == TYPE_DELTA) {
+                    applyDelta(raw);
+                } else {
+                    applyKeyframe(raw);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupted run recording frame at " + offset, e);
+            }
+
+            mGeneration = generation;
+            mNextOffset = offset + FRAME_HEADER_BYTES + storedLength;
+        }
+
+        private void applyKeyframe(@NotNull ByteBuffer raw) throws IOException {
+            final byte[] specBytes = new byte[raw.getShort()];
+            raw.get(specBytes);
+            mSpec = AutomataSpec.parse(new String(specBytes, StandardCharsets.UTF_8));
+
+            final int dims = raw.get();
+            final int[] shape = new int[dims];
+            for (int i = 0; i < dims; i++) {
+                shape[i] = raw.getInt();
+            }
+
+            NdArrayF state = mState;
+            if (state == null || !Arrays.equals(state.shape(), shape)) {
+                state = mState = new NdArrayF(shape);
+            } else {
+                state.clear();
+            }
+
+            final byte[] grid = new byte[raw.remaining()];
+            raw.get(grid);
+            StateDeltaCodec.apply(grid, state);
+        }
+
+        private void applyDelta(@NotNull ByteBuffer raw) throws IOException {
+            final NdArrayF state = mState;
+            if (state == null) {
+                throw new IOException("Run recording delta before any keyframe");
+            }
+
+            final boolean intMode = raw.get() == StateDeltaCodec.MODE_INT;
+            final int count = getVarInt(raw);
+            int index = -1;
+            for (int i = 0; i < count; i++) {
+                index += getVarInt(raw) + 1;
+                final int v = getVarInt(raw);
+                state.setFlat(index, intMode ? unzigzag(v) : Float.intBitsToFloat(v));
+            }
+        }
+
+        @NotNull
+        private ByteBuffer readFully(@NotNull ByteBuffer buf, long position) throws IOException {
+            long pos = position;
+            while (buf.hasRemaining()) {
+                final int n = mChannel.read(buf, pos);
+                if (n < 0) {
+                    throw new EOFException("Unexpected end of run recording");
+                }
+
+                pos += n;
+            }
+
+            return buf.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInflater.end();
+            mChannel.close();
+        }
+    }
+
+
+    /* ==============================  HELPERS  ============================== */
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarInt(@NotNull ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.put((byte) value);
+    }
+
+    private static int getVarInt(@NotNull ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+
+    private RunRecording() {
+    }
+}
@@ -0,0 +1,164 @@
+package core.io;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Compact encoding of a state, either standalone (keyframe) or as the XOR delta from a reference state of the same size
+ * <br><br>
+ * Format: {@code [mode: 1 byte]} followed by tokens {@code [zero_run: varint][literal_count: varint][literal: varint]*}
+ * until all cells are covered. Literals are the XOR of the cell with its reference (zero for a keyframe):
+ * <ul>
+ *     <li>{@link #MODE_INT}: XOR of {@code int} cell values, when all cells of both states are integral (all current automata)</li>
+ *     <li>{@link #MODE_BITS}: XOR of raw float bits otherwise</li>
+ * </ul>
+ * Runs of unchanged cells therefore cost a couple of bytes, and changed cells about one byte each.
+ * <br><br>
+ * An encoder instance reuses its scratch buffer, and is not thread safe
+ * */
+public final class StateDeltaCodec {
+
+    public static final byte MODE_INT = 0;
+    public static final byte MODE_BITS = 1;
+
+    private static final int DEF_BUFFER_SIZE = 4096;
+
+    private byte @NotNull [] mBuf = new byte[DEF_BUFFER_SIZE];
+    private int mPos;
+
+    /**
+     * @param reference reference state of the same size, or {@code null} to encode a keyframe
+     * @return encoded state
+     * */
+    public byte @NotNull [] encode(@Nullable NdArrayFloatI reference, @NotNull NdArrayFloatI state) {
+        final int size = state.size();
+        if (reference != null && reference.size() != size) {
+            throw new IllegalArgumentException("Reference size (" + reference.size() + ") must be equal to the state size (" + size + ")");
+        }
+
+        final boolean intMode = isIntegral(state) && (reference == null || isIntegral(reference));
+        mPos = 0;
+        putByte(intMode ? MODE_INT : MODE_BITS);
+
+        int i = 0;
+        while (i < size) {
+            // Zero run
+            final int zero_start = i;
+            while (i < size && literalAt(reference, state, i, intMode) == 0) {
+                i++;
+            }
+
+            putVarInt(i - zero_start);
+            if (i >= size) {
+                putVarInt(0);
+                break;
+            }
+
+            // Literal run
+            final int lit_start = i;
+            while (i < size && literalAt(reference, state, i, intMode) != 0) {
+                i++;
+            }
+
+            putVarInt(i - lit_start);
+            for (int k = lit_start; k < i; k++) {
+                putVarInt(literalAt(reference, state, k, intMode));
+            }
+        }
+
+        return Arrays.copyOf(mBuf, mPos);
+    }
+
+    /**
+     * Applies encoded data to the target in place, XOR-ing each cell with its literal.
+     * To decode a keyframe, the target must be cleared first; to decode a delta, it must hold the reference state
+     * */
+    public static void apply(byte @NotNull [] data, @NotNull NdArrayF target) {
+        final int size = target.size();
+        final boolean intMode = data[0] == MODE_INT;
+        final int[] pos = { 1 };
+
+        int i = 0;
+        while (i < size) {
+            i += getVarInt(data, pos);      // unchanged cells
+            final int literals = getVarInt(data, pos);
+            if (i + literals > size) {
+                throw new IllegalArgumentException("Encoded data overflows the target size: " + size);
+            }
+
+            for (int k = 0; k < literals; k++, i++) {
+                final int lit = getVarInt(data, pos);
+                final float cur = target.getFlat(i);
+                target.setFlat(i, intMode ? (float) (((int) cur) ^ lit) : Float.intBitsToFloat(Float.floatToRawIntBits(cur) ^ lit));
+            }
+
+            if (literals == 0 && pos[0] >= data.length) {
+                break;
+            }
+        }
+    }
+
+
+    /* Helpers ------------------------------------------------------------------- */
+
+    private static boolean isIntegral(@NotNull NdArrayFloatI state) {
+        final int size = state.size();
+        for (int i = 0; i < size; i++) {
+            final float v = state.getFlat(i);
+            if (v != (float) (int) v) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int literalAt(@Nullable NdArrayFloatI reference, @NotNull NdArrayFloatI state, int i, boolean intMode) {
+        final float v = state.getFlat(i);
+        final float ref = reference != null ? reference.getFlat(i) : 0;
+        return intMode ? ((int) v) ^ ((int) ref) : Float.floatToRawIntBits(v) ^ Float.floatToRawIntBits(ref);
+    }
+
+    private void putByte(int b) {
+        if (mPos == mBuf.length) {
+            mBuf = Arrays.copyOf(mBuf, mBuf.length * 2);
+        }
+
+        mBuf[mPos++] = (byte) b;
+    }
+
+    /**
+     * Unsigned LEB128 varint
+     * */
+    private void putVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            putByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        putByte(value);
+    }
+
+    private static int getVarInt(byte @NotNull [] data, int @NotNull [] pos) {
+        int value = 0;
+        int shift = 0;
+        int p = pos[0];
+
+        while (true) {
+            final byte b = data[p++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+
+            shift += 7;
+        }
+
+        pos[0] = p;
+        return value;
+    }
+}
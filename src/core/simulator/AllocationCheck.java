@@ -0,0 +1,158 @@
+package core.simulator;
+
+import core.definition.automata.ComputePool;
+import org.jetbrains.annotations.Nullable;
+import util.misc.AllocationMeter;
+import util.misc.Log;
+
+/**
+ * Reports heap allocations on the steady state generation path, using per-thread allocated bytes counters
+ * <br><br>
+ * Measures the bytes allocated during a generation by the simulation thread (compute, publishing and listener dispatch)
+ * and by the {@link ComputePool} workers. After a warmup, every generation that allocates counts as a regression.
+ * The first regression, and every {@link #REPORT_INTERVAL}-th after it, is logged as a warning
+ * <br><br>
+ * Opt-in (see {@link AutomataSimulator#setAllocationCheckEnabled(boolean)}), since tracking worker allocations has a cost
+ * <br><br>
+ * Not thread safe: {@link #begin} and {@link #end} must be called by the simulation thread with the state lock held
+ * */
+public final class AllocationCheck {
+
+    public static final String TAG = "AllocationCheck";
+
+    /**
+     * Long enough for the JIT to settle: deoptimizations of compiled code may re-materialize eliminated allocations
+     * */
+    public static final int DEF_WARMUP_GENERATIONS = 5000;
+    public static final int REPORT_INTERVAL = 1000;
+
+    private final int mWarmupGenerations;
+    private int mWarmupRemaining;
+    private volatile boolean mWarmupRequested = true;
+
+    private boolean mMeasuring;
+    private long mThreadStartBytes, mWorkerStartBytes;
+
+    /* Results */
+    private volatile long mMeasuredGenerations;
+    private volatile long mRegressionCount;
+    private volatile long mLastRegressionBytes, mMaxRegressionBytes;
+    private volatile int mLastRegressionGeneration = -1;
+
+    public AllocationCheck(int warmupGenerations) {
+        mWarmupGenerations = warmupGenerations;
+    }
+
+    public AllocationCheck() {
+        this(DEF_WARMUP_GENERATIONS);
+    }
+
+    public static boolean isSupported() {
+        return AllocationMeter.isSupported();
+    }
+
+    /**
+     * Restarts the warmup, ex. after buffers are (re)allocated for a new automata, state shape or thread count.
+     * Can be called from any thread
+     * */
+    public void requestWarmup() {
+        mWarmupRequested = true;
+    }
+
+    /**
+     * Starts measuring a generation
+     * */
+    public void begin(@Nullable ComputePool pool) {
+        if (mWarmupRequested) {
+            mWarmupRequested = false;
+            mWarmupRemaining = mWarmupGenerations;
+        }
+
+        mThreadStartBytes = AllocationMeter.currentThreadAllocatedBytes();
+        mWorkerStartBytes = pool != null ? pool.getWorkerAllocatedBytes() : 0;
+        mMeasuring = mThreadStartBytes >= 0;
+    }
+
+    /**
+     * Discards the measurement started by {@link #begin}, ex. if the generation applied cell edits
+     * */
+    public void discard() {
+        mMeasuring = false;
+    }
+
+    /**
+     * Finishes measuring a generation
+     *
+     * @return bytes allocated in the generation, or -1 if not measured or still warming up
+     * */
+    public long end(@Nullable ComputePool pool, int generation) {
+        if (!mMeasuring) {
+            return -1;
+        }
+
+        mMeasuring = false;
+        final long bytes = (AllocationMeter.currentThreadAllocatedBytes() - mThreadStartBytes)
+                + (pool != null ? pool.getWorkerAllocatedBytes() - mWorkerStartBytes : 0);
+
+        if (mWarmupRemaining > 0) {
+            mWarmupRemaining--;
+            return -1;
+        }
+
+        mMeasuredGenerations++;
+        if (bytes > 0) {
+            final long count = ++mRegressionCount;
+            mLastRegressionBytes = bytes;
+            mLastRegressionGeneration = generation;
+            if (bytes > mMaxRegressionBytes) {
+                mMaxRegressionBytes = bytes;
+            }
+
+            if (count == 1 || count % REPORT_INTERVAL == 0) {
+                Log.w(TAG, "Generation " + generation + " allocated " + bytes + " bytes (allocating generations: " + count + " of " + mMeasuredGenerations + ", max: " + mMaxRegressionBytes + " bytes)");
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @return number of generations measured after warmup
+     * */
+    public long getMeasuredGenerations() {
+        return mMeasuredGenerations;
+    }
+
+    /**
+     * @return number of measured generations that allocated
+     * */
+    public long getRegressionCount() {
+        return mRegressionCount;
+    }
+
+    public long getLastRegressionBytes() {
+        return mLastRegressionBytes;
+    }
+
+    public long getMaxRegressionBytes() {
+        return mMaxRegressionBytes;
+    }
+
+    /**
+     * @return generation of the last regression, or -1 if none
+     * */
+    public int getLastRegressionGeneration() {
+        return mLastRegressionGeneration;
+    }
+
+    @Override
+    public String toString() {
+        return "AllocationCheck{" +
+                "measuredGenerations=" + mMeasuredGenerations +
+                ", regressionCount=" + mRegressionCount +
+                ", lastRegressionBytes=" + mLastRegressionBytes +
+                ", maxRegressionBytes=" + mMaxRegressionBytes +
+                ", lastRegressionGeneration=" + mLastRegressionGeneration +
+                '}';
+    }
+}
@@ -1,22 +1,47 @@
 package core.simulator;
 
+import core.AutomataRegistry;
+import core.LifeAutomata;
 import core.definition.NdArrayF;
 import core.definition.NdArrayFloatI;
+import core.definition.Soup;
+import core.definition.StateStats;
 import core.definition.automata.AutomataI;
+import core.definition.automata.ComputePool;
 import core.definition.automata.NextStateGeneratorI;
 import core.definition.automata.WorkSplitter;
+import core.io.Checkpoint;
+import core.io.GridSnapshot;
+import core.io.MacrocellFormat;
+import core.io.PatternInfo;
+import core.io.Patterns;
+import core.io.PngExporter;
+import core.io.RleFormat;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import util.async.BiConsumer;
 import util.async.CancellationProvider;
 import util.async.Canceller;
+import util.async.Consumer;
 import util.live.Listeners;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 
 public class AutomataSimulator implements WorkSplitter.Listener {
@@ -29,6 +54,29 @@ public class AutomataSimulator implements WorkSplitter.Listener {
     public static final int DEF_GEN_STEPS = 1;
     public static final boolean DEF_WRAP_ENABLED = true;
     public static final boolean DEF_PAUSE_ON_RESET_OR_CLEAR = true;
+    public static final boolean DEF_STATE_PUBLISHING_ENABLED = true;
+    public static final boolean DEF_ALLOCATION_CHECK_ENABLED = false;
+    public static final boolean DEF_HISTORY_ENABLED = false;
+    public static final boolean DEF_SPECULATION_ENABLED = false;
+    public static final int DEF_SPECULATION_DEPTH = 4;
+
+    public static final int DEF_MAX_GENERATION_LEAD = 2;
+    public static final int DEF_MAX_FRAME_SKIP = 4;
+
+    /**
+     * Approximate number of progress reports of {@link #advanceBy(int, CancellationProvider, AdvanceProgressListener)}
+     * */
+    public static final int ADVANCE_PROGRESS_REPORTS = 100;
+
+    /**
+     * Max time a waiting simulation thread parks before re-checking cancellation
+     * */
+    private static final long RUN_WAIT_TIMEOUT_NS = 50_000_000L;
+
+    /**
+     * Time the simulation thread backs off while another operation preempts the computation
+     * */
+    private static final long COMPUTE_ABORT_BACKOFF_NS = 1_000_000L;
 
 
     public interface Listener {
@@ -47,13 +95,36 @@ public class AutomataSimulator implements WorkSplitter.Listener {
 
         void onAutomataStateChanged(AutomataSimulator simulator, @Nullable NdArrayFloatI oldState, @NotNull NdArrayFloatI newState, int generation, int stepInGeneration);
 
-        void onAutomataGenerationChanged(AutomataSimulator simulator, @Nullable NdArrayFloatI oldGen, @NotNull NdArrayFloatI newGen, int generation, int steps);
+        /**
+         * @param stats statistics of the new generation. Reused across generations, copy to retain
+         * */
+        void onAutomataGenerationChanged(AutomataSimulator simulator, @Nullable NdArrayFloatI oldGen, @NotNull NdArrayFloatI newGen, int generation, int steps, @NotNull StateStats stats);
 
-        void onAutomataCellStateChanged(AutomataSimulator simulator, @NotNull NdArrayFloatI state, int[] cellIndices);
+        /**
+         * Called once for all cell edits applied together (see {@link #submitEdit(CellEdit)})
+         *
+         * @param region bounding box of the changed cells
+         * */
+        void onAutomataRegionChanged(AutomataSimulator simulator, @NotNull NdArrayFloatI state, @NotNull CellRegion region);
 
         void onSimulatorThreadCountChanged(@NotNull AutomataSimulator simulator);
 
         void onParallelComputeEnabledChanged(@NotNull AutomataSimulator simulator, boolean parallelComputeEnabled);
+
+        /**
+         * Called at most once per {@link RunStats#RATE_WINDOW_NS} in {@link RunMode#TARGET_RATE}, when the simulation
+         * could not keep up with the target rate
+         * */
+        void onSimulationRateShortfall(@NotNull AutomataSimulator simulator, @NotNull RunStats stats);
+    }
+
+    /**
+     * Progress of {@link #advanceBy(int, CancellationProvider, AdvanceProgressListener)}. Called on the advancing thread, with the state lock held
+     * */
+    @FunctionalInterface
+    public interface AdvanceProgressListener {
+
+        void onAdvanceProgress(@NotNull AutomataSimulator simulator, int advanced, int total);
     }
 
     public enum RunMode {
@@ -68,6 +139,21 @@ public class AutomataSimulator implements WorkSplitter.Listener {
          * Run simulation task continuously in a while loop, irrespective of the Frame rate
          * */
         LOOP(false),
+
+        /**
+         * Run continuously, but at most {@link AutomataSimulator#getMaxGenerationLead()} generations ahead of the last consumed generation.
+         * Generations are consumed by {@link AutomataSimulator#acquirePublishedState()} or {@link AutomataSimulator#markGenerationConsumed(int)}
+         * */
+        BOUNDED_LEAD(false),
+
+        /**
+         * Target the frame rate in generations per second, on an absolute schedule so that delays do not accumulate.
+         * When behind, up to {@link AutomataSimulator#getMaxFrameSkip()} generations are computed back to back without being published.
+         * If still behind, the remaining generations are dropped and reported (see {@link Listener#onSimulationRateShortfall})
+         *
+         * @see #setSimulationFrameRate(long)
+         * */
+        TARGET_RATE(true),
         ;
 
         public final boolean frameRateDependent;
@@ -92,9 +178,27 @@ public class AutomataSimulator implements WorkSplitter.Listener {
     private volatile boolean wrapEnabled = DEF_WRAP_ENABLED;
     private volatile boolean pauseOnResetOrClear = DEF_PAUSE_ON_RESET_OR_CLEAR;
 
+    /**
+     * Soup used by {@link #resetStateSync()}
+     * */
+    @NotNull
+    private volatile Soup mSoup = Soup.random();
+
+    /**
+     * Soup (with resolved seed) of the last reset, can be used to reproduce it
+     * */
+    @Nullable
+    private volatile Soup mLastResetSoup;
+
     @NotNull
     private final Listeners<Listener> mListeners = new Listeners<>();
 
+    /**
+     * Rate limited wrappers of listeners added with {@link #addListener(Listener, float)}
+     * */
+    @NotNull
+    private final Map<Listener, ConflatingListener> mConflatingListeners = new ConcurrentHashMap<>();
+
 
     /* Simulation Vars */
     @NotNull
@@ -106,6 +210,13 @@ public class AutomataSimulator implements WorkSplitter.Listener {
     @NotNull
     private final ScheduledThreadPoolExecutor mExecutor;
 
+    /**
+     * Single daemon thread delivering rate limited events (see {@link ConflatingListener}), independent of the
+     * simulation threads so that deliveries are never starved by a running simulation
+     * */
+    @NotNull
+    private final ScheduledThreadPoolExecutor mEventExecutor;
+
     @Nullable
     private Future<?> mSimFuture;
     @Nullable
@@ -119,6 +230,85 @@ public class AutomataSimulator implements WorkSplitter.Listener {
     @NotNull
     private final WorkSplitter mWorkSplitter;
 
+    /* Pacing */
+    private volatile int maxGenerationLead = DEF_MAX_GENERATION_LEAD;
+    private volatile int maxFrameSkip = DEF_MAX_FRAME_SKIP;
+    private volatile int mConsumedGeneration;
+    @Nullable
+    private volatile Thread mLeadWaiter;
+    @NotNull
+    private final RunStats mRunStats = new RunStats();
+
+    /**
+     * Pending requests to abort the running computation, see {@link #beginComputeAbort()}
+     * */
+    @NotNull
+    private final AtomicInteger mComputeAbortRequests = new AtomicInteger();
+
+    /**
+     * Parked threads computing generations in parallel, without allocating. Sized after {@link #getMaxThreadCount()}
+     * */
+    @NotNull
+    private volatile ComputePool mComputePool;
+
+    /* Stats */
+
+    @NotNull
+    private final StateStats mGenStats = new StateStats();
+    @NotNull
+    private final StatsHistory mStatsHistory = new StatsHistory();
+
+    /* Cell Edits */
+
+    /**
+     * Lock-free journal of pending cell edits. Drained in bulk at the start of each generation, or right away when paused
+     * */
+    @NotNull
+    private final ConcurrentLinkedQueue<CellEdit> mEditQueue = new ConcurrentLinkedQueue<>();
+    @NotNull
+    private final AtomicBoolean mEditDrainScheduled = new AtomicBoolean();
+    @NotNull
+    private final CellRegion mEditRegion = new CellRegion();
+
+    /* Publishing */
+    @NotNull
+    private final StatePublisher mPublisher = new StatePublisher();
+    private volatile boolean statePublishingEnabled = DEF_STATE_PUBLISHING_ENABLED;
+
+    /* Allocation Check */
+    @NotNull
+    private final AllocationCheck mAllocationCheck = new AllocationCheck();
+    private volatile boolean allocationCheckEnabled = DEF_ALLOCATION_CHECK_ENABLED && AllocationCheck.isSupported();
+
+    /* Time Travel */
+    @NotNull
+    private final GenerationHistory mHistory = new GenerationHistory();
+    private volatile boolean historyEnabled = DEF_HISTORY_ENABLED;
+
+    /* Checkpoints */
+    @Nullable
+    private volatile Checkpointer mCheckpointer;
+
+    /* Run recording */
+    @Nullable
+    private volatile RunRecorder mRunRecorder;
+
+    /* Replay journal */
+    @Nullable
+    private volatile ReplayJournal mReplayJournal;
+
+    /* Speculation */
+    @NotNull
+    private final SpeculationBuffer mSpeculationBuffer = new SpeculationBuffer(DEF_SPECULATION_DEPTH);
+    private volatile boolean speculationEnabled = DEF_SPECULATION_ENABLED;
+    @NotNull
+    private final AtomicBoolean mSpeculationScheduled = new AtomicBoolean();
+    /**
+     * Intermediate state of multi-step generations. Speculation thread only
+     * */
+    @Nullable
+    private NdArrayF mSpeculationScratch;
+
 
     public AutomataSimulator(@NotNull AutomataI automata, int[] stateShape, boolean initRandomState) {
         if (automata.dimensions() != stateShape.length) {
@@ -137,11 +327,20 @@ public class AutomataSimulator implements WorkSplitter.Listener {
         mExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
         mExecutor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
 
+        mEventExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread t = new Thread(r, "AutomataSimulator-Events");
+            t.setDaemon(true);
+            return t;
+        });
+        mEventExecutor.setRemoveOnCancelPolicy(true);
+
         // Work Splitter
         mWorkSplitter = new WorkSplitter(DEF_PARALLEL_COMPUTE_ENABLED, DEF_PARALLEL_COMPUTE_MIN_CELLS_PER_THREAD);
         mWorkSplitter.setListener(this);
+        mComputePool = createComputePool(mExecutor.getCorePoolSize());
 
         // Init
+        publishStateInternal();
         if (initRandomState) {
             resetStateAsync();
         }
@@ -154,214 +353,1377 @@ public class AutomataSimulator implements WorkSplitter.Listener {
         return generation;
     }
 
+    /**
+     * @return the live state, which is modified by the compute thread.
+     *          Use {@link #acquirePublishedState()} for a consistent view
+     * */
     public @NotNull NdArrayFloatI getState() {
         return mState;
     }
 
-    public float getCellState(int... cellIndices) {
-        return mState.get(cellIndices);
-    }
+    /**
+     * @return triple buffer publishing a copy of the state after every generation, reset, clear or cell edit
+     * */
+    @NotNull
+    public StatePublisher getStatePublisher() {
+        return mPublisher;
+    }
+
+    /**
+     * Acquires the latest published state, without blocking the compute thread. Single-consumer (the renderer):
+     * other readers must use {@link StatePublisher#copyLatest()}
+     *
+     * @return consistent snapshot of the latest state, or {@code null} if nothing is published yet.
+     *          It stays unchanged until the next call to this method
+     * @see StatePublisher#acquire()
+     * */
+    @Nullable
+    public StatePublisher.Snapshot acquirePublishedState() {
+        final StatePublisher.Snapshot snapshot = mPublisher.acquire();
+        if (snapshot != null) {
+            markGenerationConsumed(snapshot.generation());
+        }
+
+        return snapshot;
+    }
+
+    public boolean isStatePublishingEnabled() {
+        return statePublishingEnabled;
+    }
+
+    public void setStatePublishingEnabled(boolean statePublishingEnabled) {
+        if (this.statePublishingEnabled != statePublishingEnabled) {
+            this.statePublishingEnabled = statePublishingEnabled;
+            if (statePublishingEnabled) {
+                synchronized (mStateLock) {
+                    publishStateInternal();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return check reporting heap allocations of steady state generations
+     * */
+    @NotNull
+    public AllocationCheck getAllocationCheck() {
+        return mAllocationCheck;
+    }
+
+    public boolean isAllocationCheckEnabled() {
+        return allocationCheckEnabled;
+    }
+
+    public void setAllocationCheckEnabled(boolean allocationCheckEnabled) {
+        allocationCheckEnabled &= AllocationCheck.isSupported();
+        if (this.allocationCheckEnabled != allocationCheckEnabled) {
+            this.allocationCheckEnabled = allocationCheckEnabled;
+            mComputePool.setTrackAllocations(allocationCheckEnabled);
+            mAllocationCheck.requestWarmup();
+        }
+    }
+
+    public float getCellState(int... cellIndices) {
+        return mState.get(cellIndices);
+    }
+
+    /**
+     * @return stats of the latest generation. Reused across generations, copy to retain
+     * */
+    @NotNull
+    public StateStats getGenerationStats() {
+        return mGenStats;
+    }
+
+    /**
+     * @return ring buffer of per-generation stats, for charting
+     * */
+    @NotNull
+    public StatsHistory getStatsHistory() {
+        return mStatsHistory;
+    }
+
+    /**
+     * @return compressed history of past generations, recorded while {@link #isHistoryEnabled() enabled}
+     * */
+    @NotNull
+    public GenerationHistory getHistory() {
+        return mHistory;
+    }
+
+    public boolean isHistoryEnabled() {
+        return historyEnabled;
+    }
+
+    /**
+     * Enables recording past generations, for {@link #stepBack()} and {@link #seekTo(int)}.
+     * Recording encodes every generation, so it costs a pass over the state and allocates the encoded frame
+     * */
+    public void setHistoryEnabled(boolean historyEnabled) {
+        if (this.historyEnabled != historyEnabled) {
+            synchronized (mStateLock) {
+                this.historyEnabled = historyEnabled;
+                mHistory.clear();
+                if (historyEnabled) {
+                    mHistory.record(mState, generation);
+                }
+            }
+        }
+    }
+
+    public boolean isSpeculationEnabled() {
+        return speculationEnabled;
+    }
+
+    /**
+     * Enables precomputing the next {@link #getSpeculationDepth()} generations in the background while paused, so that
+     * stepping forward takes a precomputed generation instead of computing it. Cell edits, reset, clear, seeking and
+     * parameter changes discard the precomputed generations
+     * */
+    public void setSpeculationEnabled(boolean speculationEnabled) {
+        if (this.speculationEnabled != speculationEnabled) {
+            this.speculationEnabled = speculationEnabled;
+            if (speculationEnabled) {
+                scheduleSpeculation();
+            } else {
+                mSpeculationBuffer.release();
+            }
+        }
+    }
+
+    public int getSpeculationDepth() {
+        return mSpeculationBuffer.getDepth();
+    }
+
+    /**
+     * Sets the max number of precomputed generations. Each one holds a copy of the state
+     * */
+    public void setSpeculationDepth(int depth) {
+        mSpeculationBuffer.setDepth(depth);
+        scheduleSpeculation();
+    }
+
+    /**
+     * @return number of generations precomputed ahead of the current one
+     * */
+    public int getSpeculatedGenerationCount() {
+        return mSpeculationBuffer.size();
+    }
+
+
+    public int getGenerationSteps() {
+        return generationSteps;
+    }
+
+    public void setGenerationSteps(int generationSteps) {
+        final int prevSteps = this.generationSteps;
+        if (prevSteps != generationSteps) {
+            this.generationSteps = generationSteps;
+            invalidateSpeculation();
+            onGenerationStepsChanged(prevSteps, generationSteps);
+        }
+    }
+
+    public boolean isWrapEnabled() {
+        return wrapEnabled;
+    }
+
+    public void setWrapEnabled(boolean wrapEnabled) {
+        if (this.wrapEnabled != wrapEnabled) {
+            this.wrapEnabled = wrapEnabled;
+            invalidateSpeculation();
+            onWrapEnabledChanged(wrapEnabled);
+        }
+    }
+
+    public void toggleWrapEnabled() {
+        setWrapEnabled(!isWrapEnabled());
+    }
+
+    public boolean isPauseOnResetOrClearEnabled() {
+        return pauseOnResetOrClear;
+    }
+
+    public void setPauseOnResetOrClear(boolean pauseOnResetOrClear) {
+        this.pauseOnResetOrClear = pauseOnResetOrClear;
+    }
+
+    @NotNull
+    public Soup getSoup() {
+        return mSoup;
+    }
+
+    /**
+     * Sets the soup used by subsequent resets. Use {@link Soup#withRandomSeed()} to draw a new seed on every reset
+     * */
+    public void setSoup(@NotNull Soup soup) {
+        if (soup == null) {
+            throw new NullPointerException("Soup cannot be null.");
+        }
+
+        mSoup = soup;
+    }
+
+    /**
+     * @return soup of the last reset with its resolved seed, or {@code null} if the state was never reset
+     * */
+    @Nullable
+    public Soup getLastResetSoup() {
+        return mLastResetSoup;
+    }
+
+    /* ============================  CELL STATE METHODS  =========================== */
+
+    /**
+     * Queues an edit without blocking. It is applied at the start of the next generation, or right away if paused
+     * */
+    public void submitEdit(@NotNull CellEdit edit) {
+        mEditQueue.add(edit);
+
+        if (!mIsPlaying) {
+            scheduleEditDrain();
+        }
+    }
+
+    private void scheduleEditDrain() {
+        if (!mEditQueue.isEmpty() && mEditDrainScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(() -> {
+                mEditDrainScheduled.set(false);     // edits queued from now on need another drain
+
+                synchronized (mStateLock) {
+                    applyPendingEditsInternal();
+                }
+            });
+        }
+    }
+
+    /**
+     * Applies all queued edits. Must be called with {@link #mStateLock} held
+     *
+     * @return number of edits that changed the state
+     * */
+    private int applyPendingEditsInternal() {
+        final CellRegion region = mEditRegion;
+        region.clear();
+
+        int changed = 0;
+        CellEdit edit;
+
+        while ((edit = mEditQueue.poll()) != null) {
+            if (!edit.isValidFor(mState)) {
+                continue;       // queued for a different state shape
+            }
+
+            final ReplayJournal journal = mReplayJournal;
+            if (journal != null) {
+                journal.edit(generation, edit);
+            }
+
+            if (edit.apply(mAutomata, mState, region)) {
+                changed++;
+            }
+        }
+
+        if (changed > 0) {
+            markDirtyRegionInternal(region.rowStart(), region.colStart(), region.rowEnd(), region.colEnd());
+            invalidateSpeculation();
+            recordHistoryInternal();
+            publishStateInternal();
+            onRegionChanged(mState, region.copy());
+        }
+
+        return changed;
+    }
+
+    /**
+     * Queues a single cell edit
+     *
+     * @return whether the edit is expected to change the cell, based on its current state.
+     *          It may differ from the actual result if the cell changes before the edit is applied
+     * */
+    private boolean submitCellEdit(@NotNull CellEdit.Op op, int[] cellIndices, float value) {
+        mState.checkIndicesThrow(cellIndices);
+        return submitEditExpectChanges(new CellEdit.Cell(op, cellIndices.clone(), value)) > 0;
+    }
+
+    /**
+     * Queues an edit
+     *
+     * @return number of cells the edit is expected to change, based on their current states.
+     *          It may differ from the actual result if cells change before the edit is applied
+     * */
+    private int submitEditExpectChanges(@NotNull CellEdit edit) {
+        final int expected = edit.countExpectedChanges(mAutomata, mState);
+        submitEdit(edit);
+        return expected;
+    }
+
+    public boolean cycleCellState(int[] cellIndices) {
+        return submitCellEdit(CellEdit.Op.CYCLE, cellIndices, 0);
+    }
+
+    public boolean setCellState(int[] cellIndices, float value) {
+        return submitCellEdit(CellEdit.Op.SET, cellIndices, value);
+    }
+
+    public boolean stepCellState(int[] cellIndices, boolean stepUp) {
+        return submitCellEdit(CellEdit.Op.step(stepUp), cellIndices, 0);
+    }
+
+    public boolean setCellStateLowest(int[] cellIndices) {
+        return setCellState(cellIndices, mAutomata.lowestCellState());
+    }
+
+    public boolean setCellStateHighest(int[] cellIndices) {
+        return setCellState(cellIndices, mAutomata.highestCellState());
+    }
+
+    /* Bulk edits: each is applied as a whole under one lock acquisition, and raises a single region changed event */
+
+    /**
+     * Sets all given cells to {@code value}. Invalid cells are skipped
+     *
+     * @return number of cells expected to change
+     * */
+    public int setCellStates(@NotNull List<int[]> cells, float value) {
+        return submitEditExpectChanges(new CellEdit.Cells(CellEdit.Op.SET, List.copyOf(cells), value));
+    }
+
+    /**
+     * Steps all given cells up or down. Invalid cells are skipped
+     *
+     * @return number of cells expected to change
+     * */
+    public int stepCellStates(@NotNull List<int[]> cells, boolean stepUp) {
+        return submitEditExpectChanges(new CellEdit.Cells(CellEdit.Op.step(stepUp), List.copyOf(cells), 0));
+    }
+
+    /**
+     * Steps up or down only the given cells that are expected to change, based on their current states (ex. cells
+     * already at the highest state are skipped when stepping up)
+     *
+     * @return the cells expected to change, which are the ones edited
+     * */
+    @NotNull
+    public List<int[]> stepChangingCellStates(@NotNull List<int[]> cells, boolean stepUp) {
+        final CellEdit.Op op = CellEdit.Op.step(stepUp);
+        final List<int[]> changing = new CellEdit.Cells(op, cells, 0).expectedChangedCells(mAutomata, mState);
+        if (!changing.isEmpty()) {
+            submitEdit(new CellEdit.Cells(op, List.copyOf(changing), 0));
+        }
+
+        return changing;
+    }
+
+    /**
+     * Applies an edit to all cells in rows [rowStart, rowEnd) and columns [colStart, colEnd), clipped to the state
+     *
+     * @param value new state for {@link CellEdit.Op#SET}, ignored otherwise
+     * @return number of cells expected to change
+     * */
+    public int editRect(@NotNull CellEdit.Op op, int rowStart, int colStart, int rowEnd, int colEnd, float value) {
+        return submitEditExpectChanges(new CellEdit.Rect(op, rowStart, colStart, rowEnd, colEnd, value));
+    }
+
+    public int fillRect(int rowStart, int colStart, int rowEnd, int colEnd, float value) {
+        return editRect(CellEdit.Op.SET, rowStart, colStart, rowEnd, colEnd, value);
+    }
+
+    /**
+     * Applies an edit to all cells on the line from (row0, col0) to (row1, col1), both inclusive
+     *
+     * @param value new state for {@link CellEdit.Op#SET}, ignored otherwise
+     * @return number of cells expected to change
+     * */
+    public int editLine(@NotNull CellEdit.Op op, int row0, int col0, int row1, int col1, float value) {
+        return submitEditExpectChanges(new CellEdit.Line(op, row0, col0, row1, col1, value));
+    }
+
+    public int drawLine(int row0, int col0, int row1, int col1, float value) {
+        return editLine(CellEdit.Op.SET, row0, col0, row1, col1, value);
+    }
+
+    /**
+     * Copies a 2D pattern into the state with its top-left corner at (rowOffset, colOffset).
+     * The pattern must not be modified until it is applied
+     *
+     * @param overlay if set, lowest-state cells of the pattern leave the underlying cells unchanged
+     * @return number of cells expected to change
+     * */
+    public int stampPattern(@NotNull NdArrayFloatI pattern, int rowOffset, int colOffset, boolean overlay) {
+        return submitEditExpectChanges(new CellEdit.Stamp(pattern, rowOffset, colOffset, overlay));
+    }
+    
+
+    /* ============================  STATE METHODS  =========================== */
+
+    /**
+     * Records the current state into the history and the run recording, if enabled. Must be called with {@link #mStateLock} held
+     * */
+    private void recordHistoryInternal() {
+        if (historyEnabled) {
+            mHistory.record(mState, generation);
+        }
+
+        final RunRecorder recorder = mRunRecorder;
+        if (recorder != null) {
+            recorder.record(mState, generation, mAutomata);
+        }
+    }
+
+    /* Changes of the state, reported to the publisher and the recorder so that they compare only the changed tiles.
+     * Must be called with {@link #mStateLock} held */
+
+    private void markDirtyInternal(@NotNull StateStats stats) {
+        mPublisher.markDirty(stats);
+        final RunRecorder recorder = mRunRecorder;
+        if (recorder != null) {
+            recorder.markDirty(stats);
+        }
+    }
+
+    private void markDirtyRegionInternal(int rowStart, int colStart, int rowEnd, int colEnd) {
+        mPublisher.markDirtyRegion(rowStart, colStart, rowEnd, colEnd);
+        final RunRecorder recorder = mRunRecorder;
+        if (recorder != null) {
+            recorder.markDirtyRegion(rowStart, colStart, rowEnd, colEnd);
+        }
+    }
+
+    private void markAllDirtyInternal() {
+        mPublisher.markAllDirty();
+        final RunRecorder recorder = mRunRecorder;
+        if (recorder != null) {
+            recorder.markAllDirty();
+        }
+    }
+
+    /**
+     * Publishes a copy of the current state. Must be called with {@link #mStateLock} held
+     * */
+    private void publishStateInternal() {
+        if (statePublishingEnabled) {
+            mPublisher.publish(mState, generation);
+        }
+    }
+
+    @NotNull
+    private NdArrayF ensureOutTempState() {
+        NdArrayF outState = mTempOutState;
+
+        if (outState == null || !outState.isSameShape(mState)) {
+            synchronized (mStateLock) {
+                outState = mTempOutState;
+
+                if (outState == null || !outState.isSameShape(mState)) {
+                    outState = new NdArrayF(mState.shape());
+                    mTempOutState = outState;
+                }
+            }
+        }
+
+        return outState;
+    }
+
+    /**
+     * Computes a whole new state (ex. reset or clear), preempting any running generation computation
+     * */
+    private void generateNextStateSyncInternal(@NotNull NextStateGeneratorI generator, @Nullable BiConsumer<NdArrayF, NdArrayF> callback) {
+        beginComputeAbort();
+        try {
+            synchronized (mStateLock) {
+                final NdArrayF oldState = mState;
+                final NdArrayF newState = ensureOutTempState();
+
+                generator.computeNextState(mExecutor, oldState, newState, wrapEnabled);
+
+                // Switch current and temp states
+                mState = newState;
+                mTempOutState = oldState;
+                markAllDirtyInternal();
+
+                if (callback != null) {
+                    callback.consume(oldState, newState);   // Callback(old_state, new_state)
+                }
+            }
+        } finally {
+            endComputeAbort();
+        }
+    }
+
+    public void resetStateSync(@NotNull Soup soup) {
+        if (pauseOnResetOrClear) {
+            setPlaying(false);
+        }
+
+        final Soup resolved = soup.resolve();
+        mLastResetSoup = resolved;
+
+        mEditQueue.clear();     // Edits of the previous state
+        generateNextStateSyncInternal((executor, curState, outState, wrapEnabled1) -> mAutomata.resetState(mComputePool, curState, outState, wrapEnabled1, resolved), (old_state, new_state) -> onStateReplacedInternal(old_state, new_state, 0, journal -> journal.reset(resolved)));
+    }
+
+    public void resetStateSync() {
+        resetStateSync(mSoup);
+    }
+
+    /**
+     * Starts a new timeline from a state that replaced the current one (reset, clear or restore).
+     * Must be called with {@link #mStateLock} held
+     * */
+    private void onStateReplacedInternal(@NotNull NdArrayF oldState, @NotNull NdArrayF newState, int newGen) {
+        onStateReplacedInternal(oldState, newState, newGen, null);
+    }
+
+    /**
+     * @param journalEntry how to journal the replacement if it can be re-executed (ex. reset from a soup),
+     *                     or {@code null} to journal the new state as a whole
+     * */
+    private void onStateReplacedInternal(@NotNull NdArrayF oldState, @NotNull NdArrayF newState, int newGen, @Nullable Consumer<ReplayJournal> journalEntry) {
+        generation = newGen;
+
+        final ReplayJournal journal = mReplayJournal;
+        if (journal != null) {
+            if (journalEntry != null) {
+                journalEntry.consume(journal);
+            } else {
+                journal.stateReplaced(newState, newGen, mAutomata, wrapEnabled, generationSteps);
+            }
+        }
+
+        collectStats(oldState, newState);
+        markAllDirtyInternal();
+        mStatsHistory.clear();
+        mStatsHistory.add(newGen, mGenStats);
+        mHistory.clear();
+        recordHistoryInternal();
+        invalidateSpeculation();
+        publishStateInternal();
+        onStateChanged(oldState, newState, newGen, 0);
+        onGenerationChanged(oldState, newState, newGen, 1);
+    }
+
+    public void resetStateAsync() {
+        mExecutor.execute(this::resetStateSync);
+    }
+
+    public void clearStateSync() {
+        if (pauseOnResetOrClear) {
+            setPlaying(false);
+        }
+
+        mEditQueue.clear();     // Edits of the previous state
+        generateNextStateSyncInternal((executor, curState, outState, wrapEnabled1) -> mAutomata.clearState(executor, curState, outState, wrapEnabled1), (old_state, new_state) -> onStateReplacedInternal(old_state, new_state, 0, ReplayJournal::cleared));
+    }
+
+    public void clearStateAsync() {
+        mExecutor.execute(this::clearStateSync);
+    }
+
+    /**
+     * Resumes from a checkpoint: switches to its automata and state shape, applies its parameters, and replaces the
+     * state and generation. The simulation is paused
+     *
+     * @throws IllegalArgumentException if the checkpoint automata cannot be recreated
+     * */
+    public void restoreCheckpoint(@NotNull Checkpoint checkpoint) {
+        final AutomataI automata = AutomataRegistry.fromSpec(checkpoint.automataSpec);
+        if (automata.dimensions() != checkpoint.state.dimensions()) {
+            throw new IllegalArgumentException("Checkpoint state has " + checkpoint.state.dimensions() + " dimensions, automata requires " + automata.dimensions());
+        }
+
+        setPlaying(false);      // setAutomata does not pause if the automata and shape are unchanged
+        setAutomata(automata, checkpoint.state.shape(), false);
+        setWrapEnabled(checkpoint.wrapEnabled);
+        setGenerationSteps(checkpoint.generationSteps);
+
+        mEditQueue.clear();     // Edits of the previous state
+        generateNextStateSyncInternal((executor, curState, outState, wrapEnabled1) -> outState.copyFrom(checkpoint.state),
+                (old_state, new_state) -> onStateReplacedInternal(old_state, new_state, checkpoint.generation));
+    }
+
+    /* Image export */
+
+    /**
+     * Exports the current state as a PNG image at one pixel per cell, colored by the automata. Scanlines are streamed
+     * straight from the state (no copy, no image in memory); the simulation waits for the export
+     *
+     * @param executor executor to colourise and compress rows in parallel, or {@code null} to export on the calling thread.
+     *                 Must not be the simulation executor
+     * @see PngExporter
+     * */
+    public void exportImage(@NotNull Path file, boolean darkMode, @Nullable ExecutorService executor) throws IOException {
+        synchronized (mStateLock) {
+            PngExporter.write(file, mState, mAutomata, darkMode, executor);
+        }
+    }
+
+    /* Snapshots */
+
+    /**
+     * Saves the current state and its parameters as a {@link GridSnapshot}, streaming straight from the state (no copy).
+     * The simulation waits for the write, use a {@link Checkpointer} to save in the background instead
+     * */
+    public void saveSnapshot(@NotNull Path file) throws IOException {
+        synchronized (mStateLock) {
+            final GridSnapshot.Header header = new GridSnapshot.Header(System.currentTimeMillis(), generation, generationSteps, wrapEnabled, mAutomata.toSpec(), mState.shape());
+            GridSnapshot.save(file, header, mState);
+        }
+    }
+
+    /**
+     * Loads a {@link GridSnapshot}: decodes its state into a new array, then switches to its automata and state shape,
+     * applies its parameters, and replaces the current state with the decoded one. The simulation is paused
+     *
+     * @throws IOException if the file is not a valid snapshot, or has cell states the automata does not have.
+     *                     The current state, automata and parameters are kept
+     * @throws IllegalArgumentException if the snapshot automata cannot be recreated
+     * */
+    public void loadSnapshot(@NotNull Path file) throws IOException {
+        final GridSnapshot.Header header;
+        final AutomataI automata;
+        final NdArrayF loaded;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            header = GridSnapshot.readHeader(channel);
+            automata = AutomataRegistry.fromSpec(header.automataSpec);
+            if (automata.dimensions() != header.shape.length) {
+                throw new IllegalArgumentException("Snapshot state has " + header.shape.length + " dimensions, automata requires " + automata.dimensions());
+            }
+
+            // Decoded before anything changes, so that nothing is applied if the body cannot be read
+            loaded = new NdArrayF(header.shape);
+            GridSnapshot.readBody(channel, header, loaded);
+            checkCellStates(loaded, automata, null);
+        }
+
+        setPlaying(false);      // setAutomata does not pause if the automata and shape are unchanged
+        setAutomata(automata, header.shape, false);
+        setWrapEnabled(header.wrapEnabled);
+        setGenerationSteps(header.generationSteps);
+
+        mEditQueue.clear();     // Edits of the previous state
+        beginComputeAbort();
+        try {
+            synchronized (mStateLock) {
+                final NdArrayF oldState = mState;
+                mState = loaded;
+                mTempOutState = oldState.isSameShape(loaded) ? oldState : null;
+                onStateReplacedInternal(oldState, loaded, header.generation);
+            }
+        } finally {
+            endComputeAbort();
+        }
+    }
+
+    /* Run recording */
+
+    @Nullable
+    public RunRecorder getRunRecorder() {
+        return mRunRecorder;
+    }
+
+    /**
+     * Sets the recorder of every generation and edit from now on, or {@code null} to stop recording.
+     * The current state is recorded right away. The previous recorder (if any) is not closed
+     * */
+    public void setRunRecorder(@Nullable RunRecorder recorder) {
+        synchronized (mStateLock) {
+            mRunRecorder = recorder;
+            if (recorder != null) {
+                recorder.record(mState, generation, mAutomata);
+            }
+        }
+    }
+
+    /* Replay journal */
+
+    @Nullable
+    public ReplayJournal getReplayJournal() {
+        return mReplayJournal;
+    }
+
+    /**
+     * Sets the journal of every reset, edit and parameter change from now on, or {@code null} to stop journaling.
+     * The journal starts with the current automata and state. The previous journal (if any) is not closed
+     *
+     * @see ReplayJournal#replay
+     * */
+    public void setReplayJournal(@Nullable ReplayJournal journal) {
+        synchronized (mStateLock) {
+            mReplayJournal = journal;
+            if (journal != null) {
+                journal.begin(mAutomata, mState, generation, wrapEnabled, generationSteps);
+            }
+        }
+    }
+
+    /**
+     * Applies the queued edits on the calling thread, without waiting for the next generation or the edit drain
+     *
+     * @return number of edits that changed the state
+     * */
+    public int applyPendingEditsSync() {
+        synchronized (mStateLock) {
+            return applyPendingEditsInternal();
+        }
+    }
+
+    /**
+     * @return hash of the exact current state
+     * @see ReplayJournal#stateHash(NdArrayFloatI)
+     * */
+    public long stateHash() {
+        synchronized (mStateLock) {
+            return ReplayJournal.stateHash(mState);
+        }
+    }
+
+    /* Patterns */
+
+    /**
+     * Replaces the state with a pattern file (RLE or Macrocell), centered. If the pattern rule is a supported Life rule
+     * other than the current automata, switches to it keeping the state shape. The simulation is paused
+     *
+     * @param parseExecutor executor to parse large files in parallel, or {@code null}. Must not be the simulation executor
+     * @return the pattern info
+     * @throws IOException if the file cannot be read or parsed, or has cell states the automata does not have.
+     *                     The current state is kept
+     * */
+    @NotNull
+    public PatternInfo importPattern(@NotNull Path file, @Nullable ExecutorService parseExecutor) throws IOException {
+        final MacrocellFormat.Pattern macrocell = Patterns.isMacrocell(file) ? MacrocellFormat.read(file, parseExecutor) : null;
+        final PatternInfo info = macrocell != null ? macrocell.info() : RleFormat.readInfo(file);
+
+        final LifeAutomata.Rule rule = info.inferRule();
+        if (rule != null && !(mAutomata instanceof LifeAutomata life && life.getRule() == rule)) {
+            setAutomata(new LifeAutomata(rule), mState.shape(), false);       // pauses
+        } else {
+            setPlaying(false);
+        }
+
+        if (mState.dimensions() != 2) {
+            throw new IllegalStateException("Patterns are 2D, state has " + mState.dimensions() + " dimensions");
+        }
+
+        mEditQueue.clear();     // Edits of the previous state
+        beginComputeAbort();
+        try {
+            synchronized (mStateLock) {
+                final NdArrayF oldState = mState;
+                final NdArrayF newState = ensureOutTempState();
+                newState.clear();
+
+                final long row0 = info.height > 0 ? (newState.shapeAt(0) - info.height) / 2 : 0;
+                final long col0 = info.width > 0 ? (newState.shapeAt(1) - info.width) / 2 : 0;
+                if (macrocell != null) {
+                    final long[] bounds = macrocell.tree().aliveBounds();
+                    if (bounds != null) {
+                        try {
+                            macrocell.tree().rasterize(newState, row0 - bounds[0], col0 - bounds[1], parseExecutor);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted", e);
+                        }
+                    }
+                } else {
+                    RleFormat.read(file, newState, (int) Math.max(Integer.MIN_VALUE, row0), (int) Math.max(Integer.MIN_VALUE, col0), parseExecutor);
+                }
+
+                // Multi-state patterns of an unsupported rule may not fit the automata. Checked before the swap, so
+                // that the current state is kept
+                checkCellStates(newState, mAutomata, info.rule);
+
+                mState = newState;
+                mTempOutState = oldState;
+                onStateReplacedInternal(oldState, newState, 0);
+            }
+        } finally {
+            endComputeAbort();
+        }
+
+        return info;
+    }
+
+    /**
+     * @param rule rule of the source, to report
+     * @throws IOException if a cell state is not a state of the automata
+     * */
+    private static void checkCellStates(@NotNull NdArrayF state, @NotNull AutomataI automata, @Nullable String rule) throws IOException {
+        final int stateCount = automata.cellStateCount();
+        for (int i = 0, n = state.size(); i < n; i++) {
+            final float v = state.getFlat(i);
+            if (!(v >= 0 && v < stateCount)) {
+                throw new IOException("Cell state " + v + " is not one of the " + stateCount + " states of " + automata + (rule != null ? " (rule: " + rule + ")" : ""));
+            }
+        }
+    }
+
+    /* Checkpoints */
+
+    @Nullable
+    public Checkpointer getCheckpointer() {
+        return mCheckpointer;
+    }
+
+    /**
+     * Sets the checkpointer writing periodic checkpoints of the running simulation, or {@code null} to stop checkpointing.
+     * The previous checkpointer (if any) is not closed
+     * */
+    public void setCheckpointer(@Nullable Checkpointer checkpointer) {
+        mCheckpointer = checkpointer;
+    }
+
+    /**
+     * Queues a checkpoint of the current state right away, ex. while paused
+     *
+     * @return whether the checkpoint was queued, {@code false} if no checkpointer is set or too many writes are pending
+     * */
+    public boolean checkpointNow() {
+        final Checkpointer checkpointer = mCheckpointer;
+        if (checkpointer == null) {
+            return false;
+        }
+
+        synchronized (mStateLock) {
+            return checkpointer.submit(mState, generation, generationSteps, wrapEnabled, mAutomata.toSpec(), System.nanoTime());
+        }
+    }
+
+    /**
+     * Queues a checkpoint if one is due. Must be called with {@link #mStateLock} held
+     * */
+    private void checkpointIfDueInternal() {
+        final Checkpointer checkpointer = mCheckpointer;
+        if (checkpointer != null) {
+            final long now = System.nanoTime();
+            if (checkpointer.isDue(generation, now)) {
+                mAllocationCheck.discard();         // snapshot and write task are allocated
+                checkpointer.submit(mState, generation, generationSteps, wrapEnabled, mAutomata.toSpec(), now);
+            }
+        }
+    }
+
+
+    /**
+     * Collects stats of a state that is not produced by the compute kernels (ex. reset or clear)
+     * */
+    private void collectStats(@NotNull NdArrayF oldState, @NotNull NdArrayF newState) {
+        final int rows = newState.shapeAt(0);
+        mGenStats.reset(mAutomata.cellStateCount(), rows, newState.size() / rows);
+        mGenStats.accept(oldState, newState);
+    }
+
+    /**
+     * Reusable task computing the next state with the automata kernels. Fields are set for each computation,
+     * under {@link #mStateLock} for the generation task, or by the speculation thread for the speculation task
+     * */
+    private final class GenerationTask implements WorkSplitter.ComputeTask, CancellationProvider {
+
+        private AutomataI automata;
+        private NdArrayF curState, outState;
+        private boolean wrapEnabled;
+
+        /**
+         * Per-worker stats, filled by the compute kernels and merged into the output stats after all workers are done
+         * */
+        private StateStats @NotNull [] workerStats = new StateStats[0];
+        @Nullable
+        private CancellationProvider cancellation;
+
+        private StateStats @NotNull [] ensureWorkerStats(int stateCount, int rows, int cols) {
+            final int count = Math.max(mExecutor.getMaximumPoolSize(), 1);
+            StateStats[] stats = workerStats;
+
+            if (stats.length < count) {
+                stats = new StateStats[count];
+                for (int i = 0; i < count; i++) {
+                    stats[i] = new StateStats(stateCount);
+                }
+
+                workerStats = stats;
+            }
+
+            for (StateStats s: stats) {
+                s.reset(stateCount, rows, cols);
+            }
+
+            return stats;
+        }
+
+        /**
+         * @param outStats receives the stats of the next state
+         * @return whether the next state was computed completely. If not (cancelled), the output is partial and must be discarded
+         * */
+        private boolean computeNextState(@NotNull AutomataI automata, @NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled, @Nullable CancellationProvider c, @NotNull StateStats outStats) {
+            final int rows = curState.shapeAt(0);
+            final int cols = curState.size() / rows;
+            final int stateCount = automata.cellStateCount();
+
+            this.automata = automata;
+            this.curState = curState;
+            this.outState = outState;
+            this.wrapEnabled = wrapEnabled;
+            cancellation = c;
+            final StateStats[] workerStats = ensureWorkerStats(stateCount, rows, cols);
+
+            final int workers;
+            try {
+                workers = mWorkSplitter.compute(automata.isParallelComputeAllowed() ? mComputePool : null, curState.size(), rows, this, this);
+            } finally {
+                cancellation = null;
+            }
+
+            if (workers < 0) {
+                return false;
+            }
+
+            // Merge worker stats, including the tiles they changed
+            outStats.reset(stateCount, rows, cols);
+            for (int i = 0; i < workers; i++) {
+                outStats.merge(workerStats[i]);
+            }
+
+            return true;
+        }
+
+        @Override
+        public void compute(int worker, int row_start, int row_end) {
+            automata.subComputeNextState(curState, outState, wrapEnabled, row_start, row_end, workerStats[worker]);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isComputeCancelled(cancellation);
+        }
+    }
+
+    @NotNull
+    private final GenerationTask mGenerationTask = new GenerationTask();
+
+    public void nextGenerationSync(@Nullable CancellationProvider c) {
+        nextGenerationsSyncInternal(c, 1);
+    }
+
+    /**
+     * Steps one generation forward on the simulation executor. The simulation is paused first
+     * */
+    public void nextGenerationAsync() {
+        setPlaying(false);
+        mExecutor.execute(() -> nextGenerationSync(null));
+    }
+
+    /**
+     * Computes up to {@code count} generations holding the state lock once. Only the last generation is published and
+     * dispatched to listeners, intermediate ones being skipped frames
+     *
+     * @return number of generations computed
+     * */
+    private int nextGenerationsSyncInternal(@Nullable CancellationProvider c, int count) {
+        if (mComputeAbortRequests.get() > 0) {
+            // Back off instead of competing for the lock with the preempting operation
+            LockSupport.parkNanos(this, COMPUTE_ABORT_BACKOFF_NS);
+            return 0;
+        }
+
+        synchronized (mStateLock) {
+            if (isComputeCancelled(c)) {
+                return 0;
+            }
+
+            final ComputePool pool = mComputePool;
+            final boolean checkAllocations = allocationCheckEnabled && !historyEnabled && !speculationEnabled && mRunRecorder == null;     // recorded frames and speculation tasks are allocated
+            if (checkAllocations) {
+                mAllocationCheck.begin(pool);
+            }
+
+            if (applyPendingEditsInternal() > 0 && checkAllocations) {
+                mAllocationCheck.discard();     // edits are not steady state
+            }
+
+            final int startGen = generation;
+            int done = 0;
+            boolean lastDispatched = false;     // whether the last computed generation was dispatched
+
+            while (done < count) {
+                if (isComputeCancelled(c)) {
+                    break;
+                }
+
+                final boolean dispatch = done == count - 1;
+                if (!computeGenerationInternal(c, dispatch)) {
+                    break;      // cancelled before any step: nothing new computed
+                }
+
+                lastDispatched = dispatch;
+                done++;
+            }
+
+            if (done > 0 && !lastDispatched) {
+                // Cancelled within a batch: publish the last skipped generation
+                publishStateInternal();
+                onGenerationChanged(null, mState, generation - 1, generationSteps);
+            }
+
+            if (checkAllocations) {
+                mAllocationCheck.end(pool, startGen);
+            }
+
+            return done;
+        }
+    }
+
+    /**
+     * Computes {@code n} generations back to back, holding the state lock once. No listener is notified until the end,
+     * when a single generation event is fired for the final state (with a {@code null} old generation)
+     *
+     * @param c cancellation of the advance, checked before every generation step. Generations computed until cancellation are kept
+     * @param progress progress callback, called about {@link #ADVANCE_PROGRESS_REPORTS} times and once at the end
+     * @return number of generations advanced
+     * */
+    public int advanceBy(int n, @Nullable CancellationProvider c, @Nullable AdvanceProgressListener progress) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Generations to advance must be >= 0, given: " + n);
+        }
+
+        synchronized (mStateLock) {
+            applyPendingEditsInternal();
+
+            final int interval = Math.max(1, n / ADVANCE_PROGRESS_REPORTS);
+            int done = 0;
+
+            while (done < n) {
+                if (isComputeCancelled(c)) {
+                    break;
+                }
+
+                if (!computeGenerationInternal(c, false)) {
+                    break;
+                }
+
+                done++;
+                if (progress != null && done < n && done % interval == 0) {
+                    progress.onAdvanceProgress(this, done, n);
+                }
+            }
 
+            if (done > 0) {
+                publishStateInternal();
+                onGenerationChanged(null, mState, generation - 1, generationSteps);
+            }
 
-    public int getGenerationSteps() {
-        return generationSteps;
-    }
+            if (progress != null) {
+                progress.onAdvanceProgress(this, done, n);
+            }
 
-    public void setGenerationSteps(int generationSteps) {
-        final int prevSteps = this.generationSteps;
-        if (prevSteps != generationSteps) {
-            this.generationSteps = generationSteps;
-            onGenerationStepsChanged(prevSteps, generationSteps);
+            return done;
         }
     }
 
-    public boolean isWrapEnabled() {
-        return wrapEnabled;
+    public int advanceBy(int n) {
+        return advanceBy(n, null, null);
     }
 
-    public void setWrapEnabled(boolean wrapEnabled) {
-        if (this.wrapEnabled != wrapEnabled) {
-            this.wrapEnabled = wrapEnabled;
-            onWrapEnabledChanged(wrapEnabled);
+    /**
+     * Advances up to the given generation
+     *
+     * @return number of generations advanced, 0 if already at or past {@code targetGeneration}
+     * @see #advanceBy(int, CancellationProvider, AdvanceProgressListener)
+     * */
+    public int advanceTo(int targetGeneration, @Nullable CancellationProvider c, @Nullable AdvanceProgressListener progress) {
+        synchronized (mStateLock) {
+            return advanceBy(Math.max(targetGeneration - generation, 0), c, progress);
         }
     }
 
-    public void toggleWrapEnabled() {
-        setWrapEnabled(!isWrapEnabled());
+    public int advanceTo(int targetGeneration) {
+        return advanceTo(targetGeneration, null, null);
     }
 
-    public boolean isPauseOnResetOrClearEnabled() {
-        return pauseOnResetOrClear;
-    }
+    /**
+     * Advances on the simulation executor. The simulation is paused first
+     *
+     * @return canceller of the advance
+     * */
+    @NotNull
+    public Canceller advanceByAsync(int n, @Nullable AdvanceProgressListener progress) {
+        setPlaying(false);
 
-    public void setPauseOnResetOrClear(boolean pauseOnResetOrClear) {
-        this.pauseOnResetOrClear = pauseOnResetOrClear;
+        final Canceller canceller = Canceller.basic();
+        mExecutor.execute(() -> advanceBy(n, canceller, progress));
+        return canceller;
     }
 
-    /* ============================  CELL STATE METHODS  =========================== */
+    @NotNull
+    public Canceller advanceToAsync(int targetGeneration, @Nullable AdvanceProgressListener progress) {
+        setPlaying(false);
 
-    public boolean cycleCellState(int[] cellIndices) {
-        final boolean changed;
+        final Canceller canceller = Canceller.basic();
+        mExecutor.execute(() -> advanceTo(targetGeneration, canceller, progress));
+        return canceller;
+    }
 
-        synchronized (mStateLock) {
-            changed = mAutomata.cycleCellState(mState, cellIndices);
-            if (changed) {
-                onCellStateChanged(mState, cellIndices);
-            }
-        }
+    /**
+     * Restores a generation retained in the {@link #getHistory() history}, backwards or forwards. The simulation is paused,
+     * and the running generation preempted. Retained generations after the target are kept until a new generation is computed
+     * or the state is edited, so seeking forward again is possible
+     *
+     * @return whether the generation was restored, {@code false} if it is not retained
+     * */
+    public boolean seekTo(int targetGeneration) {
+        setPlaying(false);
+        beginComputeAbort();
 
-        return changed;
-    }
+        try {
+            synchronized (mStateLock) {
+                applyPendingEditsInternal();        // edits of the current generation are recorded before leaving it
 
-    public boolean setCellState(int[] cellIndices, float value) {
-        final boolean changed;
+                if (targetGeneration == generation) {
+                    return mHistory.contains(targetGeneration);
+                }
 
-        synchronized (mStateLock) {
-            changed = mAutomata.setCellState(mState, cellIndices, value);
-            if (changed) {
-                onCellStateChanged(mState, cellIndices);
-            }
-        }
+                final NdArrayF oldState = mState;
+                final NdArrayF newState = ensureOutTempState();
+                if (!mHistory.restore(targetGeneration, newState)) {
+                    return false;
+                }
 
-        return changed;
-    }
+                // Switch current and temp states
+                mState = newState;
+                mTempOutState = oldState;
+                generation = targetGeneration;
 
-    public boolean stepCellState(int[] cellIndices, boolean stepUp) {
-        final boolean changed;
+                mHistory.rebase(newState, targetGeneration);
+                final ReplayJournal journal = mReplayJournal;
+                if (journal != null) {
+                    journal.stateReplaced(newState, targetGeneration, mAutomata, wrapEnabled, generationSteps);
+                }
 
-        synchronized (mStateLock) {
-            changed = mAutomata.stepCellState(mState, cellIndices, stepUp);
-            if (changed) {
-                onCellStateChanged(mState, cellIndices);
+                invalidateSpeculation();
+                collectStats(oldState, newState);
+                markDirtyInternal(mGenStats);
+                mStatsHistory.truncateFrom(targetGeneration);
+                mStatsHistory.add(targetGeneration, mGenStats);
+                publishStateInternal();
+                onStateChanged(oldState, newState, targetGeneration, 0);
+                onGenerationChanged(oldState, newState, targetGeneration, 1);
+                return true;
             }
+        } finally {
+            endComputeAbort();
         }
+    }
 
-        return changed;
+    /**
+     * Restores the previous generation from the history
+     *
+     * @return whether the previous generation was retained and restored
+     * @see #seekTo(int)
+     * */
+    public boolean stepBack() {
+        return seekTo(getGeneration() - 1);
     }
 
-    public boolean setCellStateLowest(int[] cellIndices) {
-        return setCellState(cellIndices, mAutomata.lowestCellState());
+    public void seekToAsync(int targetGeneration) {
+        setPlaying(false);
+        mExecutor.execute(() -> seekTo(targetGeneration));
     }
 
-    public boolean setCellStateHighest(int[] cellIndices) {
-        return setCellState(cellIndices, mAutomata.highestCellState());
+    public void stepBackAsync() {
+        setPlaying(false);
+        mExecutor.execute(this::stepBack);
     }
-    
 
-    /* ============================  STATE METHODS  =========================== */
+    /**
+     * @return whether the running computation should stop, either by the given cancellation or to let another operation take the state lock
+     * */
+    private boolean isComputeCancelled(@Nullable CancellationProvider c) {
+        return mComputeAbortRequests.get() > 0 || (c != null && c.isCancelled());
+    }
 
-    @NotNull
-    private NdArrayF ensureOutTempState() {
-        NdArrayF outState = mTempOutState;
+    /**
+     * Asks the running computation (generation, batch or advance) to stop within a row block, so that the state lock
+     * can be taken promptly. Must be paired with {@link #endComputeAbort()}
+     * */
+    private void beginComputeAbort() {
+        mComputeAbortRequests.incrementAndGet();
+    }
 
-        if (outState == null || !outState.isSameShape(mState)) {
-            synchronized (mStateLock) {
-                outState = mTempOutState;
+    private void endComputeAbort() {
+        mComputeAbortRequests.decrementAndGet();
+    }
 
-                if (outState == null || !outState.isSameShape(mState)) {
-                    outState = new NdArrayF(mState.shape());
-                    mTempOutState = outState;
+    /**
+     * Computes one generation. Must be called with {@link #mStateLock} held.
+     * If cancelled within a step, that step is discarded, while steps completed before it are kept
+     *
+     * @param dispatch whether to publish the generation and notify listeners. If not, it is a skipped frame,
+     *                 only recorded in the stats history
+     * @return whether any step of the generation was computed
+     * */
+    private boolean computeGenerationInternal(@Nullable CancellationProvider c, boolean dispatch) {
+        final int gen = generation;
+        final int steps = generationSteps;
+        final boolean wrap = wrapEnabled;       // same for all steps, as journaled
+        final NdArrayF curGenState = mState;
+
+        int step = 0;
+        if (speculationEnabled) {
+            final NdArrayF precomputed = mSpeculationBuffer.take(gen, ensureOutTempState(), mGenStats);
+            if (precomputed != null) {
+                // Only the final step of a precomputed generation is available
+                mTempOutState = mState;
+                mState = precomputed;
+                if (steps == 1) {
+                    markDirtyInternal(mGenStats);
+                } else {
+                    markAllDirtyInternal();      // tiles of the intermediate steps are unknown
                 }
+
+                if (dispatch) {
+                    onStateChanged(mTempOutState, mState, gen, steps - 1);
+                }
+
+                step = steps;
+            } else {
+                mSpeculationBuffer.invalidate();        // the arrays reused below may still be read by the speculation
             }
         }
 
-        return outState;
-    }
-
-    private void generateNextStateSyncInternal(@NotNull NextStateGeneratorI generator, @Nullable BiConsumer<NdArrayF, NdArrayF> callback) {
-        synchronized (mStateLock) {
-            final NdArrayF oldState = mState;
-            final NdArrayF newState = ensureOutTempState();
+        while (step < steps) {
+            if (isComputeCancelled(c)) {
+                break;
+            }
 
-            generator.computeNextState(mExecutor, oldState, newState, wrapEnabled);
+            final NdArrayF outState = ensureOutTempState();
+            if (!mGenerationTask.computeNextState(mAutomata, mState, outState, wrap, c, mGenStats)) {
+                break;      // cancelled, the partial step is discarded
+            }
 
             // Switch current and temp states
-            mState = newState;
-            mTempOutState = oldState;
+            mTempOutState = mState;
+            mState = outState;
+            markDirtyInternal(mGenStats);
+            if (dispatch) {
+                onStateChanged(mTempOutState, mState, gen, step);
+            }
+
+            step++;
+        }
+
+        if (step == 0) {
+            return false;
+        }
 
-            if (callback != null) {
-                callback.consume(oldState, newState);   // Callback(old_state, new_state)
+        generation = gen + 1;
+        final ReplayJournal journal = mReplayJournal;
+        if (journal != null) {
+            journal.params(gen, wrap, steps);
+            if (step < steps) {
+                journal.stateReplaced(mState, generation, mAutomata, wrap, steps);     // partial generation, cannot be re-executed
+            } else {
+                journal.generation(generation, mState);
             }
         }
-    }
 
-    public void resetStateSync() {
-        if (pauseOnResetOrClear) {
-            setPlaying(false);
+        mStatsHistory.add(generation, mGenStats);
+        recordHistoryInternal();
+        checkpointIfDueInternal();
+        if (dispatch) {
+            publishStateInternal();
+            onGenerationChanged(curGenState, mState, gen, steps);
         }
 
-        generateNextStateSyncInternal((executor, curState, outState, wrapEnabled1) -> mAutomata.resetState(executor, curState, outState, wrapEnabled1), (old_state, new_state) -> {
-            final int newGen = 0;
-            generation = newGen;
-            onStateChanged(old_state, new_state, newGen, 0);
-            onGenerationChanged(old_state, new_state, newGen, 1);
-        });
+        if (speculationEnabled) {
+            scheduleSpeculation();      // refill while paused
+        }
+
+        return true;
     }
 
-    public void resetStateAsync() {
-        mExecutor.execute(this::resetStateSync);
+    /* Speculation ---------------------------------------------------------------- */
+
+    @NotNull
+    private final GenerationTask mSpeculationTask = new GenerationTask();
+
+    private boolean canSpeculate() {
+        return speculationEnabled && !mIsPlaying;
     }
 
-    public void clearStateSync() {
-        if (pauseOnResetOrClear) {
-            setPlaying(false);
+    /**
+     * Discards the precomputed generations after a change of the state or of the parameters, and starts precomputing again
+     * */
+    private void invalidateSpeculation() {
+        if (speculationEnabled) {
+            mSpeculationBuffer.invalidate();
+            scheduleSpeculation();
         }
-
-        generateNextStateSyncInternal((executor, curState, outState, wrapEnabled1) -> mAutomata.clearState(executor, curState, outState, wrapEnabled1), (old_state, new_state) -> {
-            final int newGen = 0;
-            generation = newGen;
-            onStateChanged(old_state, new_state, newGen, 0);
-            onGenerationChanged(old_state, new_state, newGen, 1);
-        });
     }
 
-    public void clearStateAsync() {
-        mExecutor.execute(this::clearStateSync);
+    private void scheduleSpeculation() {
+        if (canSpeculate() && !mSpeculationBuffer.isFull() && mSpeculationScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(this::speculateNextGeneration);
+        }
     }
 
+    /**
+     * Precomputes one generation into the speculation buffer, then reschedules itself until the buffer is full.
+     * One generation per task, so that tasks queued on the executor meanwhile (ex. a step) are not delayed by a whole refill
+     * */
+    private void speculateNextGeneration() {
+        boolean reschedule = false;
+
+        try {
+            final SpeculationBuffer.Fill fill;
+            final AutomataI automata;
+            final boolean wrap;
+            final int steps;
 
-    private final NextStateGeneratorI mAutomataNextStateGenerator = new NextStateGeneratorI() {
-        @Override
-        public void computeNextState(@Nullable ThreadPoolExecutor executor, @NotNull NdArrayF curState, @NotNull NdArrayF outState, boolean wrapEnabled) {
-            final int rows = curState.shapeAt(0);
+            synchronized (mStateLock) {
+                if (!canSpeculate() || mComputeAbortRequests.get() > 0) {
+                    return;     // preempting operations reschedule once done
+                }
 
-            final WorkSplitter.ComputeTask computeTask = (row_start, row_end) -> mAutomata.subComputeNextState(curState, outState, wrapEnabled, row_start, row_end);
-            if (mAutomata.isParallelComputeAllowed()) {
-                mWorkSplitter.compute(executor, curState.size(), rows, computeTask);
-            } else {
-                computeTask.compute(0, rows);       // Compute all now
-            }
-        }
-    };
+                fill = mSpeculationBuffer.beginFill(mState, generation);
+                if (fill == null) {
+                    return;     // full
+                }
 
-    public void nextGenerationSync(@Nullable CancellationProvider c) {
-        synchronized (mStateLock) {
-            if (c != null && c.isCancelled()) {
-                return;
+                automata = mAutomata;
+                wrap = wrapEnabled;
+                steps = generationSteps;
             }
 
-            final int gen = generation;
-            final int steps = generationSteps;
-            final NdArrayF curGenState = mState;
-
-            int step = 0;
-            while (step < steps) {
-                if (c != null && c.isCancelled()) {
-                    break;
-                }
+            final CancellationProvider c = () -> !canSpeculate() || mSpeculationBuffer.isStale(fill);
+            boolean computed = true;
+            NdArrayF src = fill.source();
 
-                final int finalStep = step;
-                generateNextStateSyncInternal(mAutomataNextStateGenerator, (old_state, new_state) -> onStateChanged(old_state, new_state, gen, finalStep));
-                step++;
+            for (int step = 0; step < steps && computed; step++) {
+                // Alternate between the slot and the scratch array, so that the last step lands in the slot
+                final NdArrayF dst = (steps - 1 - step) % 2 == 0 ? fill.target() : ensureSpeculationScratch(src);
+                computed = mSpeculationTask.computeNextState(automata, src, dst, wrap, c, fill.slot().stats());
+                src = dst;
             }
 
-            if (step > 0) {
-                generation = gen + 1;
-                onGenerationChanged(curGenState, mState, gen, steps);
+            reschedule = mSpeculationBuffer.endFill(fill, computed) || mSpeculationBuffer.isStale(fill);
+        } finally {
+            mSpeculationScheduled.set(false);
+            if (reschedule) {
+                scheduleSpeculation();
             }
         }
     }
 
+    @NotNull
+    private NdArrayF ensureSpeculationScratch(@NotNull NdArrayF like) {
+        NdArrayF scratch = mSpeculationScratch;
+        if (scratch == null || !scratch.isSameShape(like)) {
+            scratch = new NdArrayF(like.shape());
+            mSpeculationScratch = scratch;
+        }
+
+        return scratch;
+    }
+
     public @NotNull AutomataI getAutomata() {
         return mAutomata;
     }
@@ -379,28 +1741,47 @@ public class AutomataSimulator implements WorkSplitter.Listener {
             return;
         }
         
-        synchronized (mStateLock) {
-            if (mAutomata.equals(automata) && Arrays.equals(mState.shape(), stateShape)) {
-                return;
-            }
+        // Cancel the simulation and preempt the running generation before waiting for the lock,
+        // so that the switch takes at most a row block
+        setPlaying(false);
+        beginComputeAbort();
 
-//            if (this.automata.equals(automata)) {
-//                // JUST CHANGE STATE_SHAPE
-//                return;
-//            }
+        try {
+            synchronized (mStateLock) {
+                if (mAutomata.equals(automata) && Arrays.equals(mState.shape(), stateShape)) {
+                    return;
+                }
 
-            setPlaying(false);
-            
-            final AutomataI oldAutomata = mAutomata;
-            mAutomata = automata;
-            mState = new NdArrayF(stateShape);
-            mTempOutState = null;
+//                if (this.automata.equals(automata)) {
+//                    // JUST CHANGE STATE_SHAPE
+//                    return;
+//                }
+
+                final AutomataI oldAutomata = mAutomata;
+                mAutomata = automata;
+                mState = new NdArrayF(stateShape);
+                mTempOutState = null;
+                mEditQueue.clear();
+                mHistory.clear();
+                recordHistoryInternal();
+                invalidateSpeculation();
+                mAllocationCheck.requestWarmup();       // new buffers
+                markAllDirtyInternal();
+                publishStateInternal();
+
+                final ReplayJournal journal = mReplayJournal;
+                if (journal != null) {
+                    journal.automataChanged(automata, stateShape, generation);
+                }
 
-            if (initRandomState) {
-                resetStateAsync();
-            }
+                if (initRandomState) {
+                    resetStateAsync();
+                }
 
-            onAutomataChanged(oldAutomata, automata);
+                onAutomataChanged(oldAutomata, automata);
+            }
+        } finally {
+            endComputeAbort();
         }
     }
 
@@ -427,6 +1808,7 @@ public class AutomataSimulator implements WorkSplitter.Listener {
 
         if (mExecutor.getCorePoolSize() != coreThreadCount) {
             mExecutor.setCorePoolSize(coreThreadCount);
+            replaceComputePool(coreThreadCount);
             onExecutorThreadCountChanged();
         }
     }
@@ -452,17 +1834,39 @@ public class AutomataSimulator implements WorkSplitter.Listener {
         }
     }
 
+    private void replaceComputePool(int coreThreadCount) {
+        final ComputePool old;
+        synchronized (mStateLock) {     // not while computing
+            old = mComputePool;
+            mComputePool = createComputePool(coreThreadCount);
+        }
+
+        old.shutdown();
+    }
+
+    /**
+     * Sized from the core threads (one per cpu by default), so that a generation runs at most {@code coreThreadCount} parts
+     * in parallel: the simulation thread computes a part itself
+     * */
+    @NotNull
+    private ComputePool createComputePool(int coreThreadCount) {
+        final ComputePool pool = new ComputePool(Math.max(coreThreadCount - 1, 0), "AutomataSimulator-Compute");
+        pool.setTrackAllocations(allocationCheckEnabled);
+        mAllocationCheck.requestWarmup();
+        return pool;
+    }
+
     @NotNull
     public WorkSplitter getWorkSplitter() {
         return mWorkSplitter;
     }
 
     public boolean isParallelComputeReady() {
-        return mAutomata.isParallelComputeAllowed() && mWorkSplitter.isParallelComputeEnabled() && mWorkSplitter.isExecutorParallelReady(mExecutor);
+        return mAutomata.isParallelComputeAllowed() && mWorkSplitter.isParallelComputeEnabled() && mWorkSplitter.isPoolParallelReady(mComputePool);
     }
 
     public int getWorkerThreadCount() {
-        return mWorkSplitter.getWorkerThreadCount(mExecutor, mState.size(), mState.shapeAt(0));
+        return mWorkSplitter.getWorkerThreadCount(mComputePool, mState.size(), mState.shapeAt(0));
     }
 
 
@@ -525,12 +1929,94 @@ public class AutomataSimulator implements WorkSplitter.Listener {
                 mSimFuture = mExecutor.submit(looper);
             }
 
+            case BOUNDED_LEAD -> {
+                mRunStats.reset(0);
+                final Runnable looper = () -> {
+                    while (awaitGenerationLeadInternal(canceller)) {
+                        task.run();
+                    }
+                };
+
+                mSimFuture = mExecutor.submit(looper);
+            }
+
+            case TARGET_RATE -> {
+                final long period_ns = (long) (1e9 / mSImFrameRate);
+                mRunStats.reset(mSImFrameRate);
+                mSimFuture = mExecutor.submit(() -> runAtTargetRateInternal(canceller, period_ns));
+            }
+
             default -> throw new AssertionError("Unexpected sim run mode: " + mSimRunMode);
         }
 
 
     }
 
+    /**
+     * Blocks the simulation thread while it leads the last consumed generation by {@link #getMaxGenerationLead()} or more
+     *
+     * @return {@code false} if cancelled
+     * */
+    private boolean awaitGenerationLeadInternal(@NotNull CancellationProvider c) {
+        boolean waited = false;
+        mLeadWaiter = Thread.currentThread();
+
+        try {
+            while (!c.isCancelled()) {
+                if (generation - mConsumedGeneration < maxGenerationLead) {
+                    return true;
+                }
+
+                if (!waited) {
+                    waited = true;
+                    mRunStats.onLeadWait();
+                }
+
+                LockSupport.parkNanos(this, RUN_WAIT_TIMEOUT_NS);
+            }
+
+            return false;
+        } finally {
+            mLeadWaiter = null;
+        }
+    }
+
+    /**
+     * Runs generations on an absolute schedule with the given period, so that late generations do not shift the ones after them.
+     * Catches up by skipping frames, and drops what cannot be caught up
+     * */
+    private void runAtTargetRateInternal(@NotNull CancellationProvider c, long period_ns) {
+        long next = System.nanoTime();
+
+        while (!c.isCancelled()) {
+            final long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, Math.min(wait, RUN_WAIT_TIMEOUT_NS));
+                continue;       // re-check schedule (spurious wake ups, cancellation)
+            }
+
+            final long due = 1 + (-wait / period_ns);       // generations due by now
+            final int batch = (int) Math.min(due, maxFrameSkip + 1L);
+            final int done = nextGenerationsSyncInternal(c, batch);
+            if (done > 1) {
+                mRunStats.onSkipped(done - 1);
+            }
+
+            final long now = System.nanoTime();
+            if (due > batch) {
+                // Too far behind: drop the rest, and re-anchor the schedule
+                mRunStats.onDropped(due - batch);
+                next = now + period_ns;
+            } else {
+                next += batch * period_ns;
+            }
+
+            if (mRunStats.onComputed(done, now)) {
+                onSimulationRateShortfall();
+            }
+        }
+    }
+
     public void setPlaying(boolean playing) {
         if (mIsPlaying == playing) {
             return;
@@ -543,9 +2029,12 @@ public class AutomataSimulator implements WorkSplitter.Listener {
 
             mIsPlaying = playing;
             if (playing) {
+                mSpeculationBuffer.invalidate();
                 requeueSimTaskInternal();
             } else {
                 cancelSimTaskInternal();
+                scheduleEditDrain();        // edits queued while playing
+                scheduleSpeculation();
             }
 
             onIsPlayingChanged(playing);
@@ -584,6 +2073,54 @@ public class AutomataSimulator implements WorkSplitter.Listener {
         }
     }
 
+    public int getMaxGenerationLead() {
+        return maxGenerationLead;
+    }
+
+    /**
+     * @param maxGenerationLead max number of generations the simulation may lead the last consumed one by, in {@link RunMode#BOUNDED_LEAD}
+     * */
+    public void setMaxGenerationLead(int maxGenerationLead) {
+        if (maxGenerationLead < 1) {
+            throw new IllegalArgumentException("Max generation lead must be >= 1, given: " + maxGenerationLead);
+        }
+
+        this.maxGenerationLead = maxGenerationLead;
+        LockSupport.unpark(mLeadWaiter);
+    }
+
+    public int getMaxFrameSkip() {
+        return maxFrameSkip;
+    }
+
+    /**
+     * @param maxFrameSkip max number of unpublished generations computed back to back to catch up, in {@link RunMode#TARGET_RATE}
+     * */
+    public void setMaxFrameSkip(int maxFrameSkip) {
+        if (maxFrameSkip < 0) {
+            throw new IllegalArgumentException("Max frame skip must be >= 0, given: " + maxFrameSkip);
+        }
+
+        this.maxFrameSkip = maxFrameSkip;
+    }
+
+    /**
+     * Marks a generation as consumed (ex. rendered), allowing the simulation to proceed in {@link RunMode#BOUNDED_LEAD}.
+     * Called by {@link #acquirePublishedState()}, consumers reading the state otherwise should call it themselves
+     * */
+    public void markGenerationConsumed(int generation) {
+        mConsumedGeneration = generation;
+        LockSupport.unpark(mLeadWaiter);
+    }
+
+    /**
+     * @return pacing statistics of the current {@link RunMode#TARGET_RATE} or {@link RunMode#BOUNDED_LEAD} run
+     * */
+    @NotNull
+    public RunStats getRunStats() {
+        return mRunStats;
+    }
+
     @NotNull
     public RunMode getSimulationRunMode() {
         return mSimRunMode;
@@ -631,16 +2168,25 @@ public class AutomataSimulator implements WorkSplitter.Listener {
         mListeners.forEachListener(l -> l.onIsPlayingChanged(this, isPlaying));
     }
 
+    /* Hot path callbacks iterate the listeners snapshot directly, since capturing lambdas would allocate on every dispatch */
+
     protected void onStateChanged(@Nullable NdArrayFloatI oldState, @NotNull NdArrayFloatI newState, int generation, int stepInGeneration) {
-        mListeners.forEachListener(l -> l.onAutomataStateChanged(this, oldState, newState, generation, stepInGeneration));
+        for (Object l: mListeners.listenersSnapshot()) {
+            ((Listener) l).onAutomataStateChanged(this, oldState, newState, generation, stepInGeneration);
+        }
     }
 
     protected void onGenerationChanged(@Nullable NdArrayFloatI oldGen, @NotNull NdArrayFloatI newGen, int generation, int steps) {
-        mListeners.forEachListener(l -> l.onAutomataGenerationChanged(this, oldGen, newGen, generation, steps));
+        final StateStats stats = mGenStats;
+        for (Object l: mListeners.listenersSnapshot()) {
+            ((Listener) l).onAutomataGenerationChanged(this, oldGen, newGen, generation, steps, stats);
+        }
     }
 
-    protected void onCellStateChanged(@NotNull NdArrayFloatI state, int[] cellIndices) {
-        mListeners.forEachListener(l -> l.onAutomataCellStateChanged(this, state, cellIndices));
+    protected void onRegionChanged(@NotNull NdArrayFloatI state, @NotNull CellRegion region) {
+        for (Object l: mListeners.listenersSnapshot()) {
+            ((Listener) l).onAutomataRegionChanged(this, state, region);
+        }
     }
 
     protected void onGenerationStepsChanged(int prevGenSteps, int newGenSteps) {
@@ -655,6 +2201,12 @@ public class AutomataSimulator implements WorkSplitter.Listener {
         mListeners.forEachListener(l -> l.onSimulatorThreadCountChanged(this));
     }
 
+    protected void onSimulationRateShortfall() {
+        for (Object l: mListeners.listenersSnapshot()) {
+            ((Listener) l).onSimulationRateShortfall(this, mRunStats);
+        }
+    }
+
     @Override
     public void onParallelComputeEnabledChanged(boolean parallelComputeEnabled) {
         mListeners.forEachListener(l -> l.onParallelComputeEnabledChanged(this, parallelComputeEnabled));
@@ -668,13 +2220,60 @@ public class AutomataSimulator implements WorkSplitter.Listener {
 
     public void addListener(@NotNull Listener listener) {
         mListeners.addListener(listener);
+        mAllocationCheck.requestWarmup();
+    }
+
+    /**
+     * Adds a listener that receives state, generation and region change events at most {@code maxRateHz} times per second.
+     * Only the latest of these events is delivered, on a dedicated event thread. Other events are delivered immediately
+     *
+     * @return the conflating wrapper, which reports the count of dropped events
+     * @see ConflatingListener
+     * */
+    @NotNull
+    public ConflatingListener addListener(@NotNull Listener listener, float maxRateHz) {
+        final ConflatingListener conflating = new ConflatingListener(listener, maxRateHz, mEventExecutor);
+        final ConflatingListener old = mConflatingListeners.put(listener, conflating);
+        if (old != null) {
+            mListeners.removeListener(old);
+        }
+
+        mListeners.addListener(conflating);
+        mAllocationCheck.requestWarmup();
+        return conflating;
     }
 
     public boolean removeListener(@NotNull Listener listener) {
+        final ConflatingListener conflating = mConflatingListeners.remove(listener);
+        if (conflating != null) {
+            return mListeners.removeListener(conflating);
+        }
+
         return mListeners.removeListener(listener);
     }
 
     public void ensureListener(@NotNull Listener listener) {
-        mListeners.ensureListener(listener);
+        if (mListeners.ensureListener(listener)) {
+            mAllocationCheck.requestWarmup();
+        }
+    }
+
+    /**
+     * Adds a rate limited listener if the given listener is not already added
+     *
+     * @see #addListener(Listener, float)
+     * */
+    public void ensureListener(@NotNull Listener listener, float maxRateHz) {
+        if (!mConflatingListeners.containsKey(listener) && !mListeners.containsListener(listener)) {
+            addListener(listener, maxRateHz);
+        }
+    }
+
+    /**
+     * @return the rate limited wrapper of a listener added with {@link #addListener(Listener, float)}, or {@code null}
+     * */
+    @Nullable
+    public ConflatingListener getConflatingListener(@NotNull Listener listener) {
+        return mConflatingListeners.get(listener);
     }
 }
\ No newline at end of file
@@ -0,0 +1,339 @@
+package core.simulator;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import core.definition.automata.AutomataI;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pending edit of cell states. Edits are queued by {@link AutomataSimulator} without blocking,
+ * and applied in bulk between generations
+ * <br><br>
+ * Edits other than {@link Cell} and {@link Cells} operate on 2D states, with indices (row, col)
+ * <br><br>
+ * Sealed, so that every edit kind can be journaled and replayed (see {@link ReplayJournal})
+ * */
+public sealed interface CellEdit permits CellEdit.Cell, CellEdit.Cells, CellEdit.Rect, CellEdit.Line, CellEdit.Stamp {
+
+    enum Op {
+        SET,
+        CYCLE,
+        STEP_UP,
+        STEP_DOWN;
+
+        /**
+         * @return new state of a cell currently in {@code cellState}
+         * */
+        public float apply(@NotNull AutomataI automata, float cellState, float value) {
+            return switch (this) {
+                case SET -> value;
+                case CYCLE -> automata.cycledCellState(cellState);
+                case STEP_UP -> automata.steppedCellState(cellState, true);
+                case STEP_DOWN -> automata.steppedCellState(cellState, false);
+            };
+        }
+
+        @NotNull
+        public static Op step(boolean stepUp) {
+            return stepUp ? STEP_UP : STEP_DOWN;
+        }
+    }
+
+    /**
+     * @return whether this edit can be applied to the given state (ex. indices are in bounds)
+     * */
+    boolean isValidFor(@NotNull NdArrayF state);
+
+    /**
+     * Applies this edit
+     *
+     * @param changed region to grow with the changed cells
+     * @return whether any cell state changed
+     * */
+    boolean apply(@NotNull AutomataI automata, @NotNull NdArrayF state, @NotNull CellRegion changed);
+
+    /**
+     * @return number of cells this edit would change if applied to the given state now
+     * */
+    int countExpectedChanges(@NotNull AutomataI automata, @NotNull NdArrayFloatI state);
+
+
+    /* Helpers ------------------------------------------------------------------ */
+
+    private static boolean applyAt(@NotNull AutomataI automata, @NotNull NdArrayF state, @NotNull Op op, int row, int col, float value, @NotNull CellRegion changed) {
+        final int idx = (row * state.shapeAt(1)) + col;
+        final float cur = state.getFlat(idx);
+        final float _new = op.apply(automata, cur, value);
+
+        if (cur != _new) {
+            state.setFlat(idx, _new);
+            changed.include(row, col);
+            return true;
+        }
+
+        return false;
+    }
+
+    private static boolean wouldChange(@NotNull AutomataI automata, @NotNull NdArrayFloatI state, @NotNull Op op, int row, int col, float value) {
+        final float cur = state.getFlat((row * state.shapeAt(1)) + col);
+        return op.apply(automata, cur, value) != cur;
+    }
+
+    private static boolean isInBounds(@NotNull NdArrayFloatI state, int row, int col) {
+        return row >= 0 && col >= 0 && row < state.shapeAt(0) && col < state.shapeAt(1);
+    }
+
+    private static boolean is2D(@NotNull NdArrayFloatI state) {
+        return state.dimensions() == 2;
+    }
+
+    private static void includeCell(@NotNull CellRegion region, int @NotNull [] cellIndices) {
+        region.include(cellIndices[0], cellIndices.length > 1 ? cellIndices[1] : 0);
+    }
+
+
+    /* Edits ------------------------------------------------------------------ */
+
+    /**
+     * Edit of a single cell
+     *
+     * @param value new state for {@link Op#SET}, ignored otherwise
+     * */
+    record Cell(@NotNull Op op, int @NotNull [] cellIndices, float value) implements CellEdit {
+
+        @Override
+        public boolean isValidFor(@NotNull NdArrayF state) {
+            return state.areIndicesValid(cellIndices);
+        }
+
+        @Override
+        public boolean apply(@NotNull AutomataI automata, @NotNull NdArrayF state, @NotNull CellRegion changed) {
+            final boolean c = automata.setCellState(state, cellIndices, op.apply(automata, state.get(cellIndices), value));
+            if (c) {
+                includeCell(changed, cellIndices);
+            }
+
+            return c;
+        }
+
+        @Override
+        public int countExpectedChanges(@NotNull AutomataI automata, @NotNull NdArrayFloatI state) {
+            final float cur = state.get(cellIndices);
+            return op.apply(automata, cur, value) != cur ? 1 : 0;
+        }
+    }
+
+    /**
+     * Same edit applied to a list of cells. Invalid cells are skipped
+     * */
+    record Cells(@NotNull Op op, @NotNull List<int[]> cells, float value) implements CellEdit {
+
+        @Override
+        public boolean isValidFor(@NotNull NdArrayF state) {
+            return true;
+        }
+
+        @Override
+        public boolean apply(@NotNull AutomataI automata, @NotNull NdArrayF state, @NotNull CellRegion changed) {
+            boolean any = false;
+            for (int[] cell: cells) {
+                if (state.areIndicesValid(cell) && automata.setCellState(state, cell, op.apply(automata, state.get(cell), value))) {
+                    includeCell(changed, cell);
+                    any = true;
+                }
+            }
+
+            return any;
+        }
+
+        /**
+         * @return the valid cells the edit is expected to change, based on their current states
+         * */
+        @NotNull
+        public List<int[]> expectedChangedCells(@NotNull AutomataI automata, @NotNull NdArrayFloatI state) {
+            final List<int[]> changed = new ArrayList<>();
+            for (int[] cell: cells) {
+                if (state.areIndicesValid(cell)) {
+                    final float cur = state.get(cell);
+                    if (op.apply(automata, cur, value) != cur) {
+                        changed.add(cell);
+                    }
+                }
+            }
+
+            return changed;
+        }
+
+        @Override
+        public int countExpectedChanges(@NotNull AutomataI automata, @NotNull NdArrayFloatI state) {
+            int count = 0;
+            for (int[] cell: cells) {
+                if (state.areIndicesValid(cell)) {
+                    final float cur = state.get(cell);
+                    if (op.apply(automata, cur, value) != cur) {
+                        count++;
+                    }
+                }
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Same edit applied to all cells in [rowStart, rowEnd) x [colStart, colEnd), clipped to the state bounds
+     * */
+    record Rect(@NotNull Op op, int rowStart, int colStart, int rowEnd, int colEnd, float value) implements CellEdit {
+
+        @Override
+        public boolean isValidFor(@NotNull NdArrayF state) {
+            return is2D(state);
+        }
+
+        @Override
+        public boolean apply(@NotNull AutomataI automata, @NotNull NdArrayF state, @NotNull CellRegion changed) {
+            boolean any = false;
+            for (int i = Math.max(rowStart, 0); i < Math.min(rowEnd, state.shapeAt(0)); i++) {
+                for (int j = Math.max(colStart, 0); j < Math.min(colEnd, state.shapeAt(1)); j++) {
+                    any |= applyAt(automata, state, op, i, j, value, changed);
+                }
+            }
+
+            return any;
+        }
+
+        @Override
+        public int countExpectedChanges(@NotNull AutomataI automata, @NotNull NdArrayFloatI state) {
+            int count = 0;
+            for (int i = Math.max(rowStart, 0); i < Math.min(rowEnd, state.shapeAt(0)); i++) {
+                for (int j = Math.max(colStart, 0); j < Math.min(colEnd, state.shapeAt(1)); j++) {
+                    if (wouldChange(automata, state, op, i, j, value)) {
+                        count++;
+                    }
+                }
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Same edit applied to all cells on the line from (row0, col0) to (row1, col1), both inclusive. Cells out of bounds are skipped
+     * */
+    record Line(@NotNull Op op, int row0, int col0, int row1, int col1, float value) implements CellEdit {
+
+        @FunctionalInterface
+        public interface CellVisitor {
+            void visit(int row, int col);
+        }
+
+        /**
+         * Visits cells on the line using Bresenham's algorithm
+         * */
+        public void forEachCell(@NotNull CellVisitor visitor) {
+            final int dr = Math.abs(row1 - row0), dc = Math.abs(col1 - col0);
+            final int sr = row0 < row1 ? 1 : -1, sc = col0 < col1 ? 1 : -1;
+            int err = dc - dr;
+            int r = row0, c = col0;
+
+            while (true) {
+                visitor.visit(r, c);
+                if (r == row1 && c == col1) {
+                    break;
+                }
+
+                final int e2 = 2 * err;
+                if (e2 > -dr) {
+                    err -= dr;
+                    c += sc;
+                }
+
+                if (e2 < dc) {
+                    err += dc;
+                    r += sr;
+                }
+            }
+        }
+
+        @Override
+        public boolean isValidFor(@NotNull NdArrayF state) {
+            return is2D(state);
+        }
+
+        @Override
+        public boolean apply(@NotNull AutomataI automata, @NotNull NdArrayF state, @NotNull CellRegion changed) {
+            final boolean[] any = { false };
+            forEachCell((r, c) -> {
+                if (isInBounds(state, r, c)) {
+                    any[0] |= applyAt(automata, state, op, r, c, value, changed);
+                }
+            });
+
+            return any[0];
+        }
+
+        @Override
+        public int countExpectedChanges(@NotNull AutomataI automata, @NotNull NdArrayFloatI state) {
+            final int[] count = { 0 };
+            forEachCell((r, c) -> {
+                if (isInBounds(state, r, c) && wouldChange(automata, state, op, r, c, value)) {
+                    count[0]++;
+                }
+            });
+
+            return count[0];
+        }
+    }
+
+    /**
+     * Copies a 2D pattern into the state with its top-left corner at (rowOffset, colOffset), clipped to the state bounds
+     *
+     * @param overlay if set, lowest-state cells of the pattern are skipped, leaving the underlying cells unchanged
+     * */
+    record Stamp(@NotNull NdArrayFloatI pattern, int rowOffset, int colOffset, boolean overlay) implements CellEdit {
+
+        @Override
+        public boolean isValidFor(@NotNull NdArrayF state) {
+            return is2D(state) && is2D(pattern);
+        }
+
+        @Override
+        public boolean apply(@NotNull AutomataI automata, @NotNull NdArrayF state, @NotNull CellRegion changed) {
+            final float lowest = automata.lowestCellState();
+            final int p_rows = pattern.shapeAt(0), p_cols = pattern.shapeAt(1);
+            boolean any = false;
+
+            for (int i = Math.max(0, -rowOffset); i < Math.min(p_rows, state.shapeAt(0) - rowOffset); i++) {
+                for (int j = Math.max(0, -colOffset); j < Math.min(p_cols, state.shapeAt(1) - colOffset); j++) {
+                    final float value = pattern.getFlat((i * p_cols) + j);
+                    if (!(overlay && value == lowest)) {
+                        any |= applyAt(automata, state, Op.SET, rowOffset + i, colOffset + j, value, changed);
+                    }
+                }
+            }
+
+            return any;
+        }
+
+        @Override
+        public int countExpectedChanges(@NotNull AutomataI automata, @NotNull NdArrayFloatI state) {
+            final float lowest = automata.lowestCellState();
+            final int p_rows = pattern.shapeAt(0), p_cols = pattern.shapeAt(1);
+            int count = 0;
+
+            for (int i = Math.max(0, -rowOffset); i < Math.min(p_rows, state.shapeAt(0) - rowOffset); i++) {
+                for (int j = Math.max(0, -colOffset); j < Math.min(p_cols, state.shapeAt(1) - colOffset); j++) {
+                    final float value = pattern.getFlat((i * p_cols) + j);
+                    if (!(overlay && value == lowest) && wouldChange(automata, state, Op.SET, rowOffset + i, colOffset + j, value)) {
+                        count++;
+                    }
+                }
+            }
+
+            return count;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package core.simulator;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Mutable bounding box of 2D cells, with exclusive end indices. Used to accumulate the cells changed by edits
+ * */
+public final class CellRegion {
+
+    private int rowStart, colStart;
+    private int rowEnd, colEnd;
+
+    public CellRegion() {
+        clear();
+    }
+
+    public CellRegion(int rowStart, int colStart, int rowEnd, int colEnd) {
+        set(rowStart, colStart, rowEnd, colEnd);
+    }
+
+    public void clear() {
+        rowStart = colStart = Integer.MAX_VALUE;
+        rowEnd = colEnd = Integer.MIN_VALUE;
+    }
+
+    public void set(int rowStart, int colStart, int rowEnd, int colEnd) {
+        this.rowStart = rowStart;
+        this.colStart = colStart;
+        this.rowEnd = rowEnd;
+        this.colEnd = colEnd;
+    }
+
+    public boolean isEmpty() {
+        return rowStart >= rowEnd || colStart >= colEnd;
+    }
+
+    public void include(int row, int col) {
+        include(row, col, row + 1, col + 1);
+    }
+
+    /**
+     * Grows this region to include the given rectangle [rowStart, rowEnd) x [colStart, colEnd)
+     * */
+    public void include(int rowStart, int colStart, int rowEnd, int colEnd) {
+        if (rowStart >= rowEnd || colStart >= colEnd) {
+            return;
+        }
+
+        this.rowStart = Math.min(this.rowStart, rowStart);
+        this.colStart = Math.min(this.colStart, colStart);
+        this.rowEnd = Math.max(this.rowEnd, rowEnd);
+        this.colEnd = Math.max(this.colEnd, colEnd);
+    }
+
+    public void include(@NotNull CellRegion other) {
+        include(other.rowStart, other.colStart, other.rowEnd, other.colEnd);
+    }
+
+    public int rowStart() {
+        return rowStart;
+    }
+
+    public int colStart() {
+        return colStart;
+    }
+
+    public int rowEnd() {
+        return rowEnd;
+    }
+
+    public int colEnd() {
+        return colEnd;
+    }
+
+    public int rowCount() {
+        return isEmpty() ? 0 : rowEnd - rowStart;
+    }
+
+    public int colCount() {
+        return isEmpty() ? 0 : colEnd - colStart;
+    }
+
+    @NotNull
+    public CellRegion copy() {
+        return new CellRegion(rowStart, colStart, rowEnd, colEnd);
+    }
+
+    @Override
+    public String toString() {
+        return isEmpty() ? "CellRegion{empty}" : "CellRegion{" +
+                "rows=[" + rowStart + ", " + rowEnd + ")" +
+                ", cols=[" + colStart + ", " + colEnd + ")" +
+                '}';
+    }
+}
@@ -0,0 +1,358 @@
+package core.simulator;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import core.definition.automata.AutomataSpec;
+import core.io.Checkpoint;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import util.misc.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Writes periodic {@link Checkpoint checkpoints} of a simulation to a directory, on a background I/O thread
+ * <br><br>
+ * A checkpoint is due every {@link #getIntervalGenerations()} generations or {@link #getIntervalMs()} milliseconds,
+ * whichever comes first. The simulation thread only copies the state into a pooled buffer and queues it, so the
+ * simulation never waits for the disk. At most {@link #getMaxPendingWrites()} checkpoints are queued: when the disk
+ * cannot keep up, due checkpoints are skipped (and counted) instead of blocking or piling up.
+ * <br><br>
+ * Only the {@link #getRetainCount()} most recent checkpoint files are kept.
+ * Files are named {@code checkpoint-<timestamp_ms>-g<generation>.ackpt}, so that they sort by time across resets
+ * */
+public final class Checkpointer {
+
+    public static final String TAG = "Checkpointer";
+
+    public static final int DEF_INTERVAL_GENERATIONS = 10_000;
+    public static final long DEF_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    public static final int DEF_RETAIN_COUNT = 3;
+    public static final int DEF_MAX_PENDING_WRITES = 2;
+
+    public static final String FILE_PREFIX = "checkpoint-";
+
+    @NotNull
+    private final Path mDirectory;
+
+    private volatile int intervalGenerations = DEF_INTERVAL_GENERATIONS;
+    private volatile long intervalMs = DEF_INTERVAL_MS;
+    private volatile int retainCount = DEF_RETAIN_COUNT;
+    private final int mMaxPendingWrites;
+
+    @NotNull
+    private final ThreadPoolExecutor mWriter;
+    @NotNull
+    private final AtomicInteger mPendingWrites = new AtomicInteger();
+
+    /**
+     * Free snapshot buffers, reused across checkpoints
+     * */
+    @NotNull
+    private final ConcurrentLinkedQueue<NdArrayF> mFreeBuffers = new ConcurrentLinkedQueue<>();
+
+    /* Schedule, simulation thread only */
+    private int mLastGeneration = -1;
+    private long mLastNs;
+    private volatile boolean mRequested;
+
+    /* Results */
+    private volatile long mWrittenCount;
+    private volatile long mSkippedCount;
+    private volatile long mFailedCount;
+    @Nullable
+    private volatile Path mLastWritten;
+    @Nullable
+    private volatile IOException mLastError;
+
+    public Checkpointer(@NotNull Path directory, int maxPendingWrites) {
+        if (maxPendingWrites < 1) {
+            throw new IllegalArgumentException("Max pending writes must be >= 1, given: " + maxPendingWrites);
+        }
+
+        mDirectory = directory;
+        mMaxPendingWrites = maxPendingWrites;
+        mWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread t = new Thread(r, "AutomataSimulator-Checkpoints");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    public Checkpointer(@NotNull Path directory) {
+        this(directory, DEF_MAX_PENDING_WRITES);
+    }
+
+    @NotNull
+    public Path getDirectory() {
+        return mDirectory;
+    }
+
+    public int getIntervalGenerations() {
+        return intervalGenerations;
+    }
+
+    /**
+     * @param intervalGenerations generations between checkpoints, or 0 to disable generation based checkpoints
+     * */
+    public void setIntervalGenerations(int intervalGenerations) {
+        if (intervalGenerations < 0) {
+            throw new IllegalArgumentException("Interval must be >= 0, given: " + intervalGenerations);
+        }
+
+        this.intervalGenerations = intervalGenerations;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * @param intervalMs milliseconds between checkpoints, or 0 to disable time based checkpoints
+     * */
+    public void setIntervalMs(long intervalMs) {
+        if (intervalMs < 0) {
+            throw new IllegalArgumentException("Interval must be >= 0, given: " + intervalMs);
+        }
+
+        this.intervalMs = intervalMs;
+    }
+
+    public int getRetainCount() {
+        return retainCount;
+    }
+
+    public void setRetainCount(int retainCount) {
+        if (retainCount < 1) {
+            throw new IllegalArgumentException("Retain count must be >= 1, given: " + retainCount);
+        }
+
+        this.retainCount = retainCount;
+    }
+
+    public int getMaxPendingWrites() {
+        return mMaxPendingWrites;
+    }
+
+    public int getPendingWrites() {
+        return mPendingWrites.get();
+    }
+
+    public long getWrittenCount() {
+        return mWrittenCount;
+    }
+
+    /**
+     * @return due checkpoints skipped because {@link #getMaxPendingWrites()} writes were already queued
+     * */
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    public long getFailedCount() {
+        return mFailedCount;
+    }
+
+    @Nullable
+    public Path getLastWritten() {
+        return mLastWritten;
+    }
+
+    @Nullable
+    public IOException getLastError() {
+        return mLastError;
+    }
+
+    /**
+     * Makes a checkpoint due at the next generation
+     * */
+    public void requestCheckpoint() {
+        mRequested = true;
+    }
+
+
+    /* Simulation side ------------------------------------------------------------ */
+
+    /**
+     * Called by the simulation thread after every generation. Does not allocate
+     *
+     * @return whether a checkpoint of the given generation is due
+     * */
+    boolean isDue(int generation, long nowNs) {
+        if (mLastGeneration < 0 || generation < mLastGeneration) {
+            // First generation seen, or the simulation was reset: start a new schedule
+            mLastGeneration = generation;
+            mLastNs = nowNs;
+            return mRequested;
+        }
+
+        if (mRequested) {
+            return true;
+        }
+
+        final int genInterval = intervalGenerations;
+        final long msInterval = intervalMs;
+        return (genInterval > 0 && generation - mLastGeneration >= genInterval)
+                || (msInterval > 0 && nowNs - mLastNs >= TimeUnit.MILLISECONDS.toNanos(msInterval));
+    }
+
+    /**
+     * Copies the state and queues the checkpoint write. Must be called by the simulation thread, with the state lock held
+     *
+     * @return whether the checkpoint was queued, {@code false} if skipped because too many writes are pending
+     * */
+    boolean submit(@NotNull NdArrayFloatI state, int generation, int generationSteps, boolean wrapEnabled, @NotNull AutomataSpec spec, long nowNs) {
+        mRequested = false;
+        mLastGeneration = generation;
+        mLastNs = nowNs;
+
+        if (mPendingWrites.incrementAndGet() > mMaxPendingWrites) {
+            mPendingWrites.decrementAndGet();
+            mSkippedCount++;
+            return false;
+        }
+
+        final NdArrayF buffer = acquireBuffer(state.shape());
+        final int size = state.size();
+        for (int i = 0; i < size; i++) {
+            buffer.setFlat(i, state.getFlat(i));
+        }
+
+        final Checkpoint checkpoint = new Checkpoint(System.currentTimeMillis(), generation, generationSteps, wrapEnabled, spec, buffer);
+        try {
+            mWriter.execute(() -> write(checkpoint));
+        } catch (RuntimeException e) {
+            // Shut down
+            mPendingWrites.decrementAndGet();
+            mFreeBuffers.add(buffer);
+            return false;
+        }
+
+        return true;
+    }
+
+    @NotNull
+    private NdArrayF acquireBuffer(int @NotNull [] shape) {
+        NdArrayF buffer;
+        while ((buffer = mFreeBuffers.poll()) != null) {
+            if (Arrays.equals(buffer.shape(), shape)) {
+                return buffer;
+            }
+            // Stale shape: dropped
+        }
+
+        return new NdArrayF(shape);
+    }
+
+
+    /* I/O side ------------------------------------------------------------------- */
+
+    @NotNull
+    public Path fileFor(@NotNull Checkpoint checkpoint) {
+        return mDirectory.resolve(FILE_PREFIX + checkpoint.timestampMs + "-g" + checkpoint.generation + Checkpoint.FILE_EXTENSION);
+    }
+
+    private void write(@NotNull Checkpoint checkpoint) {
+        try {
+            final Path file = fileFor(checkpoint);
+            checkpoint.writeTo(file);
+            mLastWritten = file;
+            mWrittenCount++;
+            deleteStale();
+        } catch (IOException e) {
+            mLastError = e;
+            mFailedCount++;
+            Log.e(TAG, "Failed to write checkpoint of generation " + checkpoint.generation, e);
+        } finally {
+            mFreeBuffers.add(checkpoint.state);
+            mPendingWrites.decrementAndGet();
+        }
+    }
+
+    private void deleteStale() throws IOException {
+        final List<Path> files = listCheckpoints(mDirectory);
+        final int excess = files.size() - retainCount;
+        for (int i = 0; i < excess; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    /**
+     * @return checkpoint files in the directory, oldest first
+     * */
+    @NotNull
+    public static List<Path> listCheckpoints(@NotNull Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.filter(p -> timestampOf(p) >= 0)
+                    .sorted(Comparator.comparingLong(Checkpointer::timestampOf).thenComparing(Path::getFileName))
+                    .toList();
+        }
+    }
+
+    /**
+     * @return the most recent checkpoint file in the directory, or {@code null} if none
+     * */
+    @Nullable
+    public static Path findLatest(@NotNull Path directory) throws IOException {
+        final List<Path> files = listCheckpoints(directory);
+        return files.isEmpty() ? null : files.get(files.size() - 1);
+    }
+
+    /**
+     * @return timestamp encoded in a checkpoint file name, or -1 if not a checkpoint file
+     * */
+    private static long timestampOf(@NotNull Path file) {
+        final String name = file.getFileName().toString();
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(Checkpoint.FILE_EXTENSION)) {
+            return -1;
+        }
+
+        final int end = name.indexOf('-', FILE_PREFIX.length());
+        if (end < 0) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Waits for the queued checkpoints to be written, then stops the I/O thread
+     * */
+    public void close() throws InterruptedException {
+        mWriter.shutdown();
+        mWriter.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpointer{" +
+                "directory=" + mDirectory +
+                ", intervalGenerations=" + intervalGenerations +
+                ", intervalMs=" + intervalMs +
+                ", written=" + mWrittenCount +
+                ", skipped=" + mSkippedCount +
+                ", failed=" + mFailedCount +
+                ", pending=" + mPendingWrites.get() +
+                '}';
+    }
+}
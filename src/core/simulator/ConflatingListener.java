@@ -0,0 +1,300 @@
+package core.simulator;
+
+import core.definition.NdArrayFloatI;
+import core.definition.StateStats;
+import core.definition.automata.AutomataI;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link AutomataSimulator.Listener} that forwards events to a delegate at a bounded rate
+ * <br><br>
+ * High frequency events (state, generation and region changes) are conflated: only the latest state and generation
+ * events are delivered (regions are merged), at most {@link #getMaxRateHz()} times per second, on the given executor.
+ * Overwritten events are counted in {@link #getDroppedCount()}. All other events are forwarded immediately
+ * <br><br>
+ * Deliveries run on a fixed rate ticker, started by the first pending event and stopped after a few idle ticks.
+ * Thus a steady stream of events schedules nothing, and does not allocate
+ *
+ * @see AutomataSimulator#addListener(AutomataSimulator.Listener, float)
+ * */
+public class ConflatingListener implements AutomataSimulator.Listener {
+
+    /**
+     * Number of consecutive ticks without events, after which the delivery ticker stops
+     * */
+    public static final int IDLE_TICKS_BEFORE_STOP = 3;
+
+    private static final class StateEvent {
+        boolean pending;
+        AutomataSimulator simulator;
+        NdArrayFloatI oldState, newState;
+        int generation, stepInGeneration;
+    }
+
+    private static final class GenerationEvent {
+        boolean pending;
+        AutomataSimulator simulator;
+        NdArrayFloatI oldGen, newGen;
+        int generation, steps;
+        final StateStats stats = new StateStats();
+    }
+
+    private static final class RegionEvent {
+        boolean pending;
+        AutomataSimulator simulator;
+        NdArrayFloatI state;
+        final CellRegion region = new CellRegion();
+    }
+
+    @NotNull
+    private final AutomataSimulator.Listener mDelegate;
+    @NotNull
+    private final ScheduledExecutorService mExecutor;
+    private final long mMinIntervalNs;
+
+    /* Pending (written by the simulator) and delivery (read by the delegate) events. Guarded by mLock */
+    @NotNull
+    private final Object mLock = new Object();
+    private final StateEvent mPendingState = new StateEvent(), mDeliverState = new StateEvent();
+    private final GenerationEvent mPendingGen = new GenerationEvent(), mDeliverGen = new GenerationEvent();
+    private final RegionEvent mPendingRegion = new RegionEvent(), mDeliverRegion = new RegionEvent();
+
+    @NotNull
+    private final AtomicBoolean mTickerRunning = new AtomicBoolean();
+    @Nullable
+    private volatile ScheduledFuture<?> mTicker;
+    private int mIdleTicks;        // Guarded by mLock
+    private volatile long mLastDeliveryNs;
+    @NotNull
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    @NotNull
+    private final Runnable mDeliveryTask = this::deliver;
+
+    public ConflatingListener(@NotNull AutomataSimulator.Listener delegate, float maxRateHz, @NotNull ScheduledExecutorService executor) {
+        if (maxRateHz <= 0) {
+            throw new IllegalArgumentException("Max rate must be > 0, given: " + maxRateHz);
+        }
+
+        mDelegate = delegate;
+        mExecutor = executor;
+        mMinIntervalNs = (long) (1e9 / maxRateHz);
+        mLastDeliveryNs = System.nanoTime() - mMinIntervalNs;
+    }
+
+    @NotNull
+    public AutomataSimulator.Listener getDelegate() {
+        return mDelegate;
+    }
+
+    public float getMaxRateHz() {
+        return (float) (1e9 / mMinIntervalNs);
+    }
+
+    /**
+     * @return number of conflated events overwritten (or merged, for regions) before they could be delivered
+     * */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+
+    /* Delivery ------------------------------------------------------------ */
+
+    private void scheduleDelivery() {
+        if (mTickerRunning.compareAndSet(false, true)) {
+            final long delay = Math.max(0, mLastDeliveryNs + mMinIntervalNs - System.nanoTime());
+
+            try {
+                mTicker = mExecutor.scheduleAtFixedRate(mDeliveryTask, delay, mMinIntervalNs, TimeUnit.NANOSECONDS);
+            } catch (Throwable t) {
+                mTickerRunning.set(false);      // executor shut down
+            }
+        }
+    }
+
+    private void deliver() {
+        final boolean state, gen, region;
+        ScheduledFuture<?> stopTicker = null;
+
+        synchronized (mLock) {
+            state = mPendingState.pending;
+            if (state) {
+                mDeliverState.simulator = mPendingState.simulator;
+                mDeliverState.oldState = mPendingState.oldState;
+                mDeliverState.newState = mPendingState.newState;
+                mDeliverState.generation = mPendingState.generation;
+                mDeliverState.stepInGeneration = mPendingState.stepInGeneration;
+                mPendingState.pending = false;
+            }
+
+            gen = mPendingGen.pending;
+            if (gen) {
+                mDeliverGen.simulator = mPendingGen.simulator;
+                mDeliverGen.oldGen = mPendingGen.oldGen;
+                mDeliverGen.newGen = mPendingGen.newGen;
+                mDeliverGen.generation = mPendingGen.generation;
+                mDeliverGen.steps = mPendingGen.steps;
+                mDeliverGen.stats.copyFrom(mPendingGen.stats);
+                mPendingGen.pending = false;
+            }
+
+            region = mPendingRegion.pending;
+            if (region) {
+                mDeliverRegion.simulator = mPendingRegion.simulator;
+                mDeliverRegion.state = mPendingRegion.state;
+                mDeliverRegion.region.set(mPendingRegion.region.rowStart(), mPendingRegion.region.colStart(), mPendingRegion.region.rowEnd(), mPendingRegion.region.colEnd());
+                mPendingRegion.pending = false;
+                mPendingRegion.region.clear();
+            }
+
+            if (state || gen || region) {
+                mIdleTicks = 0;
+            } else if (++mIdleTicks >= IDLE_TICKS_BEFORE_STOP) {
+                stopTicker = mTicker;
+                if (stopTicker != null) {       // null only if the ticker ran before being assigned, keep ticking then
+                    mIdleTicks = 0;
+                    mTicker = null;
+                    mTickerRunning.set(false);      // events from now on start a new ticker
+                }
+            }
+        }
+
+        if (stopTicker != null) {
+            stopTicker.cancel(false);
+            return;
+        }
+
+        if (!(state || gen || region)) {
+            return;
+        }
+
+        mLastDeliveryNs = System.nanoTime();
+
+        // Only the delivery thread touches delivery events, and deliveries never overlap
+        if (region) {
+            mDelegate.onAutomataRegionChanged(mDeliverRegion.simulator, mDeliverRegion.state, mDeliverRegion.region.copy());
+        }
+
+        if (state) {
+            mDelegate.onAutomataStateChanged(mDeliverState.simulator, mDeliverState.oldState, mDeliverState.newState, mDeliverState.generation, mDeliverState.stepInGeneration);
+        }
+
+        if (gen) {
+            mDelegate.onAutomataGenerationChanged(mDeliverGen.simulator, mDeliverGen.oldGen, mDeliverGen.newGen, mDeliverGen.generation, mDeliverGen.steps, mDeliverGen.stats);
+        }
+    }
+
+
+    /* Conflated events ------------------------------------------------------------ */
+
+    @Override
+    public void onAutomataStateChanged(AutomataSimulator simulator, @Nullable NdArrayFloatI oldState, @NotNull NdArrayFloatI newState, int generation, int stepInGeneration) {
+        synchronized (mLock) {
+            final StateEvent e = mPendingState;
+            if (e.pending) {
+                mDroppedCount.incrementAndGet();
+            }
+
+            e.pending = true;
+            e.simulator = simulator;
+            e.oldState = oldState;
+            e.newState = newState;
+            e.generation = generation;
+            e.stepInGeneration = stepInGeneration;
+        }
+
+        scheduleDelivery();
+    }
+
+    @Override
+    public void onAutomataGenerationChanged(AutomataSimulator simulator, @Nullable NdArrayFloatI oldGen, @NotNull NdArrayFloatI newGen, int generation, int steps, @NotNull StateStats stats) {
+        synchronized (mLock) {
+            final GenerationEvent e = mPendingGen;
+            if (e.pending) {
+                mDroppedCount.incrementAndGet();
+            }
+
+            e.pending = true;
+            e.simulator = simulator;
+            e.oldGen = oldGen;
+            e.newGen = newGen;
+            e.generation = generation;
+            e.steps = steps;
+            e.stats.copyFrom(stats);
+        }
+
+        scheduleDelivery();
+    }
+
+    @Override
+    public void onAutomataRegionChanged(AutomataSimulator simulator, @NotNull NdArrayFloatI state, @NotNull CellRegion region) {
+        synchronized (mLock) {
+            final RegionEvent e = mPendingRegion;
+            if (e.pending) {
+                mDroppedCount.incrementAndGet();
+            }
+
+            e.pending = true;
+            e.simulator = simulator;
+            e.state = state;
+            e.region.include(region);
+        }
+
+        scheduleDelivery();
+    }
+
+
+    /* Forwarded events ------------------------------------------------------------ */
+
+    @Override
+    public void onAutomataChanged(@NotNull AutomataSimulator simulator, @NotNull AutomataI oldAutomata, @NotNull AutomataI newAutomata) {
+        mDelegate.onAutomataChanged(simulator, oldAutomata, newAutomata);
+    }
+
+    @Override
+    public void onSimulationFrameRateChanged(@NotNull AutomataSimulator simulator, long oldFrameRate, long newFrameRate) {
+        mDelegate.onSimulationFrameRateChanged(simulator, oldFrameRate, newFrameRate);
+    }
+
+    @Override
+    public void onSimulationRunModeChanged(@NotNull AutomataSimulator simulator, AutomataSimulator.@NotNull RunMode oldRunMode, AutomataSimulator.@NotNull RunMode newRunMode) {
+        mDelegate.onSimulationRunModeChanged(simulator, oldRunMode, newRunMode);
+    }
+
+    @Override
+    public void onIsPlayingChanged(@NotNull AutomataSimulator simulator, boolean isPlaying) {
+        mDelegate.onIsPlayingChanged(simulator, isPlaying);
+    }
+
+    @Override
+    public void onGenerationStepsChanged(@NotNull AutomataSimulator simulator, int prevGenSteps, int newGenSteps) {
+        mDelegate.onGenerationStepsChanged(simulator, prevGenSteps, newGenSteps);
+    }
+
+    @Override
+    public void onWrapEnabledChanged(@NotNull AutomataSimulator simulator, boolean wrapEnabled) {
+        mDelegate.onWrapEnabledChanged(simulator, wrapEnabled);
+    }
+
+    @Override
+    public void onSimulatorThreadCountChanged(@NotNull AutomataSimulator simulator) {
+        mDelegate.onSimulatorThreadCountChanged(simulator);
+    }
+
+    @Override
+    public void onParallelComputeEnabledChanged(@NotNull AutomataSimulator simulator, boolean parallelComputeEnabled) {
+        mDelegate.onParallelComputeEnabledChanged(simulator, parallelComputeEnabled);
+    }
+
+    @Override
+    public void onSimulationRateShortfall(@NotNull AutomataSimulator simulator, @NotNull RunStats stats) {
+        mDelegate.onSimulationRateShortfall(simulator, stats);
+    }
+}
@@ -0,0 +1,115 @@
+package core.simulator;
+
+import core.definition.StateStats;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the {@link StateStats#TILE_SIZE} x {@link StateStats#TILE_SIZE} cell tiles of a 2D state that changed
+ * since the last {@link #reset(int, int)}, from the changes reported by the simulation (see {@link StatePublisher}
+ * and {@link RunRecorder}). Unknown changes mark every tile dirty
+ * <br><br>
+ * Not thread safe: used by the simulation thread only
+ * */
+final class DirtyTiles {
+
+    private static final int TILE_SHIFT = Integer.numberOfTrailingZeros(StateStats.TILE_SIZE);
+
+    /* Row major bit set */
+    private long @NotNull [] mWords = new long[0];
+    private int mTileRows = -1, mTileCols = -1;
+    private boolean mAll = true;
+
+    /**
+     * Clears all tiles of a state with the given rows and columns
+     * */
+    void reset(int rows, int cols) {
+        mTileRows = (rows + StateStats.TILE_SIZE - 1) >> TILE_SHIFT;
+        mTileCols = (cols + StateStats.TILE_SIZE - 1) >> TILE_SHIFT;
+        mAll = false;
+
+        final int words = (mTileRows * mTileCols + 63) >>> 6;
+        if (mWords.length != words) {
+            mWords = new long[words];
+        } else {
+            Arrays.fill(mWords, 0);
+        }
+    }
+
+    /**
+     * Marks the tiles changed by a computation, collected in its stats
+     * */
+    void mark(@NotNull StateStats stats) {
+        if (mAll) {
+            return;
+        }
+
+        if (stats.tileRows() != mTileRows || stats.tileCols() != mTileCols) {
+            mAll = true;        // different grid (no tile grid, or shape change)
+            return;
+        }
+
+        stats.orDirtyTilesInto(mWords);
+    }
+
+    /**
+     * Marks the tiles of rows [rowStart, rowEnd) and columns [colStart, colEnd)
+     * */
+    void markRegion(int rowStart, int colStart, int rowEnd, int colEnd) {
+        if (mAll || rowStart >= rowEnd || colStart >= colEnd) {
+            return;
+        }
+
+        final int tr0 = Math.max(rowStart, 0) >> TILE_SHIFT, tr1 = Math.min((rowEnd - 1) >> TILE_SHIFT, mTileRows - 1);
+        final int tc0 = Math.max(colStart, 0) >> TILE_SHIFT, tc1 = Math.min((colEnd - 1) >> TILE_SHIFT, mTileCols - 1);
+        for (int tr = tr0; tr <= tr1; tr++) {
+            for (int tc = tc0; tc <= tc1; tc++) {
+                final int bit = tr * mTileCols + tc;
+                mWords[bit >>> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * Marks every tile, ex. when the state is replaced or its changes are unknown
+     * */
+    void markAll() {
+        mAll = true;
+    }
+
+    /**
+     * @return whether the changed tiles are unknown, meaning that every cell must be considered changed
+     * */
+    boolean isAll() {
+        return mAll;
+    }
+
+    /**
+     * @return whether the tiles are of a state with the given rows and columns
+     * */
+    boolean isGridOf(int rows, int cols) {
+        return mTileRows == (rows + StateStats.TILE_SIZE - 1) >> TILE_SHIFT
+                && mTileCols == (cols + StateStats.TILE_SIZE - 1) >> TILE_SHIFT;
+    }
+
+    int tileRows() {
+        return mTileRows;
+    }
+
+    int tileCols() {
+        return mTileCols;
+    }
+
+    boolean isTileDirty(int tileRow, int tileCol) {
+        final int bit = tileRow * mTileCols + tileCol;
+        return mAll || (mWords[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * @return the row major bit set of the dirty tiles. Meaningless if {@link #isAll()}
+     * */
+    long @NotNull [] words() {
+        return mWords;
+    }
+}
@@ -0,0 +1,609 @@
+package core.simulator;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import core.definition.StateStats;
+import core.definition.automata.AutomataI;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import util.misc.Log;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless recording of a simulation to images, attached as a {@link AutomataSimulator.Listener}
+ * <br><br>
+ * Pipeline: on every {@link #getFrameInterval()}-th generation dispatched by the simulator, the simulation thread
+ * copies the state into a pooled frame and queues it. Worker threads colourise frames into their reused framebuffers
+ * (one byte per pixel with an indexed palette when all cells are integral states of an automata with at most 256 states,
+ * RGB otherwise), and a single
+ * encoder thread writes them in order, as a numbered PNG sequence or an animated GIF.
+ * <br><br>
+ * The number of frames in flight is bounded by {@link #getQueueCapacity()}: when encoding cannot keep up, the simulation
+ * waits for a free frame (the time is reported by {@link #getBlockedNs()}), so that no frame is ever dropped.
+ * <br><br>
+ * Only dispatched generations are recorded: generations the simulator computes in a batch without dispatching
+ * (e.g. fast-forward) are skipped. Use a {@link RunRecorder} to record every generation losslessly
+ * */
+public final class FrameExporter implements AutomataSimulator.Listener {
+
+    public static final String TAG = "FrameExporter";
+
+    public enum Format {
+        /**
+         * Numbered PNG files {@code frame-000000.png, frame-000001.png, ...} in the output directory
+         * */
+        PNG_SEQUENCE,
+
+        /**
+         * Single looping animated GIF file
+         * */
+        GIF
+    }
+
+    public static final int DEF_FRAME_INTERVAL = 1;
+    public static final int DEF_QUEUE_CAPACITY = 8;
+    public static final int DEF_GIF_FRAME_DELAY_MS = 40;
+
+    public static final String FRAME_FILE_PREFIX = "frame-";
+    public static final String FRAME_FILE_EXTENSION = ".png";
+
+    /**
+     * Maximum states for an indexed (one byte per pixel) framebuffer
+     * */
+    private static final int MAX_INDEXED_STATES = 256;
+
+    /**
+     * A frame in the pipeline. Pooled: buffers are reused across frames
+     * */
+    private static final class Frame {
+
+        int index;
+        int generation;
+
+        @Nullable
+        NdArrayF state;
+
+        /**
+         * Colors of the integral states [0, state_count), captured with the state
+         * */
+        int @NotNull [] palette = new int[0];
+        int paletteLength;
+
+        /**
+         * Whether all cells are integral states in the palette
+         * */
+        boolean integral;
+
+        /**
+         * Colors of all cells, resolved with the state if not {@link #integral}
+         * */
+        int @NotNull [] colors = new int[0];
+
+        @Nullable
+        BufferedImage image;
+    }
+
+    /**
+     * Queued to stop the encoder thread
+     * */
+    private static final Future<Frame> END = new CompletableFuture<>();
+
+    @NotNull
+    private final Path mOutput;
+    @NotNull
+    private final Format mFormat;
+    private final int mFrameInterval;
+    private final boolean mDarkMode;
+    private final int mGifFrameDelayMs;
+    private final int mQueueCapacity;
+
+    @NotNull
+    private final ExecutorService mColorizer;
+    @NotNull
+    private final BlockingQueue<Future<Frame>> mEncodeQueue;
+    @NotNull
+    private final BlockingQueue<Frame> mFreeFrames;
+    @NotNull
+    private final Thread mEncoder;
+
+    /* Simulation side */
+    private long mDispatchCount;
+    private int mNextIndex;
+    private volatile boolean mClosed;
+
+    /* Encoder side */
+    @Nullable
+    private ImageWriter mGifWriter;
+    @Nullable
+    private ImageOutputStream mGifStream;
+
+    /* Results */
+    private volatile long mFrameCount;
+    private volatile long mBlockedNs;
+    @Nullable
+    private volatile Exception mLastError;
+
+    /**
+     * @param output output directory for {@link Format#PNG_SEQUENCE} (created if needed), or file for {@link Format#GIF}
+     * @param frameInterval records every k-th dispatched generation
+     * @param workerThreads threads colourising frames
+     * @param queueCapacity frames in flight at most (colourising or waiting to be encoded)
+     * @param gifFrameDelayMs delay between frames of a GIF
+     * */
+    public FrameExporter(@NotNull Path output, @NotNull Format format, int frameInterval, boolean darkMode,
+                         int workerThreads, int queueCapacity, int gifFrameDelayMs) throws IOException {
+        if (frameInterval < 1) {
+            throw new IllegalArgumentException("Frame interval must be >= 1, given: " + frameInterval);
+        }
+
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("Worker threads must be >= 1, given: " + workerThreads);
+        }
+
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be >= 1, given: " + queueCapacity);
+        }
+
+        mOutput = output;
+        mFormat = format;
+        mFrameInterval = frameInterval;
+        mDarkMode = darkMode;
+        mGifFrameDelayMs = Math.max(0, gifFrameDelayMs);
+        mQueueCapacity = queueCapacity;
+
+        if (format == Format.PNG_SEQUENCE) {
+            Files.createDirectories(output);
+        } else {
+            Files.deleteIfExists(output);       // file image streams do not truncate
+            mGifStream = ImageIO.createImageOutputStream(output.toFile());
+            if (mGifStream == null) {
+                throw new IOException("Cannot open GIF output: " + output);
+            }
+
+            mGifWriter = ImageIO.getImageWritersByFormatName("gif").next();
+            mGifWriter.setOutput(mGifStream);
+            mGifWriter.prepareWriteSequence(null);
+        }
+
+        final AtomicInteger threadNo = new AtomicInteger();
+        mColorizer = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread t = new Thread(r, "FrameExporter-Colorizer-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        mEncodeQueue = new ArrayBlockingQueue<>(queueCapacity + 1);
+        mFreeFrames = new ArrayBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < queueCapacity; i++) {
+            mFreeFrames.add(new Frame());
+        }
+
+        mEncoder = new Thread(this::encodeLoop, "FrameExporter-Encoder");
+        mEncoder.setDaemon(true);
+        mEncoder.start();
+    }
+
+    public FrameExporter(@NotNull Path output, @NotNull Format format, boolean darkMode) throws IOException {
+        this(output, format, DEF_FRAME_INTERVAL, darkMode, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), DEF_QUEUE_CAPACITY, DEF_GIF_FRAME_DELAY_MS);
+    }
+
+    @NotNull
+    public Path getOutput() {
+        return mOutput;
+    }
+
+    @NotNull
+    public Format getFormat() {
+        return mFormat;
+    }
+
+    public int getFrameInterval() {
+        return mFrameInterval;
+    }
+
+    public int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    /**
+     * @return frames written so far
+     * */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return total time the simulation waited for the pipeline, in nanoseconds
+     * */
+    public long getBlockedNs() {
+        return mBlockedNs;
+    }
+
+    @Nullable
+    public Exception getLastError() {
+        return mLastError;
+    }
+
+
+    /* Simulation side ------------------------------------------------------------ */
+
+    @Override
+    public void onAutomataGenerationChanged(AutomataSimulator simulator, @Nullable NdArrayFloatI oldGen, @NotNull NdArrayFloatI newGen, int generation, int steps, @NotNull StateStats stats) {
+        if (mClosed || mDispatchCount++ % mFrameInterval != 0) {
+            return;
+        }
+
+        final int[] shape = newGen.shape();
+        if (shape.length != 2) {
+            return;
+        }
+
+        final Frame frame = acquireFrame();
+        if (frame == null) {
+            return;     // Interrupted: the frame is lost
+        }
+
+        // Copy the state, it is reused by the simulation as soon as we return
+        NdArrayF state = frame.state;
+        if (state == null || !Arrays.equals(state.shape(), shape)) {
+            frame.state = state = new NdArrayF(shape);
+        }
+
+        if (newGen instanceof NdArrayF src) {
+            state.copyFrom(src);
+        } else {
+            for (int i = 0, n = state.size(); i < n; i++) {
+                state.setFlat(i, newGen.getFlat(i));
+            }
+        }
+
+        // All colors on this thread: color providers may initialize lazily and are not thread-safe
+        final AutomataI automata = simulator.getAutomata();
+        final int[] palette = automata.colorPalette(mDarkMode);
+        if (frame.palette.length < palette.length) {
+            frame.palette = new int[palette.length];
+        }
+
+        System.arraycopy(palette, 0, frame.palette, 0, palette.length);
+        frame.paletteLength = palette.length;
+        frame.integral = isIntegral(state, palette.length);
+        if (!frame.integral) {
+            final int n = state.size();
+            if (frame.colors.length < n) {
+                frame.colors = new int[n];
+            }
+
+            final int[] colors = frame.colors;
+            for (int i = 0; i < n; i++) {
+                final float v = state.getFlat(i);
+                final int s = (int) v;
+                colors[i] = s == v && s >= 0 && s < palette.length ? palette[s] : automata.colorRGBForCell(v, mDarkMode);
+            }
+        }
+        frame.index = mNextIndex++;
+        frame.generation = simulator.getGeneration();
+
+        mEncodeQueue.add(mColorizer.submit(() -> colorize(frame)));        // never full: at most capacity frames exist
+    }
+
+    /**
+     * @return whether all cells are integral states in [0, stateCount)
+     * */
+    private static boolean isIntegral(@NotNull NdArrayF state, int stateCount) {
+        for (int i = 0, n = state.size(); i < n; i++) {
+            final float v = state.getFlat(i);
+            final int s = (int) v;
+            if (s != v || s < 0 || s >= stateCount) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Nullable
+    private Frame acquireFrame() {
+        Frame frame = mFreeFrames.poll();
+        if (frame != null) {
+            return frame;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            frame = mFreeFrames.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        mBlockedNs += System.nanoTime() - start;
+        return frame;
+    }
+
+
+    /* Colorizer side ------------------------------------------------------------- */
+
+    @NotNull
+    private Frame colorize(@NotNull Frame frame) {
+        final NdArrayF state = frame.state;
+        final int rows = state.shapeAt(0), cols = state.shapeAt(1);
+        final int[] palette = frame.palette;
+        final int paletteLength = frame.paletteLength;
+
+        if (frame.integral && paletteLength <= MAX_INDEXED_STATES) {
+            final IndexColorModel model = colorModel(frame);
+            BufferedImage image = frame.image;
+            if (image == null || image.getType() != BufferedImage.TYPE_BYTE_INDEXED || image.getWidth() != cols || image.getHeight() != rows
+                    || !sameColors((IndexColorModel) image.getColorModel(), model)) {
+                frame.image = image = new BufferedImage(cols, rows, BufferedImage.TYPE_BYTE_INDEXED, model);
+            }
+
+            final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0, n = rows * cols; i < n; i++) {
+                pixels[i] = (byte) state.getFlat(i);
+            }
+        } else {
+            BufferedImage image = frame.image;
+            if (image == null || image.getType() != BufferedImage.TYPE_INT_RGB || image.getWidth() != cols || image.getHeight() != rows) {
+                frame.image = image = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_RGB);
+            }
+
+            final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            if (frame.integral) {
+                for (int i = 0, n = rows * cols; i < n; i++) {
+                    pixels[i] = palette[(int) state.getFlat(i)] & 0xFFFFFF;
+                }
+            } else {
+                final int[] colors = frame.colors;
+                for (int i = 0, n = rows * cols; i < n; i++) {
+                    pixels[i] = colors[i] & 0xFFFFFF;
+                }
+            }
+        }
+
+        return frame;
+    }
+
+    @NotNull
+    private static IndexColorModel colorModel(@NotNull Frame frame) {
+        final int n = frame.paletteLength;
+        final byte[] r = new byte[n], g = new byte[n], b = new byte[n];
+        for (int i = 0; i < n; i++) {
+            final int c = frame.palette[i];
+            r[i] = (byte) (c >>> 16);
+            g[i] = (byte) (c >>> 8);
+            b[i] = (byte) c;
+        }
+
+        final int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(n - 1));
+        return new IndexColorModel(bits, n, r, g, b);
+    }
+
+    private static boolean sameColors(@NotNull IndexColorModel a, @NotNull IndexColorModel b) {
+        if (a.getMapSize() != b.getMapSize()) {
+            return false;
+        }
+
+        final int n = a.getMapSize();
+        final int[] ca = new int[n], cb = new int[n];
+        a.getRGBs(ca);
+        b.getRGBs(cb);
+        return Arrays.equals(ca, cb);
+    }
+
+
+    /* Encoder side --------------------------------------------------------------- */
+
+    private void encodeLoop() {
+        while (true) {
+            final Future<Frame> future;
+            try {
+                future = mEncodeQueue.take();
+            } catch (InterruptedException e) {
+                continue;       // stopped only by the end marker
+            }
+
+            if (future == END) {
+                break;
+            }
+
+            Frame frame = null;
+            try {
+                frame = getUninterruptibly(future);
+                if (mLastError == null) {
+                    encode(frame);
+                    mFrameCount++;
+                }
+            } catch (Exception e) {
+                mLastError = e;
+                Log.e(TAG, "Failed to export frame" + (frame != null ? " of generation " + frame.generation : ""), e);
+            } finally {
+                if (frame != null) {
+                    mFreeFrames.add(frame);
+                }
+            }
+        }
+
+        if (mGifWriter != null) {
+            try {
+                if (mFrameCount > 0) {
+                    mGifWriter.endWriteSequence();
+                }
+
+                mGifStream.close();
+            } catch (IOException e) {
+                mLastError = e;
+                Log.e(TAG, "Failed to close GIF", e);
+            } finally {
+                mGifWriter.dispose();
+            }
+        }
+    }
+
+    @NotNull
+    private static Frame getUninterruptibly(@NotNull Future<Frame> future) throws ExecutionException {
+        while (true) {
+            try {
+                return future.get();
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private void encode(@NotNull Frame frame) throws IOException {
+        final BufferedImage image = frame.image;
+        if (mFormat == Format.PNG_SEQUENCE) {
+            final Path file = mOutput.resolve(FRAME_FILE_PREFIX + String.format("%06d", frame.index) + FRAME_FILE_EXTENSION);
+            final ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+            try (OutputStream stream = Files.newOutputStream(file);
+                 ImageOutputStream out = ImageIO.createImageOutputStream(stream)) {
+                writer.setOutput(out);
+                final ImageWriteParam param = writer.getDefaultWriteParam();
+                if (param.canWriteCompressed()) {
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(0.9f);     // fast deflate
+                }
+
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+        } else {
+            final ImageWriter writer = mGifWriter;
+            final IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), null);
+            final String format = metadata.getNativeMetadataFormatName();
+            final IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+
+            final IIOMetadataNode control = child(root, "GraphicControlExtension");
+            control.setAttribute("disposalMethod", "none");
+            control.setAttribute("userInputFlag", "FALSE");
+            control.setAttribute("transparentColorFlag", "FALSE");
+            control.setAttribute("delayTime", Integer.toString(mGifFrameDelayMs / 10));
+            control.setAttribute("transparentColorIndex", "0");
+
+            if (frame.index == 0) {
+                // Loop forever
+                final IIOMetadataNode app = new IIOMetadataNode("ApplicationExtension");
+                app.setAttribute("applicationID", "NETSCAPE");
+                app.setAttribute("authenticationCode", "2.0");
+                app.setUserObject(new byte[]{1, 0, 0});
+                child(root, "ApplicationExtensions").appendChild(app);
+            }
+
+            metadata.setFromTree(format, root);
+            writer.writeToSequence(new IIOImage(image, null, metadata), null);
+        }
+    }
+
+    @NotNull
+    private static IIOMetadataNode child(@NotNull IIOMetadataNode root, @NotNull String name) {
+        for (int i = 0; i < root.getLength(); i++) {
+            if (name.equals(root.item(i).getNodeName())) {
+                return (IIOMetadataNode) root.item(i);
+            }
+        }
+
+        final IIOMetadataNode node = new IIOMetadataNode(name);
+        root.appendChild(node);
+        return node;
+    }
+
+
+    /**
+     * Stops recording: waits for the queued frames to be written, then finishes the output.
+     * Remove the exporter from the simulator listeners first
+     * */
+    public void close() throws InterruptedException {
+        if (!mClosed) {
+            mClosed = true;
+            mEncodeQueue.add(END);
+        }
+
+        mEncoder.join();
+        mColorizer.shutdown();
+    }
+
+
+    /* Other callbacks ------------------------------------------------------------ */
+
+    @Override
+    public void onAutomataChanged(@NotNull AutomataSimulator simulator, @NotNull AutomataI oldAutomata, @NotNull AutomataI newAutomata) {
+    }
+
+    @Override
+    public void onSimulationFrameRateChanged(@NotNull AutomataSimulator simulator, long oldFrameRate, long newFrameRate) {
+    }
+
+    @Override
+    public void onSimulationRunModeChanged(@NotNull AutomataSimulator simulator, AutomataSimulator.@NotNull RunMode oldRunMode, AutomataSimulator.@NotNull RunMode newRunMode) {
+    }
+
+    @Override
+    public void onIsPlayingChanged(@NotNull AutomataSimulator simulator, boolean isPlaying) {
+    }
+
+    @Override
+    public void onGenerationStepsChanged(@NotNull AutomataSimulator simulator, int prevGenSteps, int newGenSteps) {
+    }
+
+    @Override
+    public void onWrapEnabledChanged(@NotNull AutomataSimulator simulator, boolean wrapEnabled) {
+    }
+
+    @Override
+    public void onAutomataStateChanged(AutomataSimulator simulator, @Nullable NdArrayFloatI oldState, @NotNull NdArrayFloatI newState, int generation, int stepInGeneration) {
+    }
+
+    @Override
+    public void onAutomataRegionChanged(AutomataSimulator simulator, @NotNull NdArrayFloatI state, @NotNull CellRegion region) {
+    }
+
+    @Override
+    public void onSimulatorThreadCountChanged(@NotNull AutomataSimulator simulator) {
+    }
+
+    @Override
+    public void onParallelComputeEnabledChanged(@NotNull AutomataSimulator simulator, boolean parallelComputeEnabled) {
+    }
+
+    @Override
+    public void onSimulationRateShortfall(@NotNull AutomataSimulator simulator, @NotNull RunStats stats) {
+    }
+
+    @Override
+    public String toString() {
+        return "FrameExporter{" +
+                "output=" + mOutput +
+                ", format=" + mFormat +
+                ", frames=" + mFrameCount +
+                ", queued=" + mEncodeQueue.size() +
+                ", blockedMs=" + mBlockedNs / 1_000_000 +
+                '}';
+    }
+}
@@ -0,0 +1,280 @@
+package core.simulator;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import core.io.StateDeltaCodec;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded history of past generations, for stepping back and seeking in time
+ * <br><br>
+ * Every {@link #getKeyframeInterval()}-th generation is stored standalone (keyframe), the others as the XOR delta from
+ * the previous generation (see {@link StateDeltaCodec}). A generation is restored by decoding its nearest keyframe and
+ * replaying the deltas up to it.
+ * Once the memory budget is exceeded, the oldest keyframe group (a keyframe and its deltas) is evicted
+ * <br><br>
+ * Thread safe
+ * */
+public final class GenerationHistory {
+
+    public static final int DEF_KEYFRAME_INTERVAL = 32;
+    public static final long DEF_MEMORY_BUDGET_BYTES = 64L << 20;
+
+    /**
+     * Approximate heap cost of a frame besides its data (frame, array header and list slot)
+     * */
+    private static final int FRAME_OVERHEAD_BYTES = 64;
+
+    private record Frame(int generation, boolean keyframe, byte @NotNull [] data) {
+
+        long memoryBytes() {
+            return data.length + FRAME_OVERHEAD_BYTES;
+        }
+    }
+
+    private final StateDeltaCodec mCodec = new StateDeltaCodec();
+
+    /**
+     * Frames in increasing generation order. The first frame, if any, is always a keyframe
+     * */
+    private final List<Frame> mFrames = new ArrayList<>();
+    private long mMemoryBytes;
+
+    private int mKeyframeInterval;
+    private long mMemoryBudgetBytes;
+
+    /**
+     * Copy of the state deltas are encoded against, and its generation (-1 if unknown)
+     * */
+    private NdArrayF mReference;
+    private int mReferenceGeneration = -1;
+    private int mFramesSinceKeyframe;
+
+    public GenerationHistory(int keyframeInterval, long memoryBudgetBytes) {
+        mKeyframeInterval = checkKeyframeInterval(keyframeInterval);
+        mMemoryBudgetBytes = checkMemoryBudget(memoryBudgetBytes);
+    }
+
+    public GenerationHistory() {
+        this(DEF_KEYFRAME_INTERVAL, DEF_MEMORY_BUDGET_BYTES);
+    }
+
+    private static int checkKeyframeInterval(int keyframeInterval) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be >= 1, given: " + keyframeInterval);
+        }
+
+        return keyframeInterval;
+    }
+
+    private static long checkMemoryBudget(long memoryBudgetBytes) {
+        if (memoryBudgetBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be > 0, given: " + memoryBudgetBytes);
+        }
+
+        return memoryBudgetBytes;
+    }
+
+    public synchronized int getKeyframeInterval() {
+        return mKeyframeInterval;
+    }
+
+    /**
+     * Takes effect from the next keyframe
+     * */
+    public synchronized void setKeyframeInterval(int keyframeInterval) {
+        mKeyframeInterval = checkKeyframeInterval(keyframeInterval);
+    }
+
+    public synchronized long getMemoryBudgetBytes() {
+        return mMemoryBudgetBytes;
+    }
+
+    public synchronized void setMemoryBudgetBytes(long memoryBudgetBytes) {
+        mMemoryBudgetBytes = checkMemoryBudget(memoryBudgetBytes);
+        evictInternal();
+    }
+
+    /**
+     * @return approximate heap bytes used by the retained frames, excluding the reference state
+     * */
+    public synchronized long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    /**
+     * @return number of retained generations
+     * */
+    public synchronized int size() {
+        return mFrames.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return mFrames.isEmpty();
+    }
+
+    /**
+     * @return oldest retained generation, or -1 if empty
+     * */
+    public synchronized int getOldestGeneration() {
+        return mFrames.isEmpty() ? -1 : mFrames.get(0).generation;
+    }
+
+    /**
+     * @return newest retained generation, or -1 if empty
+     * */
+    public synchronized int getNewestGeneration() {
+        return mFrames.isEmpty() ? -1 : mFrames.get(mFrames.size() - 1).generation;
+    }
+
+    public synchronized boolean contains(int generation) {
+        return indexOfInternal(generation) >= 0;
+    }
+
+    public synchronized void clear() {
+        mFrames.clear();
+        mMemoryBytes = 0;
+        mReferenceGeneration = -1;
+        mFramesSinceKeyframe = 0;
+    }
+
+    /**
+     * Records the state of a generation. Retained generations at or after it are discarded first, since they belong
+     * to a different timeline (ex. the state was edited, or the simulation continued after seeking back)
+     * */
+    public synchronized void record(@NotNull NdArrayFloatI state, int generation) {
+        truncateFromInternal(generation);
+
+        final boolean keyframe = mFrames.isEmpty()
+                || mFramesSinceKeyframe + 1 >= mKeyframeInterval
+                || mReferenceGeneration != generation - 1
+                || mReference == null || !Arrays.equals(mReference.shape(), state.shape());
+
+        final byte[] data = mCodec.encode(keyframe ? null : mReference, state);
+        final Frame frame = new Frame(generation, keyframe, data);
+        mFrames.add(frame);
+        mMemoryBytes += frame.memoryBytes();
+        mFramesSinceKeyframe = keyframe ? 0 : mFramesSinceKeyframe + 1;
+
+        setReferenceInternal(state, generation);
+        evictInternal();
+    }
+
+    /**
+     * Sets the state the next recorded generation is encoded against, ex. after seeking.
+     * Retained generations are kept, so that seeking forward is still possible until a new generation is recorded
+     * */
+    public synchronized void rebase(@NotNull NdArrayFloatI state, int generation) {
+        setReferenceInternal(state, generation);
+
+        // Count deltas since the keyframe of the rebased generation
+        final int index = indexOfInternal(generation);
+        if (index < 0) {
+            mReferenceGeneration = -1;      // next record is a keyframe
+        } else {
+            int k = index;
+            while (!mFrames.get(k).keyframe) {
+                k--;
+            }
+
+            mFramesSinceKeyframe = index - k;
+        }
+    }
+
+    /**
+     * Restores a retained generation into the target, replaying from its nearest keyframe
+     *
+     * @param target array of the recorded state shape
+     * @return whether the generation is retained and was restored
+     * */
+    public synchronized boolean restore(int generation, @NotNull NdArrayF target) {
+        final int index = indexOfInternal(generation);
+        if (index < 0) {
+            return false;
+        }
+
+        int k = index;
+        while (!mFrames.get(k).keyframe) {
+            k--;
+        }
+
+        target.clear();
+        for (int i = k; i <= index; i++) {
+            StateDeltaCodec.apply(mFrames.get(i).data, target);
+        }
+
+        return true;
+    }
+
+
+    /* Internal ------------------------------------------------------------------- */
+
+    private void setReferenceInternal(@NotNull NdArrayFloatI state, int generation) {
+        if (mReference == null || !Arrays.equals(mReference.shape(), state.shape())) {
+            mReference = new NdArrayF(state.shape());
+        }
+
+        final int size = state.size();
+        for (int i = 0; i < size; i++) {
+            mReference.setFlat(i, state.getFlat(i));
+        }
+
+        mReferenceGeneration = generation;
+    }
+
+    private int indexOfInternal(int generation) {
+        int lo = 0, hi = mFrames.size() - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int g = mFrames.get(mid).generation;
+            if (g < generation) {
+                lo = mid + 1;
+            } else if (g > generation) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    private void truncateFromInternal(int generation) {
+        while (!mFrames.isEmpty()) {
+            final Frame last = mFrames.get(mFrames.size() - 1);
+            if (last.generation < generation) {
+                break;
+            }
+
+            mFrames.remove(mFrames.size() - 1);
+            mMemoryBytes -= last.memoryBytes();
+        }
+    }
+
+    /**
+     * Evicts the oldest keyframe groups while over budget. The newest group is always retained
+     * */
+    private void evictInternal() {
+        while (mMemoryBytes > mMemoryBudgetBytes) {
+            int next = 1;
+            while (next < mFrames.size() && !mFrames.get(next).keyframe) {
+                next++;
+            }
+
+            if (next >= mFrames.size()) {
+                break;      // single group
+            }
+
+            final List<Frame> group = mFrames.subList(0, next);
+            for (Frame f: group) {
+                mMemoryBytes -= f.memoryBytes();
+            }
+
+            group.clear();
+        }
+    }
+}
@@ -0,0 +1,816 @@
+package core.simulator;
+
+import core.AutomataRegistry;
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import core.definition.Soup;
+import core.definition.automata.AutomataI;
+import core.definition.automata.AutomataSpec;
+import core.io.Checkpoint;
+import core.io.GridSnapshot;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import util.async.CancellationProvider;
+import util.misc.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of everything that determines a simulation: automata, parameters, reset seeds and cell edits,
+ * each stamped with its generation. Generations themselves are not stored: {@link #replay} re-executes them, which
+ * reproduces every past state exactly since the computation is deterministic (every cell depends only on the previous
+ * state, for any number of threads, and soups only on their seed).
+ * <br><br>
+ * States that cannot be re-derived (restored checkpoints, loaded snapshots, imported patterns, time travel, and
+ * generations interrupted between steps) are stored as compressed {@link GridSnapshot}s. A hash of the state is stored
+ * every {@link #getCheckInterval()} generations, so that a replay detects divergence.
+ * <br><br>
+ * Layout: {@code [magic: int][version: int]}, then records {@code [type: byte][length: varint][payload][crc32: int]}
+ * (crc of type and payload). A truncated trailing record (crash while writing) is ignored on replay
+ * */
+public final class ReplayJournal {
+
+    public static final String TAG = "ReplayJournal";
+
+    public static final String FILE_EXTENSION = ".ajrn";
+    public static final int DEF_CHECK_INTERVAL = 1024;
+
+    private static final int MAGIC = 0x414A524E;        // "AJRN"
+    private static final int VERSION = 1;
+    private static final int MAX_RECORD_BYTES = Integer.MAX_VALUE - 64;
+
+    /* Record types */
+    static final byte TYPE_AUTOMATA = 1;
+    static final byte TYPE_PARAMS = 2;
+    static final byte TYPE_RESET = 3;
+    static final byte TYPE_CLEAR = 4;
+    static final byte TYPE_STATE = 5;
+    static final byte TYPE_EDIT = 6;
+    static final byte TYPE_CHECK = 7;
+    static final byte TYPE_END = 8;
+
+    /* Edit kinds */
+    private static final byte EDIT_CELL = 0;
+    private static final byte EDIT_CELLS = 1;
+    private static final byte EDIT_RECT = 2;
+    private static final byte EDIT_LINE = 3;
+    private static final byte EDIT_STAMP = 4;
+
+    @NotNull
+    private final Path mFile;
+    private final int mCheckInterval;
+    @NotNull
+    private final OutputStream mOut;
+    @NotNull
+    private final CRC32 mCrc = new CRC32();
+    @NotNull
+    private final Payload mPayload = new Payload();
+
+    /* Simulation side, with the state lock held */
+    private int mGeneration;
+    private boolean mWrapEnabled;
+    private int mGenerationSteps = -1;
+    private boolean mClosed;
+
+    /* Results */
+    private volatile long mRecordCount;
+    private volatile long mBytes;
+    @Nullable
+    private volatile IOException mLastError;
+
+    /**
+     * Creates a new journal, replacing the file if it exists
+     *
+     * @param checkInterval generations between state hashes
+     * */
+    public ReplayJournal(@NotNull Path file, int checkInterval) throws IOException {
+        if (checkInterval < 1) {
+            throw new IllegalArgumentException("Check interval must be >= 1, given: " + checkInterval);
+        }
+
+        mFile = file;
+        mCheckInterval = checkInterval;
+        mOut = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+
+        final ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+        mOut.write(header.array());
+        mOut.flush();
+        mBytes = 8;
+    }
+
+    public ReplayJournal(@NotNull Path file) throws IOException {
+        this(file, DEF_CHECK_INTERVAL);
+    }
+
+    @NotNull
+    public Path getFile() {
+        return mFile;
+    }
+
+    public int getCheckInterval() {
+        return mCheckInterval;
+    }
+
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * @return bytes written so far
+     * */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    @Nullable
+    public IOException getLastError() {
+        return mLastError;
+    }
+
+
+    /* Simulation side ------------------------------------------------------------ */
+
+    /**
+     * Starts the journal from the current simulation. Called with the state lock held
+     * */
+    void begin(@NotNull AutomataI automata, @NotNull NdArrayF state, int generation, boolean wrapEnabled, int generationSteps) {
+        automataChanged(automata, state.shape(), generation);
+        stateReplaced(state, generation, automata, wrapEnabled, generationSteps);
+    }
+
+    /**
+     * The automata or the state shape changed, the state being cleared
+     * */
+    void automataChanged(@NotNull AutomataI automata, int @NotNull [] shape, int generation) {
+        final Payload p = mPayload.reset();
+        p.putString(automata.toSpec().toString());
+        p.putVarInt(shape.length);
+        for (int dim: shape) {
+            p.putVarInt(dim);
+        }
+
+        mGeneration = generation;
+        write(TYPE_AUTOMATA, p);
+    }
+
+    /**
+     * Records the simulation parameters in effect from the given generation, if they changed
+     * */
+    void params(int generation, boolean wrapEnabled, int generationSteps) {
+        if (wrapEnabled == mWrapEnabled && generationSteps == mGenerationSteps) {
+            return;
+        }
+
+        mWrapEnabled = wrapEnabled;
+        mGenerationSteps = generationSteps;
+        final Payload p = mPayload.reset();
+        p.putVarInt(generation);
+        p.put(wrapEnabled ? 1 : 0);
+        p.putVarInt(generationSteps);
+        write(TYPE_PARAMS, p);
+    }
+
+    /**
+     * @param soup resolved soup of the reset
+     * */
+    void reset(@NotNull Soup soup) {
+        final Payload p = mPayload.reset();
+        p.putLong(soup.seed);
+        p.putFloat(soup.density);
+        p.put(soup.symmetry.ordinal());
+        p.putFloat(soup.regionFraction);
+        mGeneration = 0;
+        write(TYPE_RESET, p);
+    }
+
+    void cleared() {
+        mGeneration = 0;
+        write(TYPE_CLEAR, mPayload.reset());
+    }
+
+    /**
+     * The state was replaced by one that cannot be re-derived: stores it whole
+     * */
+    void stateReplaced(@NotNull NdArrayF state, int generation, @NotNull AutomataI automata, boolean wrapEnabled, int generationSteps) {
+        if (mClosed || mLastError != null) {
+            return;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            final GridSnapshot.Header header = new GridSnapshot.Header(System.currentTimeMillis(), generation, generationSteps, wrapEnabled, automata.toSpec(), state.shape());
+            GridSnapshot.write(Channels.newChannel(bytes), header, state);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+
+        mWrapEnabled = wrapEnabled;
+        mGenerationSteps = generationSteps;
+        mGeneration = generation;
+        final Payload p = mPayload.reset();
+        p.putBytes(bytes.toByteArray());
+        write(TYPE_STATE, p);
+    }
+
+    /**
+     * An edit is applied at the given generation
+     * */
+    void edit(int generation, @NotNull CellEdit edit) {
+        final Payload p = mPayload.reset();
+        p.putVarInt(generation);
+        encodeEdit(edit, p);
+        mGeneration = generation;
+        write(TYPE_EDIT, p);
+    }
+
+    /**
+     * A generation was computed
+     * */
+    void generation(int generation, @NotNull NdArrayFloatI state) {
+        mGeneration = generation;
+        if (generation % mCheckInterval == 0) {
+            check(generation, state);
+        }
+    }
+
+    private void check(int generation, @NotNull NdArrayFloatI state) {
+        final Payload p = mPayload.reset();
+        p.putVarInt(generation);
+        p.putLong(stateHash(state));
+        write(TYPE_CHECK, p);
+    }
+
+    private void write(byte type, @NotNull Payload p) {
+        if (mClosed || mLastError != null) {
+            return;
+        }
+
+        try {
+            final byte[] frame = new byte[1 + 5];
+            frame[0] = type;
+            final int lengthBytes = putVarInt(frame, 1, p.size());
+
+            mCrc.reset();
+            mCrc.update(type);
+            mCrc.update(p.array(), 0, p.size());
+            final int crc = (int) mCrc.getValue();
+
+            mOut.write(frame, 0, 1 + lengthBytes);
+            mOut.write(p.array(), 0, p.size());
+            mOut.write(new byte[]{(byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8), (byte) crc});
+            if (type != TYPE_CHECK) {
+                mOut.flush();       // keep the journal usable after a crash
+            }
+
+            mRecordCount++;
+            mBytes += 1 + lengthBytes + p.size() + 4;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(@NotNull IOException e) {
+        mLastError = e;
+        Log.e(TAG, "Failed to write " + mFile, e);
+    }
+
+    /**
+     * Stops journaling: records the last generation reached and closes the file.
+     * Detach the journal from the simulator first
+     * */
+    public void close(@NotNull NdArrayFloatI finalState) throws IOException {
+        if (mClosed) {
+            return;
+        }
+
+        check(mGeneration, finalState);
+        final Payload p = mPayload.reset();
+        p.putVarInt(mGeneration);
+        write(TYPE_END, p);
+
+        mClosed = true;
+        mOut.close();
+        final IOException error = mLastError;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+
+    /* Edits ------------------------------------------------------------ */
+
+    private static void encodeEdit(@NotNull CellEdit edit, @NotNull Payload p) {
+        if (edit instanceof CellEdit.Cell e) {
+            p.put(EDIT_CELL);
+            p.put(e.op().ordinal());
+            p.putFloat(e.value());
+            putIndices(p, e.cellIndices());
+        } else if (edit instanceof CellEdit.Cells e) {
+            p.put(EDIT_CELLS);
+            p.put(e.op().ordinal());
+            p.putFloat(e.value());
+            p.putVarInt(e.cells().size());
+            for (int[] cell: e.cells()) {
+                putIndices(p, cell);
+            }
+        } else if (edit instanceof CellEdit.Rect e) {
+            p.put(EDIT_RECT);
+            p.put(e.op().ordinal());
+            p.putFloat(e.value());
+            p.putZigZag(e.rowStart());
+            p.putZigZag(e.colStart());
+            p.putZigZag(e.rowEnd());
+            p.putZigZag(e.colEnd());
+        } else if (edit instanceof CellEdit.Line e) {
+            p.put(EDIT_LINE);
+            p.put(e.op().ordinal());
+            p.putFloat(e.value());
+            p.putZigZag(e.row0());
+            p.putZigZag(e.col0());
+            p.putZigZag(e.row1());
+            p.putZigZag(e.col1());
+        } else if (edit instanceof CellEdit.Stamp e) {
+            p.put(EDIT_STAMP);
+            p.putZigZag(e.rowOffset());
+            p.putZigZag(e.colOffset());
+            p.put(e.overlay() ? 1 : 0);
+
+            // Pattern: shape, then runs of equal values
+            final NdArrayFloatI pattern = e.pattern();
+            putIndices(p, pattern.shape());
+            final int size = pattern.size();
+            int i = 0;
+            while (i < size) {
+                final float v = pattern.getFlat(i);
+                int j = i + 1;
+                while (j < size && Float.floatToRawIntBits(pattern.getFlat(j)) == Float.floatToRawIntBits(v)) {
+                    j++;
+                }
+
+                p.putVarInt(j - i);
+                p.putFloat(v);
+                i = j;
+            }
+        } else {
+            throw new IllegalStateException("Unknown edit: " + edit.getClass().getName());     // unreachable, CellEdit is sealed
+        }
+    }
+
+    private static void putIndices(@NotNull Payload p, int @NotNull [] indices) {
+        p.putVarInt(indices.length);
+        for (int index: indices) {
+            p.putZigZag(index);
+        }
+    }
+
+    @NotNull
+    private static CellEdit decodeEdit(@NotNull Reader r) throws IOException {
+        final byte kind = r.get();
+        if (kind == EDIT_STAMP) {
+            final int rowOffset = r.getZigZag(), colOffset = r.getZigZag();
+            final boolean overlay = r.get() != 0;
+            final int[] shape = getIndices(r);
+            final NdArrayF pattern = new NdArrayF(shape);
+            final int size = pattern.size();
+            int i = 0;
+            while (i < size) {
+                final int run = r.getVarInt();
+                final float v = r.getFloat();
+                if (run < 1 || run > size - i) {
+                    throw new IOException("Invalid stamp run: " + run);
+                }
+
+                for (int k = 0; k < run; k++) {
+                    pattern.setFlat(i++, v);
+                }
+            }
+
+            return new CellEdit.Stamp(pattern, rowOffset, colOffset, overlay);
+        }
+
+        final CellEdit.Op[] ops = CellEdit.Op.values();
+        final int opIndex = r.get();
+        if (opIndex < 0 || opIndex >= ops.length) {
+            throw new IOException("Invalid edit op: " + opIndex);
+        }
+
+        final CellEdit.Op op = ops[opIndex];
+        final float value = r.getFloat();
+        return switch (kind) {
+            case EDIT_CELL -> new CellEdit.Cell(op, getIndices(r), value);
+            case EDIT_CELLS -> {
+                final int count = r.getVarInt();
+                final List<int[]> cells = new ArrayList<>(Math.min(count, 1 << 16));
+                for (int i = 0; i < count; i++) {
+                    cells.add(getIndices(r));
+                }
+
+                yield new CellEdit.Cells(op, cells, value);
+            }
+            case EDIT_RECT -> new CellEdit.Rect(op, r.getZigZag(), r.getZigZag(), r.getZigZag(), r.getZigZag(), value);
+            case EDIT_LINE -> new CellEdit.Line(op, r.getZigZag(), r.getZigZag(), r.getZigZag(), r.getZigZag(), value);
+            default -> throw new IOException("Unknown edit kind: " + kind);
+        };
+    }
+
+    private static int @NotNull [] getIndices(@NotNull Reader r) throws IOException {
+        final int n = r.getVarInt();
+        if (n > 16) {
+            throw new IOException("Too many indices: " + n);
+        }
+
+        final int[] indices = new int[n];
+        for (int i = 0; i < n; i++) {
+            indices[i] = r.getZigZag();
+        }
+
+        return indices;
+    }
+
+
+    /* Replay ------------------------------------------------------------ */
+
+    /**
+     * Result of a {@link #replay}
+     *
+     * @param checks state hashes verified
+     * @param mismatches state hashes that differed, meaning the replay diverged
+     * @param firstMismatchGeneration generation of the first mismatch, or -1
+     * @param truncated whether the journal ended with a partial record (ex. after a crash)
+     * */
+    public record ReplayResult(long records, int generation, int checks, int mismatches, int firstMismatchGeneration, boolean truncated, long elapsedMs) {
+
+        public boolean isExact() {
+            return mismatches == 0;
+        }
+    }
+
+    /**
+     * Re-executes a journal on a simulator, headless and at full speed. The simulation is paused, and the simulator is
+     * left in the replayed state. The journal of the simulator (if any) should be detached first
+     *
+     * @param targetGeneration generation to stop at, with its edits applied, the first time the replay would compute past it.
+     *                         -1 to replay the whole journal
+     * @param c cancellation, checked between records and generations
+     * @throws IOException if the journal cannot be read, or is corrupt before its end
+     * */
+    @NotNull
+    public static ReplayResult replay(@NotNull Path file, @NotNull AutomataSimulator simulator, int targetGeneration, @Nullable CancellationProvider c) throws IOException {
+        final long start = System.nanoTime();
+        simulator.setPlaying(false);
+
+        long records = 0;
+        int checks = 0, mismatches = 0, firstMismatch = -1;
+        boolean truncated = false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a replay journal: " + file);
+            }
+
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported replay journal version " + version);
+            }
+
+            final CRC32 crc = new CRC32();
+            while (c == null || !c.isCancelled()) {
+                final int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+
+                final byte[] payload;
+                try {
+                    final int length = readVarInt(in);
+                    if (length < 0 || length > MAX_RECORD_BYTES) {
+                        throw new IOException("Invalid record length: " + length);
+                    }
+
+                    payload = in.readNBytes(length);
+                    if (payload.length != length) {
+                        throw new EOFException();
+                    }
+
+                    crc.reset();
+                    crc.update(type);
+                    crc.update(payload);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        throw new IOException("Replay journal record " + records + " is corrupt (CRC mismatch)");
+                    }
+                } catch (EOFException e) {
+                    truncated = true;
+                    break;
+                }
+
+                final Reader r = new Reader(payload);
+                records++;
+
+                switch (type) {
+                    case TYPE_AUTOMATA -> {
+                        final AutomataSpec spec = AutomataSpec.parse(r.getString());
+                        final int[] shape = getIndices(r);
+                        simulator.setAutomata(AutomataRegistry.fromSpec(spec), shape, false);
+                    }
+                    case TYPE_PARAMS -> {
+                        final int gen = r.getVarInt();
+                        if (advance(simulator, gen, targetGeneration, c)) {
+                            return result(records, simulator, checks, mismatches, firstMismatch, false, start);
+                        }
+
+                        simulator.setWrapEnabled(r.get() != 0);
+                        simulator.setGenerationSteps(r.getVarInt());
+                    }
+                    case TYPE_RESET -> {
+                        final long seed = r.getLong();
+                        final float density = r.getFloat();
+                        final Soup.Symmetry[] symmetries = Soup.Symmetry.values();
+                        final int symmetry = r.get();
+                        if (symmetry < 0 || symmetry >= symmetries.length) {
+                            throw new IOException("Invalid soup symmetry: " + symmetry);
+                        }
+
+                        simulator.resetStateSync(new Soup(seed, false, density, symmetries[symmetry], r.getFloat()));
+                    }
+                    case TYPE_CLEAR -> simulator.clearStateSync();
+                    case TYPE_STATE -> {
+                        final GridSnapshot.Header[] header = new GridSnapshot.Header[1];
+                        final NdArrayF state = GridSnapshot.read(Channels.newChannel(new ByteArrayInputStream(r.getBytes())), header);
+                        final GridSnapshot.Header h = header[0];
+                        simulator.restoreCheckpoint(new Checkpoint(h.timestampMs, h.generation, h.generationSteps, h.wrapEnabled, h.automataSpec, state));
+                    }
+                    case TYPE_EDIT -> {
+                        final int gen = r.getVarInt();
+                        if (advance(simulator, gen, targetGeneration, c)) {
+                            return result(records, simulator, checks, mismatches, firstMismatch, false, start);
+                        }
+
+                        simulator.submitEdit(decodeEdit(r));
+                        simulator.applyPendingEditsSync();
+                    }
+                    case TYPE_CHECK -> {
+                        final int gen = r.getVarInt();
+                        final long hash = r.getLong();
+                        if (advance(simulator, gen, targetGeneration, c)) {
+                            return result(records, simulator, checks, mismatches, firstMismatch, false, start);
+                        }
+
+                        if (simulator.getGeneration() == gen) {
+                            checks++;
+                            if (simulator.stateHash() != hash) {
+                                mismatches++;
+                                if (firstMismatch < 0) {
+                                    firstMismatch = gen;
+                                }
+                            }
+                        }
+                    }
+                    case TYPE_END -> {
+                        if (advance(simulator, r.getVarInt(), targetGeneration, c)) {
+                            return result(records, simulator, checks, mismatches, firstMismatch, false, start);
+                        }
+                    }
+                    default -> throw new IOException("Unknown replay journal record type: " + type);
+                }
+            }
+        }
+
+        return result(records, simulator, checks, mismatches, firstMismatch, truncated, start);
+    }
+
+    /**
+     * Advances to the given generation, or only to the target generation if it comes before
+     *
+     * @return whether the replay stopped at the target generation
+     * */
+    private static boolean advance(@NotNull AutomataSimulator simulator, int generation, int targetGeneration, @Nullable CancellationProvider c) {
+        final int current = simulator.getGeneration();
+        if (targetGeneration >= 0 && current <= targetGeneration && targetGeneration < generation) {
+            simulator.advanceTo(targetGeneration, c, null);
+            return simulator.getGeneration() == targetGeneration;
+        }
+
+        simulator.advanceTo(generation, c, null);
+        return false;
+    }
+
+    @NotNull
+    private static ReplayResult result(long records, @NotNull AutomataSimulator simulator, int checks, int mismatches, int firstMismatch, boolean truncated, long startNs) {
+        return new ReplayResult(records, simulator.getGeneration(), checks, mismatches, firstMismatch, truncated, (System.nanoTime() - startNs) / 1_000_000);
+    }
+
+    /**
+     * @return 64-bit hash of the shape and the exact cell values
+     * */
+    public static long stateHash(@NotNull NdArrayFloatI state) {
+        long h = 0x9E3779B97F4A7C15L ^ Arrays.hashCode(state.shape());
+        for (int i = 0, n = state.size(); i < n; i++) {
+            h ^= Float.floatToRawIntBits(state.getFlat(i)) & 0xFFFFFFFFL;
+            h *= 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 31;
+        }
+
+        return h;
+    }
+
+
+    /* Encoding ------------------------------------------------------------ */
+
+    /**
+     * Growable record payload
+     * */
+    private static final class Payload {
+
+        private byte @NotNull [] mBuf = new byte[256];
+        private int mSize;
+
+        @NotNull
+        Payload reset() {
+            mSize = 0;
+            return this;
+        }
+
+        byte @NotNull [] array() {
+            return mBuf;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        private void ensure(int n) {
+            if (mSize + n > mBuf.length) {
+                mBuf = Arrays.copyOf(mBuf, Math.max(mBuf.length * 2, mSize + n));
+            }
+        }
+
+        void put(int b) {
+            ensure(1);
+            mBuf[mSize++] = (byte) b;
+        }
+
+        void putVarInt(int value) {
+            ensure(5);
+            mSize += ReplayJournal.putVarInt(mBuf, mSize, value);
+        }
+
+        void putZigZag(int value) {
+            putVarInt((value << 1) ^ (value >> 31));
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            mBuf[mSize++] = (byte) (value >>> 24);
+            mBuf[mSize++] = (byte) (value >>> 16);
+            mBuf[mSize++] = (byte) (value >>> 8);
+            mBuf[mSize++] = (byte) value;
+        }
+
+        void putLong(long value) {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+
+        void putFloat(float value) {
+            putInt(Float.floatToRawIntBits(value));
+        }
+
+        void putBytes(byte @NotNull [] bytes) {
+            putVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mBuf, mSize, bytes.length);
+            mSize += bytes.length;
+        }
+
+        void putString(@NotNull String s) {
+            putBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Reads a record payload
+     * */
+    private static final class Reader {
+
+        @NotNull
+        private final ByteBuffer mBuf;
+
+        Reader(byte @NotNull [] payload) {
+            mBuf = ByteBuffer.wrap(payload);
+        }
+
+        byte get() throws IOException {
+            check(1);
+            return mBuf.get();
+        }
+
+        int getVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                final byte b = get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Malformed varint");
+        }
+
+        int getZigZag() throws IOException {
+            final int v = getVarInt();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        long getLong() throws IOException {
+            check(8);
+            return mBuf.getLong();
+        }
+
+        float getFloat() throws IOException {
+            check(4);
+            return mBuf.getFloat();
+        }
+
+        byte @NotNull [] getBytes() throws IOException {
+            final int length = getVarInt();
+            if (length < 0) {
+                throw new IOException("Invalid length: " + length);
+            }
+
+            check(length);
+            final byte[] bytes = new byte[length];
+            mBuf.get(bytes);
+            return bytes;
+        }
+
+        @NotNull
+        String getString() throws IOException {
+            return new String(getBytes(), StandardCharsets.UTF_8);
+        }
+
+        private void check(int n) throws IOException {
+            if (mBuf.remaining() < n) {
+                throw new IOException("Replay journal record too short");
+            }
+        }
+    }
+
+    /**
+     * @return number of bytes written
+     * */
+    private static int putVarInt(byte @NotNull [] out, int offset, int value) {
+        int i = offset;
+        while ((value & ~0x7F) != 0) {
+            out[i++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out[i++] = (byte) value;
+        return i - offset;
+    }
+
+    private static int readVarInt(@NotNull InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayJournal{" +
+                "file=" + mFile +
+                ", records=" + mRecordCount +
+                ", bytes=" + mBytes +
+                '}';
+    }
+}
@@ -0,0 +1,395 @@
+package core.simulator;
+
+import core.definition.NdArrayF;
+import core.definition.StateStats;
+import core.definition.automata.AutomataI;
+import core.definition.automata.AutomataSpec;
+import core.io.RunRecording;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import util.misc.Log;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records every generation of a simulation to a {@link RunRecording} file, on a background I/O thread
+ * <br><br>
+ * The simulation thread diffs each recorded state against the previously recorded one and queues the changed cells
+ * (or a copy of the state for keyframes) in a pooled buffer. Only the tiles the simulation reports as changed since
+ * the previous frame are compared (dirty tiles collected by the compute kernels, see {@link #markDirty(StateStats)}). The I/O thread encodes, compresses and writes them.
+ * The queue is bounded: when the disk cannot keep up, the simulation waits for a free buffer (the time is reported
+ * by {@link #getBlockedNs()}), so that no frame is ever dropped.
+ * <br><br>
+ * A keyframe is written every {@link #getKeyframeInterval()} frames, when a delta would be larger than a keyframe,
+ * and on timeline discontinuities (reset, seek, automata or shape change)
+ * */
+public final class RunRecorder {
+
+    public static final String TAG = "RunRecorder";
+
+    public static final int DEF_KEYFRAME_INTERVAL = 256;
+    public static final int DEF_QUEUE_CAPACITY = 32;
+
+    /**
+     * A queued frame. Pooled: buffers are reused across frames
+     * */
+    private static final class Frame {
+
+        byte type;
+        int generation;
+        @Nullable
+        AutomataSpec spec;
+
+        /* Keyframe */
+        @Nullable
+        NdArrayF state;
+
+        /* Delta */
+        int @NotNull [] indices = new int[1024];
+        float @NotNull [] values = new float[1024];
+        int count;
+
+        void add(int index, float value) {
+            if (count == indices.length) {
+                indices = Arrays.copyOf(indices, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+
+            indices[count] = index;
+            values[count++] = value;
+        }
+    }
+
+    /**
+     * Frame queued to stop the I/O thread
+     * */
+    private static final Frame END = new Frame();
+
+    @NotNull
+    private final Path mFile;
+    private final int mKeyframeInterval;
+    @NotNull
+    private final RunRecording.Writer mWriter;
+
+    @NotNull
+    private final BlockingQueue<Frame> mQueue;
+    @NotNull
+    private final BlockingQueue<Frame> mFreeFrames;
+    @NotNull
+    private final Thread mThread;
+
+    /* Simulation side, with the state lock held */
+    @Nullable
+    private NdArrayF mReference;
+    @NotNull
+    private final DirtyTiles mChanges = new DirtyTiles();
+    @Nullable
+    private AutomataI mLastAutomata;
+    private int mLastGeneration = -1;
+    private int mFramesSinceKeyframe;
+    private boolean mClosed;
+
+    /* Results */
+    private volatile long mFrameCount;
+    private volatile long mKeyframeCount;
+    private volatile long mBlockedNs;
+    @Nullable
+    private volatile IOException mLastError;
+
+    public RunRecorder(@NotNull Path file, int keyframeInterval, int queueCapacity) throws IOException {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be >= 1, given: " + keyframeInterval);
+        }
+
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be >= 1, given: " + queueCapacity);
+        }
+
+        mFile = file;
+        mKeyframeInterval = keyframeInterval;
+        mWriter = new RunRecording.Writer(file, keyframeInterval);
+        mQueue = new ArrayBlockingQueue<>(queueCapacity + 1);
+        mFreeFrames = new ArrayBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < queueCapacity; i++) {
+            mFreeFrames.add(new Frame());
+        }
+
+        mThread = new Thread(this::writeLoop, "AutomataSimulator-RunRecorder");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public RunRecorder(@NotNull Path file) throws IOException {
+        this(file, DEF_KEYFRAME_INTERVAL, DEF_QUEUE_CAPACITY);
+    }
+
+    @NotNull
+    public Path getFile() {
+        return mFile;
+    }
+
+    public int getKeyframeInterval() {
+        return mKeyframeInterval;
+    }
+
+    /**
+     * @return frames recorded so far, including the queued ones
+     * */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getKeyframeCount() {
+        return mKeyframeCount;
+    }
+
+    /**
+     * @return total time the simulation waited for the I/O thread, in nanoseconds
+     * */
+    public long getBlockedNs() {
+        return mBlockedNs;
+    }
+
+    public int getQueuedFrames() {
+        return mQueue.size();
+    }
+
+    @Nullable
+    public IOException getLastError() {
+        return mLastError;
+    }
+
+
+    /* Simulation side ------------------------------------------------------------ */
+
+    /**
+     * Reports the cells changed by a computation since the last frame, as the dirty tiles of its stats.
+     * Must be called by the simulation thread, with the state lock held
+     * */
+    void markDirty(@NotNull StateStats stats) {
+        mChanges.mark(stats);
+    }
+
+    /**
+     * Reports changed cells in rows [rowStart, rowEnd) and columns [colStart, colEnd) since the last frame.
+     * Must be called by the simulation thread, with the state lock held
+     * */
+    void markDirtyRegion(int rowStart, int colStart, int rowEnd, int colEnd) {
+        mChanges.markRegion(rowStart, colStart, rowEnd, colEnd);
+    }
+
+    /**
+     * Reports that any cell may have changed since the last frame. Must be called by the simulation thread, with the state lock held
+     * */
+    void markAllDirty() {
+        mChanges.markAll();
+    }
+
+    /**
+     * Records the state as the next frame. Must be called by the simulation thread, with the state lock held
+     * */
+    void record(@NotNull NdArrayF state, int generation, @NotNull AutomataI automata) {
+        if (mClosed) {
+            return;
+        }
+
+        final NdArrayF reference = mReference;
+        final boolean restart = reference == null
+                || !reference.isSameShape(state)
+                || automata != mLastAutomata
+                || (generation != mLastGeneration && generation != mLastGeneration + 1);
+
+        final Frame frame = acquireFrame();
+        if (frame == null) {
+            mReference = null;      // Interrupted: the frame is lost, restart the timeline at the next one
+            mChanges.markAll();
+            return;
+        }
+
+        frame.generation = generation;
+        frame.count = 0;
+
+        boolean keyframe = restart || mFramesSinceKeyframe + 1 >= mKeyframeInterval;
+        if (!keyframe) {
+            keyframe = !collectDelta(state, reference, frame);
+        }
+
+        if (keyframe) {
+            frame.type = restart ? RunRecording.TYPE_RESTART : RunRecording.TYPE_KEYFRAME;
+            frame.spec = automata.toSpec();
+            frame.state = copyOf(state, frame.state);
+            mReference = copyOf(state, restart ? null : mReference);
+            mFramesSinceKeyframe = 0;
+            mKeyframeCount++;
+        } else {
+            frame.type = RunRecording.TYPE_DELTA;
+            mFramesSinceKeyframe++;
+        }
+
+        // Start collecting the changes of the next frame
+        if (state.dimensions() == 2) {
+            mChanges.reset(state.shapeAt(0), state.shapeAt(1));
+        } else {
+            mChanges.markAll();
+        }
+
+        mLastAutomata = automata;
+        mLastGeneration = generation;
+        mFrameCount++;
+        mQueue.add(frame);      // never full: at most capacity frames exist
+    }
+
+    /**
+     * Adds the cells that differ from the reference to the frame, and updates the reference. Compares only the dirty tiles
+     * if they are known, in ascending cell order
+     *
+     * @return whether a delta is worth it. If not, the frame and the reference are partial and must be replaced by a keyframe
+     * */
+    private boolean collectDelta(@NotNull NdArrayF state, @NotNull NdArrayF reference, @NotNull Frame frame) {
+        final int size = state.size();
+        final int maxChanges = size / 4;
+
+        final DirtyTiles changes = mChanges;
+        if (changes.isAll() || state.dimensions() != 2 || !changes.isGridOf(state.shapeAt(0), state.shapeAt(1))) {
+            for (int i = 0; i < size; i++) {
+                if (!collectCell(state, reference, frame, i, maxChanges)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        final int rows = state.shapeAt(0), cols = state.shapeAt(1);
+        final int tileCols = changes.tileCols();
+        for (int row = 0; row < rows; row++) {
+            final int tileRow = row / StateStats.TILE_SIZE;
+            for (int tileCol = 0; tileCol < tileCols; tileCol++) {
+                if (!changes.isTileDirty(tileRow, tileCol)) {
+                    continue;
+                }
+
+                final int colStart = tileCol * StateStats.TILE_SIZE;
+                final int rowStartIndex = row * cols;
+                for (int i = rowStartIndex + colStart, end = rowStartIndex + Math.min(colStart + StateStats.TILE_SIZE, cols); i < end; i++) {
+                    if (!collectCell(state, reference, frame, i, maxChanges)) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean collectCell(@NotNull NdArrayF state, @NotNull NdArrayF reference, @NotNull Frame frame, int index, int maxChanges) {
+        final float v = state.getFlat(index);
+        if (v != reference.getFlat(index)) {
+            if (frame.count >= maxChanges) {
+                return false;
+            }
+
+            frame.add(index, v);
+            reference.setFlat(index, v);
+        }
+
+        return true;
+    }
+
+    @Nullable
+    private Frame acquireFrame() {
+        Frame frame = mFreeFrames.poll();
+        if (frame != null) {
+            return frame;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            frame = mFreeFrames.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        mBlockedNs += System.nanoTime() - start;
+        return frame;
+    }
+
+    @NotNull
+    private static NdArrayF copyOf(@NotNull NdArrayF state, @Nullable NdArrayF dest) {
+        if (dest == null || !dest.isSameShape(state)) {
+            dest = new NdArrayF(state.shape());
+        }
+
+        dest.copyFrom(state);
+        return dest;
+    }
+
+
+    /* I/O side ------------------------------------------------------------------- */
+
+    private void writeLoop() {
+        while (true) {
+            final Frame frame;
+            try {
+                frame = mQueue.take();
+            } catch (InterruptedException e) {
+                continue;       // stopped only by the end frame
+            }
+
+            if (frame == END) {
+                break;
+            }
+
+            try {
+                if (mLastError == null) {
+                    if (frame.type == RunRecording.TYPE_DELTA) {
+                        mWriter.writeDelta(frame.generation, frame.indices, frame.values, frame.count);
+                    } else {
+                        mWriter.writeKeyframe(frame.generation, frame.spec, frame.state, frame.type == RunRecording.TYPE_RESTART);
+                    }
+                }
+            } catch (IOException e) {
+                mLastError = e;
+                Log.e(TAG, "Failed to write frame of generation " + frame.generation, e);
+            } finally {
+                frame.spec = null;
+                mFreeFrames.add(frame);
+            }
+        }
+
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            mLastError = e;
+            Log.e(TAG, "Failed to close recording", e);
+        }
+    }
+
+    /**
+     * Stops recording: waits for the queued frames to be written, then writes the index and closes the file.
+     * Detach the recorder from the simulator first
+     * */
+    public void close() throws InterruptedException {
+        if (!mClosed) {
+            mClosed = true;
+            mQueue.add(END);
+        }
+
+        mThread.join();
+    }
+
+    @Override
+    public String toString() {
+        return "RunRecorder{" +
+                "file=" + mFile +
+                ", frames=" + mFrameCount +
+                ", keyframes=" + mKeyframeCount +
+                ", queued=" + mQueue.size() +
+                ", blockedMs=" + mBlockedNs / 1_000_000 +
+                '}';
+    }
+}
@@ -0,0 +1,134 @@
+package core.simulator;
+
+/**
+ * Pacing statistics of the {@link AutomataSimulator.RunMode#TARGET_RATE} and {@link AutomataSimulator.RunMode#BOUNDED_LEAD} run modes.
+ * Written by the simulation thread, readable from any thread
+ * */
+public final class RunStats {
+
+    /**
+     * Window over which the achieved rate is measured
+     * */
+    public static final long RATE_WINDOW_NS = 1_000_000_000L;
+
+    private volatile float targetRate;
+    private volatile float achievedRate;
+
+    private volatile long skippedGenerations;
+    private volatile long droppedGenerations;
+    private volatile long windowDroppedGenerations;
+    private volatile long leadWaits;
+
+    /* Rate window, simulation thread only */
+    private long mWindowStartNs = -1;
+    private long mWindowGenerations;
+    private long mWindowDropped;
+
+    void reset(float targetRate) {
+        this.targetRate = targetRate;
+        achievedRate = 0;
+        skippedGenerations = 0;
+        droppedGenerations = 0;
+        windowDroppedGenerations = 0;
+        leadWaits = 0;
+        mWindowStartNs = -1;
+        mWindowGenerations = 0;
+        mWindowDropped = 0;
+    }
+
+    void onSkipped(long count) {
+        skippedGenerations += count;
+    }
+
+    void onDropped(long count) {
+        droppedGenerations += count;
+        mWindowDropped += count;
+    }
+
+    void onLeadWait() {
+        leadWaits++;
+    }
+
+    /**
+     * Accounts computed generations
+     *
+     * @return whether a rate window just closed with a shortfall: achieved rate below the target, or generations dropped
+     * */
+    boolean onComputed(long count, long nowNs) {
+        if (mWindowStartNs < 0) {
+            mWindowStartNs = nowNs;
+        }
+
+        mWindowGenerations += count;
+        final long elapsed = nowNs - mWindowStartNs;
+        if (elapsed < RATE_WINDOW_NS) {
+            return false;
+        }
+
+        final float achieved = (float) (mWindowGenerations * 1e9 / elapsed);
+        final long dropped = mWindowDropped;
+        achievedRate = achieved;
+        windowDroppedGenerations = dropped;
+
+        mWindowStartNs = nowNs;
+        mWindowGenerations = 0;
+        mWindowDropped = 0;
+
+        final float target = targetRate;
+        return dropped > 0 || (target > 0 && achieved < target * 0.95f);
+    }
+
+    /**
+     * @return target generations per second, or 0 if the run mode has no target rate
+     * */
+    public float getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * @return generations per second achieved in the last complete rate window
+     * */
+    public float getAchievedRate() {
+        return achievedRate;
+    }
+
+    /**
+     * @return generations computed back to back to catch up, without being published or dispatched (skipped frames)
+     * */
+    public long getSkippedGenerations() {
+        return skippedGenerations;
+    }
+
+    /**
+     * @return generations dropped from the schedule because the simulation fell too far behind
+     * */
+    public long getDroppedGenerations() {
+        return droppedGenerations;
+    }
+
+    /**
+     * @return generations dropped in the last complete rate window
+     * */
+    public long getWindowDroppedGenerations() {
+        return windowDroppedGenerations;
+    }
+
+    /**
+     * @return number of times the simulation waited for the renderer to catch up
+     * */
+    public long getLeadWaits() {
+        return leadWaits;
+    }
+
+    @Override
+    public String toString() {
+        return "RunStats{" +
+                "targetRate=" + targetRate +
+                ", achievedRate=" + achievedRate +
+                ", skippedGenerations=" + skippedGenerations +
+                ", droppedGenerations=" + droppedGenerations +
+                ", windowDroppedGenerations=" + windowDroppedGenerations +
+                ", leadWaits=" + leadWaits +
+                '}';
+    }
+}
@@ -0,0 +1,215 @@
+package core.simulator;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import core.definition.StateStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Bounded pool of speculatively precomputed generations, following the current state while the simulation is paused
+ * <br><br>
+ * A speculation task fills slots one generation at a time ({@link #beginFill} / {@link #endFill}), each from the previous
+ * slot, or from a copy of the current state for the first one. Stepping forward {@link #take takes} the oldest slot,
+ * exchanging its state array with the caller's spare array, so that no state is copied and the pool stays bounded.
+ * <br><br>
+ * Any change that makes the precomputed generations stale (cell edits, reset, rule or parameter changes) must
+ * {@link #invalidate()} the buffer. This bumps its version, so that a fill in progress is discarded.
+ * <br><br>
+ * Thread safe
+ * */
+final class SpeculationBuffer {
+
+    /**
+     * A precomputed generation
+     * */
+    static final class Slot {
+
+        @Nullable
+        private NdArrayF state;
+        @NotNull
+        private final StateStats stats = new StateStats();
+        private int generation;
+
+        @NotNull
+        StateStats stats() {
+            return stats;
+        }
+
+        int generation() {
+            return generation;
+        }
+    }
+
+    /**
+     * A slot being filled: the state to compute it from, and the array to compute it into
+     * */
+    record Fill(@NotNull Slot slot, @NotNull NdArrayF source, @NotNull NdArrayF target, long version) {
+    }
+
+    @NotNull
+    private Slot @NotNull [] mSlots = new Slot[0];
+    private int mHead;
+    private int mCount;
+    private boolean mFilling;
+
+    private volatile long mVersion;
+
+    /**
+     * Copy of the state the first slot is computed from
+     * */
+    @Nullable
+    private NdArrayF mBase;
+
+    SpeculationBuffer(int depth) {
+        setDepth(depth);
+    }
+
+    synchronized int getDepth() {
+        return mSlots.length;
+    }
+
+    /**
+     * Changes the number of slots. Invalidates the buffer
+     * */
+    synchronized void setDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Speculation depth must be >= 1, given: " + depth);
+        }
+
+        invalidate();
+        if (depth != mSlots.length) {
+            mSlots = new Slot[depth];
+            for (int i = 0; i < depth; i++) {
+                mSlots[i] = new Slot();
+            }
+        }
+    }
+
+    /**
+     * @return number of precomputed generations ready to be taken
+     * */
+    synchronized int size() {
+        return mCount;
+    }
+
+    synchronized boolean isFull() {
+        return mCount == mSlots.length;
+    }
+
+    /**
+     * @return whether the buffer was invalidated since the fill began. Does not block
+     * */
+    boolean isStale(@NotNull Fill fill) {
+        return fill.version != mVersion;
+    }
+
+    /**
+     * Drops all precomputed generations, and discards the fill in progress (if any)
+     * */
+    synchronized void invalidate() {
+        mVersion++;
+        mHead = 0;
+        mCount = 0;
+    }
+
+    /**
+     * Invalidates the buffer and releases all state arrays
+     * */
+    synchronized void release() {
+        invalidate();
+        mBase = null;
+        for (Slot s: mSlots) {
+            s.state = null;
+        }
+    }
+
+    /**
+     * Reserves the next free slot. Must be called with the state lock held, since the first slot is computed from
+     * a copy of the current state
+     *
+     * @param state current state
+     * @param generation current generation
+     * @return the slot to fill and its source, or {@code null} if the buffer is full or another fill is in progress
+     * */
+    @Nullable
+    synchronized Fill beginFill(@NotNull NdArrayFloatI state, int generation) {
+        if (mFilling || mCount == mSlots.length) {
+            return null;
+        }
+
+        final NdArrayF source;
+        final int nextGeneration;
+        if (mCount == 0) {
+            mBase = ensureShape(mBase, state.shape());
+            final int size = state.size();
+            for (int i = 0; i < size; i++) {
+                mBase.setFlat(i, state.getFlat(i));
+            }
+
+            source = mBase;
+            nextGeneration = generation + 1;
+        } else {
+            final Slot last = mSlots[(mHead + mCount - 1) % mSlots.length];
+            source = last.state;
+            nextGeneration = last.generation + 1;
+        }
+
+        final Slot slot = mSlots[(mHead + mCount) % mSlots.length];
+        slot.state = ensureShape(slot.state, source.shape());
+        slot.generation = nextGeneration;
+        mFilling = true;
+        return new Fill(slot, source, slot.state, mVersion);
+    }
+
+    /**
+     * Commits or discards a slot reserved by {@link #beginFill}
+     *
+     * @param computed whether the slot was computed completely
+     * @return whether the slot was committed, {@code false} if not computed or the version became stale
+     * */
+    synchronized boolean endFill(@NotNull Fill fill, boolean computed) {
+        mFilling = false;
+        if (!computed || fill.version != mVersion) {
+            return false;
+        }
+
+        mCount++;
+        return true;
+    }
+
+    /**
+     * Takes the precomputed generation following {@code generation}, if available
+     *
+     * @param spare array of the same shape, given to the slot in exchange for its state
+     * @param outStats receives the stats of the precomputed generation
+     * @return state of generation {@code generation + 1}, or {@code null} if not precomputed
+     * */
+    @Nullable
+    synchronized NdArrayF take(int generation, @NotNull NdArrayF spare, @NotNull StateStats outStats) {
+        if (mCount == 0) {
+            return null;
+        }
+
+        final Slot slot = mSlots[mHead];
+        if (slot.generation != generation + 1 || !slot.state.isSameShape(spare)) {
+            return null;
+        }
+
+        final NdArrayF state = slot.state;
+        slot.state = spare;
+        outStats.copyFrom(slot.stats);
+
+        mHead = (mHead + 1) % mSlots.length;
+        mCount--;
+
+        return state;
+    }
+
+    @NotNull
+    private static NdArrayF ensureShape(@Nullable NdArrayF array, int @NotNull [] shape) {
+        return array != null && Arrays.equals(array.shape(), shape) ? array : new NdArrayF(shape);
+    }
+}
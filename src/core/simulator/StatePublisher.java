@@ -0,0 +1,324 @@
+package core.simulator;
+
+import core.definition.NdArrayF;
+import core.definition.NdArrayFloatI;
+import core.definition.StateStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer to publish consistent snapshots of the simulation state to readers (ex. renderer, exporters)
+ * <br><br>
+ * The writer (compute thread) copies the state into its private back buffer and atomically swaps it with the
+ * "ready" buffer. The consumer swaps its front buffer with the ready buffer only if a newer one is available.
+ * Hence, the writer never waits for readers, and readers never see a half written state
+ * <br><br>
+ * NOTE: {@link #acquire()} is single-consumer (ex. the renderer): a second caller would hand the first one's front
+ * buffer back to the writer. A {@link Snapshot} it returns stays unchanged only until the next {@link #acquire()}.
+ * Other readers (ex. exporters) must use {@link #copyLatest()}, which copies the latest publication without swapping
+ * <br><br>
+ * 2D snapshots also carry the {@link #TILE_SIZE} x {@link #TILE_SIZE} cell tiles that changed since an earlier
+ * publication, so that renderers can repaint only those. The writer reports the changes made between publications
+ * with {@link #markDirty(StateStats)} (dirty tiles collected by the compute kernels), {@link #markDirtyRegion} and
+ * {@link #markAllDirty()}; no pass over the state is needed. The changes of publications no reader acquired are accumulated
+ * */
+public class StatePublisher {
+
+    /**
+     * Side of the square cell tiles of the dirty tile masks
+     * */
+    public static final int TILE_SIZE = StateStats.TILE_SIZE;
+    private static final int TILE_SHIFT = Integer.numberOfTrailingZeros(TILE_SIZE);
+
+    /**
+     * An immutable published state, stamped with its generation
+     * */
+    public static final class Snapshot {
+
+        @Nullable
+        private NdArrayF state;
+        private int generation;
+        private long sequence;
+
+        /* Dirty tiles, row major bit set */
+        private long @NotNull [] dirtyTiles = new long[0];
+        private int tileRows, tileCols;
+        private int dirtyTileCount;
+        private long dirtyBaseSequence = -1;
+
+        /**
+         * Odd while the writer writes this slot. Lets {@link #copyLatest()} detect that a slot it copies is overwritten
+         * */
+        private volatile int version;
+
+        private Snapshot() {
+        }
+
+        /**
+         * @return read-only view of the published state
+         * */
+        @NotNull
+        public NdArrayFloatI state() {
+            return state;
+        }
+
+        public int generation() {
+            return generation;
+        }
+
+        /**
+         * @return sequence number of the publication, increasing with every publish
+         * */
+        public long sequence() {
+            return sequence;
+        }
+
+        /**
+         * @return sequence of the publication the {@link #isTileDirty dirty tiles} are relative to: tiles that are not
+         *          dirty are unchanged since it. -1 if unknown (first publication, shape change, not 2D), meaning that
+         *          every cell must be considered changed
+         * */
+        public long dirtyBaseSequence() {
+            return dirtyBaseSequence;
+        }
+
+        public int tileRows() {
+            return tileRows;
+        }
+
+        public int tileCols() {
+            return tileCols;
+        }
+
+        /**
+         * @return whether any cell of the tile changed since the {@link #dirtyBaseSequence()} publication. Always
+         *          {@code true} if it is unknown
+         * */
+        public boolean isTileDirty(int tileRow, int tileCol) {
+            if (dirtyBaseSequence < 0) {
+                return true;
+            }
+
+            final int bit = tileRow * tileCols + tileCol;
+            return (dirtyTiles[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        public int dirtyTileCount() {
+            return dirtyBaseSequence < 0 ? tileRows * tileCols : dirtyTileCount;
+        }
+
+        private void resetTiles(int rows, int cols) {
+            tileRows = (rows + TILE_SIZE - 1) >> TILE_SHIFT;
+            tileCols = (cols + TILE_SIZE - 1) >> TILE_SHIFT;
+
+            final int words = (tileRows * tileCols + 63) >>> 6;
+            if (dirtyTiles.length != words) {
+                dirtyTiles = new long[words];
+            } else {
+                Arrays.fill(dirtyTiles, 0);
+            }
+
+            dirtyTileCount = 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "generation=" + generation +
+                    ", sequence=" + sequence +
+                    ", dirtyTiles=" + dirtyTileCount() + "/" + (tileRows * tileCols) +
+                    '}';
+        }
+    }
+
+    private static final int INDEX_MASK = 0b011;
+    private static final int FRESH_BIT = 0b100;
+
+    private final Snapshot @NotNull [] mSlots = { new Snapshot(), new Snapshot(), new Snapshot() };
+
+    /**
+     * Index of the ready slot (bits 0-1) and whether it is fresh i.e. not yet acquired by a reader (bit 2)
+     * */
+    @NotNull
+    private final AtomicInteger mReady = new AtomicInteger(1);
+
+    /**
+     * Slot owned by the writer
+     * */
+    private int mBack = 0;
+
+    /**
+     * Slot owned by the consumer
+     * */
+    private int mFront = 2;
+
+    /**
+     * Slot of the last publication, or -1. Written by the writer: it is ready or front, hence written by nobody
+     * until the writer gets it back as its back slot
+     * */
+    private volatile int mLastPublished = -1;
+
+    /**
+     * Changes since the last publication, reported by the writer
+     * */
+    @NotNull
+    private final DirtyTiles mPending = new DirtyTiles();
+
+    private long mSequence;
+
+    /**
+     * Copies the given state and publishes it. Must be called from a single writer thread at a time.
+     * The changes since the previous publication must have been reported (see {@link #markDirty(StateStats)})
+     * */
+    public void publish(@NotNull NdArrayF state, int generation) {
+        final Snapshot back = mSlots[mBack];
+        back.version++;     // odd: being written
+        VarHandle.storeStoreFence();
+
+        NdArrayF copy = back.state;
+        if (copy == null || !copy.isSameShape(state)) {
+            copy = new NdArrayF(state.shape());
+            back.state = copy;
+        }
+
+        final boolean is2D = state.dimensions() == 2;
+        back.resetTiles(is2D ? state.shapeAt(0) : 0, is2D ? state.shapeAt(1) : 0);
+
+        // Dirty tiles: the changes reported since the last publication
+        final Snapshot last = mLastPublished >= 0 ? mSlots[mLastPublished] : null;
+        final boolean known = is2D && !mPending.isAll() && last != null && last.state != null && last.state.isSameShape(state)
+                && mPending.tileRows() == back.tileRows && mPending.tileCols() == back.tileCols;
+        if (known) {
+            final long[] pending = mPending.words();
+            int count = 0;
+            for (int i = 0; i < back.dirtyTiles.length; i++) {
+                back.dirtyTiles[i] = pending[i];
+                count += Long.bitCount(pending[i]);
+            }
+
+            back.dirtyTileCount = count;
+        }
+
+        // Start collecting the changes of the next publication
+        if (is2D) {
+            mPending.reset(state.shapeAt(0), state.shapeAt(1));
+        } else {
+            mPending.markAll();
+        }
+
+        copy.copyFrom(state);
+        back.generation = generation;
+        back.sequence = ++mSequence;
+
+        // Base of the dirty tiles, checked right before the swap to keep the race with readers short
+        if (!known) {
+            back.dirtyBaseSequence = -1;
+        } else if ((mReady.get() & FRESH_BIT) == 0) {
+            back.dirtyBaseSequence = last.sequence;
+        } else if (last.dirtyBaseSequence >= 0) {
+            // Last publication was not acquired: readers are still at its base, carry its changes.
+            // If it gets acquired right now, its readers only see a base mismatch
+            int count = 0;
+            for (int i = 0; i < back.dirtyTiles.length; i++) {
+                back.dirtyTiles[i] |= last.dirtyTiles[i];
+                count += Long.bitCount(back.dirtyTiles[i]);
+            }
+
+            back.dirtyTileCount = count;
+            back.dirtyBaseSequence = last.dirtyBaseSequence;
+        } else {
+            back.dirtyBaseSequence = -1;
+        }
+
+        back.version++;     // even: complete
+        final int prev = mReady.getAndSet(mBack | FRESH_BIT);
+        mLastPublished = mBack;
+        mBack = prev & INDEX_MASK;
+    }
+
+    /* Changes ---- */
+
+    /**
+     * Reports the cells changed by a computation, as the dirty tiles of its stats. Must be called by the writer
+     * */
+    public void markDirty(@NotNull StateStats stats) {
+        mPending.mark(stats);
+    }
+
+    /**
+     * Reports changed cells in rows [rowStart, rowEnd) and columns [colStart, colEnd). Must be called by the writer
+     * */
+    public void markDirtyRegion(int rowStart, int colStart, int rowEnd, int colEnd) {
+        mPending.markRegion(rowStart, colStart, rowEnd, colEnd);
+    }
+
+    /**
+     * Reports that any cell may have changed (ex. the state was replaced). Must be called by the writer
+     * */
+    public void markAllDirty() {
+        mPending.markAll();
+    }
+
+    /**
+     * @return whether a snapshot newer than the last acquired one is available
+     * */
+    public boolean hasFresh() {
+        return (mReady.get() & FRESH_BIT) != 0;
+    }
+
+    /**
+     * Acquires the latest published snapshot. Never blocks the writer.
+     * Must be called by a single consumer thread, other readers must use {@link #copyLatest()}
+     *
+     * @return latest snapshot, or {@code null} if nothing is published yet.
+     *          It stays unchanged until the next call to this method
+     * */
+    @Nullable
+    public Snapshot acquire() {
+        if ((mReady.get() & FRESH_BIT) != 0) {
+            final int prev = mReady.getAndSet(mFront);
+            mFront = prev & INDEX_MASK;
+        }
+
+        final Snapshot front = mSlots[mFront];
+        return front.state != null ? front : null;
+    }
+
+    /**
+     * Copies the latest published state without acquiring it, so that the consumer of {@link #acquire()} is unaffected.
+     * Can be called from any thread. Never blocks the writer: retries if the writer reuses the slot while copying
+     *
+     * @return copy of the latest published state, or {@code null} if nothing is published yet
+     * */
+    @Nullable
+    public NdArrayF copyLatest() {
+        NdArrayF copy = null;
+        while (true) {
+            final int index = mLastPublished;
+            if (index < 0) {
+                return null;
+            }
+
+            final Snapshot snapshot = mSlots[index];
+            final int version = snapshot.version;
+            final NdArrayF state = snapshot.state;
+            if ((version & 1) == 0 && state != null) {
+                if (copy == null || !copy.isSameShape(state)) {
+                    copy = new NdArrayF(state.shape());
+                }
+
+                copy.copyFrom(state);
+                VarHandle.loadLoadFence();
+                if (snapshot.version == version) {
+                    return copy;
+                }
+            }
+
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package core.simulator;
+
+import core.definition.StateStats;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Fixed capacity ring buffer of per-generation statistics, backed by primitive arrays (for charting)
+ * <br>
+ * Oldest entries are overwritten once the capacity is reached
+ * */
+public class StatsHistory {
+
+    public static final int DEF_CAPACITY = 1024;
+
+    private int[] generations;
+    private long[] populations;
+    private long[] changedCounts;
+
+    /**
+     * Index where the next entry will be written
+     * */
+    private int head;
+    private int count;
+
+    public StatsHistory(int capacity) {
+        allocate(capacity);
+    }
+
+    public StatsHistory() {
+        this(DEF_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be > 0, given: " + capacity);
+        }
+
+        generations = new int[capacity];
+        populations = new long[capacity];
+        changedCounts = new long[capacity];
+        head = 0;
+        count = 0;
+    }
+
+    public synchronized int capacity() {
+        return generations.length;
+    }
+
+    /**
+     * Changes the capacity. Clears all entries
+     * */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity != generations.length) {
+            allocate(capacity);
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    public synchronized void add(int generation, @NotNull StateStats stats) {
+        generations[head] = generation;
+        populations[head] = stats.population();
+        changedCounts[head] = stats.changedCount();
+
+        head = (head + 1) % generations.length;
+        if (count < generations.length) {
+            count++;
+        }
+    }
+
+    /**
+     * Removes the newest entries with generation greater than or equal to the given generation, ex. when seeking back in time
+     * */
+    public synchronized void truncateFrom(int generation) {
+        while (count > 0) {
+            final int last = (head - 1 + generations.length) % generations.length;
+            if (generations[last] < generation) {
+                break;
+            }
+
+            head = last;
+            count--;
+        }
+    }
+
+    private int indexOf(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + count);
+        }
+
+        return (head - count + i + generations.length) % generations.length;
+    }
+
+    /**
+     * @param i index in range [0, size), 0 being the oldest entry
+     * */
+    public synchronized int generationAt(int i) {
+        return generations[indexOf(i)];
+    }
+
+    public synchronized long populationAt(int i) {
+        return populations[indexOf(i)];
+    }
+
+    public synchronized long changedCountAt(int i) {
+        return changedCounts[indexOf(i)];
+    }
+
+    /**
+     * Copies the populations, oldest first, into the given array
+     *
+     * @return number of entries copied
+     * */
+    public synchronized int copyPopulations(long @NotNull [] dest) {
+        final int n = Math.min(dest.length, count);
+        for (int i = 0; i < n; i++) {
+            dest[i] = populations[indexOf(count - n + i)];
+        }
+
+        return n;
+    }
+
+    /**
+     * Copies the changed cell counts, oldest first, into the given array
+     *
+     * @return number of entries copied
+     * */
+    public synchronized int copyChangedCounts(long @NotNull [] dest) {
+        final int n = Math.min(dest.length, count);
+        for (int i = 0; i < n; i++) {
+            dest[i] = changedCounts[indexOf(count - n + i)];
+        }
+
+        return n;
+    }
+}
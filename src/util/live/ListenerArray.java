@@ -0,0 +1,144 @@
+package util.live;
+
+import org.jetbrains.annotations.NotNull;
+import util.async.BiConsumer;
+import util.async.Consumer;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Copy-on-write, array backed registry of listeners
+ * <br><br>
+ * Mutations copy the backing array under a lock, while dispatch iterates the current array snapshot
+ * without any lock or allocation. Suitable for hot dispatch paths with rare (un)registrations
+ * */
+public final class ListenerArray<T> {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * Current snapshot. Never mutated once published
+     * */
+    private volatile Object @NotNull [] mArray = EMPTY;
+
+    @NotNull
+    private final Object mWriteLock = new Object();
+
+    public int size() {
+        return mArray.length;
+    }
+
+    public boolean isEmpty() {
+        return mArray.length == 0;
+    }
+
+    /**
+     * @return the current snapshot. Must not be modified. Elements are of type {@code T}
+     * */
+    public Object @NotNull [] snapshot() {
+        return mArray;
+    }
+
+    public void add(@NotNull T listener) {
+        synchronized (mWriteLock) {
+            final Object[] cur = mArray;
+            final Object[] _new = Arrays.copyOf(cur, cur.length + 1);
+            _new[cur.length] = listener;
+            mArray = _new;
+        }
+    }
+
+    /**
+     * Removes the first listener equal to the given one
+     *
+     * @return whether a listener was removed
+     * */
+    public boolean remove(@NotNull Object listener) {
+        synchronized (mWriteLock) {
+            final Object[] cur = mArray;
+            for (int i = 0; i < cur.length; i++) {
+                if (listener.equals(cur[i])) {
+                    mArray = removeAt(cur, i);
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return whether any listener was removed
+     * */
+    public boolean removeIf(@NotNull Predicate<? super T> filter) {
+        synchronized (mWriteLock) {
+            final Object[] cur = mArray;
+            final Object[] kept = new Object[cur.length];
+            int count = 0;
+
+            for (Object o: cur) {
+                if (!filter.test(cast(o))) {
+                    kept[count++] = o;
+                }
+            }
+
+            if (count == cur.length) {
+                return false;
+            }
+
+            mArray = count == 0 ? EMPTY : Arrays.copyOf(kept, count);
+            return true;
+        }
+    }
+
+    public void clear() {
+        synchronized (mWriteLock) {
+            mArray = EMPTY;
+        }
+    }
+
+    public boolean contains(@NotNull Object listener) {
+        for (Object o: mArray) {
+            if (listener.equals(o)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Dispatches to all listeners registered at the time of the call. No lock, no allocation
+     * */
+    public void forEach(@NotNull Consumer<? super T> action) {
+        for (Object o: mArray) {
+            action.consume(cast(o));
+        }
+    }
+
+    /**
+     * Dispatches with an argument, so that the action need not capture it (allowing a constant, non-allocating lambda)
+     * */
+    public <A> void forEach(@NotNull BiConsumer<? super T, ? super A> action, A arg) {
+        for (Object o: mArray) {
+            action.consume(cast(o), arg);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object o) {
+        return (T) o;
+    }
+
+    private static Object @NotNull [] removeAt(Object @NotNull [] array, int index) {
+        if (array.length == 1) {
+            return EMPTY;
+        }
+
+        final Object[] _new = new Object[array.length - 1];
+        System.arraycopy(array, 0, _new, 0, index);
+        System.arraycopy(array, index + 1, _new, index, array.length - index - 1);
+        return _new;
+    }
+}
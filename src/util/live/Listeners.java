@@ -2,17 +2,21 @@ package util.live;
 
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
-import util.misc.CollectionUtil;
+import util.async.BiConsumer;
+import util.async.Consumer;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
+/**
+ * Strongly referenced listeners, backed by a copy-on-write {@link ListenerArray}. Dispatch does not lock or allocate
+ * */
 public class Listeners<T> implements ListenersI<T> {
 
     @NonNls
-    private final List<T> mListeners = Collections.synchronizedList(new LinkedList<>());
+    private final ListenerArray<T> mListeners = new ListenerArray<>();
 
     protected void onActive() {
     }
@@ -73,11 +77,31 @@ public class Listeners<T> implements ListenersI<T> {
 
     @NotNull
     @Override
+    @SuppressWarnings("unchecked")
     public final Collection<T> listenersIterationCopy() {
-        final List<T> ls = mListeners;
-        if (CollectionUtil.isEmpty(ls))
+        final Object[] snapshot = mListeners.snapshot();
+        if (snapshot.length == 0)
             return Collections.emptyList();
 
-        return CollectionUtil.linkedListCopy(ls);
+        return (List<T>) Collections.unmodifiableList(Arrays.asList(snapshot));        // snapshot is never mutated
+    }
+
+    @Override
+    public final void forEachListener(@NotNull Consumer<T> action) {
+        mListeners.forEach(action);
+    }
+
+    /**
+     * Dispatches with an argument, so that the action need not capture it
+     * */
+    public final <A> void forEachListener(@NotNull BiConsumer<? super T, ? super A> action, A arg) {
+        mListeners.forEach(action, arg);
+    }
+
+    /**
+     * @return current listeners snapshot, for allocation free iteration. Must not be modified. Elements are of type {@code T}
+     * */
+    public final Object @NotNull [] listenersSnapshot() {
+        return mListeners.snapshot();
     }
 }
@@ -0,0 +1,79 @@
+package util.live;
+
+import util.async.BiConsumer;
+import util.async.Consumer;
+import util.misc.AllocationMeter;
+
+/**
+ * Measures heap bytes allocated per listener dispatch by {@link Listeners} and {@link WeakListeners}
+ * <br><br>
+ * Run with {@code java util.live.ListenersAllocationBenchmark [dispatches] [listeners]}. Exits with status 1 if any dispatch allocates
+ * */
+public class ListenersAllocationBenchmark {
+
+    private static final class Counter {
+        long value;
+
+        void add(long delta) {
+            value += delta;
+        }
+    }
+
+    private static final Consumer<Counter> INCREMENT = c -> c.add(1);
+    private static final BiConsumer<Counter, Long> ADD = Counter::add;
+
+    private static final int DEF_DISPATCHES = 1_000_000;
+    private static final int DEF_LISTENERS = 8;
+    private static final int WARMUP_DISPATCHES = 200_000;
+
+    private static long bytesPerDispatch(String name, int dispatches, Runnable dispatch) {
+        for (int i = 0; i < WARMUP_DISPATCHES; i++) {
+            dispatch.run();     // let the JIT settle
+        }
+
+        final long bytes = AllocationMeter.measure(() -> {
+            for (int i = 0; i < dispatches; i++) {
+                dispatch.run();
+            }
+        });
+
+        System.out.printf("%-32s %,d bytes in %,d dispatches (%.4f bytes/dispatch)%n", name, bytes, dispatches, (double) bytes / dispatches);
+        return bytes;
+    }
+
+    public static void main(String[] args) {
+        final int dispatches = args.length > 0 ? Integer.parseInt(args[0]) : DEF_DISPATCHES;
+        final int listenerCount = args.length > 1 ? Integer.parseInt(args[1]) : DEF_LISTENERS;
+
+        if (!AllocationMeter.isSupported()) {
+            System.err.println("Thread allocation counters are not supported by this JVM");
+            System.exit(2);
+        }
+
+        final Counter[] counters = new Counter[listenerCount];
+        final Listeners<Counter> strong = new Listeners<>();
+        final WeakListeners<Counter> weak = new WeakListeners<>();
+        for (int i = 0; i < listenerCount; i++) {
+            counters[i] = new Counter();
+            strong.addListener(counters[i]);
+            weak.addListener(counters[i]);      // strongly reachable through counters
+        }
+
+        final Long delta = 2L;      // boxed once
+        long total = 0;
+        total += bytesPerDispatch("Listeners.forEachListener", dispatches, () -> strong.forEachListener(INCREMENT));
+        total += bytesPerDispatch("Listeners.forEachListener(arg)", dispatches, () -> strong.forEachListener(ADD, delta));
+        total += bytesPerDispatch("WeakListeners.forEachListener", dispatches, () -> weak.forEachListener(INCREMENT));
+
+        long sum = 0;
+        for (Counter c: counters) {
+            sum += c.value;
+        }
+
+        System.out.println("Dispatched: " + sum);
+        if (total != 0) {
+            System.err.println("Listener dispatch allocated " + total + " bytes");
+            System.exit(1);
+        }
+    }
+}
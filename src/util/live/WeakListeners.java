@@ -2,16 +2,19 @@ package util.live;
 
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
-import util.misc.CollectionUtil;
+import util.async.Consumer;
 
 import java.lang.ref.WeakReference;
 import java.util.*;
 
-
+/**
+ * Weakly referenced listeners, backed by a copy-on-write {@link ListenerArray}. Dispatch does not lock, and does not allocate
+ * unless some listener has been garbage collected (which triggers a {@link #prune()})
+ * */
 public class WeakListeners<T> implements ListenersI<T> {
 
     @NonNls
-    private final List<WeakReference<T>> mListeners = Collections.synchronizedList(new LinkedList<>());
+    private final ListenerArray<WeakReference<T>> mListeners = new ListenerArray<>();
 
     protected void onActive() {
     }
@@ -82,9 +85,10 @@ public class WeakListeners<T> implements ListenersI<T> {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public final boolean containsListener(@NotNull T listener) {
-        for (WeakReference<T> ref: mListeners) {
-            final T l = ref.get();
+        for (Object o: mListeners.snapshot()) {
+            final T l = ((WeakReference<T>) o).get();
             if (l != null && l.equals(listener))
                 return true;
         }
@@ -95,24 +99,47 @@ public class WeakListeners<T> implements ListenersI<T> {
 
     @NotNull
     @Override
+    @SuppressWarnings("unchecked")
     public final Collection<T> listenersIterationCopy() {
-        if (CollectionUtil.isEmpty(mListeners))
+        final Object[] snapshot = mListeners.snapshot();
+        if (snapshot.length == 0)
             return Collections.emptyList();
 
-        final List<T> list = new LinkedList<>();
-        final Iterator<WeakReference<T>> itr = mListeners.iterator();
+        final List<T> list = new ArrayList<>(snapshot.length);
+        boolean cleared = false;
 
-        while (itr.hasNext()) {
-            final WeakReference<T> ref = itr.next();
-            final T l = ref.get();
+        for (Object o: snapshot) {
+            final T l = ((WeakReference<T>) o).get();
             if (l != null) {
                 list.add(l);
             } else {
-                itr.remove();
+                cleared = true;
             }
         }
 
+        if (cleared) {
+            prune();
+        }
+
         return list;
     }
-}
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public final void forEachListener(@NotNull Consumer<T> action) {
+        boolean cleared = false;
+
+        for (Object o: mListeners.snapshot()) {
+            final T l = ((WeakReference<T>) o).get();
+            if (l != null) {
+                action.consume(l);
+            } else {
+                cleared = true;
+            }
+        }
+
+        if (cleared) {
+            prune();
+        }
+    }
+}
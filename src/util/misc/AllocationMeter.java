@@ -0,0 +1,70 @@
+package util.misc;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures heap bytes allocated by the current thread, using the HotSpot thread allocation counters
+ * <br><br>
+ * Not all JVMs support this. In that case {@link #isSupported()} returns {@code false}, and all measurements return -1
+ * */
+public final class AllocationMeter {
+
+    public static final String TAG = "misc.AllocationMeter";
+
+    private static final com.sun.management.ThreadMXBean sBean;
+
+    static {
+        com.sun.management.ThreadMXBean bean = null;
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean b && b.isThreadAllocatedMemorySupported()) {
+                if (!b.isThreadAllocatedMemoryEnabled()) {
+                    b.setThreadAllocatedMemoryEnabled(true);
+                }
+
+                bean = b;
+            }
+        } catch (Throwable t) {
+            Log.w(TAG, "Thread allocation counters not available", t);
+        }
+
+        sBean = bean;
+    }
+
+    public static boolean isSupported() {
+        return sBean != null;
+    }
+
+    /**
+     * @return total bytes allocated so far by the current thread, or -1 if not supported
+     * */
+    public static long currentThreadAllocatedBytes() {
+        return sBean != null ? sBean.getCurrentThreadAllocatedBytes() : -1;       // does not allocate, unlike the thread id lookup
+    }
+
+    /**
+     * @return total bytes allocated so far by the given thread, or -1 if not supported
+     * */
+    public static long threadAllocatedBytes(long threadId) {
+        return sBean != null ? sBean.getThreadAllocatedBytes(threadId) : -1;
+    }
+
+    /**
+     * Runs the given task on the current thread
+     *
+     * @return bytes allocated by the task, or -1 if not supported
+     * */
+    public static long measure(Runnable task) {
+        if (sBean == null) {
+            task.run();
+            return -1;
+        }
+
+        final long start = currentThreadAllocatedBytes();
+        task.run();
+        return currentThreadAllocatedBytes() - start;
+    }
+
+
+    private AllocationMeter() {
+    }
+}
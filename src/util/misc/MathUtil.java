@@ -61,6 +61,16 @@ public class MathUtil {
         return s1 + (((val - s0) / (e0 - s0)) * (e1  - s1));
     }
 
+    /**
+     * 64-bit finalizer (variant 13 of Stafford's Mix functions, as used by {@link java.util.SplittableRandom})<br>
+     * Turns nearby inputs (ex. seed + index) into statistically independent outputs
+     * */
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
     public static boolean isPowOf2(int v) {
         return v != 0 && (v & (v - 1)) == 0;
     }